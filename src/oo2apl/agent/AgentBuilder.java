@@ -3,9 +3,12 @@ package oo2apl.agent;
 import java.util.ArrayList;
 import java.util.List;
 
+import oo2apl.deliberation.DeliberationStep;
+import oo2apl.deliberation.SchedulingClass;
 import oo2apl.plan.Plan;
 import oo2apl.plan.PlanScheme;
 import oo2apl.plan.PlanSchemeBase;
+import oo2apl.plan.annotation.AnnotatedPlanSchemes;
 import oo2apl.plan.builtin.FunctionalPlanScheme;
 import oo2apl.plan.builtin.FunctionalPlanSchemeInterface;
 /**
@@ -16,7 +19,8 @@ import oo2apl.plan.builtin.FunctionalPlanSchemeInterface;
  * are not exposed to classes outside of the agent package in order to prevent misuse. 
  * 
  * To construct an agent with the builder use the AdminToPlatform interface and its newAgent method. After the agent 
- * is created it will not be affected by any additional changes to the builder.
+ * is created it will not be affected by any additional changes to the builder. Agents that are created from the 
+ * builder while its plan schemes do not change share a single plan scheme base.
  * 
  * @author Bas Testerink
  */
@@ -24,6 +28,18 @@ public class AgentBuilder {
 	private final List<PlanScheme> goalPlanSchemes, internalTriggerPlanSchemes, externalTriggerPlanSchemes, messagePlanSchemes;
 	private final List<Context> contexts;
 	private final List<Plan> initialPlans;
+	/** The deliberation cycle of the agents, or null for the default cycle. */
+	private List<DeliberationStep> deliberationCycle;
+	/** The bound on the inboxes of the agents, or null if they are unbounded. */
+	private MailboxBound mailboxBound;
+	/** The scheduling class of the agents, or null for the default class. */
+	private SchedulingClass schedulingClass;
+	/** The placement key of the agents, or null to place them by their id. */
+	private Object placementKey;
+	/** The number of messages that the agents take per deliberation cycle, or 0 if they take all. */
+	private int messageBudget = 0;
+	/** The plan scheme base that was last built. It is shared by all agents that are created until the plan schemes of the builder change. */
+	private PlanSchemeBase planSchemeBase;
 	
 	public AgentBuilder(){
 		this.goalPlanSchemes = new ArrayList<>();
@@ -36,7 +52,9 @@ public class AgentBuilder {
 	
 	/** Builds the plan scheme base. This is intentionally package-only so that a programmer cannot accidentally mess with the plan scheme base. */
 	final PlanSchemeBase buildPlanSchemeBase(){
-		return new PlanSchemeBase(this.goalPlanSchemes, this.internalTriggerPlanSchemes, this.externalTriggerPlanSchemes, this.messagePlanSchemes);
+		if(this.planSchemeBase == null)
+			this.planSchemeBase = new PlanSchemeBase(this.goalPlanSchemes, this.internalTriggerPlanSchemes, this.externalTriggerPlanSchemes, this.messagePlanSchemes);
+		return this.planSchemeBase;
 	}
 
 	/** Builds the context container. This is intentionally package-only so that a programmer cannot accidentally mess with the container. */
@@ -52,6 +70,31 @@ public class AgentBuilder {
 		return new ArrayList<>(this.initialPlans); // Ensure that no further additions will affect the the agent after creation
 	}
 	
+	/** Returns the deliberation cycle for the agents, or null if they use the default cycle. */
+	final List<DeliberationStep> getDeliberationCycle(){
+		return this.deliberationCycle;
+	}
+	
+	/** Returns the bound on the inboxes of the agents, or null if they are unbounded. */
+	final MailboxBound getMailboxBound(){
+		return this.mailboxBound;
+	}
+	
+	/** Returns the scheduling class of the agents, or null for the default class. */
+	final SchedulingClass getSchedulingClass(){
+		return this.schedulingClass;
+	}
+	
+	/** Returns the placement key of the agents, or null to place them by their id. */
+	final Object getPlacementKey(){
+		return this.placementKey;
+	}
+	
+	/** Returns the number of messages that the agents take per deliberation cycle, or 0 if they take all. */
+	final int getMessageBudget(){
+		return this.messageBudget;
+	}
+	
 	// Getters are made package-only in order to allow one builder to absorb another
 	final List<PlanScheme> getExternalTriggerPlanSchemes(){ return this.externalTriggerPlanSchemes; }
 	final List<PlanScheme> getInternalTriggerPlanSchemes(){ return this.internalTriggerPlanSchemes; }
@@ -61,23 +104,49 @@ public class AgentBuilder {
 	
 	// Filling the builder
 	/** Add a plan scheme that processes external triggers. */
-	public final AgentBuilder addExternalTriggerPlanScheme(final PlanScheme planScheme){ this.externalTriggerPlanSchemes.add(planScheme); return this; }
+	public final AgentBuilder addExternalTriggerPlanScheme(final PlanScheme planScheme){ this.externalTriggerPlanSchemes.add(planScheme); this.planSchemeBase = null; return this; }
 	/** Add a plan scheme that processes internal triggers. */
-	public final AgentBuilder addInternalTriggerPlanScheme(final PlanScheme planScheme){ this.internalTriggerPlanSchemes.add(planScheme); return this; }
+	public final AgentBuilder addInternalTriggerPlanScheme(final PlanScheme planScheme){ this.internalTriggerPlanSchemes.add(planScheme); this.planSchemeBase = null; return this; }
 	/** Add a plan scheme that processes messages. */
-	public final AgentBuilder addMessagePlanScheme(final PlanScheme planScheme){ this.messagePlanSchemes.add(planScheme); return this; }
+	public final AgentBuilder addMessagePlanScheme(final PlanScheme planScheme){ this.messagePlanSchemes.add(planScheme); this.planSchemeBase = null; return this; }
 	/** Add a plan scheme that try to achieve goals. */
-	public final AgentBuilder addGoalPlanScheme(final PlanScheme planScheme){ this.goalPlanSchemes.add(planScheme); return this; }
+	public final AgentBuilder addGoalPlanScheme(final PlanScheme planScheme){ this.goalPlanSchemes.add(planScheme); this.planSchemeBase = null; return this; }
 	/** Add a plan scheme that processes external triggers. */
-	public final AgentBuilder addExternalTriggerPlanScheme(final FunctionalPlanSchemeInterface planScheme){ this.externalTriggerPlanSchemes.add(new FunctionalPlanScheme(planScheme)); return this; }
+	public final AgentBuilder addExternalTriggerPlanScheme(final FunctionalPlanSchemeInterface planScheme){ this.externalTriggerPlanSchemes.add(new FunctionalPlanScheme(planScheme)); this.planSchemeBase = null; return this; }
 	/** Add a plan scheme that processes internal triggers. */
-	public final AgentBuilder addInternalTriggerPlanScheme(final FunctionalPlanSchemeInterface planScheme){ this.internalTriggerPlanSchemes.add(new FunctionalPlanScheme(planScheme)); return this; }
+	public final AgentBuilder addInternalTriggerPlanScheme(final FunctionalPlanSchemeInterface planScheme){ this.internalTriggerPlanSchemes.add(new FunctionalPlanScheme(planScheme)); this.planSchemeBase = null; return this; }
 	/** Add a plan scheme that processes messages. */
-	public final AgentBuilder addMessagePlanScheme(final FunctionalPlanSchemeInterface planScheme){ this.messagePlanSchemes.add(new FunctionalPlanScheme(planScheme)); return this; }
+	public final AgentBuilder addMessagePlanScheme(final FunctionalPlanSchemeInterface planScheme){ this.messagePlanSchemes.add(new FunctionalPlanScheme(planScheme)); this.planSchemeBase = null; return this; }
 	/** Add a plan scheme that try to achieve goals. */
-	public final AgentBuilder addGoalPlanScheme(final FunctionalPlanSchemeInterface planScheme){ this.goalPlanSchemes.add(new FunctionalPlanScheme(planScheme)); return this; }
+	public final AgentBuilder addGoalPlanScheme(final FunctionalPlanSchemeInterface planScheme){ this.goalPlanSchemes.add(new FunctionalPlanScheme(planScheme)); this.planSchemeBase = null; return this; }
+	/** Add the plan schemes that are compiled from the annotated methods of an object. See AnnotatedPlanSchemes. */
+	public final AgentBuilder addPlanSchemes(final Object handlers){ return addPlanSchemes(new AnnotatedPlanSchemes(handlers)); }
+	/** Add compiled annotated plan schemes. Compile them once if many builders use the same handlers. */
+	public final AgentBuilder addPlanSchemes(final AnnotatedPlanSchemes planSchemes){
+		if(planSchemes.getGoalPlanScheme() != null) addGoalPlanScheme(planSchemes.getGoalPlanScheme());
+		if(planSchemes.getExternalTriggerPlanScheme() != null) addExternalTriggerPlanScheme(planSchemes.getExternalTriggerPlanScheme());
+		if(planSchemes.getInternalTriggerPlanScheme() != null) addInternalTriggerPlanScheme(planSchemes.getInternalTriggerPlanScheme());
+		if(planSchemes.getMessagePlanScheme() != null) addMessagePlanScheme(planSchemes.getMessagePlanScheme());
+		return this;
+	}
 	/** Add a context that is used for decision making and plan execution. */
 	public final AgentBuilder addContext(final Context context){ this.contexts.add(context); return this; }
+	/** Set the deliberation cycle of the agents, e.g. <code>FusedDeliberationCycle.getInstance()</code>. The steps 
+	 * must implement <code>execute(DeliberationStepToAgentInterface)</code>, as the cycle is shared by the agents. */
+	public final AgentBuilder setDeliberationCycle(final List<DeliberationStep> deliberationCycle){ this.deliberationCycle = deliberationCycle; return this; }
+	/** Bound the inboxes of the agents, e.g. <code>MailboxBound.reject(1000)</code>. Null makes them unbounded, which is the default. */
+	public final AgentBuilder setMailboxBound(final MailboxBound mailboxBound){ this.mailboxBound = mailboxBound; return this; }
+	/** Set the scheduling class of the agents. It determines their share of the threads when the platform runs on a <code>WeightedFairScheduler</code>. */
+	public final AgentBuilder setSchedulingClass(final SchedulingClass schedulingClass){ this.schedulingClass = schedulingClass; return this; }
+	/** Set the placement key of the agents. On a sharded platform agents with equal keys run on the same shard; give chatty agents the same key. */
+	public final AgentBuilder setPlacementKey(final Object placementKey){ this.placementKey = placementKey; return this; }
+	/** Let the agents take at most the given number of messages per deliberation cycle, those with the highest priority first. 
+	 * The other messages wait for the next cycles. 0 lets them take all their messages, which is the default. */
+	public final AgentBuilder setMessageBudget(final int messageBudget){ 
+		if(messageBudget < 0) throw new IllegalArgumentException("Message budget cannot be negative.");
+		this.messageBudget = messageBudget; 
+		return this; 
+	}
 	/** Add a plan that will be executed in the first deliberation cycle. */
 	public final AgentBuilder addInitialPlan(final Plan plan){ this.initialPlans.add(plan); return this; }
 	 
@@ -92,6 +161,7 @@ public class AgentBuilder {
 		this.goalPlanSchemes.addAll(builder.getGoalPlanSchemes());
 		this.initialPlans.addAll(builder.getInitialPlans());
 		this.contexts.addAll(builder.getContexts());
+		this.planSchemeBase = null;
 		return this;
 	}
 } 
\ No newline at end of file
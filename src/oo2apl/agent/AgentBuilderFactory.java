@@ -3,6 +3,8 @@ package oo2apl.agent;
 import java.util.Collections;
 import java.util.List;
  
+import oo2apl.deliberation.DeliberationStep;
+import oo2apl.deliberation.SchedulingClass;
 import oo2apl.plan.Plan;
 import oo2apl.plan.PlanSchemeBase;
 import oo2apl.plan.PlanSchemeBaseArguments;
@@ -20,6 +22,24 @@ public final class AgentBuilderFactory implements AgentComponentFactory {
 	private ContextContainer contextContainer; // The context container of the next agent instantiation
 	private PlanSchemeBase planSchemeBase; // The plan scheme base of the next agent instantiation
 	private List<Plan> initialPlans; // The initial plans of the next agent
+	private List<DeliberationStep> deliberationCycle; // The deliberation cycle of the next agent, null for the default
+	private MailboxBound mailboxBound; // The inbox bound of the next agent, null if unbounded
+	private SchedulingClass schedulingClass; // The scheduling class of the next agent, null for the default
+	private Object placementKey; // The placement key of the next agent, null to place it by its id
+	private int messageBudget; // The message budget of the next agent, 0 if it takes all its messages
+	private final AgentBuilder builder; // If not null, then each agent gets a new context container made by this builder
+	
+	/** Create a factory that must be loaded with a builder before each production. */
+	public AgentBuilderFactory(){
+		this.builder = null;
+	}
+	
+	/** Create a factory that produces all its agents from the same builder. Each agent gets its own 
+	 * context container, hence the factory can be used for many agents without reloading it. */
+	public AgentBuilderFactory(final AgentBuilder builder){
+		this.builder = builder;
+		setBuilder(builder);
+	}
 	
 	public final AgentType getAgentType() { 
 		return AGENTTYPE;
@@ -27,6 +47,7 @@ public final class AgentBuilderFactory implements AgentComponentFactory {
 
 	/** Returns the context container as provided by the loaded builder. */
 	public final ContextContainer produceContextContainer(final ContextArguments contextArgs) {
+		if(this.builder != null) return this.builder.buildContextContainer();
 		return this.contextContainer;
 	}
 
@@ -40,10 +61,41 @@ public final class AgentBuilderFactory implements AgentComponentFactory {
 		return this.initialPlans == null ? Collections.emptyList() : this.initialPlans;
 	}
 	
+	/** Returns the deliberation cycle of the loaded builder, or the default cycle if it set none. */
+	public final List<DeliberationStep> produceDeliberationCycle(final DeliberationStepToAgentInterface deliberationInterface){
+		if(this.deliberationCycle == null) return AgentComponentFactory.super.produceDeliberationCycle(deliberationInterface);
+		return this.deliberationCycle;
+	}
+	
+	/** Returns the inbox bound of the loaded builder. */
+	public final MailboxBound produceMailboxBound(){
+		return this.mailboxBound;
+	}
+	
+	/** Returns the scheduling class of the loaded builder. */
+	public final SchedulingClass produceSchedulingClass(){
+		return this.schedulingClass;
+	}
+	
+	/** Returns the placement key of the loaded builder. */
+	public final Object producePlacementKey(){
+		return this.placementKey;
+	}
+	
+	/** Returns the message budget of the loaded builder. */
+	public final int produceMessageBudget(){
+		return this.messageBudget;
+	}
+	
 	/** Load a builder so that its components will be returned. */
 	public final void setBuilder(final AgentBuilder builder){
 		this.contextContainer = builder.buildContextContainer();
 		this.planSchemeBase = builder.buildPlanSchemeBase();
 		this.initialPlans = builder.getInitialPlans();
+		this.deliberationCycle = builder.getDeliberationCycle();
+		this.mailboxBound = builder.getMailboxBound();
+		this.schedulingClass = builder.getSchedulingClass();
+		this.placementKey = builder.getPlacementKey();
+		this.messageBudget = builder.getMessageBudget();
 	} 
 }
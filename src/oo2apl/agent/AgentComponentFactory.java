@@ -1,15 +1,11 @@
 package oo2apl.agent;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import oo2apl.defaults.deliberationsteps.ApplyExternalTriggerPlanSchemes;
-import oo2apl.defaults.deliberationsteps.ApplyGoalPlanSchemes;
-import oo2apl.defaults.deliberationsteps.ApplyInternalTriggerPlanSchemes;
-import oo2apl.defaults.deliberationsteps.ApplyMessagePlanSchemes;
-import oo2apl.defaults.deliberationsteps.ExecutePlans;
+import oo2apl.defaults.deliberationsteps.DefaultDeliberationCycle;
 import oo2apl.deliberation.DeliberationStep;
+import oo2apl.deliberation.SchedulingClass;
 import oo2apl.plan.Plan;
 import oo2apl.plan.PlanSchemeBase;
 import oo2apl.plan.PlanSchemeBaseArguments;
@@ -27,23 +23,44 @@ public interface AgentComponentFactory {
 	/** Produce a context container given the provided context arguments. */
 	public ContextContainer produceContextContainer(final ContextArguments contextArgs);
 	
-	/** Produce a plan scheme base given the provided plan scheme base arguments. */
+	/** Produce a plan scheme base given the provided plan scheme base arguments. A plan scheme base is immutable, hence 
+	 * a factory can return the same instance for all agents that have the same plan schemes. */
 	public PlanSchemeBase producePlanSchemeBase(final PlanSchemeBaseArguments planSchemeBaseArgs);
 	
 	/** Produce the deliberation cycle of the agent. The provided interface can be used by deliberation steps to perform their functionalities on the agent. 
 	 * The default implementation is that the 2APL deliberation cycle is used: ApplyGoalPlanSchemes -> ApplyExternalTriggerPlanSchemes -> 
-	 *  ApplyInternalTriggerPlanSchemes -> ApplyMessagePlanSchemes -> ExecutePlans. */
+	 *  ApplyInternalTriggerPlanSchemes -> ApplyMessagePlanSchemes -> ExecutePlans. The default cycle is shared among all agents. If you 
+	 *  override this method, then consider returning a single list for all agents as well, with steps that implement 
+	 *  <code>execute(DeliberationStepToAgentInterface)</code> instead of storing the provided interface. */
 	public default List<DeliberationStep> produceDeliberationCycle(final DeliberationStepToAgentInterface deliberationInterface){
 		// Produces the default 2APL deliberation cycle.
-		List<DeliberationStep> deliberationCycle = new ArrayList<>();
-		deliberationCycle.add(new ApplyGoalPlanSchemes(deliberationInterface));
-		deliberationCycle.add(new ApplyExternalTriggerPlanSchemes(deliberationInterface));
-		deliberationCycle.add(new ApplyInternalTriggerPlanSchemes(deliberationInterface));
-		deliberationCycle.add(new ApplyMessagePlanSchemes(deliberationInterface));
-		deliberationCycle.add(new ExecutePlans(deliberationInterface));
-		return deliberationCycle;
+		return DefaultDeliberationCycle.getInstance();
 	} 
 	
+	/** Produce the bound on the inbox of the agent, or null if its inbox is unbounded, which is the default. 
+	 * See <code>MailboxBound</code>. */
+	public default MailboxBound produceMailboxBound(){
+		return null;
+	}
+	
+	/** Produce the scheduling class of the agent, or null for the default class, which is the default. 
+	 * See <code>SchedulingClass</code>. */
+	public default SchedulingClass produceSchedulingClass(){
+		return null;
+	}
+	
+	/** Produce the placement key of the agent, or null to place it by its id, which is the default. On a sharded 
+	 * platform agents with equal keys run on the same shard, so that their messages need no synchronization. */
+	public default Object producePlacementKey(){
+		return null;
+	}
+	
+	/** Produce the number of messages that the agent takes per deliberation cycle, those with the highest priority 
+	 * first, or 0 if it takes all its messages, which is the default. See <code>PrioritizedTrigger</code>. */
+	public default int produceMessageBudget(){
+		return 0;
+	}
+	
 	/** Produce the initial plans of the agent. These will be executed upon the first deliberation cycle. */
 	public default List<Plan> produceInitialPlans(){
 		return Collections.emptyList();
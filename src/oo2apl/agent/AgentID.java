@@ -1,16 +1,21 @@
 package oo2apl.agent;
 
+import java.io.Serializable;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
  
 
 /**
  * An agent ID is used as an identifier throughout the agent platform for an individual 
- * agent. Hence take care that each agent has a unique id.
+ * agent. Hence take care that each agent has a unique id. IDs are serializable so that agents 
+ * can be restored from a checkpoint with their original identity. IDs of different JVMs can have 
+ * the same serial number, hence the random key is also compared.
  * @author Bas Testerink
  * @author Arie van den Berg
  */
-public final class AgentID { 
+public final class AgentID implements Serializable { 
+	private static final long serialVersionUID = 1L;
+	
 	/** The random generator that generates pseudo unique keys. */
 	private static final Random keyGenerator = new Random();
 	
@@ -38,6 +43,25 @@ public final class AgentID {
 		return new AgentID(key,serial);
 	}
 	
+	/** Upon deserialization make sure that new keys get a higher serial number, so that agents that are restored 
+	 * from a checkpoint cannot clash with agents that are created afterwards. */
+	private Object readResolve(){
+		serialGenerator.accumulateAndGet(this.serial + 1, Math::max);
+		return this;
+	}
+	
+	/** Obtain the serial number of this key. The serial number is unique within the JVM. */
+	public final long getSerial(){ return this.serial; }
+	
+	/** Obtain the random part of this key, which distinguishes keys of different JVMs with the same serial number. */
+	public final int getKey(){ return this.key; }
+	
+	/** Obtain the key with the given parts, e.g. as received from another JVM. Unlike a deserialized key, this does 
+	 * not affect the serial numbers of the keys of this JVM, as the random part distinguishes keys of other JVMs. */
+	public final static AgentID valueOf(final int key, final long serial){
+		return new AgentID(key, serial);
+	}
+	
 	@Override
 	public final String toString(){
 		return "Immutable Key Object #" + this.serial;
@@ -48,7 +72,7 @@ public final class AgentID {
 		if(obj == this) return true;
 		if(!(obj instanceof AgentID)) return false;
 		final AgentID other = (AgentID)obj;
-		return other.serial == this.serial;
+		return other.serial == this.serial && other.key == this.key;
 	}
 	
 	@Override
@@ -1,24 +1,58 @@
 package oo2apl.agent;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 
+import oo2apl.checkpoint.AgentSnapshot;
+import oo2apl.checkpoint.Checkpoint;
 import oo2apl.defaults.messenger.MessageReceiverNotFoundException;
+import oo2apl.deliberation.DeliberationRunnable;
 import oo2apl.deliberation.DeliberationStep;
+import oo2apl.deliberation.DeliberationStepException;
 import oo2apl.deliberation.SelfRescheduler;
+import oo2apl.journal.TriggerJournal;
 import oo2apl.messaging.AgentToMessengerInterface;
+import oo2apl.passivation.PassivationStore;
 import oo2apl.plan.Plan; 
 import oo2apl.plan.PlanExecutionError;
 import oo2apl.plan.PlanScheme;
 import oo2apl.plan.PlanSchemeBase;
 import oo2apl.plan.TriggerInterceptor;
+import oo2apl.plan.builtin.ContextChangedTrigger;
+import oo2apl.plan.builtin.MessageRejectedTrigger;
+import oo2apl.trace.ScheduleTrace;
 /**
  * This class is the main container for a single agent. It contains all the references to its 
  * relevant data s.a. its id, messenger client, context container, plan scheme base, 
  * deliberation cycle, current triggers, current plans, etc.
  * 
+ * Platforms may host millions of agents of which most are idle. Therefore the lists of the agent 
+ * are only allocated when they are first used (an unused list is null), emptied trigger lists 
+ * are handed over to the deliberation cycle instead of being copied, and the interfaces for plans, 
+ * goals and deliberation steps are created upon first use. The inboxes, plans and death listeners 
+ * are guarded by the monitor of this object instead of per-list monitors. The target footprint of 
+ * an idle agent, i.e. one that has no triggers, goals, plans or interceptors and uses a shared plan 
+ * scheme base and deliberation cycle, is at most 500 bytes of heap on a 64-bit JVM with compressed 
+ * oops, including its deliberation runnable, self-rescheduler, interfaces and the entries that the 
+ * platform and messenger keep for it. Of these, this object may take 120 bytes. Per-agent state 
+ * that is added elsewhere, e.g. in the deliberation runnable, counts against the 500 bytes as well. 
+ * Both targets are checked by <code>AgentFootprintTest</code>. The 120 bytes include 16 bytes for
+ * passivation and checkpoints, which cannot be moved out of this object: the time at which the agent
+ * went to sleep decides when it is passivated and is set on every sleep, and the passivation store and
+ * pending checkpoint are read without the monitor at the start of every cycle and upon every context
+ * lookup, so a separate holder would cost an extra object and an extra load there. The pending
+ * checkpoint occupies what was otherwise alignment padding.
+ *
  * @author Bas Testerink
  */
 public final class AgentRuntimeData {
@@ -31,59 +65,64 @@ public final class AgentRuntimeData {
 	/** The context container which contains contexts for decision making and actuation. */
 	private final ContextContainer contextContainer;
 	
-	/** The current goals. */
-	private final List<Goal> goals;
+	/** The current goals, with the version of the contexts when they were last checked. Null if there are none. */
+	private GoalList goals;
 	
-	/** The current internal, external and message triggers. */
+	/** The current internal, external and message triggers. Null if there are none. */
 	private List<Trigger> internalTriggers, externalTriggers, messages;
 	
-	/** The current trigger interceptors. */
+	/** The current trigger interceptors. Null if none were adopted yet. */
 	private List<TriggerInterceptor> internalTriggerInterceptors, externalTriggerInterceptors, messageInterceptors, goalInterceptors;
 	
+	/** The adopted interceptors that have a time-to-live. Checked at the start of each deliberation cycle. Null if none were adopted yet. */
+	private List<Expiry> expiringInterceptors;
+	
+	/** The number of deliberation cycles that the agent has started. */
+	private long cycleCounter = 0;
+	
 	/** The agent's plan scheme base that defines its decision making. */
 	private final PlanSchemeBase planSchemeBase;
 	
-	/** The current plans of the agent. */
-	private final List<Plan> plans;
+	/** The current plans of the agent. Null if there are none. */
+	private List<Plan> plans;
 	
-	/** The deliberation cycle of the agent. */
-	private final List<DeliberationStep> deliberationCycle;
+	/** The deliberation cycle of the agent. Can be shared with other agents. */
+	private List<DeliberationStep> deliberationCycle;
 	
 	/** Whether the agent is forced to stop, is finished, or is sleeping. */
 	private boolean forciblyStop, finished, sleep;
 	
-	/** Interface that exposes the relevant parts of the agent run time data for plans. */
-	private final PlanToAgentInterface planInterface;
+	/** Interface that exposes the relevant parts of the agent run time data for plans. Created upon first use. */
+	private PlanToAgentInterface planInterface;
 	
-	/** Interface that exposes the context container of this agent. Is given to goals for checking whether they are achieved. */
-	private final AgentContextInterface contextInterface;
+	/** Interface that exposes the context container of this agent. Is given to goals for checking whether they are achieved. Created upon first use. */
+	private AgentContextInterface contextInterface;
 	
-	/** Listeners that are notified when this agent dies. */
-	private final List<AgentDeathListener> deathListeners;
+	/** Interface that exposes the agent to the deliberation steps. Created upon first use. */
+	private DeliberationStepToAgentInterface deliberationInterface;
+	
+	/** Listeners that are notified when this agent dies. Null if there are none. */
+	private List<AgentDeathListener> deathListeners;
 	
 	/** Interface to the platform that allows the agent to reschedule its own deliberation runnable. */
 	private SelfRescheduler rescheduler = null;
+	
+	/** The time in milliseconds at which the agent last went to sleep. */
+	private long sleepingSince = 0;
+	
+	/** The store that holds the passivated contexts of the agent, or null if the agent is not passivated. */
+	private volatile PassivationStore passivationStore = null;
+	
+	/** The checkpoint for which the agent still has to write its snapshot, or null if there is none. */
+	private volatile Checkpoint pendingCheckpoint = null;
 
 	/** The constructor also automatically registers the agent at the provided messenger. */
 	public AgentRuntimeData(final AgentID agentID, final AgentToMessengerInterface messengerClient, 
-			final ContextContainer contextContainer, final PlanSchemeBase planSchemeBase,
-			final List<DeliberationStep> deliberationCycle){
+			final ContextContainer contextContainer, final PlanSchemeBase planSchemeBase){
 		this.agentID = agentID;
 		this.contextContainer = contextContainer;
-		this.goals = new ArrayList<>();
-		this.internalTriggers = new ArrayList<>();
-		this.externalTriggers = new ArrayList<>();
-		this.messages = new ArrayList<>();
-		this.internalTriggerInterceptors = new ArrayList<>();
-		this.externalTriggerInterceptors = new ArrayList<>();
-		this.messageInterceptors = new ArrayList<>();
-		this.goalInterceptors = new ArrayList<>();
 		this.planSchemeBase = planSchemeBase;
-		this.plans = new ArrayList<>();
-		this.deliberationCycle = Collections.unmodifiableList(deliberationCycle);
-		this.planInterface = new PlanToAgentInterface(this);
-		this.contextInterface = new AgentContextInterface(this);
-		this.deathListeners = new ArrayList<>();
+		this.deliberationCycle = Collections.emptyList();
 		
 		this.messengerClient = messengerClient;
 		this.messengerClient.register(produceMessengerToAgentInterface());
@@ -94,16 +133,103 @@ public final class AgentRuntimeData {
 	 * whether it is required to reschedule. If so (i.e. when the agent is currently 
 	 * sleeping) then the agent's runnable will be rescheduled by this method.  
 	 */
-	private final void checkWhetherToReschedule(){
-		synchronized(this.rescheduler){
-			if(this.rescheduler == null){
-				throw new IllegalStateException("No selfrescheduler set for AgentRuntimeData");
-			}
-			if(this.sleep){
-				this.sleep = false; 
-				this.rescheduler.wakeUp();
+	private final synchronized void checkWhetherToReschedule(){
+		if(this.rescheduler == null){
+			throw new IllegalStateException("No selfrescheduler set for AgentRuntimeData");
+		}
+		this.rescheduler.inputArrived(); // Releases the agent if it stays awake to wait for a message
+		if(this.sleep && this.pendingCheckpoint == null){ // Else the snapshot of the agent is being written, the writer wakes the agent afterwards
+			this.sleep = false; 
+			this.rescheduler.wakeUp();
+		}
+	}
+	
+	/** Add an element to a list that is possibly not allocated yet. Returns the list to which the element was added. */
+	private static final <T> List<T> add(final List<T> list, final T element){
+		List<T> result = list == null ? new ArrayList<>(4) : list;
+		result.add(element);
+		return result;
+	}
+	
+	/** Append a message or external trigger to an inbox that is possibly not allocated yet. The first conflatable 
+	 * trigger turns the inbox into a conflating inbox. Returns the inbox to which the trigger was added. */
+	private static final List<Trigger> enqueue(final List<Trigger> inbox, final Trigger trigger){
+		if(trigger instanceof ConflatableTrigger && !(inbox instanceof ConflatingInbox)){
+			List<Trigger> result = new ConflatingInbox(inbox);
+			result.add(trigger);
+			return result;
+		}
+		return add(inbox, trigger);
+	}
+	
+	/** Let a conflatable trigger replace the trigger with the same key in an inbox that is possibly not allocated. 
+	 * Returns true iff a trigger was replaced, in which case the trigger must not be appended. */
+	private static final boolean conflate(final List<Trigger> inbox, final Trigger trigger){
+		return trigger instanceof ConflatableTrigger && inbox instanceof ConflatingInbox && 
+				((ConflatingInbox) inbox).replace((ConflatableTrigger) trigger);
+	}
+	
+	/** Obtain the priority of a trigger; 0 if it is not prioritized. */
+	static final int getPriority(final Trigger trigger){
+		return trigger instanceof PrioritizedTrigger ? ((PrioritizedTrigger) trigger).getPriority() : 0;
+	}
+	
+	/** Orders triggers by descending priority. */
+	private static final Comparator<Trigger> PRIORITY_ORDER = (Trigger a, Trigger b) -> Integer.compare(getPriority(b), getPriority(a));
+	
+	/** Order a list of taken triggers by descending priority, keeping the arrival order among triggers of equal priority. 
+	 * The list is only sorted if it contains a trigger with a nonzero priority. Called outside the monitor, as the list 
+	 * is no longer part of the inbox. */
+	private static final List<Trigger> prioritize(final List<Trigger> triggers){
+		for(Trigger trigger : triggers){
+			if(getPriority(trigger) != 0){
+				triggers.sort(PRIORITY_ORDER); // Stable
+				break;
 			}
 		}
+		return triggers;
+	}
+	
+	/** Add an interceptor to a list that is possibly not allocated yet. Non-consuming interceptors are put 
+	 * in front, so that they are tried before the consuming ones. */
+	private static final List<TriggerInterceptor> addInterceptor(final List<TriggerInterceptor> list, final TriggerInterceptor interceptor){
+		List<TriggerInterceptor> result = list == null ? new ArrayList<>(4) : list;
+		if(interceptor.isTriggerConsuming()) result.add(interceptor);
+		else result.add(0, interceptor);
+		return result;
+	}
+	
+	/** Take all elements out of a list that is possibly not allocated. The list itself is handed over 
+	 * so no copy is made; the caller must set the field to null. */
+	private static final <T> List<T> take(final List<T> list){
+		return list == null || list.isEmpty() ? Collections.emptyList() : list;
+	}
+	
+	/** Take all triggers out of an inbox that is possibly not allocated, see <code>take</code>. The places of 
+	 * dropped triggers are removed first. */
+	private static final List<Trigger> takeInbox(final List<Trigger> inbox){
+		if(inbox instanceof DroppingInbox) ((DroppingInbox) inbox).compact();
+		return take(inbox);
+	}
+	
+	/** Check whether a list that is possibly not allocated is empty. */
+	private static final boolean isEmpty(final List<?> list){
+		return list == null || list.isEmpty();
+	}
+	
+	/** Remove an element from a list that is possibly not allocated. */
+	private static final boolean remove(final List<?> list, final Object element){
+		return list != null && list.remove(element);
+	}
+	
+	/** Check whether a list that is possibly not allocated contains the element. */
+	private static final boolean contains(final List<?> list, final Object element){
+		return list != null && list.contains(element);
+	}
+	
+	/** Obtain an iterator over a list that is possibly not allocated. */
+	private static final <T> Iterator<T> iterator(final List<T> list){
+		return list == null ? Collections.emptyIterator() : list.iterator();
 	}
 	
 	///////////////////////////////////////////
@@ -115,10 +241,129 @@ public final class AgentRuntimeData {
 		return new MessengerToAgentInterface(this);
 	}
 	
-	/** Insert a message in the message queue. */
+	/** Insert a message in the message queue. A conflatable message replaces the waiting message with the same 
+	 * key, if any. Throws a <code>MailboxFullException</code> if the inbox is bounded and the message is refused. */
 	public final void deliverMessage(final Trigger message){
-		synchronized(this.messages){
-			this.messages.add(message);
+		TriggerJournal journal = getJournal();
+		TriggerJournal.Entry entry = journal == null ? null : journal.encode(this.agentID, TriggerJournal.Kind.MESSAGE, message);
+		ScheduleTrace trace = getScheduleTrace();
+		if(trace != null) trace.beforeDelivery(this.agentID); // During a replay this waits for the recorded turn of the delivery
+		MailboxBound bound = getMailboxBound();
+		boolean inline = false;
+		Trigger dropped = null;
+		synchronized(this){
+			if(!conflate(this.messages, message)){ // A replacement takes no room
+				if(bound != null) dropped = makeRoom(bound, message, true, trace);
+				this.messages = enqueue(this.messages, message);
+			}
+			if(entry != null) journal.append(entry); // Appended under the monitor, so that the journal order is the inbox order
+			if(trace != null) trace.afterDelivery(this.agentID);
+			if(this.sleep && this.pendingCheckpoint == null && this.rescheduler != null && this.rescheduler.mayRunInline()){
+				this.sleep = false; // Claims the agent, so nobody else schedules it
+				inline = true;
+			} else checkWhetherToReschedule();
+		}
+		if(dropped != null) notifyDropped(dropped);
+		if(inline) this.rescheduler.runInline(); // Outside the monitor, as the sender may be waited upon
+	}
+	
+	/** Obtain the platform's trigger journal. Reached through the rescheduler so that agents need no field for it. */
+	private final TriggerJournal getJournal(){
+		SelfRescheduler rescheduler = this.rescheduler;
+		return rescheduler == null ? null : rescheduler.getJournal();
+	}
+	
+	/** Obtain the bound on the inbox. Reached through the rescheduler so that agents need no field for it. */
+	private final MailboxBound getMailboxBound(){
+		SelfRescheduler rescheduler = this.rescheduler;
+		return rescheduler == null ? null : rescheduler.getMailboxBound();
+	}
+	
+	/** Check whether the inbox is bounded. */
+	public final boolean hasMailboxBound(){
+		return getMailboxBound() != null;
+	}
+	
+	/** Obtain the key that determines where the agent runs when the platform is sharded; the agent id if the agent is not started yet. */
+	public final Object getPlacementKey(){
+		SelfRescheduler rescheduler = this.rescheduler;
+		return rescheduler == null ? this.agentID : rescheduler.getPlacementKey();
+	}
+	
+	/**
+	 * Make room in a bounded inbox for a message or external trigger, whilst holding the monitor. Depending 
+	 * on the policy of the bound the oldest input of the category with the lowest priority is dropped, or the sender waits until the 
+	 * agent takes its inbox. Input for a dead agent is let through, as it is discarded anyway. A sender only waits if it is 
+	 * not an agent and the deliveries are not traced; an agent that waits would occupy its thread, and agents that send to 
+	 * each other, or an agent that sends to itself, would wait for one another until the timeout.
+	 * @param bound The bound on the inbox.
+	 * @param input The input that needs room.
+	 * @param message True for a message, false for an external trigger.
+	 * @param trace The trace of the deliveries, or null if they are not traced.
+	 * @return The input that was dropped to make room, or null if none was dropped.
+	 * @throws MailboxFullException If there is no room for the input.
+	 */
+	private final Trigger makeRoom(final MailboxBound bound, final Trigger input, final boolean message, final ScheduleTrace trace){
+		long deadline = 0;
+		while(true){
+			List<Trigger> inbox = message ? this.messages : this.externalTriggers; // Read again after waiting, as the list is handed over upon a take
+			if(inbox == null || size(inbox) < bound.getCapacity() || isDone()) return null;
+			if(bound.getPolicy() == MailboxBound.Policy.DROP_OLDEST){
+				if(!(inbox instanceof DroppingInbox)){ // The first drop since the inbox was taken
+					inbox = new DroppingInbox(inbox);
+					if(message) this.messages = inbox;
+					else this.externalTriggers = inbox;
+				}
+				Trigger dropped = ((DroppingInbox) inbox).drop();
+				this.rescheduler.inputDiscarded(true);
+				return dropped;
+			}
+			if(bound.getPolicy() == MailboxBound.Policy.BLOCK && trace == null && DeliberationRunnable.getRunningAgent() == null){
+				long now = System.currentTimeMillis();
+				if(deadline == 0) deadline = now + bound.getTimeoutMillis();
+				if(now < deadline){
+					try {
+						wait(deadline - now); // Woken up when the agent takes its inbox or dies
+						continue;
+					} catch(InterruptedException e){
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+			this.rescheduler.inputDiscarded(false);
+			if(trace != null) trace.afterDelivery(this.agentID);
+			throw new MailboxFullException(this.agentID, input);
+		}
+	}
+	
+	/** Give the sender of a message that was dropped from the inbox a <code>MessageRejectedTrigger</code>, if the message 
+	 * names its sender. Called outside the monitor, as the sender's monitor is taken. */
+	private final void notifyDropped(final Trigger dropped){
+		if(!(dropped instanceof AttributedTrigger)) return;
+		AgentID sender = ((AttributedTrigger) dropped).getSender();
+		if(sender != null) this.rescheduler.messageDropped(sender, dropped);
+	}
+	
+	/** Wake up the senders that wait for room in the inbox, whilst holding the monitor. */
+	private final void releaseBlockedSenders(){
+		MailboxBound bound = getMailboxBound();
+		if(bound != null && bound.getPolicy() == MailboxBound.Policy.BLOCK) notifyAll();
+	}
+	
+	/** Obtain the platform's schedule trace. Reached through the rescheduler so that agents need no field for it. */
+	private final ScheduleTrace getScheduleTrace(){
+		SelfRescheduler rescheduler = this.rescheduler;
+		return rescheduler == null ? null : rescheduler.getScheduleTrace();
+	}
+	
+	/** Insert a trigger from a journal without journaling it again. */
+	public final void replayTrigger(final TriggerJournal.Kind kind, final Trigger trigger){
+		synchronized(this){
+			switch(kind){
+			case EXTERNAL_TRIGGER: if(!conflate(this.externalTriggers, trigger)) this.externalTriggers = enqueue(this.externalTriggers, trigger); break;
+			case MESSAGE: if(!conflate(this.messages, trigger)) this.messages = enqueue(this.messages, trigger); break;
+			case INTERNAL_TRIGGER: this.internalTriggers = add(this.internalTriggers, trigger); break;
+			}
 			checkWhetherToReschedule();
 		}
 	}
@@ -134,22 +379,34 @@ public final class AgentRuntimeData {
 
 	/** Add a listener that listens for the death of this agent. */
 	public final void addAgentDeathListener(final AgentDeathListener listener){
-		synchronized(this.deathListeners){ 
-			this.deathListeners.add(listener);
+		synchronized(this){ 
+			this.deathListeners = add(this.deathListeners, listener);
 		}
 	}
 	
 	/** Remove a listener that listens for the death of this agent. */
 	public final void unsubscribeDeathListener(final AgentDeathListener listener){
-		synchronized(this.deathListeners){
-			this.deathListeners.remove(listener);
+		synchronized(this){
+			remove(this.deathListeners, listener);
 		}
 	}
 	
-	/** Put an external event in this agent. Will be processed the next deliberation cycle. */
+	/** Put an external event in this agent. Will be processed the next deliberation cycle. A conflatable trigger 
+	 * replaces the waiting trigger with the same key, if any. Throws a <code>MailboxFullException</code> if the 
+	 * inbox is bounded and the trigger is refused. */
 	public final void addExternalTrigger(final Trigger trigger){
-		synchronized(this.externalTriggers){ 
-			this.externalTriggers.add(trigger);
+		TriggerJournal journal = getJournal();
+		TriggerJournal.Entry entry = journal == null ? null : journal.encode(this.agentID, TriggerJournal.Kind.EXTERNAL_TRIGGER, trigger);
+		ScheduleTrace trace = getScheduleTrace();
+		if(trace != null) trace.beforeDelivery(this.agentID); // External triggers wake up agents just like messages
+		MailboxBound bound = getMailboxBound();
+		synchronized(this){ 
+			if(!conflate(this.externalTriggers, trigger)){
+				if(bound != null) makeRoom(bound, trigger, false, trace); // External triggers name no sender
+				this.externalTriggers = enqueue(this.externalTriggers, trigger);
+			}
+			if(entry != null) journal.append(entry);
+			if(trace != null) trace.afterDelivery(this.agentID);
 			checkWhetherToReschedule();
 		}
 	}
@@ -158,45 +415,66 @@ public final class AgentRuntimeData {
 	//// PLAN INTERFACE FUNCTIONALITY ////
 	//////////////////////////////////////  
 	
-	/** Obtain the context that belongs to a given class. */
+	/** Obtain the context that belongs to a given class. The monitor of the agent is only taken if the context is 
+	 * not found without it, e.g. because the agent is passivated and another thread, such as a task in a concurrency 
+	 * context, uses the contexts of the sleeping agent; the passivation store is published after the contexts are 
+	 * removed, so a lookup that sees no store and finds the context is not affected by a passivation. A passivatable 
+	 * context that is obtained may be passivated once the agent sleeps, hence references to it must not be kept 
+	 * across deliberation cycles. If the contexts cannot be reactivated, then the agent is killed. */
 	public final <C extends Context> C getContext(final Class<C> klass){
-		C context = this.contextContainer.getContext(klass);
+		C context = null;
+		if(this.passivationStore == null) context = this.contextContainer.getContext(klass);
+		if(context != null) return context;
+		synchronized(this){
+			if(this.passivationStore != null && !reactivate()){
+				checkWhetherToReschedule(); // The runnable of the agent kills it
+				throw new IllegalStateException("Could not reactivate agent "+this.agentID+".");
+			}
+			context = this.contextContainer.getContext(klass);
+		}
 		if(context == null){ // Context with that type unknown. This should not occur.
 			throw new IllegalArgumentException("Trying to obtain a context with class "+klass+" which doesn't exist.");
 		}
 		return context;
 	}
 	
-	/** Send a message through the agent's messenger client. */
+	/** Send a message through the agent's messenger client. If the receiver refuses the message because its 
+	 * inbox is full, then the agent receives a <code>MessageRejectedTrigger</code>. */
 	public final void sendMessage(final AgentID receiver, final Trigger message) throws MessageReceiverNotFoundException {
-		this.messengerClient.sendMessage(receiver, message);
+		try {
+			this.messengerClient.sendMessage(receiver, message);
+		} catch(MailboxFullException e){
+			addInternalTrigger(new MessageRejectedTrigger(receiver, message));
+		}
 	}
 	
 	 // No synchronize on goals as maximally 1 thread at a time can call these methods
 	
 	/** Check whether the list of current goals contains the provided argument goal. */
 	public final boolean hasGoal(final Goal goal){
-		return this.goals.contains(goal);
+		return this.goals != null && this.goals.contains(goal);
 	}
 	
 	/** Remove the provided goal from the list of current goals. */
 	public final void dropGoal(final Goal goal){
-		this.goals.remove(goal);
+		remove(this.goals, goal);
 	}
 	
 	/** Add a goal to the list of current goals. Will check whether the list of 
 	 * current goals already contains the provided goal. */
 	public final void adoptGoal(final Goal goal){
 		if(!hasGoal(goal)){
+			if(this.goals == null) this.goals = new GoalList();
 			this.goals.add(goal);
+			this.goals.checkVersion = ContextContainer.UNKNOWN_VERSION;
 		}
 	}
 
 	/** Add a plan to the list of current plans. This plan will be executed during
 	 * the next "execute plans" deliberation step. */
 	public final void adoptPlan(final Plan plan){
-		synchronized(this.plans){
-			this.plans.add(plan);
+		synchronized(this){
+			this.plans = add(this.plans, plan);
 		}
 	}
 	
@@ -211,36 +489,85 @@ public final class AgentRuntimeData {
 
 	/** Add an interceptor for goals. */
 	public final void adoptGoalInterceptor(final TriggerInterceptor interceptor){
-		if(interceptor.isTriggerConsuming()) this.goalInterceptors.add(interceptor);
-		else this.goalInterceptors.add(0,interceptor);
+		this.goalInterceptors = addInterceptor(this.goalInterceptors, interceptor);
+		armInterceptor(interceptor);
 	}
 	
 	/** Add an interceptor for external triggers. */
 	public final void adoptExternalTriggerInterceptor(final TriggerInterceptor interceptor){
-		if(interceptor.isTriggerConsuming()) this.externalTriggerInterceptors.add(interceptor);
-		else this.externalTriggerInterceptors.add(0,interceptor);
+		this.externalTriggerInterceptors = addInterceptor(this.externalTriggerInterceptors, interceptor);
+		armInterceptor(interceptor);
 	}
 
 	/** Add an interceptor for internal triggers. */
 	public final void adoptInternalTriggerInterceptor(final TriggerInterceptor interceptor){
-		if(interceptor.isTriggerConsuming()) this.internalTriggerInterceptors.add(interceptor);
-		else this.internalTriggerInterceptors.add(0,interceptor);
+		this.internalTriggerInterceptors = addInterceptor(this.internalTriggerInterceptors, interceptor);
+		armInterceptor(interceptor);
 	}
 	
 	/** Add an interceptor for messages. */
 	public final void adoptMessageInterceptor(final TriggerInterceptor interceptor){
-		if(interceptor.isTriggerConsuming()) this.messageInterceptors.add(interceptor);
-		else this.messageInterceptors.add(0,interceptor);
+		this.messageInterceptors = addInterceptor(this.messageInterceptors, interceptor);
+		armInterceptor(interceptor);
+	}
+	
+	/** If the interceptor has a time-to-live, then start its countdown. For a wall clock time-to-live an 
+	 * alarm is set that wakes the agent when the interceptor expires, so that a sleeping agent will still 
+	 * remove it and adopt its timeout plan. The alarm is cancelled if the interceptor fires or is removed first. */
+	private final void armInterceptor(final TriggerInterceptor interceptor){
+		if(interceptor.hasExpiry() && interceptor.arm(this.cycleCounter, System.currentTimeMillis())){
+			Expiry expiry = new Expiry(interceptor);
+			this.expiringInterceptors = add(this.expiringInterceptors, expiry);
+			if(interceptor.getTimeToLive() != TriggerInterceptor.NO_EXPIRY && this.rescheduler != null){
+				expiry.alarm = this.rescheduler.setAlarm(interceptor.getTimeToLive(), this::checkWhetherToReschedule);
+			}
+		}
+	}
+	
+	/** Stop the countdown of an interceptor that fired or was removed, unless it is still adopted for another 
+	 * trigger category. */
+	private final void disarmInterceptor(final TriggerInterceptor interceptor){
+		if(isEmpty(this.expiringInterceptors) || isAdopted(interceptor)) return;
+		Iterator<Expiry> iterator = this.expiringInterceptors.iterator();
+		while(iterator.hasNext()){
+			Expiry expiry = iterator.next();
+			if(expiry.interceptor == interceptor){
+				iterator.remove();
+				expiry.cancel();
+				return;
+			}
+		}
+	}
+	
+	/** Check whether the interceptor is adopted for any trigger category. */
+	private final boolean isAdopted(final TriggerInterceptor interceptor){
+		return contains(this.goalInterceptors, interceptor) || contains(this.externalTriggerInterceptors, interceptor) || 
+				contains(this.internalTriggerInterceptors, interceptor) || contains(this.messageInterceptors, interceptor);
 	}
 	
 	/** Add an internal trigger to the list of current internal triggers. This trigger 
 	 * will be processed during the next deliberation cycle.*/
 	public final void addInternalTrigger(final Trigger trigger){
-		synchronized (this.internalTriggers) {
-			this.internalTriggers.add(trigger); 
+		insertInternalTrigger(trigger, null);
+	} 
+	
+	/** Add an internal trigger, unless it is a coalesced trigger that is still in the inbox. The check is done 
+	 * under the monitor, in between the traced events of the delivery, so that a replay decides as the recorded 
+	 * run did relative to the take of the trigger. */
+	private final void insertInternalTrigger(final Trigger trigger, final ContextChangedTrigger coalesced){
+		TriggerJournal journal = getJournal();
+		TriggerJournal.Entry entry = journal == null ? null : journal.encode(this.agentID, TriggerJournal.Kind.INTERNAL_TRIGGER, trigger);
+		ScheduleTrace trace = getScheduleTrace();
+		if(trace != null) trace.beforeDelivery(this.agentID); // Other threads add internal triggers as well, e.g. upon a context change
+		synchronized (this) {
+			if(coalesced == null || coalesced.enqueue()){
+				this.internalTriggers = add(this.internalTriggers, trigger); 
+				if(entry != null) journal.append(entry);
+			}
+			if(trace != null) trace.afterDelivery(this.agentID);
 			this.checkWhetherToReschedule(); 
 		}
-	} 
+	}
 
 	/**
 	 * By default an agent is never finished, unless this method is called explicitly
@@ -255,69 +582,155 @@ public final class AgentRuntimeData {
 	//// DELIBERATION STEP FUNCTIONALITY ////
 	/////////////////////////////////////////
 	
-	/** Produce an interface that exposes all the required functionalities for deliberation steps. */
+	/** Obtain the interface that exposes all the required functionalities for deliberation steps. */
 	public final DeliberationStepToAgentInterface produceDeliberationInterface(){
-		return new DeliberationStepToAgentInterface(this);
+		if(this.deliberationInterface == null) this.deliberationInterface = new DeliberationStepToAgentInterface(this);
+		return this.deliberationInterface;
+	}
+	
+	/** Obtain the interface for plans. Created upon first use; a race only creates an equivalent extra instance. */
+	private final PlanToAgentInterface getPlanInterface(){
+		if(this.planInterface == null) this.planInterface = new PlanToAgentInterface(this);
+		return this.planInterface;
+	}
+	
+	/** Obtain the interface for plan schemes and goals. Created upon first use; a race only creates an equivalent extra instance. */
+	private final AgentContextInterface getContextInterface(){
+		if(this.contextInterface == null) this.contextInterface = new AgentContextInterface(this);
+		return this.contextInterface;
+	}
+	
+	// The trigger lists are handed over instead of copied. This is safe because the lists are guarded 
+	// by the monitor of the agent, and not by the monitor of the list that the field happens to point to.
+	
+	/** Take the messages of the current cycle whilst holding the monitor. If the agent has a message budget and more 
+	 * messages wait, then only the budget is taken, those with the highest priority first, and the rest stays in the 
+	 * inbox. The rest keeps the arrival order among messages of equal priority, so a later take orders it correctly. */
+	private final List<Trigger> takeMessages(){
+		List<Trigger> inbox = this.messages;
+		if(inbox instanceof DroppingInbox) ((DroppingInbox) inbox).compact();
+		SelfRescheduler rescheduler = this.rescheduler;
+		int budget = rescheduler == null ? 0 : rescheduler.getMessageBudget();
+		if(budget == 0 || inbox == null || inbox.size() <= budget){
+			this.messages = null;
+			return take(inbox);
+		}
+		List<Trigger> ordered = prioritize(new ArrayList<>(inbox));
+		List<Trigger> taken = new ArrayList<>(ordered.subList(0, budget));
+		List<Trigger> rest = ordered.subList(budget, ordered.size());
+		this.messages = inbox instanceof ConflatingInbox ? new ConflatingInbox(rest) : new ArrayList<>(rest);
+		return taken;
 	}
 	
 	/** Obtain and remove the current external triggers. This will return a new 
-	 * list of triggers. */
+	 * list of triggers, ordered by priority. */
 	public final List<Trigger> getAndRemoveExternalTriggers(){ 
-		synchronized(this.externalTriggers){
-			if(this.externalTriggers.isEmpty()) return Collections.emptyList();
-			else {
-				List<Trigger> snapshot = new ArrayList<>(this.externalTriggers);
-				this.externalTriggers.clear();
-				return snapshot;
-			} 
-			// TODO: if I used snapshot = this.externalTriggers; this.externalTriggers = new ArrayList<>(); then some triggers were lost.
-			// 		 Is this because the lock is bound to address that this.externaltriggers points to, and not to the field this.externalTriggers?
-		}
-	}
-	// get internal triggers, no need to synchronize as only the deliberation thread 
-	// can add new internal triggers, which is the same thread as the one that calls this method.
+		ScheduleTrace trace = getScheduleTrace();
+		if(trace != null) trace.beforeTake(this.agentID); // During a replay this waits until the recorded deliveries are done
+		List<Trigger> snapshot;
+		synchronized(this){
+			snapshot = takeInbox(this.externalTriggers);
+			this.externalTriggers = null;
+			if(!snapshot.isEmpty()) releaseBlockedSenders();
+			if(trace != null) trace.afterTake(this.agentID);
+		}
+		return prioritize(snapshot);
+	}
+	
 	/** Obtain and remove the current internal triggers. This will return a new 
-	 * listof triggers. */
+	 * list of triggers, ordered by priority. */
 	public final List<Trigger> getAndRemoveInternalTriggers(){
-		if(this.internalTriggers.isEmpty()) return Collections.emptyList();
-		else {
-			List<Trigger> snapshot = this.internalTriggers;
-			this.internalTriggers = new ArrayList<>();
-			return snapshot;
+		List<Trigger> snapshot;
+		// Synchronized because tasks in a concurrency context may add internal triggers
+		synchronized(this){
+			snapshot = take(this.internalTriggers);
+			this.internalTriggers = null;
+			for(Trigger trigger : snapshot) 
+				if(trigger instanceof ContextChangedTrigger) ((ContextChangedTrigger) trigger).dequeued();
+		}
+		return prioritize(snapshot);
+	}
+	
+	/** Obtain and remove the external triggers, internal triggers and messages under a single acquisition 
+	 * of the monitor. Each category is ordered by priority, and the messages are limited by the message budget 
+	 * of the agent, if any. Returns <code>Inbox.EMPTY</code> if the agent has no triggers. */
+	public final Inbox getAndRemoveAllTriggers(){
+		ScheduleTrace trace = getScheduleTrace();
+		if(trace != null) trace.beforeTake(this.agentID);
+		Inbox inbox = Inbox.EMPTY;
+		synchronized(this){
+			if(!isEmpty(this.externalTriggers) || !isEmpty(this.internalTriggers) || !isEmpty(this.messages)){
+				inbox = new Inbox(takeInbox(this.externalTriggers), take(this.internalTriggers), takeMessages());
+				this.externalTriggers = null;
+				this.internalTriggers = null;
+				releaseBlockedSenders();
+				for(Trigger trigger : inbox.getInternalTriggers()) 
+					if(trigger instanceof ContextChangedTrigger) ((ContextChangedTrigger) trigger).dequeued();
+			}
+			if(trace != null) trace.afterTake(this.agentID);
+		}
+		if(inbox != Inbox.EMPTY){
+			prioritize(inbox.getExternalTriggers());
+			prioritize(inbox.getInternalTriggers());
+			prioritize(inbox.getMessages());
 		}
+		return inbox;
 	}
 	
 	// get goals, returns new list as it should not be possible to add goals outside of adopt goal (similar for dropgoal)
 	/** Obtain new list that contains the current goals. Manipulating the returned list 
 	 * will not add/remove goals to the agent. The goals itself though are not cloned. */
 	public final List<Goal> getGoals(){
-		if(this.goals.isEmpty()) return Collections.emptyList();
+		if(isEmpty(this.goals)) return Collections.emptyList();
 		else return new ArrayList<>(this.goals);
 	}
 	
-	/** Remove all goals that are achieved given the contexts of the agent. */
+	/** Remove all goals that are achieved given the contexts of the agent. If all contexts are versioned, 
+	 * then this is skipped when no context changed and no goal was adopted since the last check. */
 	public final void clearAchievedGoals(){  
-		if(!this.goals.isEmpty()){
-			List<Goal> snapshot = new ArrayList<>(this.goals);
-			for(Goal goal : snapshot){
-				if(goal.isAchieved(this.contextInterface)){ 
-					this.goals.remove(goal);
-				}
-			} 
+		if(!isEmpty(this.goals)){
+			long version = this.contextContainer.getVersion();
+			if(version != ContextContainer.UNKNOWN_VERSION && version == this.goals.checkVersion) return;
+			AgentContextInterface contextInterface = getContextInterface();
+			this.goals.removeIf((Goal goal) -> goal.isAchieved(contextInterface));
+			if(this.goals.isEmpty()) this.goals = null;
+			else this.goals.checkVersion = version;
 		}
 	}
 	
+	/**
+	 * Subscribe to the changes of a context, e.g. one that is shared with other agents. Upon a change 
+	 * the agent receives a <code>ContextChangedTrigger</code> as internal trigger, which also wakes it up. 
+	 * Changes that occur before the agent took the trigger do not produce additional triggers. The 
+	 * subscription ends when the agent dies.
+	 * @param context The context to subscribe to.
+	 * @return The listener, which can be used to unsubscribe from the context.
+	 */
+	public final ContextChangeListener subscribeToContext(final VersionedContext context){
+		ContextChangedTrigger trigger = new ContextChangedTrigger(context);
+		ContextChangeListener listener = (VersionedContext changed) -> {
+			if(isDone()) return false;
+			if(getScheduleTrace() != null) insertInternalTrigger(trigger, trigger); // Each change is a traced event
+			else if(trigger.enqueue()) addInternalTrigger(trigger);
+			return true;
+		};
+		context.subscribe(listener);
+		return listener;
+	}
+	
 	/** Obtain and remove the current message triggers. This will return a new 
-	 * list of triggers. */
+	 * list of triggers, ordered by priority. If the agent has a message budget, then 
+	 * at most that many messages are taken, see <code>AgentBuilder.setMessageBudget</code>. */
 	public final List<Trigger> getAndRemoveMessages(){
-		synchronized(this.messages){
-			if(this.messages.isEmpty()) return Collections.emptyList();
-			else {
-				List<Trigger> snapshot = new ArrayList<>(this.messages);
-				this.messages.clear();
-				return snapshot;
-			}
+		ScheduleTrace trace = getScheduleTrace();
+		if(trace != null) trace.beforeTake(this.agentID);
+		List<Trigger> snapshot;
+		synchronized(this){
+			snapshot = takeMessages();
+			if(!snapshot.isEmpty()) releaseBlockedSenders();
+			if(trace != null) trace.afterTake(this.agentID);
 		}
+		return prioritize(snapshot);
 	}
 	 
 	/** Get the goal plan schemes of the plan scheme base. */
@@ -342,42 +755,112 @@ public final class AgentRuntimeData {
 
 	/** Get the goal interceptors. */
 	public final Iterator<TriggerInterceptor> getGoalInterceptors(){
-		return this.goalInterceptors.iterator();
+		return interceptors(this.goalInterceptors);
 	}
 	
 	/** Get the external trigger interceptors. */
 	public final Iterator<TriggerInterceptor> getExternalTriggerInterceptors(){
-		return this.externalTriggerInterceptors.iterator();
+		return interceptors(this.externalTriggerInterceptors);
 	}
 	
 	/** Get the internal trigger interceptors. */
 	public final Iterator<TriggerInterceptor> getInternalTriggerInterceptors(){
-		return this.internalTriggerInterceptors.iterator();
+		return interceptors(this.internalTriggerInterceptors);
 	}
 	
 	/** Get the message interceptors. */
 	public final Iterator<TriggerInterceptor> getMessageInterceptors(){
-		return this.messageInterceptors.iterator();
+		return interceptors(this.messageInterceptors);
 	}
 
 	/** Remove a goal interceptor. */
 	public final void removeGoalInterceptor(final TriggerInterceptor interceptor){
-		this.goalInterceptors.remove(interceptor);
+		if(remove(this.goalInterceptors, interceptor)) disarmInterceptor(interceptor);
 	}
 	
 	/** Remove an external trigger interceptor. */
 	public final void removeExternalTriggerInterceptor(final TriggerInterceptor interceptor){
-		this.externalTriggerInterceptors.remove(interceptor);
+		if(remove(this.externalTriggerInterceptors, interceptor)) disarmInterceptor(interceptor);
 	}
 	
 	/** Remove an internal trigger interceptor. */
 	public final void removeInternalTriggerInterceptor(final TriggerInterceptor interceptor){
-		this.internalTriggerInterceptors.remove(interceptor);
+		if(remove(this.internalTriggerInterceptors, interceptor)) disarmInterceptor(interceptor);
 	}
 	
 	/** Remove a message interceptor. */
 	public final void removeMessageInterceptor(final TriggerInterceptor interceptor){
-		this.messageInterceptors.remove(interceptor);
+		if(remove(this.messageInterceptors, interceptor)) disarmInterceptor(interceptor);
+	}
+	
+	/** Obtain an iterator over interceptors whose removal, when an interceptor fires, also stops the countdown of 
+	 * the interceptor. Only wraps the iterator if some interceptor is counting down. */
+	private final Iterator<TriggerInterceptor> interceptors(final List<TriggerInterceptor> list){
+		Iterator<TriggerInterceptor> iterator = iterator(list);
+		if(isEmpty(this.expiringInterceptors)) return iterator;
+		return new Iterator<TriggerInterceptor>(){
+			private TriggerInterceptor current;
+			public final boolean hasNext(){ return iterator.hasNext(); }
+			public final TriggerInterceptor next(){ return this.current = iterator.next(); }
+			public final void remove(){
+				iterator.remove();
+				disarmInterceptor(this.current);
+			}
+		};
+	}
+	
+	/** Get the total number of interceptors that the agent currently has over all trigger categories. */
+	public final int getInterceptorCount(){
+		return size(this.goalInterceptors) + size(this.externalTriggerInterceptors) + 
+				size(this.internalTriggerInterceptors) + size(this.messageInterceptors);
+	}
+	
+	/** Get the number of messages and external triggers in the inbox. */
+	public final synchronized int getMailboxDepth(){
+		return size(this.messages) + size(this.externalTriggers);
+	}
+	
+	/** Get the number of messages and external triggers that were refused because the inbox was full. */
+	public final long getRejectedInputs(){
+		SelfRescheduler rescheduler = this.rescheduler;
+		return rescheduler == null ? 0 : rescheduler.getRejectedInputs();
+	}
+	
+	/** Get the number of messages and external triggers that were dropped to make room in the inbox. */
+	public final long getDroppedInputs(){
+		SelfRescheduler rescheduler = this.rescheduler;
+		return rescheduler == null ? 0 : rescheduler.getDroppedInputs();
+	}
+	
+	/** The size of a list that is possibly not allocated. */
+	private static final int size(final List<?> list){
+		return list == null ? 0 : list instanceof DroppingInbox ? ((DroppingInbox) list).getNrOfTriggers() : list.size();
+	}
+	
+	/**
+	 * Remove all interceptors whose time-to-live has passed. For each expired interceptor that was 
+	 * still adopted (i.e. it did not fire in the meantime) its timeout plan is adopted, if it has one.
+	 */
+	private final void removeExpiredInterceptors(){
+		if(isEmpty(this.expiringInterceptors)) return;
+		long now = System.currentTimeMillis();
+		Iterator<Expiry> iterator = this.expiringInterceptors.iterator();
+		while(iterator.hasNext()){
+			Expiry expiry = iterator.next();
+			TriggerInterceptor interceptor = expiry.interceptor;
+			if(interceptor.isExpired(this.cycleCounter, now)){
+				iterator.remove();
+				expiry.cancel(); // An interceptor that expired by cycles may still have a pending alarm
+				// Non-short-circuit or: the interceptor may have been adopted in multiple categories
+				boolean wasAdopted = remove(this.goalInterceptors, interceptor) | 
+									 remove(this.externalTriggerInterceptors, interceptor) | 
+									 remove(this.internalTriggerInterceptors, interceptor) | 
+									 remove(this.messageInterceptors, interceptor);
+				if(wasAdopted && interceptor.getTimeoutPlan() != null){
+					adoptPlan(interceptor.getTimeoutPlan());
+				}
+			}
+		}
 	}
 	
 	/**
@@ -389,7 +872,7 @@ public final class AgentRuntimeData {
 	 * @return True iff the plan scheme was instantiated. 
 	 */
 	public final boolean tryApplication(final Trigger trigger, final PlanScheme planScheme){
-		Plan result = planScheme.instantiate(trigger, this.contextInterface);
+		Plan result = planScheme.instantiate(trigger, getContextInterface());
 		if(result != null && result != Plan.UNINSTANTIATED){
 			adoptPlan(result);
 			return true;
@@ -403,22 +886,32 @@ public final class AgentRuntimeData {
 	 * then the plan will not be executed.
 	 */
 	public final void executePlan(final Plan plan) throws PlanExecutionError {
-		if(plan.goalIsRelevant(this.planInterface))
-			plan.execute(this.planInterface);
+		PlanToAgentInterface planInterface = getPlanInterface();
+		if(plan.goalIsRelevant(planInterface))
+			plan.execute(planInterface);
 	} 
 	
 	/** Get a new list with the current instantiated plans of the agent.	 */
 	public final List<Plan> getPlans(){ 
-		synchronized(this.plans){
-			if(this.plans.isEmpty()) return Collections.emptyList();
+		synchronized(this){
+			if(isEmpty(this.plans)) return Collections.emptyList();
 			else return new ArrayList<>(this.plans); 
 		}
 	}
 	
 	/** Remove a plan from the list of current plans. */
 	public final void removePlan(final Plan plan){
-		synchronized(this.plans){
-			this.plans.remove(plan);
+		synchronized(this){
+			remove(this.plans, plan);
+			if(isEmpty(this.plans)) this.plans = null;
+		}
+	}
+	
+	/** Remove all plans that are finished. */
+	public final void removeFinishedPlans(){
+		synchronized(this){
+			if(this.plans != null) this.plans.removeIf(Plan::isFinished);
+			if(isEmpty(this.plans)) this.plans = null;
 		}
 	}
 	
@@ -431,13 +924,23 @@ public final class AgentRuntimeData {
 	public final void forceStop(){
 		this.forciblyStop = true;
 		this.messengerClient.deregister(); // Makes sure no more messages can  be send to this agent
-		synchronized(this.deathListeners){
-			if(!this.deathListeners.isEmpty()){
-				 // TODO: upon executing the following it might be the case that a listener is added whilst the agent is dying. This listener would not be notified.
-				for(AgentDeathListener listener : this.deathListeners){
-					listener.agentDied(this.agentID);
-				}
-			} 
+		discardPassivatedState();
+		Checkpoint checkpoint;
+		List<AgentDeathListener> listeners;
+		synchronized(this){
+			checkpoint = this.sleep ? null : this.pendingCheckpoint; // The snapshot of a sleeping agent is being written already
+			if(checkpoint != null) this.pendingCheckpoint = null;
+			releaseBlockedSenders(); // They see that the agent is dead
+		}
+		if(checkpoint != null) checkpoint.agentSkipped(); // A dead agent is not restored
+		synchronized(this){
+			if(isEmpty(this.deathListeners)) return;
+			listeners = new ArrayList<>(this.deathListeners);
+		}
+		// Notify outside of the agent's monitor so that listeners cannot block the agent's inboxes
+		// TODO: upon executing the following it might be the case that a listener is added whilst the agent is dying. This listener would not be notified.
+		for(AgentDeathListener listener : listeners){
+			listener.agentDied(this.agentID);
 		}
 	} 
 	 
@@ -456,30 +959,257 @@ public final class AgentRuntimeData {
 		this.rescheduler = rescheduler; 
 	}
 	
+	/** Called by the deliberation runnable before each deliberation cycle. Advances the cycle 
+	 * counter and removes the interceptors that have expired. If a checkpoint is pending then the 
+	 * agent first writes its snapshot, as the previous cycle is finished and the next one did not start. 
+	 * This happens before a passivated agent is reactivated, as its stored state is written as it is. */
+	public final void startDeliberationCycle() throws DeliberationStepException {
+		if(this.pendingCheckpoint != null) writePendingCheckpoint();
+		if(this.passivationStore != null && !reactivate()) 
+			throw new DeliberationStepException("Could not reactivate agent "+this.agentID+".", null);
+		this.cycleCounter++;
+		removeExpiredInterceptors();
+	}
+	
+	/** Called by the deliberation runnable after the last step of each deliberation cycle. */
+	public final void finishDeliberationCycle(){
+		this.contextContainer.deliberationCycleFinished();
+	}
+	
+	/** Called by the deliberation runnable when a step of the deliberation cycle threw. */
+	public final void abortDeliberationCycle(){
+		this.contextContainer.deliberationCycleAborted();
+	}
+	
+	/** Obtain the number of deliberation cycles that the agent has started. */
+	public final long getCycleCount(){ return this.cycleCounter; }
+	
 	/**
 	 * A check to determine whether the agent should go to sleep.
 	 * @return True iff the agent is already sleeping or there are no current plans and triggers.
 	 */
 	public final boolean checkSleeping(){
-		synchronized (this.externalTriggers) {
-			synchronized(this.messages){
-				synchronized(this.rescheduler){
-					synchronized(this.internalTriggers){
-						synchronized(this.plans){
-							if(this.sleep) return true;
-							else if(this.plans.size() == 0 &&
-							   this.externalTriggers.size() == 0 &&
-							   this.internalTriggers.size() == 0 &&
-							   this.messages.size() == 0 &&
-							   this.goals.size() == 0){
-								this.sleep = true;
-							}
-							return this.sleep; 
-						}
-					}
+		synchronized (this) {
+			if(this.sleep) return true;
+			else if(!isIdle()) return false;
+			else if(this.pendingCheckpoint == null){
+				this.sleep = true;
+				this.sleepingSince = System.currentTimeMillis();
+				return true;
+			}
+		}
+		// The agent's thread writes the snapshot before the agent sleeps, hence outside the monitor
+		writePendingCheckpoint();
+		return checkSleeping();
+	}
+	 
+	/** Check whether the agent has nothing to do. Must be called whilst holding the monitor. */
+	private final boolean isIdle(){
+		return isEmpty(this.plans) &&
+			   isEmpty(this.externalTriggers) &&
+			   isEmpty(this.internalTriggers) &&
+			   isEmpty(this.messages) &&
+			   isEmpty(this.goals) &&
+			   !hasExpiredInterceptors();
+	}
+	
+	/**
+	 * If the agent has nothing to do except waiting for a message, then ask the rescheduler how long it should 
+	 * stay awake before it goes to sleep. Input that arrives from then on releases the waiting agent.
+	 * @return The time in nanoseconds to stay awake, 0 if the agent should go to sleep right away.
+	 */
+	public final long startAwaitingInput(){
+		synchronized(this){
+			if(this.rescheduler == null || isEmpty(this.messageInterceptors) || !isIdle()) return 0;
+			return this.rescheduler.beginAwaitingInput();
+		}
+	}
+	
+	///////////////////////////////////
+	//// PASSIVATION FUNCTIONALITY ////
+	///////////////////////////////////
+	
+	/**
+	 * Move the passivatable contexts of the agent to the given store if the agent has been sleeping 
+	 * for at least the given amount of time. The contexts are restored transparently upon the start of 
+	 * the next deliberation cycle, i.e. when the agent is woken by a message, trigger or plan. Only the 
+	 * contexts that implement <code>PassivatableContext</code> are moved; the rest of the agent remains 
+	 * resident.
+	 * @param store The store to put the serialized contexts in.
+	 * @param idleMillis The minimal time that the agent must have been sleeping.
+	 * @return True iff the agent was passivated by this call.
+	 */
+	public final synchronized boolean passivateIfIdle(final PassivationStore store, final long idleMillis){
+		// The agent's thread cannot be in a cycle while the agent sleeps, hence holding the monitor suffices
+		if(!this.sleep || this.passivationStore != null || this.pendingCheckpoint != null || isDone() || System.currentTimeMillis() - this.sleepingSince < idleMillis) 
+			return false;
+		List<PassivatableContext> contexts = this.contextContainer.removePassivatableContexts();
+		if(contexts.isEmpty()) return false;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try(ObjectOutputStream output = new ObjectOutputStream(bytes)){
+				output.writeObject(contexts);
+			}
+			store.store(this.agentID, bytes.toByteArray());
+			this.passivationStore = store;
+			return true;
+		} catch(IOException e){
+			// The agent simply stays resident
+			for(PassivatableContext context : contexts) this.contextContainer.addContext(context);
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/** Restore the contexts of the agent from its passivation store. The state is removed from the store only 
+	 * after the contexts are restored. If they cannot be restored, then the agent is finished, so that its runnable 
+	 * kills it, and its state is left in the store for inspection. 
+	 * @return False iff the contexts could not be restored. */
+	@SuppressWarnings("unchecked")
+	private final synchronized boolean reactivate(){
+		PassivationStore store = this.passivationStore;
+		if(store == null) return true; // Another thread reactivated the agent in the meantime
+		List<PassivatableContext> contexts;
+		try {
+			byte[] state = store.read(this.agentID);
+			if(state == null) throw new IOException("No passivated state available for agent "+this.agentID+".");
+			try(ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(state))){
+				contexts = (List<PassivatableContext>) input.readObject();
+			}
+		} catch(IOException | ClassNotFoundException | ClassCastException e){
+			e.printStackTrace();
+			this.passivationStore = null; // So that the kill does not discard the state
+			this.finished = true;
+			return false;
+		}
+		for(PassivatableContext context : contexts) this.contextContainer.addContext(context);
+		this.passivationStore = null; // Published after the contexts, for the lookups without the monitor
+		try {
+			store.remove(this.agentID);
+		} catch(IOException e){
+			e.printStackTrace(); // The contexts are restored; the store merely keeps a stale copy
+		}
+		return true;
+	}
+	
+	/** Remove the state of a passivated agent from its store, as the agent will never be reactivated. */
+	private final synchronized void discardPassivatedState(){
+		if(this.passivationStore == null) return;
+		try {
+			this.passivationStore.remove(this.agentID);
+		} catch(IOException e){
+			e.printStackTrace();
+		}
+		this.passivationStore = null;
+	}
+	
+	/** @return True iff the contexts of the agent are currently passivated. */
+	public final boolean isPassivated(){ return this.passivationStore != null; }
+	
+	//////////////////////////////////
+	//// CHECKPOINT FUNCTIONALITY ////
+	//////////////////////////////////
+	
+	/**
+	 * Ask the agent to write its snapshot for the given checkpoint. A sleeping agent is written 
+	 * immediately by the calling thread; input that arrives meanwhile wakes the agent once its snapshot 
+	 * is written. Otherwise the agent writes the snapshot itself after its current deliberation cycle, 
+	 * i.e. before it goes to sleep or before it starts its next cycle. If the agent dies first, then it 
+	 * is skipped. A passivated agent is not reactivated; its stored state is copied into the snapshot. 
+	 * The snapshot is serialized outside the monitor of the agent.
+	 * @param checkpoint The checkpoint that is in progress.
+	 */
+	public final void requestCheckpoint(final Checkpoint checkpoint){
+		synchronized(this){
+			if(isDone()){
+				checkpoint.agentSkipped();
+				return;
+			} else if(this.pendingCheckpoint != null){
+				throw new IllegalStateException("Agent "+this.agentID+" did not finish its previous checkpoint yet.");
+			}
+			this.pendingCheckpoint = checkpoint;
+			if(!this.sleep) return;
+		}
+		writePendingCheckpoint(); // A sleeping agent is not woken while its checkpoint is pending
+	}
+	
+	/** Capture the snapshot of the agent and write it for the pending checkpoint. Must be called either by 
+	 * the agent's thread between cycles, or by the thread that requested the checkpoint of a sleeping agent. 
+	 * The checkpoint of a sleeping agent stays pending until its snapshot is written, so that the agent is 
+	 * not woken in the meantime. */
+	private final void writePendingCheckpoint(){
+		Checkpoint checkpoint;
+		boolean sleeping;
+		synchronized(this){
+			checkpoint = this.pendingCheckpoint;
+			if(checkpoint == null) return; // The agent was killed in the meantime
+			sleeping = this.sleep;
+			if(!sleeping) this.pendingCheckpoint = null;
+		}
+		try {
+			AgentSnapshot snapshot;
+			synchronized(this){
+				snapshot = captureSnapshot();
+			}
+			checkpoint.write(snapshot); // Serializes the snapshot
+		} catch(IOException e){
+			checkpoint.agentFailed(e);
+		} finally {
+			if(sleeping){
+				synchronized(this){
+					this.pendingCheckpoint = null;
+					if(!isIdle()) checkWhetherToReschedule(); // Input arrived while the snapshot was written
 				}
 			}
-		} 
+		}
+	}
+	
+	/** Capture the state of the agent without serializing its contexts. Must be called whilst holding the monitor. */
+	private final AgentSnapshot captureSnapshot() throws IOException {
+		PassivationStore store = this.passivationStore;
+		if(store != null){
+			byte[] state = store.read(this.agentID);
+			if(state == null) throw new IOException("No passivated state available for agent "+this.agentID+".");
+			return new AgentSnapshot(this.agentID, state, serializable(this.goals), serializable(this.externalTriggers), 
+					serializable(this.messages), serializable(this.internalTriggers));
+		}
+		return new AgentSnapshot(this.agentID, this.contextContainer.getPassivatableContexts(), serializable(this.goals), 
+				serializable(this.externalTriggers), serializable(this.messages), serializable(this.internalTriggers));
+	}
+	
+	/** Copy the serializable elements of a list that is possibly not allocated. */
+	private static final <T> List<T> serializable(final List<T> list){
+		List<T> result = new ArrayList<>(size(list));
+		if(list != null) 
+			for(T element : list) 
+				if(element instanceof Serializable) result.add(element);
+		return result;
+	}
+	
+	/**
+	 * Load the state of a snapshot into the agent. Must be called before the agent is scheduled for 
+	 * execution. The snapshot's contexts replace the contexts of the same class that the agent already 
+	 * has. Goals are restored without their plans, hence they will be pursued anew.
+	 * @param snapshot The snapshot of this agent.
+	 */
+	public final synchronized void restoreSnapshot(final AgentSnapshot snapshot){
+		if(!snapshot.getAgentID().equals(this.agentID)) 
+			throw new IllegalArgumentException("Snapshot of agent "+snapshot.getAgentID()+" cannot be loaded into agent "+this.agentID+".");
+		for(PassivatableContext context : snapshot.getContexts()) this.contextContainer.addContext(context);
+		for(Goal goal : snapshot.getGoals()) adoptGoal(goal);
+		for(Trigger trigger : snapshot.getExternalTriggers()) this.externalTriggers = enqueue(this.externalTriggers, trigger);
+		for(Trigger trigger : snapshot.getMessages()) this.messages = enqueue(this.messages, trigger);
+		for(Trigger trigger : snapshot.getInternalTriggers()) this.internalTriggers = add(this.internalTriggers, trigger);
+	}
+	
+	/** Check whether an interceptor expired after the start of the current cycle. In that case the agent 
+	 * should not sleep, as its wake up alarm may already have gone off. */
+	private final boolean hasExpiredInterceptors(){
+		if(isEmpty(this.expiringInterceptors)) return false;
+		long now = System.currentTimeMillis();
+		for(Expiry expiry : this.expiringInterceptors)
+			if(expiry.interceptor.isExpired(this.cycleCounter, now)) return true;
+		return false;
 	}
 	 
 	/** Obtain the agent's ID. */
@@ -489,4 +1219,39 @@ public final class AgentRuntimeData {
 	public final List<DeliberationStep> getDeliberationCycle(){
 		return this.deliberationCycle;
 	}
-}
\ No newline at end of file
+	
+	/** Set the agent's deliberation cycle. The list is not copied so that agents of the same type 
+	 * can share a single (unmodifiable) cycle. The cycle cannot change at runtime, hence this 
+	 * should only be called upon the creation of the agent. */
+	public final void setDeliberationCycle(final List<DeliberationStep> deliberationCycle){
+		this.deliberationCycle = deliberationCycle;
+	}
+	
+	/** The goals of an agent. The version of the goal check is kept here instead of in the agent, as only agents 
+	 * with goals need it. */
+	private static final class GoalList extends ArrayList<Goal> {
+		private static final long serialVersionUID = 1L;
+		/** The version of the contexts when the goals were last checked for achievement. Unknown if a goal was adopted since. */
+		private long checkVersion = ContextContainer.UNKNOWN_VERSION;
+		
+		private GoalList(){
+			super(4);
+		}
+	}
+	
+	/** An interceptor that counts down, with the alarm that wakes the agent when it expires. */
+	private static final class Expiry {
+		private final TriggerInterceptor interceptor;
+		/** The wall clock alarm, or null if the interceptor only expires by cycles. */
+		private ScheduledFuture<?> alarm = null;
+		
+		private Expiry(final TriggerInterceptor interceptor){
+			this.interceptor = interceptor;
+		}
+		
+		/** Cancel the alarm, if any. */
+		private final void cancel(){
+			if(this.alarm != null) this.alarm.cancel(false);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package oo2apl.agent;
+/**
+ * A message that names the agent that sent it. When a bounded inbox with the <code>DROP_OLDEST</code>
+ * policy drops such a message to make room, then the sender receives a <code>MessageRejectedTrigger</code>
+ * as internal trigger, just like the sender of a message that is refused. Messages that do not implement
+ * this interface are dropped silently, as the inbox does not know who sent them. Only senders on the
+ * same platform as the receiver are notified.
+ *
+ * @author Bas Testerink
+ */
+public interface AttributedTrigger extends Trigger {
+	/** Obtain the agent that sent the message, or null if it was not sent by an agent. */
+	public AgentID getSender();
+}
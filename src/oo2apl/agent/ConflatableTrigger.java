@@ -0,0 +1,18 @@
+package oo2apl.agent;
+/**
+ * A trigger for which only the latest value per key matters, such as a sensor reading or a state 
+ * update. When a conflatable message or external trigger arrives while a trigger with an equal 
+ * conflation key is still waiting in the inbox of the agent, then the new trigger takes the place 
+ * of the waiting one instead of being appended. A burst of updates therefore costs the agent a 
+ * single plan scheme application per key, and the inbox holds at most one trigger per key. 
+ * 
+ * Keys are compared with <code>equals</code>, also across trigger classes; include the type in the 
+ * key if different kinds of triggers must not replace each other. A null key disables conflation 
+ * for that trigger. Internal triggers are not conflated.
+ * 
+ * @author Bas Testerink
+ */
+public interface ConflatableTrigger extends Trigger {
+	/** Obtain the key under which the trigger replaces waiting triggers, or null if it must be appended. */
+	public Object getConflationKey();
+}
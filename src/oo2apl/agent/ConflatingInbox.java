@@ -0,0 +1,75 @@
+package oo2apl.agent;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * An inbox list that knows the position of each conflatable trigger by its key, so that a trigger
+ * with the same key is replaced in constant time. The agent switches to this list when the first
+ * conflatable trigger arrives in an inbox. Once the list is handed over to the deliberation cycle
+ * it is a regular list; the positions are only maintained for the operations of the inbox.
+ *
+ * As dropped triggers leave a null in their place, a drop only forgets the key of the dropped
+ * trigger. The positions are recomputed when the nulls are removed, which happens once per as
+ * many drops as the inbox holds triggers.
+ *
+ * @author Bas Testerink
+ */
+final class ConflatingInbox extends DroppingInbox {
+	private static final long serialVersionUID = 1L;
+	/** The position of the trigger of each conflation key. */
+	private final Map<Object, Integer> positions;
+
+	/** Create an inbox that contains the given triggers, if any. */
+	ConflatingInbox(final List<Trigger> triggers){
+		super(triggers == null ? 4 : Math.max(4, triggers.size() * 2));
+		this.positions = new HashMap<>();
+		if(triggers != null)
+			for(Trigger trigger : triggers)
+				if(trigger != null) add(trigger); // Dropped triggers leave nulls in a dropping inbox
+	}
+
+	/** Replace the trigger that has the same conflation key. Returns false if there is no such trigger. */
+	final boolean replace(final ConflatableTrigger trigger){
+		Object key = trigger.getConflationKey();
+		if(key == null) return false;
+		Integer position = this.positions.get(key);
+		if(position == null) return false;
+		replace(position, trigger);
+		return true;
+	}
+
+	@Override
+	public final boolean add(final Trigger trigger){
+		if(trigger instanceof ConflatableTrigger){
+			Object key = ((ConflatableTrigger) trigger).getConflationKey();
+			if(key != null) this.positions.put(key, size());
+		}
+		return super.add(trigger);
+	}
+
+	/** Forget the key of the dropped trigger. The other positions do not change. */
+	@Override
+	final void dropped(final int position, final Trigger trigger){
+		if(trigger instanceof ConflatableTrigger){
+			Object key = ((ConflatableTrigger) trigger).getConflationKey();
+			if(key != null) this.positions.remove(key, position);
+		}
+	}
+
+	/** Remove the nulls of dropped triggers and recompute the positions if they changed. Other removals, e.g. by
+	 * the deliberation cycle after the list was handed over, do not maintain the positions. */
+	@Override
+	final boolean compact(){
+		if(!super.compact()) return false;
+		this.positions.clear();
+		for(int i = 0; i < size(); i++){
+			Trigger trigger = get(i);
+			if(trigger instanceof ConflatableTrigger){
+				Object key = ((ConflatableTrigger) trigger).getConflationKey();
+				if(key != null) this.positions.put(key, i);
+			}
+		}
+		return true;
+	}
+}
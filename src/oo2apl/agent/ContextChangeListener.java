@@ -0,0 +1,16 @@
+package oo2apl.agent;
+/**
+ * Is notified when a versioned context changes. Listeners are called by the thread that changed 
+ * the context, hence they should be short, e.g. wake up an agent.
+ * 
+ * @author Bas Testerink
+ */
+@FunctionalInterface
+public interface ContextChangeListener {
+	/**
+	 * Called after the context changed.
+	 * @param context The context that changed.
+	 * @return False if the listener should be unsubscribed, e.g. because its agent died.
+	 */
+	public boolean contextChanged(final VersionedContext context);
+}
@@ -1,30 +1,87 @@
 package oo2apl.agent;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 /**
  * The context container maintains the different contexts for the agent. Agents can 
  * be composed of different pre-programmed agent modules, among which are contexts. 
  * This container allows the programmer to obtain a context of a specific type. Hence 
  * it is intended to only have 1 context instantiation of a context class per agent.
  * 
- * The implementation of this class is based on Joshua Bloch's typesafe hetereogeneous
- * container pattern.
+ * A context can be obtained by its own class, but also by any of its superclasses and 
+ * interfaces that extend <code>Context</code>, e.g. a <code>DefaultConcurrencyContext</code> 
+ * is found when looking for a <code>ConcurrencyContext</code>. To make lookups cheap, each such 
+ * type gets a slot number that is the same for all containers. The slot numbers and the types 
+ * under which a context class is stored are resolved once per class through a <code>ClassValue</code>, 
+ * after which a lookup is an index in an array. If multiple contexts share a type, then the 
+ * context that was added last is returned for that type, except that a context that has the 
+ * exact class is always preferred. The slot array of a container is as long as the highest slot 
+ * that it uses, hence slot numbers are only given out to types that are actually looked up or added.
  * 
  * @author Bas Testerink
  */
 public final class ContextContainer {
-	/** Map to store the contexts. */
-	private final Map<Class<?>, Context> map;
+	/** The version of a container of which not all contexts are versioned. */
+	public static final long UNKNOWN_VERSION = -1;
+	/** The slot array of containers without contexts. */
+	private static final Context[] EMPTY = new Context[0];
+	/** Gives out the slot numbers. */
+	private static final AtomicInteger slotGenerator = new AtomicInteger(0);
+	/** The slot number of each type. */
+	private static final ClassValue<Integer> SLOTS = new ClassValue<Integer>(){
+		@Override
+		protected Integer computeValue(final Class<?> type){
+			return slotGenerator.getAndIncrement();
+		}
+	};
+	/** For each context class, the slots of the types under which its instances are stored. The slot of the class itself comes first. */
+	private static final ClassValue<int[]> TYPE_SLOTS = new ClassValue<int[]>(){
+		@Override
+		protected int[] computeValue(final Class<?> klass){
+			Set<Class<?>> types = new LinkedHashSet<>();
+			Deque<Class<?>> todo = new ArrayDeque<>();
+			todo.add(klass);
+			while(!todo.isEmpty()){
+				Class<?> type = todo.poll();
+				if(type == Context.class || !Context.class.isAssignableFrom(type) || !types.add(type)) continue;
+				if(type.getSuperclass() != null) todo.add(type.getSuperclass());
+				todo.addAll(Arrays.asList(type.getInterfaces()));
+			}
+			int[] slots = new int[types.size()];
+			int i = 0;
+			for(Class<?> type : types) slots[i++] = SLOTS.get(type);
+			return slots;
+		}
+	};
+	
+	/** The contexts by slot number. */
+	private Context[] slots;
 	
 	public ContextContainer(){
-		this.map = new HashMap<>();
+		this.slots = EMPTY;
 	}
 	
 	/** Store a new context. Will overwrite any context with the same class that 
 	 * was previously added. */
 	public final void addContext(final Context context){
-		this.map.put(context.getClass(), context);
+		Class<?> klass = context.getClass();
+		int[] typeSlots = TYPE_SLOTS.get(klass);
+		int highest = 0;
+		for(int slot : typeSlots) highest = Math.max(highest, slot);
+		if(highest >= this.slots.length) this.slots = Arrays.copyOf(this.slots, highest + 1);
+		this.slots[typeSlots[0]] = context;
+		for(int i = 1; i < typeSlots.length; i++){
+			Context current = this.slots[typeSlots[i]];
+			// Do not take over the slot of a context that has exactly the slot's type
+			if(current == null || TYPE_SLOTS.get(current.getClass())[0] != typeSlots[i]) 
+				this.slots[typeSlots[i]] = context;
+		}
 	}
 	
 	/**
@@ -35,6 +92,80 @@ public final class ContextContainer {
 	 */
 	@SuppressWarnings("unchecked")
 	public final <C extends Context> C getContext(final Class<C> klass){
-		return (C) this.map.get(klass);
+		int slot = SLOTS.get(klass);
+		Context[] slots = this.slots;
+		return slot < slots.length ? (C) slots[slot] : null;
+	}
+	
+	/**
+	 * Obtain the version of the container, which increases whenever one of its contexts changes. 
+	 * Only known if all contexts are versioned.
+	 * @return The sum of the versions of the contexts, or <code>UNKNOWN_VERSION</code>.
+	 */
+	public final long getVersion(){
+		long version = 0;
+		Context[] slots = this.slots;
+		for(int slot = 0; slot < slots.length; slot++){
+			Context context = slots[slot];
+			if(context == null || TYPE_SLOTS.get(context.getClass())[0] != slot) continue;
+			if(!(context instanceof VersionedContext)) return UNKNOWN_VERSION;
+			version += ((VersionedContext) context).getVersion();
+		}
+		return version;
+	}
+	
+	/** Notify the contexts that are interested that a deliberation cycle finished. */
+	final void deliberationCycleFinished(){
+		notifyCycleAwareContexts(false);
+	}
+	
+	/** Tell the cycle aware contexts that a step of the agent's deliberation cycle threw. */
+	final void deliberationCycleAborted(){
+		notifyCycleAwareContexts(true);
+	}
+	
+	/** Notify each cycle aware context once that the deliberation cycle ended. */
+	private final void notifyCycleAwareContexts(final boolean aborted){
+		Context[] slots = this.slots;
+		for(int slot = 0; slot < slots.length; slot++){
+			Context context = slots[slot];
+			if(context instanceof CycleAwareContext && TYPE_SLOTS.get(context.getClass())[0] == slot){
+				if(aborted) ((CycleAwareContext) context).deliberationCycleAborted();
+				else ((CycleAwareContext) context).deliberationCycleFinished();
+			}
+		}
+	}
+	
+	/** Obtain each context once. A context is in the slot of its own class, unless it was overwritten. */
+	private final List<Context> getContexts(){
+		List<Context> contexts = new ArrayList<>();
+		for(int slot = 0; slot < this.slots.length; slot++){
+			Context context = this.slots[slot];
+			if(context != null && TYPE_SLOTS.get(context.getClass())[0] == slot) contexts.add(context);
+		}
+		return contexts;
+	}
+	
+	/** Remove and return all contexts that can be passivated. Used to move the state of a sleeping agent out of the heap. */
+	final List<PassivatableContext> removePassivatableContexts(){
+		List<PassivatableContext> contexts = new ArrayList<>();
+		List<Context> remaining = new ArrayList<>();
+		for(Context context : getContexts()){
+			if(context instanceof PassivatableContext) contexts.add((PassivatableContext) context);
+			else remaining.add(context);
+		}
+		if(!contexts.isEmpty()){ // Rebuild, so that shared types are served by the remaining contexts
+			this.slots = EMPTY;
+			for(Context context : remaining) addContext(context);
+		}
+		return contexts;
+	}
+	
+	/** Obtain all contexts that can be passivated, without removing them. Used to take a snapshot of the agent. */
+	final List<PassivatableContext> getPassivatableContexts(){
+		List<PassivatableContext> contexts = new ArrayList<>();
+		for(Context context : getContexts())
+			if(context instanceof PassivatableContext) contexts.add((PassivatableContext) context);
+		return contexts;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,18 @@
+package oo2apl.agent;
+/**
+ * A context that is told when a deliberation cycle of its agent finishes. The notification is 
+ * given by the agent's own thread, after the last step of the cycle. This allows a context to 
+ * e.g. publish the changes that the agent made during the cycle in one batch.
+ * 
+ * @author Bas Testerink
+ */
+public interface CycleAwareContext extends Context {
+	/** Called after each deliberation cycle of an agent that has this context. */
+	public void deliberationCycleFinished();
+	
+	/** Called instead of <code>deliberationCycleFinished</code> when a step of the cycle threw. By default the 
+	 * cycle is treated as finished. */
+	public default void deliberationCycleAborted(){
+		deliberationCycleFinished();
+	}
+}
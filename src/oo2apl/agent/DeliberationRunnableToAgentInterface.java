@@ -3,6 +3,7 @@ package oo2apl.agent;
 import java.util.List;
 
 import oo2apl.deliberation.DeliberationStep;
+import oo2apl.deliberation.DeliberationStepException;
 import oo2apl.deliberation.SelfRescheduler;
 /**
  * This interface exposes the functionalities of an agent that include obtaining the 
@@ -21,6 +22,11 @@ public final class DeliberationRunnableToAgentInterface {
 	/** Obtain the id of the agent that is exposed through this interface. */
 	public final AgentID getAgentID(){ return this.agent.getAgentID(); }
 	
+	/** Obtain the interface that the steps of the deliberation cycle are executed with. */
+	public final DeliberationStepToAgentInterface getDeliberationInterface(){
+		return this.agent.produceDeliberationInterface();
+	}
+	
 	/** Obtain the agent's deliberation cycle. */
 	public final List<DeliberationStep> getDeliberationCycle(){ 
 		return this.agent.getDeliberationCycle();
@@ -34,6 +40,21 @@ public final class DeliberationRunnableToAgentInterface {
 		return this.agent.isDone();
 	}
 	
+	/** Notify the agent that a new deliberation cycle starts. */
+	public final void startDeliberationCycle() throws DeliberationStepException {
+		this.agent.startDeliberationCycle();
+	}
+	
+	/** Notify the agent that its deliberation cycle finished. */
+	public final void finishDeliberationCycle(){
+		this.agent.finishDeliberationCycle();
+	}
+	
+	/** Notify the agent that a step of its deliberation cycle threw, so that the cycle ends early. */
+	public final void abortDeliberationCycle(){
+		this.agent.abortDeliberationCycle();
+	}
+	
 	public final void addSelfRescheduler(final SelfRescheduler rescheduler){
 		this.agent.setSelfRescheduler(rescheduler);
 	}
@@ -43,4 +64,7 @@ public final class DeliberationRunnableToAgentInterface {
 	 * @return True iff the agent is already sleeping or there are no current plans and triggers.
 	 */
 	public final boolean checkSleeping(){ return this.agent.checkSleeping(); }
+	
+	/** If the agent has nothing to do except waiting for a message, then obtain how long it should stay awake; 0 otherwise. */
+	public final long startAwaitingInput(){ return this.agent.startAwaitingInput(); }
 }
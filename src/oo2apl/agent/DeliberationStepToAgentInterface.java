@@ -26,6 +26,9 @@ public final class DeliberationStepToAgentInterface {
 	/** Remove a plan from the list of current plans. */
 	public final void removePlan(final Plan plan){ this.agent.removePlan(plan); } 
 	
+	/** Remove all plans that are finished from the list of current plans. */
+	public final void removeFinishedPlans(){ this.agent.removeFinishedPlans(); }
+	
 	/** Add an execution error to the internal triggers of the agent. */
 	public final void addPlanExecutionError(final PlanExecutionError error){ agent.addInternalTrigger(error); }
 	
@@ -48,6 +51,10 @@ public final class DeliberationStepToAgentInterface {
 	 * list of triggers. */
 	public final List<Trigger> getAndRemoveMessages(){ return this.agent.getAndRemoveMessages(); } 
 	
+	/** Obtain and remove the external triggers, internal triggers and messages at once. Returns 
+	 * <code>Inbox.EMPTY</code> if there are none. */
+	public final Inbox getAndRemoveAllTriggers(){ return this.agent.getAndRemoveAllTriggers(); }
+	
 	/** Get the goal plan schemes of the plan scheme base. */
 	public final List<PlanScheme> getGoalPlanSchemes(){ return this.agent.getGoalPlanSchemes(); }
 	
@@ -0,0 +1,96 @@
+package oo2apl.agent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+/**
+ * An inbox list from which the oldest trigger with the lowest priority is dropped in constant time. A
+ * dropped trigger leaves a null in its place, so that the positions of the other triggers do not change.
+ * For each priority the positions of the triggers are queued in order of arrival, from the first drop on.
+ * The agent switches to this list when its bounded inbox drops a trigger for the first time; a conflating
+ * inbox is a dropping inbox from the start. The nulls are removed when the list is handed over to the
+ * deliberation cycle, or when they outnumber the triggers, which costs linear time once per that many drops.
+ *
+ * @author Bas Testerink
+ */
+class DroppingInbox extends ArrayList<Trigger> {
+	private static final long serialVersionUID = 1L;
+	/** The number of nulls that dropped triggers left in the list. */
+	private int nrOfDropped = 0;
+	/** For each priority the positions of the triggers in order of arrival. A position whose trigger was dropped
+	 * or replaced by one of another priority is skipped. Null until the first drop. */
+	private TreeMap<Integer, ArrayDeque<Integer>> positionsByPriority = null;
+
+	/** Create an inbox with the given initial capacity. */
+	DroppingInbox(final int capacity){
+		super(capacity);
+	}
+
+	/** Create an inbox that contains the given triggers, if any. */
+	DroppingInbox(final List<Trigger> triggers){
+		this(triggers == null ? 4 : Math.max(4, triggers.size() * 2));
+		if(triggers != null)
+			for(Trigger trigger : triggers)
+				if(trigger != null) add(trigger);
+	}
+
+	@Override
+	public boolean add(final Trigger trigger){
+		if(this.positionsByPriority != null) queue(size(), trigger);
+		return super.add(trigger);
+	}
+
+	/** Replace the trigger at the given position, which was not dropped. */
+	final void replace(final int position, final Trigger trigger){
+		Trigger replaced = set(position, trigger);
+		if(this.positionsByPriority != null && AgentRuntimeData.getPriority(replaced) != AgentRuntimeData.getPriority(trigger))
+			queue(position, trigger); // Its entry under the old priority is skipped
+	}
+
+	/** Drop the oldest trigger with the lowest priority from the nonempty inbox, and return it. */
+	final Trigger drop(){
+		if(this.positionsByPriority == null){
+			this.positionsByPriority = new TreeMap<>();
+			for(int i = 0; i < size(); i++)
+				if(get(i) != null) queue(i, get(i));
+		}
+		while(true){
+			Map.Entry<Integer, ArrayDeque<Integer>> lowest = this.positionsByPriority.firstEntry();
+			int position = lowest.getValue().pollFirst();
+			if(lowest.getValue().isEmpty()) this.positionsByPriority.remove(lowest.getKey());
+			Trigger trigger = get(position);
+			if(trigger == null || AgentRuntimeData.getPriority(trigger) != lowest.getKey().intValue()) continue; // Dropped or replaced
+			set(position, null);
+			this.nrOfDropped++;
+			dropped(position, trigger);
+			if(this.nrOfDropped > size() / 2) compact();
+			return trigger;
+		}
+	}
+
+	/** Called when the trigger at the position was dropped. */
+	void dropped(final int position, final Trigger trigger){}
+
+	/** Remove the nulls of dropped triggers. The positions change, hence they are queued anew upon the next drop. 
+	 * Returns true iff positions changed. */
+	boolean compact(){
+		this.positionsByPriority = null;
+		if(this.nrOfDropped == 0) return false;
+		removeIf(Objects::isNull);
+		this.nrOfDropped = 0;
+		return true;
+	}
+
+	/** Obtain the number of triggers that were not dropped. */
+	final int getNrOfTriggers(){
+		return size() - this.nrOfDropped;
+	}
+
+	/** Queue the position of a trigger under its priority. */
+	private final void queue(final int position, final Trigger trigger){
+		this.positionsByPriority.computeIfAbsent(AgentRuntimeData.getPriority(trigger), priority -> new ArrayDeque<>()).addLast(position);
+	}
+}
@@ -19,7 +19,8 @@ public final class ExternalProcessToAgentInterface {
 		this.agent.addAgentDeathListener(listener);
 	}
 	
-	/** Put an external event in this agent. Will be processed the next deliberation cycle. */
+	/** Put an external event in this agent. Will be processed the next deliberation cycle. Throws a 
+	 * <code>MailboxFullException</code> if the inbox of the agent is bounded and the trigger is refused. */
 	public final void addExternalTrigger(final Trigger externalTrigger){
 		this.agent.addExternalTrigger(externalTrigger);
 	}
@@ -0,0 +1,27 @@
+package oo2apl.agent;
+
+import java.util.Collections;
+import java.util.List;
+/**
+ * The external triggers, internal triggers and messages that a deliberation step took from an 
+ * agent at once. Agents without any triggers return the shared empty inbox, so that a step can 
+ * skip all trigger processing with a single check.
+ * 
+ * @author Bas Testerink
+ */
+public final class Inbox {
+	/** The inbox without triggers. */
+	public static final Inbox EMPTY = new Inbox(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+	
+	private final List<Trigger> externalTriggers, internalTriggers, messages;
+	
+	Inbox(final List<Trigger> externalTriggers, final List<Trigger> internalTriggers, final List<Trigger> messages){
+		this.externalTriggers = externalTriggers;
+		this.internalTriggers = internalTriggers;
+		this.messages = messages;
+	}
+	
+	public final List<Trigger> getExternalTriggers(){ return this.externalTriggers; }
+	public final List<Trigger> getInternalTriggers(){ return this.internalTriggers; }
+	public final List<Trigger> getMessages(){ return this.messages; }
+}
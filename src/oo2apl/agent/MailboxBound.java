@@ -0,0 +1,66 @@
+package oo2apl.agent;
+/**
+ * Bounds the number of messages and the number of external triggers that can wait in the inbox of 
+ * an agent. Without a bound, an agent that receives a flood of input faster than it deliberates 
+ * grows its inbox until the memory runs out. When input arrives at a full inbox, then the policy of 
+ * the bound decides what happens: 
+ * <ul>
+ * <li><code>REJECT</code>: the input is refused with a <code>MailboxFullException</code>.</li>
+ * <li><code>DROP_OLDEST</code>: the oldest input with the lowest priority of the same category is 
+ * discarded to make room, see <code>PrioritizedTrigger</code>. Without priorities that is the oldest input.</li>
+ * <li><code>BLOCK</code>: an external sender waits until the agent takes its inbox, and the input is 
+ * refused if that does not happen within the timeout.</li>
+ * </ul>
+ * An agent that sends a message that is refused receives a <code>MessageRejectedTrigger</code> as 
+ * internal trigger. So does the sender of a dropped message, if the message names its sender by 
+ * implementing <code>AttributedTrigger</code>. External processes receive the exception. Internal 
+ * triggers are not bounded, as the agent produces them itself. 
+ * 
+ * Only external producers wait. A message from an agent is refused right away, as a waiting agent 
+ * would occupy its thread and agents that send to each other, or an agent that sends to itself, would 
+ * wait for one another until the timeout. When the schedule is traced, senders do not wait either 
+ * as deliveries are serialized by the trace. A bound is immutable and can be shared by any number 
+ * of agents.
+ * 
+ * @author Bas Testerink
+ */
+public final class MailboxBound {
+	/** What happens to input that arrives at a full inbox. */
+	public static enum Policy { REJECT, DROP_OLDEST, BLOCK }
+	
+	/** The maximal number of waiting messages, and separately of waiting external triggers. */
+	private final int capacity;
+	/** What to do when the inbox is full. */
+	private final Policy policy;
+	/** The time that a blocked sender waits for room. */
+	private final long timeoutMillis;
+	
+	private MailboxBound(final int capacity, final Policy policy, final long timeoutMillis){
+		if(capacity < 1) throw new IllegalArgumentException("Capacity must be positive.");
+		if(timeoutMillis < 0) throw new IllegalArgumentException("Timeout cannot be negative.");
+		this.capacity = capacity;
+		this.policy = policy;
+		this.timeoutMillis = timeoutMillis;
+	}
+	
+	/** Refuse input when the inbox holds <code>capacity</code> inputs of its category. */
+	public static final MailboxBound reject(final int capacity){
+		return new MailboxBound(capacity, Policy.REJECT, 0);
+	}
+	
+	/** Discard the oldest input with the lowest priority of the category when the inbox holds <code>capacity</code> inputs of it. */
+	public static final MailboxBound dropOldest(final int capacity){
+		return new MailboxBound(capacity, Policy.DROP_OLDEST, 0);
+	}
+	
+	/** Let the sender wait at most <code>timeoutMillis</code> for room, after which the input is refused. */
+	public static final MailboxBound block(final int capacity, final long timeoutMillis){
+		return new MailboxBound(capacity, Policy.BLOCK, timeoutMillis);
+	}
+	
+	public final int getCapacity(){ return this.capacity; }
+	public final Policy getPolicy(){ return this.policy; }
+	public final long getTimeoutMillis(){ return this.timeoutMillis; }
+	
+	public final String toString(){ return "MailboxBound("+this.policy+", "+this.capacity+(this.policy == Policy.BLOCK ? ", "+this.timeoutMillis+"ms)" : ")"); }
+}
@@ -0,0 +1,26 @@
+package oo2apl.agent;
+/**
+ * Thrown to the sender of a message or external trigger that was refused because the inbox of the 
+ * receiving agent is full. See <code>MailboxBound</code>. 
+ * 
+ * @author Bas Testerink
+ */
+public final class MailboxFullException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+	/** The agent that refused the input. */
+	private final AgentID receiver;
+	/** The input that was refused. */
+	private final transient Trigger trigger;
+	
+	public MailboxFullException(final AgentID receiver, final Trigger trigger){
+		super("The inbox of agent "+receiver+" is full.");
+		this.receiver = receiver;
+		this.trigger = trigger;
+	}
+	
+	/** Obtain the agent that refused the input. */
+	public final AgentID getReceiver(){ return this.receiver; }
+	
+	/** Obtain the refused input. */
+	public final Trigger getTrigger(){ return this.trigger; }
+}
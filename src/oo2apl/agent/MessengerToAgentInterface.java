@@ -13,11 +13,18 @@ public final class MessengerToAgentInterface {
 		this.agent = agent; 
 	}
 	
-	/** Insert a message in the message queue. */
+	/** Insert a message in the message queue. Throws a <code>MailboxFullException</code> if the inbox of the 
+	 * agent is bounded and the message is refused; messengers must pass it on to the sender. */
 	public final void deliverMessage(final Trigger message){
 		this.agent.deliverMessage(message);
 	}
 	
+	/** Obtain the key that determines where the agent runs when the platform is sharded. */
+	public final Object getPlacementKey(){ return this.agent.getPlacementKey(); }
+	
+	/** Check whether the inbox of the agent is bounded, in which case a sender may have to wait or be refused. */
+	public final boolean hasMailboxBound(){ return this.agent.hasMailboxBound(); }
+	
 	/** Obtain the id of the agent that is exposed through this interface. */
 	public final AgentID getAgentID(){ return this.agent.getAgentID(); }
 }
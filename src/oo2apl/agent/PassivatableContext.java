@@ -0,0 +1,14 @@
+package oo2apl.agent;
+
+import java.io.Serializable;
+/**
+ * A passivatable context is a context that may be moved out of the heap while its agent sleeps, 
+ * and that is restored when the agent wakes up again. The context is stored by means of Java 
+ * serialization, hence all its state must be serializable. Do not implement this interface for 
+ * contexts that are shared among agents, as each agent would receive its own copy upon reactivation. 
+ * For the same reason plans, goals and tasks must obtain the context from the agent in each deliberation 
+ * cycle instead of keeping a reference to it: after a passivation the agent uses a restored copy.
+ * 
+ * @author Bas Testerink
+ */
+public interface PassivatableContext extends Context, Serializable {}
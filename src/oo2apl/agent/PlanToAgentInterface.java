@@ -37,6 +37,11 @@ public final class PlanToAgentInterface {
 	/** Obtain the id of the agent that is exposed through this interface. */
 	public final AgentID getAgentID(){ return this.agent.getAgentID(); }
 	
+	/** Subscribe to the changes of a context, e.g. one that is shared with other agents. Upon a change the 
+	 * agent receives a <code>ContextChangedTrigger</code> as internal trigger. Returns the listener, which 
+	 * can be used to unsubscribe from the context. */
+	public final ContextChangeListener subscribeToContext(final VersionedContext context){ return this.agent.subscribeToContext(context); }
+	
 	/** Obtain the context that belongs to a certain class. */
 	public final <C extends Context> C getContext(final Class<C> klass){ return this.agent.getContext(klass); }
 	
@@ -127,6 +132,16 @@ public final class PlanToAgentInterface {
 		adoptMessageInterceptor(interceptor);
 		return interceptor; 
 	}
+	/** 
+	 * Same as <code>waitForMessage(selector, plan)</code>, except that the interceptor expires if no matching message is received within the 
+	 * given number of milliseconds. Upon expiry the interceptor is removed and the timeout plan (if not null) is adopted. 
+	 */
+	public final <T extends Trigger> EnhancedTriggerInterceptor waitForMessage(final Predicate<Trigger> selector, final DecoupledPlanBodyInterface<T> plan, final long timeoutMillis, final Plan timeoutPlan){
+		EnhancedTriggerInterceptor interceptor =  (new EnhancedTriggerInterceptorBuilder()).setSelector(selector).setConsuming(true).setForceRunOnce(true).setPlan(new InstantiableRunOnceDecoupledPlan<T>(plan))
+				.setTimeToLive(timeoutMillis).setTimeoutPlan(timeoutPlan).build();
+		adoptMessageInterceptor(interceptor);
+		return interceptor; 
+	}
 	/** 
 	 * Upon calling this method an interceptor is created such that it fires if the predicate holds for a given trigger and its plan contains the 
 	 * given decoupled plan. The plan is a run-once plan which is set to finished after a single execution. The trigger that fires the interceptor is consumed (i.e. removed). 
@@ -0,0 +1,60 @@
+package oo2apl.agent;
+
+import oo2apl.checkpoint.Checkpoint;
+import oo2apl.journal.TriggerJournal;
+import oo2apl.passivation.PassivationStore;
+import oo2apl.plan.builtin.MessageRejectedTrigger;
+/**
+ * This interface exposes to the platform the runtime statistics of an agent that are 
+ * used for monitoring and diagnostics, and the management of the agent's residency.
+ * 
+ * @author Bas Testerink
+ */
+public final class PlatformToAgentInterface {
+	/** The agent that is exposed by this interface. */
+	private final AgentRuntimeData agent;
+	
+	public PlatformToAgentInterface(final AgentRuntimeData agent){
+		this.agent = agent;
+	}
+	
+	/** Obtain the id of the agent that is exposed through this interface. */
+	public final AgentID getAgentID(){ return this.agent.getAgentID(); }
+	
+	/** Obtain the key that determines where the agent runs when the platform is sharded. */
+	public final Object getPlacementKey(){ return this.agent.getPlacementKey(); }
+	
+	/** Get the total number of interceptors that the agent currently has over all trigger categories. 
+	 * Read without synchronization, hence the value is an approximation when the agent is running. */
+	public final int getInterceptorCount(){ return this.agent.getInterceptorCount(); }
+	
+	/** Obtain the number of messages and external triggers that wait in the inbox of the agent. */
+	public final int getMailboxDepth(){ return this.agent.getMailboxDepth(); }
+	
+	/** Obtain the number of messages and external triggers that the agent refused because its inbox was full. */
+	public final long getRejectedInputs(){ return this.agent.getRejectedInputs(); }
+	
+	/** Obtain the number of messages and external triggers that the agent dropped to make room in its inbox. */
+	public final long getDroppedInputs(){ return this.agent.getDroppedInputs(); }
+	
+	/** Obtain the number of deliberation cycles that the agent has started. */
+	public final long getCycleCount(){ return this.agent.getCycleCount(); }
+	
+	/** Passivate the agent if it has been sleeping for at least the given time. 
+	 * @return True iff the agent was passivated by this call. */
+	public final boolean passivateIfIdle(final PassivationStore store, final long idleMillis){ 
+		return this.agent.passivateIfIdle(store, idleMillis); 
+	}
+	
+	/** @return True iff the contexts of the agent are currently passivated. */
+	public final boolean isPassivated(){ return this.agent.isPassivated(); }
+	
+	/** Ask the agent to write its snapshot for the given checkpoint at its next cycle boundary. */
+	public final void requestCheckpoint(final Checkpoint checkpoint){ this.agent.requestCheckpoint(checkpoint); }
+	
+	/** Notify the agent that a message that it sent was dropped from the full inbox of the receiver. */
+	public final void messageDropped(final AgentID receiver, final Trigger message){ this.agent.addInternalTrigger(new MessageRejectedTrigger(receiver, message)); }
+	
+	/** Insert a trigger from a journal into the agent. The trigger is not journaled again. */
+	public final void replayTrigger(final TriggerJournal.Kind kind, final Trigger trigger){ this.agent.replayTrigger(kind, trigger); }
+}
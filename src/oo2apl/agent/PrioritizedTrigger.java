@@ -0,0 +1,19 @@
+package oo2apl.agent;
+/**
+ * A trigger that is handled before the triggers of lower priority in its category, such as a control 
+ * message that must not wait behind routine messages. When the agent takes its inbox, the triggers of 
+ * each category are ordered by descending priority; triggers of equal priority keep their arrival 
+ * order. Triggers that do not implement this interface have priority 0, so a negative priority lets 
+ * a trigger yield to ordinary ones. 
+ * 
+ * The plan schemes are applied to the triggers in this order, hence the plans for high-priority 
+ * triggers are also adopted, and executed, first. When a bounded inbox drops input to make room, 
+ * it drops the oldest trigger of the lowest priority. An agent with a message budget takes only that 
+ * many messages per cycle, the highest priorities first; see <code>AgentBuilder.setMessageBudget</code>.
+ * 
+ * @author Bas Testerink
+ */
+public interface PrioritizedTrigger extends Trigger {
+	/** Obtain the priority of the trigger; higher is handled earlier. */
+	public int getPriority();
+}
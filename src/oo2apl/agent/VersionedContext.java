@@ -0,0 +1,70 @@
+package oo2apl.agent;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+/**
+ * A context that announces its changes. Each change increases the version of the context, 
+ * which gives the runtime a cheap way to see that a context did not change, and notifies the 
+ * subscribed listeners. Implementations must call <code>changed()</code> after each change 
+ * of the state that the agent's decisions depend on.
+ * 
+ * If all contexts of an agent are versioned, then the agent only re-evaluates whether its goals 
+ * are achieved when a context changed or a goal was adopted. Hence goals must only depend on the 
+ * contexts. Plan schemes can use the version to memoize their guards. A context that is shared 
+ * among agents can wake up the agents that subscribed to it through 
+ * <code>PlanToAgentInterface.subscribeToContext</code>.
+ * 
+ * @author Bas Testerink
+ */
+public abstract class VersionedContext implements Context, Serializable {
+	private static final long serialVersionUID = 1L;
+	/** Updater for the version, so that no atomic object is needed per context. */
+	private static final AtomicLongFieldUpdater<VersionedContext> VERSION = AtomicLongFieldUpdater.newUpdater(VersionedContext.class, "version");
+	
+	/** The number of changes of this context. */
+	private volatile long version = 0;
+	/** The subscribed listeners; copied upon each (un)subscription. Null if there are none. */
+	private transient volatile ContextChangeListener[] listeners = null;
+	
+	/** Obtain the version of the context, i.e. the number of changes so far. */
+	public final long getVersion(){ return this.version; }
+	
+	/** Signal that the context changed. Increases the version and notifies the listeners. */
+	protected final void changed(){
+		VERSION.incrementAndGet(this);
+		ContextChangeListener[] listeners = this.listeners;
+		if(listeners == null) return;
+		for(ContextChangeListener listener : listeners)
+			if(!listener.contextChanged(this)) unsubscribe(listener);
+	}
+	
+	/** Subscribe a listener that is notified after each change. */
+	public final synchronized void subscribe(final ContextChangeListener listener){
+		ContextChangeListener[] listeners = this.listeners;
+		if(listeners == null) this.listeners = new ContextChangeListener[]{ listener };
+		else {
+			listeners = Arrays.copyOf(listeners, listeners.length + 1);
+			listeners[listeners.length - 1] = listener;
+			this.listeners = listeners;
+		}
+	}
+	
+	/** Unsubscribe a listener. Nothing happens if it is not subscribed. */
+	public final synchronized void unsubscribe(final ContextChangeListener listener){
+		ContextChangeListener[] listeners = this.listeners;
+		if(listeners == null) return;
+		for(int i = 0; i < listeners.length; i++){
+			if(listeners[i] == listener){
+				if(listeners.length == 1) this.listeners = null;
+				else {
+					ContextChangeListener[] remaining = new ContextChangeListener[listeners.length - 1];
+					System.arraycopy(listeners, 0, remaining, 0, i);
+					System.arraycopy(listeners, i + 1, remaining, i, listeners.length - i - 1);
+					this.listeners = remaining;
+				}
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package oo2apl.checkpoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.List;
+
+import oo2apl.agent.AgentID;
+import oo2apl.agent.Goal;
+import oo2apl.agent.PassivatableContext;
+import oo2apl.agent.Trigger;
+/**
+ * The state of a single agent as it is written to a snapshot file. This consists of the agent's 
+ * identity, its passivatable contexts, and those of its goals and pending triggers that are 
+ * serializable. Plan schemes, the deliberation cycle and non-passivatable contexts are not part of 
+ * the snapshot; these are provided by the factory upon restoring the agent. Current plans and 
+ * interceptors are not restored either, hence goals are restored as not being pursued. The contexts 
+ * of a passivated agent are kept in the serialized form in which they were passivated, so that the 
+ * agent need not be reactivated for a checkpoint.
+ * 
+ * @author Bas Testerink
+ */
+public final class AgentSnapshot implements Serializable {
+	private static final long serialVersionUID = 1L;
+	/** The identity of the agent. */
+	private final AgentID agentID;
+	/** The passivatable contexts of the agent, or null if they are serialized. */
+	private final List<PassivatableContext> contexts;
+	/** The passivated contexts of the agent, as serialized by the agent upon passivation, or null if they are not serialized. */
+	private final byte[] serializedContexts;
+	/** The serializable goals of the agent. */
+	private final List<Goal> goals;
+	/** The serializable pending triggers of the agent. */
+	private final List<Trigger> externalTriggers, messages, internalTriggers;
+	
+	public AgentSnapshot(final AgentID agentID, final List<PassivatableContext> contexts, final List<Goal> goals, 
+			final List<Trigger> externalTriggers, final List<Trigger> messages, final List<Trigger> internalTriggers){
+		this(agentID, contexts, null, goals, externalTriggers, messages, internalTriggers);
+	}
+	
+	/** Snapshot of a passivated agent; the contexts are the state that the agent put in its passivation store. */
+	public AgentSnapshot(final AgentID agentID, final byte[] serializedContexts, final List<Goal> goals, 
+			final List<Trigger> externalTriggers, final List<Trigger> messages, final List<Trigger> internalTriggers){
+		this(agentID, null, serializedContexts, goals, externalTriggers, messages, internalTriggers);
+	}
+	
+	private AgentSnapshot(final AgentID agentID, final List<PassivatableContext> contexts, final byte[] serializedContexts, 
+			final List<Goal> goals, final List<Trigger> externalTriggers, final List<Trigger> messages, final List<Trigger> internalTriggers){
+		this.agentID = agentID;
+		this.contexts = contexts;
+		this.serializedContexts = serializedContexts;
+		this.goals = goals;
+		this.externalTriggers = externalTriggers;
+		this.messages = messages;
+		this.internalTriggers = internalTriggers;
+	}
+	
+	public final AgentID getAgentID(){ return this.agentID; }
+	
+	/** Obtain the passivatable contexts. Serialized contexts are deserialized anew upon each call. */
+	@SuppressWarnings("unchecked")
+	public final List<PassivatableContext> getContexts(){
+		if(this.contexts != null) return this.contexts;
+		try(ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(this.serializedContexts))){
+			return (List<PassivatableContext>) input.readObject();
+		} catch(IOException | ClassNotFoundException e){
+			throw new IllegalStateException("Could not deserialize the contexts of agent "+this.agentID+".", e);
+		}
+	}
+	
+	public final List<Goal> getGoals(){ return this.goals; }
+	public final List<Trigger> getExternalTriggers(){ return this.externalTriggers; }
+	public final List<Trigger> getMessages(){ return this.messages; }
+	public final List<Trigger> getInternalTriggers(){ return this.internalTriggers; }
+}
@@ -0,0 +1,91 @@
+package oo2apl.checkpoint;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * A checkpoint that is in progress. Each agent that takes part writes its own snapshot at a moment 
+ * at which it is not deliberating: immediately if it sleeps, otherwise at the boundary of its current 
+ * deliberation cycle. Hence the platform keeps running while the checkpoint is taken. The snapshot 
+ * file is closed once every agent has either written its snapshot or died.
+ * 
+ * @author Bas Testerink
+ */
+public final class Checkpoint {
+	/** The file to which the snapshots are written. */
+	private final SnapshotFile file;
+	/** The number of agents that still have to write their snapshot, plus one until all agents are requested. */
+	private final AtomicInteger pending;
+	/** Released when the checkpoint is complete. */
+	private final CountDownLatch completed;
+	/** The first error that occurred, if any. */
+	private volatile IOException error = null;
+	
+	/**
+	 * Create a checkpoint.
+	 * @param file The file to write the snapshots to. Is closed when the checkpoint completes.
+	 * @param nrOfAgents The number of agents that will be asked to write their snapshot.
+	 */
+	public Checkpoint(final SnapshotFile file, final int nrOfAgents){
+		this.file = file;
+		this.pending = new AtomicInteger(nrOfAgents + 1);
+		this.completed = new CountDownLatch(1);
+	}
+	
+	/** Signal that all agents have been asked to write their snapshot. */
+	public final void allAgentsRequested(){
+		agentFinished();
+	}
+	
+	/** Write the snapshot of an agent. */
+	public final void write(final AgentSnapshot snapshot){
+		try {
+			this.file.append(snapshot);
+		} catch(IOException e){
+			if(this.error == null) this.error = e;
+		}
+		agentFinished();
+	}
+	
+	/** Signal that the snapshot of an agent could not be captured, e.g. because its passivated state could not be read. */
+	public final void agentFailed(final IOException error){
+		if(this.error == null) this.error = error;
+		agentFinished();
+	}
+	
+	/** Signal that an agent will not write a snapshot, e.g. because it died. */
+	public final void agentSkipped(){
+		agentFinished();
+	}
+	
+	/** @return True iff all agents have written their snapshot or died, and the file is closed. */
+	public final boolean isComplete(){
+		return this.completed.getCount() == 0;
+	}
+	
+	/** Close the file when the last agent is finished. */
+	private final void agentFinished(){
+		if(this.pending.decrementAndGet() == 0){
+			try {
+				this.file.close();
+			} catch(IOException e){
+				if(this.error == null) this.error = e;
+			}
+			this.completed.countDown();
+		}
+	}
+	
+	/**
+	 * Wait until the checkpoint is complete. Agents that sleep write their snapshot immediately, 
+	 * agents that are deliberating write it after their current cycle.
+	 * @param timeoutMillis Maximal time to wait.
+	 * @return True iff the checkpoint completed within the time.
+	 * @throws IOException If writing a snapshot or closing the file failed.
+	 */
+	public final boolean await(final long timeoutMillis) throws IOException, InterruptedException {
+		boolean done = this.completed.await(timeoutMillis, TimeUnit.MILLISECONDS);
+		if(this.error != null) throw this.error;
+		return done;
+	}
+}
@@ -0,0 +1,238 @@
+package oo2apl.checkpoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+/**
+ * A snapshot file stores agent snapshots as a sequence of self-delimiting records. The file 
+ * starts with a header (magic number and format version) after which each record consists of a 
+ * marker, the agent's serial number, the length of the payload, a CRC-32 checksum of the serial 
+ * number, length and payload, and the payload (the serialized snapshot). Records are padded to a 
+ * multiple of 8 bytes.
+ * 
+ * Writing is append-only and thread safe: each writer reserves the space for its record with an 
+ * atomic counter and then copies the record into memory-mapped segments of the file, so that 
+ * many agents can write their snapshots in parallel without a lock. Opening an existing file 
+ * appends to it. When reading, a later record of an agent replaces its earlier records, hence 
+ * incremental checkpoints can be appended to the same file.
+ * 
+ * A writer that is interrupted, e.g. by a crash, leaves a hole of zeros or a torn record in the space 
+ * that it reserved, while the writers after it may have completed their records. A record only counts 
+ * if its checksum matches; after a hole the next record is searched for at the following multiples 
+ * of 8 bytes. Opening an existing file appends after its last valid record, so that no complete record 
+ * is overwritten.
+ * 
+ * @author Bas Testerink
+ */
+public final class SnapshotFile implements AutoCloseable {
+	/** Magic number that identifies snapshot files, and the version of the format. */
+	private static final int MAGIC = 0x2A91C4E7, VERSION = 2;
+	/** Marks the start of a record. */
+	private static final int RECORD_MARKER = 0x5E4A9D31;
+	/** The size of the header and of the fixed part of each record, and the multiple to which records are padded. */
+	private static final int HEADER_SIZE = 8, RECORD_HEADER_SIZE = 20, ALIGNMENT = 8;
+	/** The size of the buffer with which files are scanned. */
+	private static final int WINDOW_SIZE = 1 << 20;
+	/** The size of the memory-mapped segments. */
+	private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+	
+	/** The channel of the file. */
+	private final FileChannel channel;
+	/** The position in the file at which the next record is written. */
+	private final AtomicLong end;
+	/** The mapped segments of the file, by index. */
+	private final Map<Long, MappedByteBuffer> segments;
+	
+	/** Open a snapshot file for writing. If the file exists then new records are appended. */
+	public SnapshotFile(final Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.segments = new ConcurrentHashMap<>();
+		long size = this.channel.size();
+		if(size == 0){
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+			header.flip();
+			while(header.hasRemaining()) this.channel.write(header, header.position());
+			size = HEADER_SIZE;
+		} else size = scan(this.channel, size, null); // Append after the last valid record
+		this.end = new AtomicLong(size);
+	}
+	
+	/** Serialize the snapshot and append it to the file. Can be called by multiple threads at once. */
+	public final void append(final AgentSnapshot snapshot) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ObjectOutputStream output = new ObjectOutputStream(bytes)){
+			output.writeObject(snapshot);
+		}
+		byte[] payload = bytes.toByteArray();
+		ByteBuffer record = ByteBuffer.allocate(align(RECORD_HEADER_SIZE + payload.length));
+		record.putInt(RECORD_MARKER).putLong(snapshot.getAgentID().getSerial()).putInt(payload.length).putInt(0).put(payload);
+		record.putInt(16, checksum(record, 0, payload.length));
+		record.clear(); // The whole record, including the padding
+		write(this.end.getAndAdd(record.capacity()), record);
+	}
+	
+	/** Copy the record into the mapped segments, starting at the given position in the file. */
+	private final void write(long position, final ByteBuffer record) throws IOException {
+		while(record.hasRemaining()){
+			long index = position / SEGMENT_SIZE;
+			int offset = (int)(position % SEGMENT_SIZE);
+			ByteBuffer target = segment(index).duplicate();
+			target.position(offset);
+			int length = Math.min(record.remaining(), target.remaining());
+			ByteBuffer part = record.duplicate();
+			part.limit(part.position() + length);
+			target.put(part);
+			record.position(record.position() + length);
+			position += length;
+		}
+	}
+	
+	/** Obtain the segment with the given index, map it if it is not mapped yet. */
+	private final MappedByteBuffer segment(final long index) throws IOException {
+		MappedByteBuffer segment = this.segments.get(index);
+		if(segment == null){
+			synchronized(this.segments){
+				segment = this.segments.get(index);
+				if(segment == null){
+					segment = this.channel.map(FileChannel.MapMode.READ_WRITE, index * SEGMENT_SIZE, SEGMENT_SIZE);
+					this.segments.put(index, segment);
+				}
+			}
+		}
+		return segment;
+	}
+	
+	/** Flush the mapped segments and cut the file off at the end of the last record. Must only be 
+	 * called when no more records are being appended. */
+	public final void close() throws IOException {
+		for(MappedByteBuffer segment : this.segments.values()) segment.force();
+		this.segments.clear();
+		this.channel.truncate(this.end.get());
+		this.channel.close();
+	}
+	
+	/**
+	 * Read the snapshots of a file. If an agent has multiple records, then only its last record is 
+	 * used. The payloads are deserialized in parallel.
+	 * @param file The snapshot file.
+	 * @return The snapshots in the order of the first record of each agent.
+	 */
+	public static final List<AgentSnapshot> read(final Path file) throws IOException {
+		Map<Long, byte[]> payloads = new LinkedHashMap<>();
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			scan(channel, channel.size(), payloads);
+		}
+		return deserialize(payloads.values());
+	}
+	
+	/**
+	 * Walk over the records of a snapshot file. A record counts if its checksum matches. Elsewhere, e.g. in the 
+	 * hole of an interrupted writer or the unused tail of a mapped segment, the next record is searched for at 
+	 * the following multiples of the alignment. Stops at the end of the file.
+	 * @param channel The channel of the file.
+	 * @param size The size of the file.
+	 * @param payloads If not null, then the payload of each agent's last record is put in this map.
+	 * @return The position after the last valid record.
+	 */
+	private static final long scan(final FileChannel channel, final long size, final Map<Long, byte[]> payloads) throws IOException {
+		Window window = new Window(channel);
+		if(size < HEADER_SIZE) throw new IOException("Not a snapshot file of version "+VERSION+".");
+		int at = window.load(0, HEADER_SIZE);
+		if(window.buffer.getInt(at) != MAGIC || window.buffer.getInt(at + 4) != VERSION) 
+			throw new IOException("Not a snapshot file of version "+VERSION+".");
+		long position = HEADER_SIZE, end = HEADER_SIZE;
+		while(position + RECORD_HEADER_SIZE <= size){
+			at = window.load(position, RECORD_HEADER_SIZE);
+			int length = window.buffer.getInt(at + 12);
+			if(window.buffer.getInt(at) == RECORD_MARKER && length > 0 && length <= size - position - RECORD_HEADER_SIZE){
+				at = window.load(position, RECORD_HEADER_SIZE + length);
+				if(window.buffer.getInt(at + 16) == checksum(window.buffer, at, length)){
+					if(payloads != null){
+						byte[] bytes = new byte[length];
+						System.arraycopy(window.buffer.array(), at + RECORD_HEADER_SIZE, bytes, 0, length);
+						payloads.put(window.buffer.getLong(at + 4), bytes);
+					}
+					position += align(RECORD_HEADER_SIZE + length);
+					end = position;
+					continue;
+				}
+			}
+			position += ALIGNMENT; // A hole or a torn record
+		}
+		return end;
+	}
+	
+	/** Compute the checksum of the serial number, length and payload of the record at the given index of the buffer. */
+	private static final int checksum(final ByteBuffer buffer, final int index, final int length){
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), buffer.arrayOffset() + index + 4, 12);
+		crc.update(buffer.array(), buffer.arrayOffset() + index + RECORD_HEADER_SIZE, length);
+		return (int) crc.getValue();
+	}
+	
+	/** Round a record size up to the alignment. */
+	private static final int align(final int size){
+		return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+	
+	/** A buffer that holds a part of a file that is read from front to back. */
+	private static final class Window {
+		private final FileChannel channel;
+		private ByteBuffer buffer = ByteBuffer.allocate(WINDOW_SIZE);
+		/** The position in the file of the start of the buffer. */
+		private long start = 0;
+		
+		private Window(final FileChannel channel){
+			this.channel = channel;
+			this.buffer.limit(0);
+		}
+		
+		/** Make sure that the buffer holds the given range of the file, which must lie within the file, and return 
+		 * the index in the buffer at which the range starts. */
+		private final int load(final long position, final int length) throws IOException {
+			if(position >= this.start && position + length <= this.start + this.buffer.limit()) return (int)(position - this.start);
+			if(length > this.buffer.capacity()) this.buffer = ByteBuffer.allocate(length);
+			this.buffer.clear();
+			while(this.buffer.hasRemaining()){
+				int read = this.channel.read(this.buffer, position + this.buffer.position());
+				if(read < 0) break;
+			}
+			this.buffer.flip();
+			this.start = position;
+			if(this.buffer.limit() < length) throw new EOFException("The snapshot file was truncated while it was read.");
+			return 0;
+		}
+	}
+	
+	/** Deserialize the payloads in parallel. */
+	private static final List<AgentSnapshot> deserialize(final Collection<byte[]> payloads) throws IOException {
+		try {
+			return new ArrayList<>(payloads).parallelStream().map((byte[] bytes) -> {
+				try(ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))){
+					return (AgentSnapshot) input.readObject();
+				} catch(IOException | ClassNotFoundException e){
+					throw new IllegalStateException(e);
+				}
+			}).collect(Collectors.toList());
+		} catch(IllegalStateException e){
+			throw new IOException("Corrupt snapshot record.", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package oo2apl.defaults.contexts;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import oo2apl.agent.AgentID;
+import oo2apl.agent.CycleAwareContext;
+import oo2apl.agent.VersionedContext;
+import oo2apl.deliberation.DeliberationRunnable;
+/**
+ * A blackboard is a key-value store that is shared among agents by adding the same instance to 
+ * each of them. Reading never blocks: the content is an immutable map that is replaced as a whole 
+ * upon each change (copy-on-write), hence a reader always sees a consistent snapshot. 
+ * 
+ * Writes are batched per deliberation cycle. The writes of an agent are buffered until its 
+ * deliberation cycle finishes, after which they are published together, so the map is copied once 
+ * per cycle instead of once per write. Batches are kept per agent, hence an agent that runs inline 
+ * within the cycle of another agent publishes only its own writes, and the writes of a cycle whose 
+ * step throws are discarded. A thread that runs no deliberation cycle, e.g. an external process or 
+ * a task in a concurrency context, has a batch of its own and must call <code>flush()</code> to 
+ * publish its writes, as must an agent that does not have this blackboard among its contexts. An 
+ * agent or thread sees its own buffered writes.
+ * 
+ * Each publication increases the version of the blackboard, and agents that subscribed to the 
+ * blackboard through <code>PlanToAgentInterface.subscribeToContext</code> receive a 
+ * <code>ContextChangedTrigger</code>. Subclass the blackboard to give it a specific type, so that 
+ * agents can obtain it from their context container by that type. 
+ * 
+ * @author Bas Testerink
+ */
+public class Blackboard<K, V> extends VersionedContext implements CycleAwareContext {
+	private static final long serialVersionUID = 1L;
+	/** Marks a key that is removed in a batch. */
+	private static final Object REMOVED = new Object();
+	
+	/** The current content. Never modified, only replaced. */
+	private final AtomicReference<Map<K, V>> content;
+	/** The buffered writes of each running agent; a removed key maps to <code>REMOVED</code>. Created upon first use. */
+	private transient volatile ConcurrentHashMap<AgentID, Map<K, Object>> agentBatches;
+	/** The buffered writes of each thread that runs no deliberation cycle. Created upon first use. */
+	private transient volatile ThreadLocal<Map<K, Object>> threadBatches;
+	
+	public Blackboard(){
+		this.content = new AtomicReference<>(Collections.emptyMap());
+	}
+	
+	/** Obtain the value of a key, or null if it has none. Sees the buffered writes of the calling thread. */
+	@SuppressWarnings("unchecked")
+	public final V get(final K key){
+		Map<K, Object> batch = getBatch(DeliberationRunnable.getRunningAgent(), false);
+		if(batch != null && batch.containsKey(key)){
+			Object value = batch.get(key);
+			return value == REMOVED ? null : (V) value;
+		}
+		return this.content.get().get(key);
+	}
+	
+	/** Obtain the published content, which does not change anymore. Does not include buffered writes. */
+	public final Map<K, V> snapshot(){
+		return this.content.get();
+	}
+	
+	/** Set the value of a key. Is published at the end of the current deliberation cycle. */
+	public final void put(final K key, final V value){
+		batch().put(key, value);
+	}
+	
+	/** Remove the value of a key. Is published at the end of the current deliberation cycle. */
+	public final void remove(final K key){
+		batch().put(key, REMOVED);
+	}
+	
+	/** Publish the buffered writes of the running agent, or of the calling thread if it runs no agent. */
+	public final void flush(){
+		Map<K, Object> batch = removeBatch(DeliberationRunnable.getRunningAgent());
+		if(batch == null || batch.isEmpty()) return;
+		Map<K, V> current, next;
+		do { // Retried if another thread published in the meantime
+			current = this.content.get();
+			next = apply(current, batch);
+		} while(!this.content.compareAndSet(current, next));
+		changed();
+	}
+	
+	/** Publish the writes of the cycle that finished. */
+	public final void deliberationCycleFinished(){
+		flush();
+	}
+	
+	/** Discard the writes of the cycle that threw. */
+	public final void deliberationCycleAborted(){
+		removeBatch(DeliberationRunnable.getRunningAgent());
+	}
+	
+	/** Create the content that results from applying a batch. */
+	@SuppressWarnings("unchecked")
+	private final Map<K, V> apply(final Map<K, V> content, final Map<K, Object> batch){
+		HashMap<K, V> next = new HashMap<>(content);
+		for(Map.Entry<K, Object> write : batch.entrySet()){
+			if(write.getValue() == REMOVED) next.remove(write.getKey());
+			else next.put(write.getKey(), (V) write.getValue());
+		}
+		return Collections.unmodifiableMap(next);
+	}
+	
+	/** Obtain the batch of the running agent, or of the calling thread if it runs no agent. Create it if 
+	 * it does not exist and <code>create</code> is true; otherwise null is returned. */
+	private final Map<K, Object> getBatch(final AgentID agent, final boolean create){
+		Map<K, Object> batch;
+		if(agent != null){
+			ConcurrentHashMap<AgentID, Map<K, Object>> batches = agentBatches();
+			batch = batches.get(agent);
+			if(batch == null && create){ // Only the agent's own cycle adds its batch
+				batch = new LinkedHashMap<>();
+				batches.put(agent, batch);
+			}
+		} else {
+			ThreadLocal<Map<K, Object>> batches = threadBatches();
+			batch = batches.get();
+			if(batch == null && create){
+				batch = new LinkedHashMap<>();
+				batches.set(batch);
+			}
+		}
+		return batch;
+	}
+	
+	/** Obtain the batch for a write. */
+	private final Map<K, Object> batch(){
+		return getBatch(DeliberationRunnable.getRunningAgent(), true);
+	}
+	
+	/** Remove and return the batch of the running agent, or of the calling thread if it runs no agent. */
+	private final Map<K, Object> removeBatch(final AgentID agent){
+		if(agent != null) return agentBatches().remove(agent);
+		ThreadLocal<Map<K, Object>> batches = threadBatches();
+		Map<K, Object> batch = batches.get();
+		batches.remove();
+		return batch;
+	}
+	
+	/** Obtain the map with the batches of the agents. Created lazily as it is not serialized. */
+	private final ConcurrentHashMap<AgentID, Map<K, Object>> agentBatches(){
+		ConcurrentHashMap<AgentID, Map<K, Object>> batches = this.agentBatches;
+		if(batches == null){
+			synchronized(this){
+				if(this.agentBatches == null) this.agentBatches = new ConcurrentHashMap<>();
+				batches = this.agentBatches;
+			}
+		}
+		return batches;
+	}
+	
+	/** Obtain the thread locals that hold the batches of threads without agent. Created lazily as they are not serialized. */
+	private final ThreadLocal<Map<K, Object>> threadBatches(){
+		ThreadLocal<Map<K, Object>> batches = this.threadBatches;
+		if(batches == null){
+			synchronized(this){
+				if(this.threadBatches == null) this.threadBatches = new ThreadLocal<>();
+				batches = this.threadBatches;
+			}
+		}
+		return batches;
+	}
+}
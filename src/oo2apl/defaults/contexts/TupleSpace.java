@@ -0,0 +1,310 @@
+package oo2apl.defaults.contexts;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import oo2apl.agent.VersionedContext;
+/**
+ * A tuple space is a set of tuples (e.g. beliefs) with secondary indexes on declared fields. A field
+ * is declared with a name and a function that extracts its value from a tuple. A hash index supports
+ * queries for equality, an ordered index also supports range queries. The indexes are updated upon
+ * each insertion and removal, hence a query such as "all offers for item y with a price below x"
+ *
+ * <code>space.query().equalTo("item", y).lessThan("price", x).find()</code>
+ *
+ * looks up the smallest candidate set in the indexes and only tests the candidates, instead of
+ * scanning all tuples. Each change increases the version of the space, so subscribers are notified
+ * and plan schemes can memoize their guards. The space can be shared among agents. Subclass the
+ * space to give it a specific type, so that agents can obtain it from their context container by
+ * that type. The indexed values of a tuple must not change while it is in the space. If the space
+ * is checkpointed, then its tuples and extractors must be serializable.
+ *
+ * @author Bas Testerink
+ */
+public class TupleSpace<T> extends VersionedContext {
+	private static final long serialVersionUID = 1L;
+
+	/** All tuples, in insertion order. */
+	private final Set<T> tuples = new LinkedHashSet<>();
+	/** The indexes per field name. */
+	private final Map<String, Index<T>> indexes = new HashMap<>();
+
+	/** Declare a field that can be queried for equality. The current tuples are indexed immediately. */
+	public final void addHashIndex(final String field, final Function<? super T, ?> extractor){
+		addIndex(field, new Index<T>(extractor, new HashMap<>()));
+	}
+
+	/** Declare a field that can be queried for equality and ranges. The values must be mutually comparable. */
+	public final void addOrderedIndex(final String field, final Function<? super T, ? extends Comparable<?>> extractor){
+		addIndex(field, new Index<T>(extractor, new TreeMap<>()));
+	}
+
+	private final synchronized void addIndex(final String field, final Index<T> index){
+		if(this.indexes.containsKey(field)) throw new IllegalArgumentException("Field "+field+" is already indexed.");
+		for(T tuple : this.tuples) index.add(tuple);
+		this.indexes.put(field, index);
+	}
+
+	/** Add a tuple. Returns false if the space already contained the tuple. */
+	public final boolean add(final T tuple){
+		if(tuple == null) throw new IllegalArgumentException("Tuple cannot be null.");
+		synchronized(this){
+			if(!this.tuples.add(tuple)) return false;
+			for(Index<T> index : this.indexes.values()) index.add(tuple);
+		}
+		changed(); // Outside the monitor, as listeners can take the locks of agents
+		return true;
+	}
+
+	/** Remove a tuple. Returns false if the space did not contain the tuple. */
+	public final boolean remove(final T tuple){
+		synchronized(this){
+			if(!this.tuples.remove(tuple)) return false;
+			for(Index<T> index : this.indexes.values()) index.remove(tuple);
+		}
+		changed();
+		return true;
+	}
+
+	/** Remove all tuples that match the query. Returns the removed tuples. */
+	public final List<T> removeAll(final Query<T> query){
+		if(query.space != this) throw new IllegalArgumentException("The query is for another tuple space.");
+		List<T> removed;
+		synchronized(this){
+			removed = query.find();
+			for(T tuple : removed){
+				this.tuples.remove(tuple);
+				for(Index<T> index : this.indexes.values()) index.remove(tuple);
+			}
+		}
+		if(!removed.isEmpty()) changed();
+		return removed;
+	}
+
+	/** Check whether the space contains the tuple. */
+	public final synchronized boolean contains(final T tuple){
+		return this.tuples.contains(tuple);
+	}
+
+	/** Obtain the number of tuples. */
+	public final synchronized int size(){
+		return this.tuples.size();
+	}
+
+	/** Obtain a copy of all tuples. */
+	public final synchronized List<T> getTuples(){
+		return new ArrayList<>(this.tuples);
+	}
+
+	/** Start a query. Each condition must be on an indexed field. */
+	public final Query<T> query(){
+		return new Query<>(this);
+	}
+
+	/** Obtain the index of a field, throw an exception if there is none. */
+	private final Index<T> getIndex(final String field){
+		Index<T> index = this.indexes.get(field);
+		if(index == null) throw new IllegalArgumentException("Field "+field+" is not indexed.");
+		return index;
+	}
+
+	/**
+	 * A conjunction of conditions on the indexed fields of a tuple space, and optionally filters on
+	 * the tuples themselves. Upon evaluation the condition with the fewest candidates provides the
+	 * tuples that are tested against the other conditions. Equality conditions are counted exactly,
+	 * range conditions are only used if there is no equality condition.
+	 */
+	public static final class Query<T> {
+		private final TupleSpace<T> space;
+		private final List<Condition<T>> conditions = new ArrayList<>();
+		private final List<Predicate<? super T>> filters = new ArrayList<>();
+
+		private Query(final TupleSpace<T> space){
+			this.space = space;
+		}
+
+		/** The field must have the given value. */
+		public final Query<T> equalTo(final String field, final Object value){
+			return add(field, true, value, true, value, true);
+		}
+
+		/** The field must be less than the given value. Requires an ordered index. */
+		public final Query<T> lessThan(final String field, final Object value){
+			return add(field, false, null, false, value, false);
+		}
+
+		/** The field must be less than or equal to the given value. Requires an ordered index. */
+		public final Query<T> atMost(final String field, final Object value){
+			return add(field, false, null, false, value, true);
+		}
+
+		/** The field must be greater than the given value. Requires an ordered index. */
+		public final Query<T> greaterThan(final String field, final Object value){
+			return add(field, false, value, false, null, false);
+		}
+
+		/** The field must be greater than or equal to the given value. Requires an ordered index. */
+		public final Query<T> atLeast(final String field, final Object value){
+			return add(field, false, value, true, null, false);
+		}
+
+		/** The tuple must satisfy the predicate. Is tested after the indexed conditions. */
+		public final Query<T> where(final Predicate<? super T> filter){
+			this.filters.add(filter);
+			return this;
+		}
+
+		private final Query<T> add(final String field, final boolean equality, final Object low, final boolean lowInclusive, final Object high, final boolean highInclusive){
+			if(low == null && high == null) throw new IllegalArgumentException("Cannot compare field "+field+" with null.");
+			Index<T> index;
+			synchronized(this.space){ index = this.space.getIndex(field); }
+			if(!equality && !index.isOrdered()) throw new IllegalArgumentException("Field "+field+" has no ordered index.");
+			this.conditions.add(new Condition<>(index, equality, low, lowInclusive, high, highInclusive));
+			return this;
+		}
+
+		/** Obtain all matching tuples. */
+		public final List<T> find(){
+			return evaluate(Integer.MAX_VALUE);
+		}
+
+		/** Obtain a matching tuple, or null if there is none. */
+		public final T findFirst(){
+			List<T> result = evaluate(1);
+			return result.isEmpty() ? null : result.get(0);
+		}
+
+		/** Check whether a tuple matches. */
+		public final boolean exists(){
+			return !evaluate(1).isEmpty();
+		}
+
+		/** Obtain the number of matching tuples. */
+		public final int count(){
+			return find().size();
+		}
+
+		private final List<T> evaluate(final int limit){
+			List<T> result = new ArrayList<>();
+			synchronized(this.space){
+				Condition<T> cheapest = null;
+				int cheapestSize = Integer.MAX_VALUE;
+				for(Condition<T> condition : this.conditions){
+					int size = condition.estimate();
+					if(size < cheapestSize || cheapest == null){
+						cheapest = condition;
+						cheapestSize = size;
+					}
+				}
+				Collection<T> candidates = cheapest == null ? this.space.tuples : cheapest.candidates();
+				for(T tuple : candidates){
+					if(matches(tuple, cheapest)){
+						result.add(tuple);
+						if(result.size() == limit) break;
+					}
+				}
+			}
+			return result;
+		}
+
+		private final boolean matches(final T tuple, final Condition<T> skip){
+			for(Condition<T> condition : this.conditions)
+				if(condition != skip && !condition.matches(tuple)) return false;
+			for(Predicate<? super T> filter : this.filters)
+				if(!filter.test(tuple)) return false;
+			return true;
+		}
+	}
+
+	/** A condition on one indexed field. Null bounds are open. */
+	private static final class Condition<T> {
+		private final Index<T> index;
+		private final boolean equality, lowInclusive, highInclusive;
+		private final Object low, high;
+
+		private Condition(final Index<T> index, final boolean equality, final Object low, final boolean lowInclusive, final Object high, final boolean highInclusive){
+			this.index = index;
+			this.equality = equality;
+			this.low = low;
+			this.lowInclusive = lowInclusive;
+			this.high = high;
+			this.highInclusive = highInclusive;
+		}
+
+		/** Upper bound on the number of candidates. Range sizes are not counted, hence ranges lose from equality. */
+		private final int estimate(){
+			if(this.equality){
+				Set<T> bucket = this.index.buckets.get(this.low);
+				return bucket == null ? 0 : bucket.size();
+			}
+			return Integer.MAX_VALUE - 1;
+		}
+
+		@SuppressWarnings("unchecked")
+		private final Collection<T> candidates(){
+			if(this.equality){
+				Set<T> bucket = this.index.buckets.get(this.low);
+				return bucket == null ? Collections.<T>emptySet() : bucket;
+			}
+			NavigableMap<Object, Set<T>> buckets = (NavigableMap<Object, Set<T>>) this.index.buckets;
+			if(this.low != null) buckets = buckets.tailMap(this.low, this.lowInclusive);
+			if(this.high != null) buckets = buckets.headMap(this.high, this.highInclusive);
+			List<T> candidates = new ArrayList<>();
+			for(Set<T> bucket : buckets.values()) candidates.addAll(bucket);
+			return candidates;
+		}
+
+		@SuppressWarnings("unchecked")
+		private final boolean matches(final T tuple){
+			Object value = this.index.extractor.apply(tuple);
+			if(value == null) return false;
+			if(this.equality) return value.equals(this.low);
+			Comparable<Object> comparable = (Comparable<Object>) value;
+			if(this.low != null){
+				int comparison = comparable.compareTo(this.low);
+				if(comparison < 0 || (comparison == 0 && !this.lowInclusive)) return false;
+			}
+			if(this.high != null){
+				int comparison = comparable.compareTo(this.high);
+				if(comparison > 0 || (comparison == 0 && !this.highInclusive)) return false;
+			}
+			return true;
+		}
+	}
+
+	/** Maps the values of a field to the tuples that have that value. Tuples without a value are not indexed. */
+	private static final class Index<T> implements java.io.Serializable {
+		private static final long serialVersionUID = 1L;
+		private final Function<? super T, ?> extractor;
+		private final Map<Object, Set<T>> buckets;
+
+		private Index(final Function<? super T, ?> extractor, final Map<Object, Set<T>> buckets){
+			this.extractor = extractor;
+			this.buckets = buckets;
+		}
+
+		private final boolean isOrdered(){ return this.buckets instanceof NavigableMap; }
+
+		private final void add(final T tuple){
+			Object value = this.extractor.apply(tuple);
+			if(value != null) this.buckets.computeIfAbsent(value, v -> new LinkedHashSet<>()).add(tuple);
+		}
+
+		private final void remove(final T tuple){
+			Object value = this.extractor.apply(tuple);
+			if(value == null) return;
+			Set<T> bucket = this.buckets.get(value);
+			if(bucket != null && bucket.remove(tuple) && bucket.isEmpty()) this.buckets.remove(value);
+		}
+	}
+}
@@ -1,5 +1,5 @@
-package oo2apl.defaults.deliberationsteps; 
- 
+package oo2apl.defaults.deliberationsteps;
+
 import java.util.List;
 
 import oo2apl.agent.DeliberationStepToAgentInterface;
@@ -10,17 +10,22 @@ import oo2apl.plan.PlanScheme;
  * Step that applies the external trigger plan schemes to the external triggers.
  * @author Bas Testerink
  */
-public final class ApplyExternalTriggerPlanSchemes extends DefaultDeliberationStep { 
+public final class ApplyExternalTriggerPlanSchemes extends SharedDeliberationStep { 
 	
 	public  ApplyExternalTriggerPlanSchemes(final DeliberationStepToAgentInterface deliberationInterface){
 		super(deliberationInterface);
 	}
 	
+	/** Constructor for a step that is shared among agents. */
+	public  ApplyExternalTriggerPlanSchemes(){
+		super();
+	}
+	
 	/** Simply grab the external triggers and relevant plan schemes and try their application. */
-	public final void execute() throws DeliberationStepException{
-		List<Trigger> triggers = super.deliberationInterface.getAndRemoveExternalTriggers(); 
-		super.applyTriggerInterceptors(triggers, super.deliberationInterface.getExternalTriggerInterceptors());
-		List<PlanScheme> planSchemes = super.deliberationInterface.getExternalTriggerPlanSchemes();
-		super.applyPlanSchemes(triggers, planSchemes);
+	public final void execute(final DeliberationStepToAgentInterface deliberationInterface) throws DeliberationStepException{
+		List<Trigger> triggers = deliberationInterface.getAndRemoveExternalTriggers(); 
+		applyTriggerInterceptors(deliberationInterface, triggers, deliberationInterface.getExternalTriggerInterceptors());
+		List<PlanScheme> planSchemes = deliberationInterface.getExternalTriggerPlanSchemes();
+		applyPlanSchemes(deliberationInterface, triggers, planSchemes);
 	}
 }
@@ -11,18 +11,23 @@ import oo2apl.plan.PlanScheme;
  * @author Bas Testerink
  */
 
-public final class ApplyGoalPlanSchemes extends DefaultDeliberationStep { 
+public final class ApplyGoalPlanSchemes extends SharedDeliberationStep { 
 	
 	public  ApplyGoalPlanSchemes(final DeliberationStepToAgentInterface deliberationInterface){
 		super(deliberationInterface);
 	}
 	
+	/** Constructor for a step that is shared among agents. */
+	public  ApplyGoalPlanSchemes(){
+		super();
+	}
+	
 	/** First clears all achieved goals and then grabs the goals and goal plan schemes and tries to apply the plan schemes. */
-	public final void execute() throws DeliberationStepException{
-		super.deliberationInterface.clearAchievedGoals();
-		List<? extends Trigger> triggers = super.deliberationInterface.getGoals(); 
-		super.applyTriggerInterceptors(triggers, super.deliberationInterface.getGoalInterceptors());
-		List<PlanScheme> planSchemes = super.deliberationInterface.getGoalPlanSchemes();
-		super.applyPlanSchemes(triggers, planSchemes);
+	public final void execute(final DeliberationStepToAgentInterface deliberationInterface) throws DeliberationStepException{
+		deliberationInterface.clearAchievedGoals();
+		List<? extends Trigger> triggers = deliberationInterface.getGoals(); 
+		applyTriggerInterceptors(deliberationInterface, triggers, deliberationInterface.getGoalInterceptors());
+		List<PlanScheme> planSchemes = deliberationInterface.getGoalPlanSchemes();
+		applyPlanSchemes(deliberationInterface, triggers, planSchemes);
 	}
-} 
\ No newline at end of file
+} 
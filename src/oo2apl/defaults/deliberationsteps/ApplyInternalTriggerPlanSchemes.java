@@ -10,17 +10,22 @@ import oo2apl.plan.PlanScheme;
  * Step that applies the internal trigger plan schemes to the internal triggers.
  * @author Bas Testerink
  */
-public final class ApplyInternalTriggerPlanSchemes extends DefaultDeliberationStep { 
+public final class ApplyInternalTriggerPlanSchemes extends SharedDeliberationStep { 
 	
 	public  ApplyInternalTriggerPlanSchemes(final DeliberationStepToAgentInterface deliberationInterface){
 		super(deliberationInterface);
 	}
 	
+	/** Constructor for a step that is shared among agents. */
+	public  ApplyInternalTriggerPlanSchemes(){
+		super();
+	}
+	
 	/** Simply grab the internal triggers and relevant plan schemes and try their application. */
-	public final void execute() throws DeliberationStepException{
-		List<Trigger> triggers = super.deliberationInterface.getAndRemoveInternalTriggers();  
-		super.applyTriggerInterceptors(triggers, super.deliberationInterface.getInternalTriggerInterceptors()); 
-		List<PlanScheme> planSchemes = super.deliberationInterface.getInternalTriggerPlanSchemes(); 
-		super.applyPlanSchemes(triggers, planSchemes);
+	public final void execute(final DeliberationStepToAgentInterface deliberationInterface) throws DeliberationStepException{
+		List<Trigger> triggers = deliberationInterface.getAndRemoveInternalTriggers(); 
+		applyTriggerInterceptors(deliberationInterface, triggers, deliberationInterface.getInternalTriggerInterceptors());
+		List<PlanScheme> planSchemes = deliberationInterface.getInternalTriggerPlanSchemes();
+		applyPlanSchemes(deliberationInterface, triggers, planSchemes);
 	}
-}
\ No newline at end of file
+}
@@ -10,17 +10,22 @@ import oo2apl.plan.PlanScheme;
  * Step that applies the message plan schemes to the messages.
  * @author Bas Testerink
  */
-public final class ApplyMessagePlanSchemes extends DefaultDeliberationStep { 
+public final class ApplyMessagePlanSchemes extends SharedDeliberationStep { 
 	
 	public  ApplyMessagePlanSchemes(final DeliberationStepToAgentInterface deliberationInterface){
 		super(deliberationInterface);
 	}
 	
+	/** Constructor for a step that is shared among agents. */
+	public  ApplyMessagePlanSchemes(){
+		super();
+	}
+	
 	/** Simply grab the messages and message plan schemes and try their application. */
-	public final void execute() throws DeliberationStepException{
-		List<Trigger> triggers = super.deliberationInterface.getAndRemoveMessages(); 
-		super.applyTriggerInterceptors(triggers, super.deliberationInterface.getMessageInterceptors());
-		List<PlanScheme> planSchemes = super.deliberationInterface.getMessagePlanSchemes();
-		super.applyPlanSchemes(triggers, planSchemes);
+	public final void execute(final DeliberationStepToAgentInterface deliberationInterface) throws DeliberationStepException{
+		List<Trigger> triggers = deliberationInterface.getAndRemoveMessages(); 
+		applyTriggerInterceptors(deliberationInterface, triggers, deliberationInterface.getMessageInterceptors());
+		List<PlanScheme> planSchemes = deliberationInterface.getMessagePlanSchemes();
+		applyPlanSchemes(deliberationInterface, triggers, planSchemes);
 	}
-}
\ No newline at end of file
+}
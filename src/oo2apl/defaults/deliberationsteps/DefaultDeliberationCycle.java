@@ -0,0 +1,31 @@
+package oo2apl.defaults.deliberationsteps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import oo2apl.deliberation.DeliberationStep;
+/**
+ * Holds the default 2APL deliberation cycle: ApplyGoalPlanSchemes -> ApplyExternalTriggerPlanSchemes -> 
+ * ApplyInternalTriggerPlanSchemes -> ApplyMessagePlanSchemes -> ExecutePlans. The steps of this cycle 
+ * store no agent data, hence a single immutable instance of the cycle is shared by all agents that use it.
+ * Together with the shared plan scheme base of an <code>AgentBuilder</code> this saves heap per idle agent; 
+ * <code>SharedCycleFootprintTest</code> measures how much.
+ * 
+ * @author Bas Testerink
+ */
+public final class DefaultDeliberationCycle {
+	private static final List<DeliberationStep> INSTANCE;
+	static {
+		List<DeliberationStep> cycle = new ArrayList<>();
+		cycle.add(new ApplyGoalPlanSchemes());
+		cycle.add(new ApplyExternalTriggerPlanSchemes());
+		cycle.add(new ApplyInternalTriggerPlanSchemes());
+		cycle.add(new ApplyMessagePlanSchemes());
+		cycle.add(new ExecutePlans());
+		INSTANCE = Collections.unmodifiableList(cycle);
+	}
+	private DefaultDeliberationCycle(){}
+	/** Obtain the shared default deliberation cycle. */
+	public static final List<DeliberationStep> getInstance(){ return INSTANCE; }
+}
@@ -7,30 +7,51 @@ import oo2apl.agent.DeliberationStepToAgentInterface;
 import oo2apl.agent.Trigger;
 import oo2apl.agent.Goal;
 import oo2apl.deliberation.DeliberationStep; 
+import oo2apl.deliberation.DeliberationStepException;
 import oo2apl.plan.PlanScheme;
 import oo2apl.plan.TriggerInterceptor;
 
 /**
  * The default deliberation step adds to the deliberation interface a method to 
- * process a list of triggers given a list of plan schemes. It also stores an 
- * interface to the agent. 
+ * process a list of triggers given a list of plan schemes. It optionally stores an 
+ * interface to the agent; the interface is null for steps that are shared among agents.
+ * 
+ * A subclass implements <code>execute()</code> and uses the stored interface. Steps that 
+ * are to be shared among agents extend <code>SharedDeliberationStep</code> instead, which 
+ * implements <code>execute(DeliberationStepToAgentInterface)</code>.
  * 
  * @author Bas Testerink
  */
 public abstract class DefaultDeliberationStep implements DeliberationStep {
-	/** Interface to the agent. */
+	/** Interface to the agent. Is null for steps that are shared among agents. */
 	protected final DeliberationStepToAgentInterface deliberationInterface;
 
 	public  DefaultDeliberationStep(final DeliberationStepToAgentInterface deliberationInterface){
 		this.deliberationInterface = deliberationInterface;
 	}
+	
+	/** Constructor for a step that is shared among agents. */
+	public  DefaultDeliberationStep(){
+		this(null);
+	}
+	
+	/** Executes the step for the agent whose interface was provided upon construction. */
+	public abstract void execute() throws DeliberationStepException;
+	
+	/** Executes the step for the given agent, which must be the agent whose interface was provided upon 
+	 * construction. Shared steps override this method. */
+	public void execute(final DeliberationStepToAgentInterface deliberationInterface) throws DeliberationStepException {
+		if(deliberationInterface != this.deliberationInterface) 
+			throw new IllegalStateException("Deliberation step "+this+" is not a shared step, hence it can only be executed for the agent it was made for.");
+		execute();
+	}
 
 	// Currently a goal differs from triggers in that a goal is permanent until its isAchieved(Context) method returns true.
 
 	/** For each of the provided triggers and plan schemes, check whether the plan scheme is triggered by the trigger. If so, then the 
 	 * plan scheme is applied. If the triggers are goals then they will  be skipped if they are 
 	 * already pursued (i.e. a plan is already in existence for that goal). */
-	protected final void applyPlanSchemes(final List<? extends Trigger> triggers, final List<PlanScheme> planSchemes){
+	protected static final void applyPlanSchemes(final DeliberationStepToAgentInterface deliberationInterface, final List<? extends Trigger> triggers, final List<PlanScheme> planSchemes){
 		for(Trigger trigger : triggers){ 
 			// For goals check whether there is not already a plan instantiated for the goal. In this implementation each goal can have
 			// at most one instantiated plan scheme that tries to achieve that goal.
@@ -39,28 +60,34 @@ public abstract class DefaultDeliberationStep implements DeliberationStep {
 			// and highly inefficient.  
 			if(!(trigger instanceof Goal && ((Goal)trigger).isPursued())){
 				for(PlanScheme planScheme : planSchemes){	
-					if(this.deliberationInterface.tryApplication(trigger, planScheme)){
+					if(deliberationInterface.tryApplication(trigger, planScheme)){
 						break;
 					}
 				}
 			}
 		}
 	}
+	/** Apply the plan schemes for the agent whose interface was provided upon construction. */
+	protected final void applyPlanSchemes(final List<? extends Trigger> triggers, final List<PlanScheme> planSchemes){
+		applyPlanSchemes(this.deliberationInterface, triggers, planSchemes);
+	}
+	
 	/**
 	 * For each of the provided triggers and trigger interceptors, check whether the interceptor is triggered by the trigger. If so, 
 	 * then the interceptor is removed. If the interceptor consumes the trigger, then the trigger is also removed. An exception is with
 	 * goals. Goals can only be removed if they are achieved, hence a goal is not removed, even if it triggers a consuming interceptor.
 	 * Note that the list of triggers is possibly changed by this call. It is intended that interceptors are applied before plan schemes. 
+	 * @param deliberationInterface
 	 * @param triggers
 	 * @param interceptors
 	 */
-	protected final void applyTriggerInterceptors(final List<? extends Trigger> triggers, final Iterator<TriggerInterceptor> interceptors){ 
+	protected static final void applyTriggerInterceptors(final DeliberationStepToAgentInterface deliberationInterface, final List<? extends Trigger> triggers, final Iterator<TriggerInterceptor> interceptors){ 
 		while(interceptors.hasNext()){
 			TriggerInterceptor interceptor = interceptors.next();
 			Iterator<? extends Trigger> triggerIterator = triggers.iterator(); 
 			while(triggerIterator.hasNext()){
 				Trigger trigger = triggerIterator.next();  
-				if(this.deliberationInterface.tryApplication(trigger, interceptor)){ 
+				if(deliberationInterface.tryApplication(trigger, interceptor)){ 
 					interceptors.remove();
 					if(interceptor.isTriggerConsuming() && !(trigger instanceof Goal)){ 
 						triggerIterator.remove();
@@ -70,4 +97,9 @@ public abstract class DefaultDeliberationStep implements DeliberationStep {
 			} 
 		}
 	}
-}
\ No newline at end of file
+	
+	/** Apply the trigger interceptors for the agent whose interface was provided upon construction. */
+	protected final void applyTriggerInterceptors(final List<? extends Trigger> triggers, final Iterator<TriggerInterceptor> interceptors){
+		applyTriggerInterceptors(this.deliberationInterface, triggers, interceptors);
+	}
+}
@@ -0,0 +1,21 @@
+package oo2apl.defaults.deliberationsteps;
+
+import java.util.Collections;
+import java.util.List;
+
+import oo2apl.deliberation.DeliberationStep;
+/**
+ * Holds a deliberation cycle that consists of the single <code>FusedDeliberationStep</code>, which 
+ * does the work of the default 2APL cycle in one pass. Select it for an agent type by returning it 
+ * from <code>AgentComponentFactory.produceDeliberationCycle</code>, or with 
+ * <code>AgentBuilder.setDeliberationCycle</code>. A single immutable instance is shared by all agents 
+ * that use it.
+ * 
+ * @author Bas Testerink
+ */
+public final class FusedDeliberationCycle {
+	private static final List<DeliberationStep> INSTANCE = Collections.singletonList(new FusedDeliberationStep());
+	private FusedDeliberationCycle(){}
+	/** Obtain the shared fused deliberation cycle. */
+	public static final List<DeliberationStep> getInstance(){ return INSTANCE; }
+}
@@ -0,0 +1,75 @@
+package oo2apl.defaults.deliberationsteps;
+
+import java.util.Iterator;
+import java.util.List;
+
+import oo2apl.agent.DeliberationStepToAgentInterface;
+import oo2apl.agent.Inbox;
+import oo2apl.agent.Trigger;
+import oo2apl.deliberation.DeliberationStepException;
+import oo2apl.plan.Plan;
+import oo2apl.plan.PlanExecutionError;
+import oo2apl.plan.PlanScheme;
+import oo2apl.plan.TriggerInterceptor;
+/**
+ * Performs the work of the default 2APL deliberation cycle in a single step: it applies the goal, 
+ * external trigger, internal trigger and message plan schemes and then executes the plans. The three 
+ * trigger lists are taken from the agent under a single acquisition of its monitor, and categories 
+ * without triggers are skipped entirely. Finished plans are removed at once after all plans executed. 
+ * 
+ * The difference with the default cycle is that the internal triggers and messages are taken before 
+ * the external trigger plan schemes are applied, instead of after. Triggers that arrive in between are 
+ * processed in the next cycle.
+ * 
+ * @author Bas Testerink
+ */
+public final class FusedDeliberationStep extends SharedDeliberationStep {
+	
+	public  FusedDeliberationStep(final DeliberationStepToAgentInterface deliberationInterface){
+		super(deliberationInterface);
+	}
+	
+	/** Constructor for a step that is shared among agents. */
+	public  FusedDeliberationStep(){
+		super();
+	}
+	
+	public final void execute(final DeliberationStepToAgentInterface deliberationInterface) throws DeliberationStepException {
+		deliberationInterface.clearAchievedGoals();
+		List<? extends Trigger> goals = deliberationInterface.getGoals();
+		if(!goals.isEmpty())
+			apply(deliberationInterface, goals, deliberationInterface.getGoalInterceptors(), deliberationInterface.getGoalPlanSchemes());
+		
+		Inbox inbox = deliberationInterface.getAndRemoveAllTriggers();
+		if(inbox != Inbox.EMPTY){
+			if(!inbox.getExternalTriggers().isEmpty())
+				apply(deliberationInterface, inbox.getExternalTriggers(), deliberationInterface.getExternalTriggerInterceptors(), deliberationInterface.getExternalTriggerPlanSchemes());
+			if(!inbox.getInternalTriggers().isEmpty())
+				apply(deliberationInterface, inbox.getInternalTriggers(), deliberationInterface.getInternalTriggerInterceptors(), deliberationInterface.getInternalTriggerPlanSchemes());
+			if(!inbox.getMessages().isEmpty())
+				apply(deliberationInterface, inbox.getMessages(), deliberationInterface.getMessageInterceptors(), deliberationInterface.getMessagePlanSchemes());
+		}
+		
+		List<Plan> plans = deliberationInterface.getPlans();
+		if(plans.isEmpty()) return;
+		boolean finishedPlans = false;
+		for(Plan plan : plans){
+			try {
+				deliberationInterface.executePlan(plan);
+				finishedPlans |= plan.isFinished();
+			} catch(PlanExecutionError executionError){
+				// See ExecutePlans: a goal that is pursued by the failed plan remains flagged as pursued
+				deliberationInterface.removePlan(plan);
+				deliberationInterface.addPlanExecutionError(executionError);
+			}
+		}
+		if(finishedPlans) deliberationInterface.removeFinishedPlans();
+	}
+	
+	/** Apply first the interceptors and then the plan schemes to a nonempty list of triggers. */
+	private static final void apply(final DeliberationStepToAgentInterface deliberationInterface, final List<? extends Trigger> triggers, 
+			final Iterator<TriggerInterceptor> interceptors, final List<PlanScheme> planSchemes){
+		if(interceptors.hasNext()) applyTriggerInterceptors(deliberationInterface, triggers, interceptors);
+		if(!planSchemes.isEmpty()) applyPlanSchemes(deliberationInterface, triggers, planSchemes);
+	}
+}
@@ -0,0 +1,33 @@
+package oo2apl.defaults.deliberationsteps;
+
+import oo2apl.agent.DeliberationStepToAgentInterface;
+import oo2apl.deliberation.DeliberationStepException;
+/**
+ * A default deliberation step that obtains the agent from the interface that it is executed 
+ * with. If the step is constructed without an interface, then a single instance can be 
+ * shared by all agents that use it. Subclasses implement 
+ * <code>execute(DeliberationStepToAgentInterface)</code>; <code>execute()</code> executes 
+ * the step with the interface that was provided upon construction.
+ * 
+ * @author Bas Testerink
+ */
+public abstract class SharedDeliberationStep extends DefaultDeliberationStep {
+	
+	public  SharedDeliberationStep(final DeliberationStepToAgentInterface deliberationInterface){
+		super(deliberationInterface);
+	}
+	
+	/** Constructor for a step that is shared among agents. */
+	public  SharedDeliberationStep(){
+		super();
+	}
+	
+	/** Executes the step for the agent whose interface was provided upon construction. */
+	public final void execute() throws DeliberationStepException {
+		if(this.deliberationInterface == null) throw new IllegalStateException("Shared deliberation step "+this+" requires an agent interface to execute.");
+		execute(this.deliberationInterface);
+	}
+	
+	/** {@inheritDoc} */
+	public abstract void execute(final DeliberationStepToAgentInterface deliberationInterface) throws DeliberationStepException;
+}
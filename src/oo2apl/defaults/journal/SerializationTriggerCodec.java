@@ -0,0 +1,104 @@
+package oo2apl.defaults.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+
+import oo2apl.agent.Trigger;
+import oo2apl.journal.TriggerCodec;
+/**
+ * Codec that uses Java serialization, hence it works for all triggers that are serializable.
+ * 
+ * Deserializing crafted bytes can run the code of any serializable class on the class path. A codec 
+ * that decodes bytes from other processes, e.g. for a <code>ClusterMessenger</code>, must therefore be 
+ * created with the classes that it may deserialize; any other class in the bytes fails the decoding. 
+ * The codec without such a list is only meant for trusted bytes, such as the journal of the platform.
+ * 
+ * @author Bas Testerink
+ */
+public final class SerializationTriggerCodec implements TriggerCodec {
+	/** The classes that may always be deserialized, as they are the boxed primitives and the base of enums. */
+	private static final String[] BASIC_CLASSES = { "java.lang.Boolean", "java.lang.Byte", "java.lang.Character", "java.lang.Short", 
+			"java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double", "java.lang.Number", "java.lang.Enum" };
+	/** The prefixes of the names of the classes that may be deserialized, or null if any class may. */
+	private final String[] allowedClasses;
+	
+	/** Create a codec that deserializes any class. Only use it for trusted bytes. */
+	public SerializationTriggerCodec(){
+		this.allowedClasses = null;
+	}
+	
+	/** Create a codec that only deserializes the classes whose names start with one of the given prefixes, e.g. 
+	 * the package of the messages (<code>"com.example.messages."</code>) or the name of a class. Arrays of these 
+	 * classes, primitives, strings, boxed primitives and enums are allowed as well. */
+	public SerializationTriggerCodec(final String... allowedClasses){
+		if(allowedClasses.length == 0) throw new IllegalArgumentException("At least one class or package must be allowed.");
+		this.allowedClasses = allowedClasses.clone();
+	}
+	
+	/** Check whether the codec only deserializes the classes that it was given. */
+	public final boolean isRestricted(){ return this.allowedClasses != null; }
+
+	/** Serialize the trigger. */
+	public final byte[] encode(final Trigger trigger) throws IOException {
+		if(!(trigger instanceof Serializable)) throw new NotSerializableException(trigger.getClass().getName());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		try(ObjectOutputStream output = new ObjectOutputStream(bytes)){
+			output.writeObject(trigger);
+		}
+		return bytes.toByteArray();
+	}
+
+	/** Deserialize the trigger. */
+	public final Trigger decode(final byte[] bytes) throws IOException {
+		InputStream in = new ByteArrayInputStream(bytes);
+		try(ObjectInputStream input = this.allowedClasses == null ? new ObjectInputStream(in) : new RestrictedInputStream(in, this.allowedClasses)){
+			return (Trigger) input.readObject();
+		} catch(ClassNotFoundException e){
+			throw new IOException("Unknown trigger class.", e);
+		} catch(ClassCastException e){
+			throw new IOException("Not a trigger.", e);
+		}
+	}
+	
+	/** Refuses the classes that are not allowed before they are loaded or instantiated. */
+	private static final class RestrictedInputStream extends ObjectInputStream {
+		private final String[] allowedClasses;
+		
+		private RestrictedInputStream(final InputStream in, final String[] allowedClasses) throws IOException {
+			super(in);
+			this.allowedClasses = allowedClasses;
+		}
+		
+		@Override
+		protected final Class<?> resolveClass(final ObjectStreamClass description) throws IOException, ClassNotFoundException {
+			String name = description.getName();
+			int dimensions = 0;
+			while(name.charAt(dimensions) == '[') dimensions++;
+			if(dimensions > 0){ // Arrays of primitives are allowed; of objects if their class is allowed
+				if(name.charAt(dimensions) != 'L') return super.resolveClass(description);
+				name = name.substring(dimensions + 1, name.length() - 1);
+			}
+			if(!isAllowed(name, BASIC_CLASSES) && !isAllowed(name, this.allowedClasses)) 
+				throw new InvalidClassException(name, "Class is not allowed to be deserialized.");
+			return super.resolveClass(description);
+		}
+		
+		@Override
+		protected final Class<?> resolveProxyClass(final String[] interfaces) throws IOException {
+			throw new InvalidClassException("Proxy classes are not allowed to be deserialized.");
+		}
+		
+		private static final boolean isAllowed(final String name, final String[] allowed){
+			for(String prefix : allowed) if(name.startsWith(prefix)) return true;
+			return false;
+		}
+	}
+}
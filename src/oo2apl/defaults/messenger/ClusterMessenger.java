@@ -0,0 +1,527 @@
+package oo2apl.defaults.messenger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import oo2apl.agent.AgentID;
+import oo2apl.agent.MailboxFullException;
+import oo2apl.agent.MessengerToAgentInterface;
+import oo2apl.agent.Trigger;
+import oo2apl.defaults.journal.SerializationTriggerCodec;
+import oo2apl.journal.TriggerCodec;
+import oo2apl.messaging.Messenger;
+/**
+ * A messenger for a cluster of platforms, e.g. in several JVMs on the same host. Each node listens
+ * on an address and connects to its peers. Both nodes of a pair must know each other, either from
+ * the constructor or through <code>addPeer</code>; a node only accepts the introduction of its
+ * configured peers and closes any other connection, so that the address that it dials back is never
+ * chosen by the other side. Messages to agents of the
+ * node itself are delivered directly, messages to agents of other nodes are encoded with the codec
+ * and sent over the connection to that node.
+ *
+ * Agents are located with a directory: each node announces the agents that register and deregister
+ * to its peers, and announces all its agents when it (re)connects. Agent IDs are created locally, so
+ * they cannot be placed by hashing. Sending to an agent whose announcement did not arrive yet fails
+ * as sending to an unknown agent.
+ *
+ * All network input and output is done by a single thread with non-blocking channels. Senders append
+ * their messages to the outgoing buffer of the receiving node, which the thread writes with as few
+ * writes as possible. The messages of each sender to each receiver arrive in the order in which they
+ * were sent. If a node becomes unreachable, then its agents are forgotten, the messages that were not
+ * written to it yet are dropped, and the connection is retried periodically. The output that waits
+ * for a node is bounded; messages beyond the bound are dropped as well. A connection that fails or
+ * sends a malformed frame is closed without affecting the others; if the network thread itself
+ * fails, then all nodes are treated as unreachable. Remote messages are
+ * delivered by the network thread, hence a receiver with a blocking bounded inbox holds up all input
+ * from the cluster until it has room. A remote message that a bounded inbox refuses cannot be thrown
+ * to its sender on the other node; it is counted, see <code>getRejectedMessages</code>. Close the
+ * messenger when the platform is halted.
+ *
+ * Connections are neither authenticated nor encrypted, and a peer is recognized by the address that
+ * it announces. Hence a node listens on the loopback address unless another address is given, and a
+ * node that listens on a network must only be reachable by trusted hosts. The messages are decoded
+ * with the codec, so a <code>SerializationTriggerCodec</code> must be restricted to the classes of the
+ * messages; an unrestricted one is refused, as it would deserialize any class from the network.
+ *
+ * @author Bas Testerink
+ */
+public final class ClusterMessenger implements Messenger, Closeable {
+	/** Frame types. */
+	private static final byte HELLO = 0, HOST = 1, LEAVE = 2, MESSAGE = 3;
+	/** States of the connection to a peer. */
+	private static final int DISCONNECTED = 0, CONNECTING = 1, CONNECTED = 2;
+	/** Length of the header of a frame: its length and its type. */
+	private static final int HEADER = 5;
+	/** Length of an encoded agent id. */
+	private static final int ID_LENGTH = 12;
+	/** Time between two attempts to connect to an unreachable node. */
+	private static final long RETRY_MILLIS = 1000;
+	/** Initial size of the buffers of a connection. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/** Maximal length of a frame, and maximal number of bytes that wait to be written to a node. */
+	private static final int MAX_FRAME_LENGTH = 1 << 26, MAX_PENDING = 1 << 26;
+
+	/** The codec of the messages. */
+	private final TriggerCodec codec;
+	/** The agents of this node. */
+	private final ConcurrentHashMap<AgentID, MessengerToAgentInterface> localAgents;
+	/** The node of each known agent of the other nodes. */
+	private final ConcurrentHashMap<AgentID, Peer> remoteAgents;
+	/** The other nodes by their listening address. */
+	private final ConcurrentHashMap<InetSocketAddress, Peer> peers;
+	/** The nodes that have output to be written. */
+	private final ConcurrentLinkedQueue<Peer> flushes;
+	/** The address on which this node listens. */
+	private final InetSocketAddress address;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final Thread thread;
+	/** The number of messages that could not be sent because their node became unreachable. */
+	private final AtomicLong droppedMessages;
+	/** The number of messages from other nodes that were refused by the full inbox of their receiver. */
+	private final AtomicLong rejectedMessages;
+	private volatile boolean closed = false;
+
+	/**
+	 * Create a node of the cluster that listens on the given port of the loopback address, hence it can 
+	 * only be reached by nodes on the same host, and connects to the given peers.
+	 * @param port The port to listen on. Use port 0 to pick a free port, see <code>getAddress</code>.
+	 * @param peers Addresses of other nodes, which may not be up yet.
+	 * @param codec The codec of the messages, e.g. a restricted <code>SerializationTriggerCodec</code>.
+	 * @throws IOException If the node cannot listen on the port.
+	 */
+	public ClusterMessenger(final int port, final Collection<InetSocketAddress> peers, final TriggerCodec codec) throws IOException {
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), peers, codec);
+	}
+	
+	/**
+	 * Create a node of the cluster that listens on the given address and connects to the given peers. 
+	 * Only listen on an address that is reachable by trusted hosts, as connections are not authenticated.
+	 * @param address The address to listen on. Use port 0 to pick a free port, see <code>getAddress</code>.
+	 * @param peers Addresses of other nodes, which may not be up yet.
+	 * @param codec The codec of the messages, e.g. a restricted <code>SerializationTriggerCodec</code>.
+	 * @throws IOException If the node cannot listen on the address.
+	 */
+	public ClusterMessenger(final InetSocketAddress address, final Collection<InetSocketAddress> peers, final TriggerCodec codec) throws IOException {
+		if(codec instanceof SerializationTriggerCodec && !((SerializationTriggerCodec) codec).isRestricted())
+			throw new IllegalArgumentException("A serialization codec for a cluster must be restricted to the classes of the messages.");
+		this.codec = codec;
+		this.localAgents = new ConcurrentHashMap<>();
+		this.remoteAgents = new ConcurrentHashMap<>();
+		this.peers = new ConcurrentHashMap<>();
+		this.flushes = new ConcurrentLinkedQueue<>();
+		this.droppedMessages = new AtomicLong();
+		this.rejectedMessages = new AtomicLong();
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		this.server.bind(address);
+		this.server.configureBlocking(false);
+		this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+		this.address = new InetSocketAddress(address.getAddress(), ((InetSocketAddress) this.server.getLocalAddress()).getPort());
+		for(InetSocketAddress peer : peers) addPeer(peer);
+		this.thread = new Thread(this::run, "oo2apl-cluster-"+this.address.getPort());
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/** Obtain the address on which this node listens. */
+	public final InetSocketAddress getAddress(){ return this.address; }
+
+	/** Connect to another node, and accept its connections. Nothing happens if it is already a peer. */
+	public final void addPeer(final InetSocketAddress address){
+		if(!address.equals(this.address)) this.peers.computeIfAbsent(address, Peer::new);
+		this.selector.wakeup();
+	}
+
+	/** Obtain the addresses of the other nodes. */
+	public final List<InetSocketAddress> getPeers(){
+		return new ArrayList<>(this.peers.keySet());
+	}
+
+	/** Obtain the number of messages that were dropped because their node became unreachable. */
+	public final long getDroppedMessages(){ return this.droppedMessages.get(); }
+
+	/** Obtain the number of messages from other nodes that were refused because the inbox of their receiver was full. */
+	public final long getRejectedMessages(){ return this.rejectedMessages.get(); }
+
+	/** Store the agent interface and announce the agent to the other nodes. */
+	public final void register(final MessengerToAgentInterface agentInterface){
+		AgentID agentID = agentInterface.getAgentID();
+		this.localAgents.put(agentID, agentInterface);
+		for(Peer peer : this.peers.values()) peer.announce(HOST, agentID);
+	}
+
+	/** Remove the agent interface and announce the removal to the other nodes. */
+	public final void deregister(final AgentID agentID){
+		if(this.localAgents.remove(agentID) == null) return;
+		for(Peer peer : this.peers.values()) peer.announce(LEAVE, agentID);
+	}
+
+	/** Deliver the message directly if the receiver is an agent of this node, otherwise send it to the node of the receiver. */
+	public final void sendMessage(final AgentID receiver, final Trigger message) throws MessageReceiverNotFoundException {
+		MessengerToAgentInterface agentInterface = this.localAgents.get(receiver);
+		if(agentInterface != null){
+			agentInterface.deliverMessage(message);
+			return;
+		}
+		Peer peer = this.remoteAgents.get(receiver);
+		if(peer == null) throw new MessageReceiverNotFoundException("Trying to send to non-existent agent "+receiver+".");
+		byte[] bytes;
+		try {
+			bytes = this.codec.encode(message);
+		} catch(IOException e){
+			throw new IllegalArgumentException("Cannot encode message "+message+".", e);
+		}
+		peer.send(receiver, bytes);
+	}
+
+	/** Stop the network thread and close all connections. */
+	public final void close(){
+		this.closed = true;
+		this.selector.wakeup();
+		try {
+			this.thread.join();
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	//////////////////////
+	//// NETWORK THREAD //
+	//////////////////////
+
+	/** Accept, connect, read and write until the messenger is closed. Errors of a connection only close that
+	 * connection. If the thread stops, then all nodes become unreachable so that senders drop their messages. */
+	private final void run(){
+		try {
+			while(!this.closed){
+				this.selector.select(RETRY_MILLIS);
+				long now = System.currentTimeMillis();
+				for(Peer peer : this.peers.values()) if(peer.channel == null && now >= peer.nextAttempt) peer.connect();
+				Peer peer;
+				while((peer = this.flushes.poll()) != null) peer.write();
+				for(SelectionKey key : this.selector.selectedKeys()){
+					if(!key.isValid()) continue;
+					if(key.isAcceptable()) accept();
+					else if(key.attachment() instanceof Peer){
+						peer = (Peer) key.attachment();
+						if(key.isConnectable()) peer.finishConnect();
+						else if(key.isWritable()) peer.write();
+					} else if(key.isReadable()) ((Inbound) key.attachment()).read();
+				}
+				this.selector.selectedKeys().clear();
+			}
+		} catch(IOException | RuntimeException e){
+			e.printStackTrace();
+		} finally {
+			this.closed = true;
+			for(Peer peer : this.peers.values()) peer.disconnect();
+			for(SelectionKey key : this.selector.keys()) close(key.channel());
+			close(this.selector);
+		}
+	}
+
+	/** Accept a connection of another node. A failure only affects the connection that was being accepted. */
+	private final void accept(){
+		SocketChannel channel = null;
+		try {
+			channel = this.server.accept();
+			if(channel == null) return;
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.register(this.selector, SelectionKey.OP_READ, new Inbound(channel));
+		} catch(IOException e){
+			e.printStackTrace();
+			if(channel != null) close(channel);
+		}
+	}
+
+	/** Forget the agents of a node whose connection to this node is closed. */
+	private final void forget(final Peer peer){
+		this.remoteAgents.values().removeIf(node -> node == peer);
+	}
+
+	private static final void close(final Closeable closeable){
+		try {
+			closeable.close();
+		} catch(IOException e){
+			// Already closed
+		}
+	}
+
+	/** Write a frame header and an agent id. */
+	private static final void putHeader(final ByteBuffer buffer, final int length, final byte type, final AgentID agentID){
+		buffer.putInt(length).put(type).putInt(agentID.getKey()).putLong(agentID.getSerial());
+	}
+
+	/** Another node and the connection to it, over which this node sends its announcements and messages. */
+	private final class Peer {
+		private final InetSocketAddress address;
+		/** The connection; null if not connected. Only used by the network thread. */
+		private SocketChannel channel = null;
+		/** When to try to connect again. Only used by the network thread. */
+		private long nextAttempt = 0;
+		/** The current connection of the peer to this node. Only used by the network thread. */
+		private Inbound inbound = null;
+		/** The frames that are not written yet; in write mode. Guarded by the peer's monitor. */
+		private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+		/** The number of messages in the pending frames. Guarded by the peer's monitor. */
+		private int pendingMessages = 0;
+		/** Whether the peer is in the queue of flushes or waits until it can write. Guarded by the peer's monitor. */
+		private boolean flushing = false;
+		/** The state of the connection. Guarded by the peer's monitor. */
+		private int state = DISCONNECTED;
+		/** The frames that are being written; in read mode. Only used by the network thread. */
+		private ByteBuffer writing = ByteBuffer.allocate(BUFFER_SIZE);
+		/** The number of messages in the frames that are being written. Only used by the network thread. */
+		private int writingMessages = 0;
+
+		private Peer(final InetSocketAddress address){
+			this.address = address;
+			this.writing.flip();
+		}
+
+		/** Append the announcement of an agent of this node. Skipped if disconnected, as all agents are announced upon connecting. */
+		private final synchronized void announce(final byte type, final AgentID agentID){
+			if(this.state == DISCONNECTED) return;
+			reserve(HEADER + ID_LENGTH);
+			putHeader(this.pending, 1 + ID_LENGTH, type, agentID);
+			requestFlush();
+		}
+
+		/** Append a message to an agent of the peer. Dropped if the peer is unreachable or too much output waits for it. */
+		private final synchronized void send(final AgentID receiver, final byte[] message){
+			if(this.state == DISCONNECTED || this.pending.position() + HEADER + ID_LENGTH + message.length > MAX_PENDING){
+				ClusterMessenger.this.droppedMessages.incrementAndGet();
+				return;
+			}
+			reserve(HEADER + ID_LENGTH + message.length);
+			putHeader(this.pending, 1 + ID_LENGTH + message.length, MESSAGE, receiver);
+			this.pending.put(message);
+			this.pendingMessages++;
+			requestFlush();
+		}
+
+		/** Make sure that the pending buffer has room for the given number of bytes. */
+		private final void reserve(final int bytes){
+			if(this.pending.remaining() >= bytes) return;
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * this.pending.capacity(), this.pending.position() + bytes));
+			this.pending.flip();
+			larger.put(this.pending);
+			this.pending = larger;
+		}
+
+		/** Let the network thread write the pending frames, unless it will already do so. Only wakes up the thread
+		 * for the first frame of a batch. */
+		private final void requestFlush(){
+			if(this.flushing || this.state != CONNECTED) return;
+			this.flushing = true;
+			ClusterMessenger.this.flushes.add(this);
+			ClusterMessenger.this.selector.wakeup();
+		}
+
+		/** Start to connect. Messages are kept until the connection is made or fails. */
+		private final void connect(){
+			synchronized(this){ this.state = CONNECTING; }
+			try {
+				this.channel = SocketChannel.open();
+				this.channel.configureBlocking(false);
+				this.channel.socket().setTcpNoDelay(true);
+				if(this.channel.connect(this.address)) connected();
+				else this.channel.register(ClusterMessenger.this.selector, SelectionKey.OP_CONNECT, this);
+			} catch(IOException | RuntimeException e){
+				disconnect();
+			}
+		}
+
+		/** Complete the connection once the channel is ready. */
+		private final void finishConnect(){
+			try {
+				if(this.channel.finishConnect()) connected();
+			} catch(IOException | RuntimeException e){
+				disconnect(); // Not up (yet); retried later
+			}
+		}
+
+		/** Introduce this node and announce all its agents ahead of the frames that are pending. */
+		private final void connected() throws IOException {
+			this.channel.register(ClusterMessenger.this.selector, 0, this);
+			synchronized(this){
+				ByteBuffer earlier = this.pending;
+				earlier.flip();
+				byte[] host = ClusterMessenger.this.address.getHostString().getBytes(StandardCharsets.UTF_8);
+				this.pending = ByteBuffer.allocate(Math.max(BUFFER_SIZE, 2 * earlier.remaining()));
+				reserve(HEADER + 4 + host.length);
+				this.pending.putInt(1 + 4 + host.length).put(HELLO).putInt(ClusterMessenger.this.address.getPort()).put(host);
+				for(AgentID agentID : ClusterMessenger.this.localAgents.keySet()){
+					reserve(HEADER + ID_LENGTH);
+					putHeader(this.pending, 1 + ID_LENGTH, HOST, agentID);
+				}
+				reserve(earlier.remaining());
+				this.pending.put(earlier);
+				this.state = CONNECTED;
+				requestFlush();
+			}
+		}
+
+		/** Write as much as the channel accepts; wait for the channel if it is full. */
+		private final void write(){
+			if(this.channel == null) return;
+			try {
+				while(true){
+					if(!this.writing.hasRemaining()){
+						synchronized(this){
+							if(this.pending.position() == 0){
+								this.flushing = false;
+								this.channel.keyFor(ClusterMessenger.this.selector).interestOps(0);
+								return;
+							}
+							ByteBuffer written = this.writing;
+							this.writing = this.pending;
+							this.writing.flip();
+							written.clear();
+							this.pending = written;
+							this.writingMessages = this.pendingMessages;
+							this.pendingMessages = 0;
+						}
+					}
+					this.channel.write(this.writing);
+					if(this.writing.hasRemaining()){
+						this.channel.keyFor(ClusterMessenger.this.selector).interestOps(SelectionKey.OP_WRITE);
+						return;
+					}
+				}
+			} catch(IOException | RuntimeException e){ // E.g. a key that was cancelled
+				disconnect();
+			}
+		}
+
+		/** Close the connection and drop the frames that were not written; the connection is retried later. The 
+		 * messages of a partially written batch are counted as dropped, although some of them may have arrived. */
+		private final void disconnect(){
+			if(this.channel != null){
+				close(this.channel);
+				this.channel = null;
+			}
+			this.nextAttempt = System.currentTimeMillis() + RETRY_MILLIS;
+			int dropped = this.writing.hasRemaining() ? this.writingMessages : 0;
+			this.writing.clear();
+			this.writing.flip();
+			synchronized(this){
+				ClusterMessenger.this.droppedMessages.addAndGet(dropped + this.pendingMessages);
+				this.state = DISCONNECTED;
+				this.flushing = false;
+				this.pending.clear();
+				this.pendingMessages = 0;
+			}
+		}
+	}
+
+	/** A connection of another node to this node, over which it sends its announcements and messages. */
+	private final class Inbound {
+		private final SocketChannel channel;
+		/** The received bytes; in write mode. */
+		private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		/** The node that introduced itself over the connection. */
+		private Peer peer = null;
+
+		private Inbound(final SocketChannel channel){
+			this.channel = channel;
+		}
+
+		/** Read what is available and handle the complete frames. The connection is closed if it fails or if
+		 * a frame is malformed. */
+		private final void read(){
+			try {
+				if(this.channel.read(this.buffer) < 0) throw new IOException("Connection closed.");
+				this.buffer.flip();
+				while(this.buffer.remaining() >= 4){
+					int length = this.buffer.getInt(this.buffer.position());
+					if(length < 1 || length > MAX_FRAME_LENGTH) throw new MalformedFrameException("Frame of length "+length+".");
+					if(this.buffer.remaining() < 4 + length){
+						if(4 + length > this.buffer.capacity()){
+							ByteBuffer larger = ByteBuffer.allocate(4 + length);
+							larger.put(this.buffer);
+							larger.flip();
+							this.buffer = larger;
+						}
+						break;
+					}
+					this.buffer.getInt();
+					handle(this.buffer.get(), length - 1);
+				}
+				this.buffer.compact();
+			} catch(IOException | RuntimeException e){
+				if(!(e instanceof IOException) || e instanceof MalformedFrameException) e.printStackTrace(); // A closed connection is expected
+				close(this.channel);
+				if(this.peer != null && this.peer.inbound == this){ // The node is down or restarted; so reconnect and announce again
+					this.peer.inbound = null;
+					forget(this.peer);
+					this.peer.disconnect();
+					this.peer.nextAttempt = 0;
+				}
+			}
+		}
+
+		/** Handle a frame whose type is read; the position of the buffer is after the frame upon return. */
+		private final void handle(final byte type, final int length) throws IOException {
+			int end = this.buffer.position() + length;
+			if(type < HELLO || type > MESSAGE || length < (type == HELLO ? 4 : ID_LENGTH)) throw new MalformedFrameException("Frame of type "+type+" and length "+length+".");
+			if(type == HELLO){
+				int port = this.buffer.getInt();
+				byte[] host = new byte[length - 4];
+				this.buffer.get(host);
+				InetSocketAddress address = new InetSocketAddress(new String(host, StandardCharsets.UTF_8), port);
+				this.peer = ClusterMessenger.this.peers.get(address); // Unknown nodes are refused, so they cannot make this node dial them
+				if(this.peer == null) throw new IOException("Node "+address+" is not a peer.");
+				this.peer.inbound = this;
+			} else if(this.peer == null){
+				throw new IOException("Node did not introduce itself.");
+			} else {
+				AgentID agentID = AgentID.valueOf(this.buffer.getInt(), this.buffer.getLong());
+				if(type == HOST) ClusterMessenger.this.remoteAgents.put(agentID, this.peer);
+				else if(type == LEAVE) ClusterMessenger.this.remoteAgents.remove(agentID, this.peer);
+				else if(type == MESSAGE) deliver(agentID, end);
+			}
+			this.buffer.position(end);
+		}
+
+		/** Decode a message and deliver it to the receiver of this node. */
+		private final void deliver(final AgentID receiver, final int end) throws IOException {
+			byte[] bytes = new byte[end - this.buffer.position()];
+			this.buffer.get(bytes);
+			MessengerToAgentInterface agentInterface = ClusterMessenger.this.localAgents.get(receiver);
+			try {
+				if(agentInterface == null) throw new MessageReceiverNotFoundException("Received message for non-existent agent "+receiver+".");
+				agentInterface.deliverMessage(ClusterMessenger.this.codec.decode(bytes));
+			} catch(MailboxFullException e){
+				ClusterMessenger.this.rejectedMessages.incrementAndGet();
+			} catch(MessageReceiverNotFoundException | RuntimeException e){
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** Thrown when another node sends a frame that cannot be decoded. */
+	private static final class MalformedFrameException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private MalformedFrameException(final String message){
+			super(message);
+		}
+	}
+}
@@ -34,16 +34,19 @@ public final class DefaultMessenger implements Messenger {
 		}
 	} 
 	
-	/** Grab the agent interface of the receiver and add the message in the receiving agent. */
+	/** Grab the agent interface of the receiver and add the message in the receiving agent. The message is 
+	 * added outside of the messenger's monitor, so that a delivery that waits (e.g. during a schedule replay) 
+	 * does not block the deliveries to other agents. */
 	public final void sendMessage(final AgentID receiver, final Trigger message) throws MessageReceiverNotFoundException{
+		MessengerToAgentInterface agentInterface;
 		synchronized(this.agentInterfaces){
-			MessengerToAgentInterface agentInterface = this.agentInterfaces.get(receiver);
-			if(agentInterface == null){
-				//TODO send message to sender that receiver is unknown instead of exception
-				throw new MessageReceiverNotFoundException("Trying to send to non-existent agent "+receiver+".");
-			} else {
-				agentInterface.deliverMessage(message);
-			}
+			agentInterface = this.agentInterfaces.get(receiver);
 		} 
+		if(agentInterface == null){
+			//TODO send message to sender that receiver is unknown instead of exception
+			throw new MessageReceiverNotFoundException("Trying to send to non-existent agent "+receiver+".");
+		} else {
+			agentInterface.deliverMessage(message);
+		}
 	} 
 } 
\ No newline at end of file
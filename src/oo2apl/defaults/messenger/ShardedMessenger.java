@@ -0,0 +1,58 @@
+package oo2apl.defaults.messenger;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import oo2apl.agent.AgentID;
+import oo2apl.agent.MessengerToAgentInterface;
+import oo2apl.agent.Trigger;
+import oo2apl.messaging.Messenger;
+import oo2apl.platform.ShardedScheduler;
+/**
+ * The messenger of a sharded platform. A message to an agent on the shard of the sender is delivered 
+ * directly by the sender's thread, which is the only thread that runs that agent. A message to an 
+ * agent on another shard is handed to that shard and delivered by its thread in between the runs of 
+ * its agents, so that the inbox of the receiving agent is only touched by its own shard. The messages 
+ * of each sender arrive in the order in which they were sent, also when the scheduler moves the 
+ * receiver to another shard. 
+ * 
+ * Messages to agents with a bounded inbox are the exception: the sender's thread always delivers them 
+ * directly, also to agents on other shards, as the sender must learn whether the message is refused. 
+ * Such inboxes are therefore touched by the threads of other shards, under the lock of the receiving 
+ * agent. They never block, as the sharded platform refuses inboxes that block their senders. 
+ * 
+ * The registry is a concurrent map, so that sending does not take a lock that all senders share.
+ * 
+ * @author Bas Testerink
+ */
+public final class ShardedMessenger implements Messenger {
+	/** The scheduler whose shards run the agents. */
+	private final ShardedScheduler scheduler;
+	/** Stores the interfaces to agents to inject messages. */
+	private final ConcurrentHashMap<AgentID, MessengerToAgentInterface> agentInterfaces;
+	
+	public ShardedMessenger(final ShardedScheduler scheduler){
+		this.scheduler = scheduler;
+		this.agentInterfaces = new ConcurrentHashMap<>();
+	}
+	
+	/** Store the agent interface. */
+	public final void register(final MessengerToAgentInterface agentInterface){
+		this.agentInterfaces.put(agentInterface.getAgentID(), agentInterface);
+	}
+	
+	/** Remove the agent interface from the messenger. */
+	public final void deregister(final AgentID agentID){
+		this.agentInterfaces.remove(agentID);
+	}
+	
+	/** Deliver the message directly if the receiver has a bounded inbox. Otherwise let the scheduler route the 
+	 * delivery: it runs directly if the receiver is on the current shard, and is handed to the shard of the 
+	 * receiver otherwise. Deliveries to a receiver that is being moved are held by its new shard until the old 
+	 * shard has run the deliveries that were handed to it before. */
+	public final void sendMessage(final AgentID receiver, final Trigger message) throws MessageReceiverNotFoundException {
+		MessengerToAgentInterface agentInterface = this.agentInterfaces.get(receiver);
+		if(agentInterface == null) throw new MessageReceiverNotFoundException("Trying to send to non-existent agent "+receiver+".");
+		if(agentInterface.hasMailboxBound()) agentInterface.deliverMessage(message);
+		else this.scheduler.deliver(agentInterface.getPlacementKey(), () -> agentInterface.deliverMessage(message));
+	}
+}
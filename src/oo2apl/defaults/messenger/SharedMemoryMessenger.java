@@ -0,0 +1,490 @@
+package oo2apl.defaults.messenger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import oo2apl.agent.AgentID;
+import oo2apl.agent.MailboxFullException;
+import oo2apl.agent.MessengerToAgentInterface;
+import oo2apl.agent.Trigger;
+import oo2apl.journal.TriggerCodec;
+import oo2apl.messaging.Messenger;
+/**
+ * A messenger for platforms in several processes on the same host, which exchange messages through
+ * memory-mapped files instead of sockets. All nodes use the same directory, preferably on a memory
+ * file system such as <code>/dev/shm</code>. Each node has a file with its heartbeat, and writes to
+ * each other node through a ring buffer file of its own, which only that other node reads. Hence a
+ * ring has a single writer and a single reader, and needs no locks between the processes. The
+ * senders within a process take turns on a ring.
+ *
+ * As with the <code>ClusterMessenger</code>, each node announces its agents to the other nodes,
+ * messages to agents of the node itself are delivered directly, and remote messages that a full inbox
+ * refuses are counted, see <code>getRejectedMessages</code>. Each node has a thread that reads
+ * its rings and delivers the messages; it spins shortly when the rings are empty before it backs off,
+ * which trades some processor time for delivery within microseconds.
+ *
+ * A node whose heartbeat stops is considered dead: its agents are forgotten, its rings are removed,
+ * and senders that wait for room in its ring give up. Messages to it are dropped and counted. If it
+ * restarts under the same name, then the nodes connect with new rings; a ring is only removed by its
+ * reader if it belongs to the run of the writer that died, and a writer recreates its ring if the ring
+ * is gone. A sender also gives up, and the message is dropped, if the reader of a full ring does not
+ * make progress within the time after which a node is considered dead. The accesses to the mapped memory
+ * are plain, hence the rings order them with the explicit fences of <code>sun.misc.Unsafe</code>: a writer
+ * fences its frame before it publishes the tail, and a reader fences the tail before it reads the frames,
+ * and its reads before it publishes the head.
+ *
+ * @author Bas Testerink
+ */
+public final class SharedMemoryMessenger implements Messenger, Closeable {
+	/** Frame types; a skip frame fills the end of a ring when the next frame does not fit. */
+	private static final byte HOST = 1, LEAVE = 2, MESSAGE = 3;
+	private static final int SKIP = -1;
+	/** Length of an encoded agent id. */
+	private static final int ID_LENGTH = 12;
+	/** Layout of a ring file; the counters have cache lines of their own. */
+	private static final int WRITER_INCARNATION = 0, READER_INCARNATION = 8, HEAD = 64, TAIL = 128, DATA = 192;
+	/** Layout of a node file. */
+	private static final int INCARNATION = 0, HEARTBEAT = 8, NODE_FILE_SIZE = 16;
+	/** Default capacity of a ring. */
+	private static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+	/** Time between two heartbeats and scans of the directory. */
+	private static final long HEARTBEAT_MILLIS = 100;
+	/** Time after which a node without heartbeat is considered dead. */
+	private static final long DEAD_AFTER_MILLIS = 1000;
+	/** Number of empty polls after which the reading thread starts to back off. */
+	private static final int SPINS = 1000;
+	private static final Random incarnations = new Random();
+	/** Provides the fences for the rings. */
+	private static final sun.misc.Unsafe UNSAFE = getUnsafe();
+
+	/** The directory of the nodes. */
+	private final Path directory;
+	/** The name of this node. */
+	private final String name;
+	/** The codec of the messages. */
+	private final TriggerCodec codec;
+	/** The capacity of the rings that this node writes. */
+	private final int capacity;
+	/** Distinguishes this run of the node from earlier runs with the same name. */
+	private final long incarnation;
+	/** The heartbeat of this node. */
+	private final MappedByteBuffer nodeFile;
+	/** The agents of this node. */
+	private final ConcurrentHashMap<AgentID, MessengerToAgentInterface> localAgents;
+	/** The ring to the node of each known agent of the other nodes. */
+	private final ConcurrentHashMap<AgentID, Outbound> remoteAgents;
+	/** The rings to the other nodes, by name. */
+	private final ConcurrentHashMap<String, Outbound> outbounds;
+	/** The rings from the other nodes. Only used by the reading thread. */
+	private final Map<String, Inbound> inbounds;
+	private final Thread thread;
+	/** The number of messages that could not be sent because their node died or stopped reading. */
+	private final AtomicLong droppedMessages;
+	/** The number of messages from other nodes that were refused by the full inbox of their receiver. */
+	private final AtomicLong rejectedMessages;
+	private volatile boolean closed = false;
+
+	/** Create a node with rings of the default capacity of 4MB. */
+	public SharedMemoryMessenger(final Path directory, final String name, final TriggerCodec codec) throws IOException {
+		this(directory, name, codec, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a node in the given directory.
+	 * @param directory The directory that all nodes of the host use, e.g. <code>/dev/shm/oo2apl</code>.
+	 * @param name The name of the node, unique among the running nodes. Letters, digits, '_' and '-' only.
+	 * @param codec The codec of the messages, e.g. a <code>SerializationTriggerCodec</code>.
+	 * @param capacity The size of the rings that this node writes. A message can be at most half of it.
+	 * @throws IOException If the files of the node cannot be created.
+	 */
+	public SharedMemoryMessenger(final Path directory, final String name, final TriggerCodec codec, final int capacity) throws IOException {
+		if(!name.matches("[A-Za-z0-9_-]+")) throw new IllegalArgumentException("Invalid node name "+name+".");
+		if(capacity < 1024 || capacity % 8 != 0) throw new IllegalArgumentException("Capacity must be a multiple of 8 of at least 1024.");
+		this.directory = directory;
+		this.name = name;
+		this.codec = codec;
+		this.capacity = capacity;
+		this.incarnation = incarnations.nextLong() | 1; // Never 0, which marks a file that is not initialized
+		this.localAgents = new ConcurrentHashMap<>();
+		this.remoteAgents = new ConcurrentHashMap<>();
+		this.outbounds = new ConcurrentHashMap<>();
+		this.inbounds = new HashMap<>();
+		this.droppedMessages = new AtomicLong();
+		this.rejectedMessages = new AtomicLong();
+		Files.createDirectories(directory);
+		this.nodeFile = create(directory.resolve(name+".node"), NODE_FILE_SIZE, this.incarnation, System.currentTimeMillis());
+		this.thread = new Thread(this::run, "oo2apl-shm-"+name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/** Obtain the name of this node. */
+	public final String getName(){ return this.name; }
+
+	/** Obtain the names of the other nodes that are alive. */
+	public final List<String> getPeers(){
+		return new ArrayList<>(this.outbounds.keySet());
+	}
+
+	/** Obtain the number of messages that were dropped because their node died or stopped reading. */
+	public final long getDroppedMessages(){ return this.droppedMessages.get(); }
+
+	/** Obtain the number of messages from other nodes that were refused because the inbox of their receiver was full. */
+	public final long getRejectedMessages(){ return this.rejectedMessages.get(); }
+
+	/** Store the agent interface and announce the agent to the other nodes. */
+	public final void register(final MessengerToAgentInterface agentInterface){
+		AgentID agentID = agentInterface.getAgentID();
+		this.localAgents.put(agentID, agentInterface);
+		for(Outbound outbound : this.outbounds.values()) outbound.write(HOST, agentID, null);
+	}
+
+	/** Remove the agent interface and announce the removal to the other nodes. */
+	public final void deregister(final AgentID agentID){
+		if(this.localAgents.remove(agentID) == null) return;
+		for(Outbound outbound : this.outbounds.values()) outbound.write(LEAVE, agentID, null);
+	}
+
+	/** Deliver the message directly if the receiver is an agent of this node, otherwise write it to the ring of the
+	 * node of the receiver. Waits if that ring is full, for as long as the receiving node reads. */
+	public final void sendMessage(final AgentID receiver, final Trigger message) throws MessageReceiverNotFoundException {
+		MessengerToAgentInterface agentInterface = this.localAgents.get(receiver);
+		if(agentInterface != null){
+			agentInterface.deliverMessage(message);
+			return;
+		}
+		Outbound outbound = this.remoteAgents.get(receiver);
+		if(outbound == null) throw new MessageReceiverNotFoundException("Trying to send to non-existent agent "+receiver+".");
+		byte[] bytes;
+		try {
+			bytes = this.codec.encode(message);
+		} catch(IOException e){
+			throw new IllegalArgumentException("Cannot encode message "+message+".", e);
+		}
+		if(Ring.align(4 + 1 + ID_LENGTH + bytes.length) > outbound.capacity / 2) throw new IllegalArgumentException("Message "+message+" is too large for the ring.");
+		if(!outbound.write(MESSAGE, receiver, bytes)) this.droppedMessages.incrementAndGet();
+	}
+
+	/** Stop the reading thread and remove the files of this node. The other nodes consider it dead immediately. */
+	public final void close(){
+		this.closed = true;
+		try {
+			this.thread.join();
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Create a file of the given size that starts with the two given numbers, and map it. The file is created under 
+	 * another name first, so that other nodes never see it incomplete. */
+	private static final MappedByteBuffer create(final Path file, final int size, final long first, final long second) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName()+".tmp");
+		MappedByteBuffer buffer;
+		try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		buffer.putLong(0, first).putLong(8, second);
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return buffer;
+	}
+
+	/** Read the two numbers at the start of a node or ring file, or return null if the file does not exist (anymore). */
+	private static final long[] readHeader(final Path file){
+		ByteBuffer header = ByteBuffer.allocate(16);
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			while(header.hasRemaining() && channel.read(header) >= 0);
+		} catch(IOException e){
+			return null; // Removed in the meantime
+		}
+		return header.hasRemaining() ? null : new long[]{ header.getLong(0), header.getLong(8) };
+	}
+
+	/** Remove a ring file, but only if it is the ring between the given runs of its writer and reader. A newer run of the
+	 * writer may already have replaced it. */
+	private static final void deleteRing(final Path file, final long writerIncarnation, final long readerIncarnation){
+		long[] header = readHeader(file);
+		if(header != null && header[0] == writerIncarnation && header[1] == readerIncarnation) delete(file);
+	}
+
+	/** Map an existing file, or return null if it does not exist (anymore). */
+	private static final MappedByteBuffer map(final Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+		} catch(java.nio.file.NoSuchFileException e){
+			return null;
+		}
+	}
+
+	private final Path ringFile(final String writer, final String reader){
+		return this.directory.resolve(writer+".to."+reader+".ring");
+	}
+
+	//////////////////////
+	//// READING THREAD //
+	//////////////////////
+
+	/** Read the rings, and keep the heartbeat and the connections to other nodes up to date. */
+	private final void run(){
+		long nextHeartbeat = 0;
+		int idle = 0;
+		try {
+			while(!this.closed){
+				int read = 0;
+				for(Inbound inbound : this.inbounds.values()) read += inbound.read();
+				if(read > 0) idle = 0;
+				else if(++idle > SPINS) LockSupport.parkNanos(Math.min(idle - SPINS, 100) * 1000L); // Back off to at most 100us
+				else Thread.yield();
+				long now = System.currentTimeMillis();
+				if(now >= nextHeartbeat){
+					maintain(now);
+					nextHeartbeat = now + HEARTBEAT_MILLIS;
+				}
+			}
+		} catch(IOException e){
+			e.printStackTrace();
+		} finally {
+			this.nodeFile.putLong(HEARTBEAT, 0);
+			for(String peer : new ArrayList<>(this.outbounds.keySet())) disconnect(peer);
+			delete(this.directory.resolve(this.name+".node"));
+		}
+	}
+
+	/** Beat, connect to new nodes and disconnect from dead nodes. */
+	private final void maintain(final long now) throws IOException {
+		this.nodeFile.putLong(HEARTBEAT, now);
+		Map<String, Long> alive = new HashMap<>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "*.node")){
+			for(Path file : files){
+				String peer = file.getFileName().toString();
+				peer = peer.substring(0, peer.length() - ".node".length());
+				if(peer.equals(this.name)) continue;
+				long[] state = readHeader(file);
+				if(state == null) continue;
+				long incarnation = state[INCARNATION / 8], heartbeat = state[HEARTBEAT / 8];
+				if(incarnation != 0 && now - heartbeat < DEAD_AFTER_MILLIS) alive.put(peer, incarnation);
+			}
+		}
+		Set<String> known = new HashSet<>(this.outbounds.keySet());
+		for(String peer : known){
+			Long incarnation = alive.get(peer);
+			if(incarnation == null || incarnation.longValue() != this.outbounds.get(peer).peerIncarnation) disconnect(peer);
+		}
+		for(Map.Entry<String, Long> peer : alive.entrySet()){
+			Outbound outbound = this.outbounds.get(peer.getKey());
+			if(outbound != null){ // Recreate the ring if it is gone, e.g. removed by the reader in between two of its runs
+				long[] header = readHeader(ringFile(this.name, peer.getKey()));
+				if(header == null || header[WRITER_INCARNATION / 8] != this.incarnation || header[READER_INCARNATION / 8] != outbound.peerIncarnation){
+					disconnect(peer.getKey());
+					outbound = null;
+				}
+			}
+			if(outbound == null) connect(peer.getKey(), peer.getValue());
+			if(!this.inbounds.containsKey(peer.getKey())){
+				Inbound inbound = Inbound.open(this, peer.getKey(), peer.getValue());
+				if(inbound != null) this.inbounds.put(peer.getKey(), inbound);
+			}
+		}
+	}
+
+	/** Create the ring to a new node and announce all agents of this node in it. */
+	private final void connect(final String peer, final long peerIncarnation) throws IOException {
+		MappedByteBuffer buffer = create(ringFile(this.name, peer), DATA + this.capacity, this.incarnation, peerIncarnation);
+		Outbound outbound = new Outbound(buffer, this.capacity, peerIncarnation);
+		synchronized(outbound){ // Published first, so that an agent that registers now is either in the snapshot or announced after it
+			this.outbounds.put(peer, outbound);
+			for(AgentID agentID : this.localAgents.keySet()) outbound.write(HOST, agentID, null);
+		}
+	}
+
+	/** Forget a node that died or restarted, and remove the rings between it and this node. */
+	private final void disconnect(final String peer){
+		Outbound outbound = this.outbounds.remove(peer);
+		if(outbound != null){
+			outbound.dead = true;
+			this.remoteAgents.values().removeIf(node -> node == outbound);
+			deleteRing(ringFile(this.name, peer), this.incarnation, outbound.peerIncarnation);
+		}
+		Inbound inbound = this.inbounds.remove(peer);
+		if(inbound != null) deleteRing(ringFile(peer, this.name), inbound.writerIncarnation, this.incarnation);
+	}
+
+	/** Obtain the instance of <code>sun.misc.Unsafe</code>, whose fences exist since Java 8. */
+	private static final sun.misc.Unsafe getUnsafe(){
+		try {
+			Field field = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			return (sun.misc.Unsafe) field.get(null);
+		} catch(ReflectiveOperationException e){
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static final void delete(final Path file){
+		try {
+			Files.deleteIfExists(file);
+		} catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	/** A ring in a mapped file. The head and tail count the bytes that were read and written since creation. */
+	private static abstract class Ring {
+		protected final MappedByteBuffer buffer;
+		/** A view on the buffer for bulk transfers. */
+		protected final ByteBuffer data;
+		protected final int capacity;
+
+		protected Ring(final MappedByteBuffer buffer, final int capacity){
+			this.buffer = buffer;
+			this.data = buffer.duplicate();
+			this.capacity = capacity;
+		}
+
+		/** Frames are aligned at 4 bytes, so that a length or skip marker always fits before the end. */
+		protected static final int align(final int bytes){ return (bytes + 3) & ~3; }
+	}
+
+	/** The ring to another node. Written by the senders of this node, one at a time. */
+	private static final class Outbound extends Ring {
+		/** The incarnation of the node that reads the ring. */
+		private final long peerIncarnation;
+		/** Whether the reading node died; then nothing is written anymore. */
+		private volatile boolean dead = false;
+
+		private Outbound(final MappedByteBuffer buffer, final int capacity, final long peerIncarnation){
+			super(buffer, capacity);
+			this.peerIncarnation = peerIncarnation;
+		}
+
+		/** Write a frame, waiting for room if the ring is full. Returns false if the reading node died or did not read 
+		 * anything for too long. */
+		private final synchronized boolean write(final byte type, final AgentID agentID, final byte[] message){
+			int length = 1 + ID_LENGTH + (message == null ? 0 : message.length);
+			int size = align(4 + length);
+			long tail = this.buffer.getLong(TAIL);
+			int position = (int) (tail % this.capacity);
+			int skip = this.capacity - position < size ? this.capacity - position : 0;
+			long head = this.buffer.getLong(HEAD), progressed = 0;
+			UNSAFE.loadFence(); // The head is read before the freed frames are overwritten
+			for(int waits = 0; tail + skip + size - head > this.capacity; waits++){
+				if(this.dead) return false;
+				if(waits == 0) progressed = System.nanoTime();
+				else if(System.nanoTime() - progressed > DEAD_AFTER_MILLIS * 1000000L) return false;
+				if(waits < 100) Thread.yield();
+				else LockSupport.parkNanos(10000);
+				long current = this.buffer.getLong(HEAD);
+				UNSAFE.loadFence(); // Also keeps the load in the loop
+				if(current != head){
+					head = current;
+					progressed = System.nanoTime();
+				}
+			}
+			if(this.dead) return false;
+			if(skip > 0){
+				this.buffer.putInt(DATA + position, SKIP);
+				position = 0;
+			}
+			this.buffer.putInt(DATA + position, length);
+			this.buffer.put(DATA + position + 4, type);
+			this.buffer.putInt(DATA + position + 5, agentID.getKey());
+			this.buffer.putLong(DATA + position + 9, agentID.getSerial());
+			if(message != null){
+				this.data.position(DATA + position + 4 + 1 + ID_LENGTH);
+				this.data.put(message);
+			}
+			UNSAFE.storeFence(); // The frame is written before the tail
+			this.buffer.putLong(TAIL, tail + skip + size);
+			return true;
+		}
+	}
+
+	/** The ring from another node. Only read by the reading thread. */
+	private static final class Inbound extends Ring {
+		private final SharedMemoryMessenger messenger;
+		/** The ring to the same node, to which its agents are mapped. */
+		private final Outbound outbound;
+		/** The run of the node that writes the ring. */
+		private final long writerIncarnation;
+		private long head;
+
+		private Inbound(final SharedMemoryMessenger messenger, final MappedByteBuffer buffer, final Outbound outbound){
+			super(buffer, buffer.capacity() - DATA);
+			this.messenger = messenger;
+			this.outbound = outbound;
+			this.writerIncarnation = buffer.getLong(WRITER_INCARNATION);
+			this.head = buffer.getLong(HEAD);
+		}
+
+		/** Map the ring of the given node to this node, or return null if it was not (re)created yet by that run of the node. */
+		private static final Inbound open(final SharedMemoryMessenger messenger, final String peer, final long peerIncarnation) throws IOException {
+			Outbound outbound = messenger.outbounds.get(peer);
+			MappedByteBuffer buffer = map(messenger.ringFile(peer, messenger.name));
+			if(outbound == null || buffer == null || buffer.capacity() <= DATA || buffer.getLong(WRITER_INCARNATION) != peerIncarnation ||
+					buffer.getLong(READER_INCARNATION) != messenger.incarnation) return null;
+			return new Inbound(messenger, buffer, outbound);
+		}
+
+		/** Handle the frames that were written. Returns the number of frames. */
+		private final int read(){
+			long tail = this.buffer.getLong(TAIL);
+			UNSAFE.loadFence(); // The frames are read after the tail
+			if(tail == this.head) return 0;
+			int frames = 0;
+			while(this.head < tail){
+				int position = (int) (this.head % this.capacity);
+				int length = this.buffer.getInt(DATA + position);
+				if(length == SKIP){
+					this.head += this.capacity - position;
+					continue;
+				}
+				byte type = this.buffer.get(DATA + position + 4);
+				AgentID agentID = AgentID.valueOf(this.buffer.getInt(DATA + position + 5), this.buffer.getLong(DATA + position + 9));
+				if(type == HOST) this.messenger.remoteAgents.put(agentID, this.outbound);
+				else if(type == LEAVE) this.messenger.remoteAgents.remove(agentID, this.outbound);
+				else if(type == MESSAGE){
+					byte[] bytes = new byte[length - 1 - ID_LENGTH];
+					this.data.position(DATA + position + 4 + 1 + ID_LENGTH);
+					this.data.get(bytes);
+					deliver(agentID, bytes);
+				}
+				this.head += align(4 + length);
+				frames++;
+			}
+			UNSAFE.loadFence(); // The frames are read before the head is moved
+			this.buffer.putLong(HEAD, this.head);
+			return frames;
+		}
+
+		/** Decode a message and deliver it to the receiver of this node. */
+		private final void deliver(final AgentID receiver, final byte[] bytes){
+			MessengerToAgentInterface agentInterface = this.messenger.localAgents.get(receiver);
+			try {
+				if(agentInterface == null) throw new MessageReceiverNotFoundException("Received message for non-existent agent "+receiver+".");
+				agentInterface.deliverMessage(this.messenger.codec.decode(bytes));
+			} catch(MailboxFullException e){
+				this.messenger.rejectedMessages.incrementAndGet();
+			} catch(MessageReceiverNotFoundException | IOException | RuntimeException e){
+				e.printStackTrace();
+			}
+		}
+	}
+}
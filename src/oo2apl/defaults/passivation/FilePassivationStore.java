@@ -0,0 +1,55 @@
+package oo2apl.defaults.passivation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import oo2apl.agent.AgentID;
+import oo2apl.passivation.PassivationStore;
+/**
+ * Stores the state of each passivated agent in a separate file in a local directory. The file 
+ * is deleted when the agent is reactivated. 
+ * 
+ * @author Bas Testerink
+ */
+public final class FilePassivationStore implements PassivationStore {
+	/** The directory in which the files are stored. */
+	private final Path directory;
+	
+	/** Creates the directory if it does not exist yet. */
+	public FilePassivationStore(final Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+	}
+
+	/** Write the state to the agent's file. */
+	public final void store(final AgentID agentID, final byte[] state) throws IOException {
+		Files.write(fileOf(agentID), state);
+	}
+
+	/** Read and delete the agent's file. */
+	public final byte[] remove(final AgentID agentID) throws IOException {
+		Path file = fileOf(agentID);
+		try {
+			byte[] state = Files.readAllBytes(file);
+			Files.delete(file);
+			return state;
+		} catch(NoSuchFileException e){
+			return null;
+		}
+	}
+	
+	/** Read the agent's file. */
+	public final byte[] read(final AgentID agentID) throws IOException {
+		try {
+			return Files.readAllBytes(fileOf(agentID));
+		} catch(NoSuchFileException e){
+			return null;
+		}
+	}
+	
+	/** The file in which the state of the agent is stored. */
+	private final Path fileOf(final AgentID agentID){
+		return this.directory.resolve("agent-"+agentID.getSerial()+".bin");
+	}
+}
@@ -0,0 +1,54 @@
+package oo2apl.defaults.passivation;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import oo2apl.agent.AgentID;
+import oo2apl.passivation.PassivationStore;
+/**
+ * Stores the state of passivated agents in direct byte buffers, i.e. in memory outside of the 
+ * Java heap. The memory of a buffer is released once the buffer is garbage collected after the 
+ * agent is reactivated. Limit the total size with the <code>-XX:MaxDirectMemorySize</code> flag.
+ * 
+ * @author Bas Testerink
+ */
+public final class OffHeapPassivationStore implements PassivationStore {
+	/** The buffers with the state of each passivated agent. */
+	private final Map<AgentID, ByteBuffer> buffers;
+	
+	public OffHeapPassivationStore(){
+		this.buffers = new ConcurrentHashMap<>();
+	}
+
+	/** Copy the state into a new direct buffer. */
+	public final void store(final AgentID agentID, final byte[] state){
+		ByteBuffer buffer = ByteBuffer.allocateDirect(state.length);
+		buffer.put(state);
+		this.buffers.put(agentID, buffer);
+	}
+
+	/** Copy the state out of the agent's buffer and forget the buffer. */
+	public final byte[] remove(final AgentID agentID){
+		ByteBuffer buffer = this.buffers.remove(agentID);
+		if(buffer == null) return null;
+		byte[] state = new byte[buffer.capacity()];
+		buffer.flip();
+		buffer.get(state);
+		return state;
+	}
+
+	/** Copy the state out of the agent's buffer and keep the buffer. */
+	public final byte[] read(final AgentID agentID){
+		ByteBuffer buffer = this.buffers.get(agentID);
+		if(buffer == null) return null;
+		byte[] state = new byte[buffer.capacity()];
+		ByteBuffer view = buffer.duplicate(); // Own position, so that concurrent reads do not interfere
+		view.clear();
+		view.get(state);
+		return state;
+	}
+	
+	/** Obtain the number of agents of which the state is stored. */
+	public final int size(){ return this.buffers.size(); }
+}
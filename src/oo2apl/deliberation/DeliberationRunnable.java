@@ -1,7 +1,15 @@
 package oo2apl.deliberation;
- 
+
+import java.util.concurrent.ScheduledFuture;
+
+import oo2apl.agent.AgentComponentFactory;
 import oo2apl.agent.AgentID;
 import oo2apl.agent.DeliberationRunnableToAgentInterface;
+import oo2apl.agent.DeliberationStepToAgentInterface;
+import oo2apl.agent.MailboxBound;
+import oo2apl.agent.Trigger;
+import oo2apl.journal.TriggerJournal;
+import oo2apl.trace.ScheduleTrace;
 import oo2apl.platform.DeliberationRunnableToPlatformInterface; 
 /**
  * A deliberation runnable implements how an agent is executed. This is done by 
@@ -15,6 +23,20 @@ public final class DeliberationRunnable implements Runnable {
 	private final DeliberationRunnableToAgentInterface agentInterface;
 	/** Interface to the relevant platform functionalities. */
 	private final DeliberationRunnableToPlatformInterface platform;
+	/** Per thread the deliberation cycles that run on it. */
+	private static final ThreadLocal<Nesting> NESTING = ThreadLocal.withInitial(Nesting::new);
+	/** The state of the agent when it stays awake to wait for a message. Created when it first does so. */
+	private ReplyWindow replyWindow = null;
+	/** The bound on the inbox of the agent, or null if the inbox is unbounded. */
+	private final MailboxBound mailboxBound;
+	/** The scheduling class of the agent. */
+	private final SchedulingClass schedulingClass;
+	/** The key that determines where the agent runs when the platform is sharded. */
+	private final Object placementKey;
+	/** The number of messages that the agent takes per cycle, or 0 if it takes all. */
+	private final int messageBudget;
+	/** The number of inputs that the agent refused and dropped because its inbox was full. Guarded by the monitor of the agent. */
+	private long rejectedInputs = 0, droppedInputs = 0;
 
 	/**
 	 * Creation of the deliberation runnable will also result in the setting of a self-rescheduler for this runnable  
@@ -23,8 +45,22 @@ public final class DeliberationRunnable implements Runnable {
 	 * @param platform
 	 */
 	public DeliberationRunnable(final DeliberationRunnableToAgentInterface agent, final DeliberationRunnableToPlatformInterface platform){
+		this(agent, platform, null);
+	}
+	
+	/** Create a runnable with the inbox bound, scheduling class, placement key and message budget that the factory 
+	 * produces for the agent. If the factory is null, then the agent is unbounded, in the default class, placed by 
+	 * its id and takes all its messages. */
+	public DeliberationRunnable(final DeliberationRunnableToAgentInterface agent, final DeliberationRunnableToPlatformInterface platform, 
+			final AgentComponentFactory factory){
 		this.agentInterface = agent;
 		this.platform = platform;
+		this.mailboxBound = factory == null ? null : factory.produceMailboxBound();
+		SchedulingClass schedulingClass = factory == null ? null : factory.produceSchedulingClass();
+		this.schedulingClass = schedulingClass == null ? SchedulingClass.DEFAULT : schedulingClass;
+		Object placementKey = factory == null ? null : factory.producePlacementKey();
+		this.placementKey = placementKey == null ? agent.getAgentID() : placementKey;
+		this.messageBudget = factory == null ? 0 : factory.produceMessageBudget();
 		this.agentInterface.addSelfRescheduler(new SelfRescheduler(this));
 	}
 
@@ -37,23 +73,83 @@ public final class DeliberationRunnable implements Runnable {
 	 * killed and removed from the platform.
 	 */
 	public void run(){
+		Nesting nesting = NESTING.get();
+		if(nesting.depth++ == 0) nesting.inlined = 0;
+		AgentID outer = nesting.agent;
+		nesting.agent = getAgentID();
+		try {
+			deliberate();
+		} finally {
+			nesting.agent = outer;
+			nesting.depth--;
+		}
+	}
+	
+	/** Obtain the agent whose deliberation cycle runs on the current thread, the innermost one if agents run inline, 
+	 * or null if the thread runs no cycle. */
+	public static final AgentID getRunningAgent(){
+		return NESTING.get().agent;
+	}
+	
+	/** Run the deliberation cycle inline on the thread of a sender. Exceptions of the cycle are printed, as a worker 
+	 * would, instead of reaching the sender. */
+	final void runInline(){
+		try {
+			run();
+		} catch(RuntimeException e){
+			e.printStackTrace();
+		}
+	}
+	
+	/** Run the deliberation cycle, and tell the schedule trace, if any, when the runnable starts and ends. */
+	private final void deliberate(){
+		ScheduleTrace trace = this.platform.getScheduleTrace();
+		if(trace == null) runCycle();
+		else {
+			AgentID agentID = getAgentID();
+			try {
+				trace.beforeRun(agentID); // During a replay this waits for the recorded turn of the agent
+				runCycle();
+			} finally {
+				trace.afterRun(agentID);
+			}
+		}
+	}
+	
+	/** Run the deliberation cycle and reschedule or kill the agent afterwards. */
+	private final void runCycle(){
 		if(!this.agentInterface.isAgentDone()){ // Check first if agent was killed outside of this runnable
 			try {   
+				this.agentInterface.startDeliberationCycle();
 				// Go through the cycle and execute each step.
 				// Note that the deliberation cycle cannot change at runtime.  
-				for(DeliberationStep step : this.agentInterface.getDeliberationCycle()){
-					step.execute();
-				}
-
-				// If all deliberation steps are finished, then check whether
-				// the agent is done, so it can be killed.
-				if(this.agentInterface.isAgentDone()){
-					this.platform.killAgent(this.agentInterface.getAgentID()); 
-				} else {
-					if(!this.agentInterface.checkSleeping()){ // If the agents goes to sleep then it will be woken upon any external input (message, external trigger)
+				// The steps might be shared among agents, hence they are given the agent's interface.
+				DeliberationStepToAgentInterface deliberationInterface = this.agentInterface.getDeliberationInterface();
+				boolean again;
+				do {
+					again = false;
+					boolean finished = false;
+					try {
+						for(DeliberationStep step : this.agentInterface.getDeliberationCycle()){
+							step.execute(deliberationInterface);
+						}
+						finished = true;
+					} finally {
+						if(!finished) this.agentInterface.abortDeliberationCycle();
+					}
+					this.agentInterface.finishDeliberationCycle();
+	
+					// If all deliberation steps are finished, then check whether
+					// the agent is done, so it can be killed.
+					if(this.agentInterface.isAgentDone()){
+						this.platform.killAgent(this.agentInterface.getAgentID()); 
+					} else if(awaitInput()){ // Input arrived while the agent stayed awake, so run the next cycle right away
+						again = true;
+						this.agentInterface.startDeliberationCycle();
+					} else if(!this.agentInterface.checkSleeping()){ // If the agents goes to sleep then it will be woken upon any external input (message, external trigger)
 						reschedule();
-					}  
-				}
+					}
+				} while(again);
 			} catch(DeliberationStepException exception){ 
 				// Deliberation exceptions should not occur. The agent is 
 				// killed and removed from the platform. All proxy's are
@@ -66,6 +162,78 @@ public final class DeliberationRunnable implements Runnable {
 		}
 	}  
 	
+	/**
+	 * Check whether the agent may run its next cycle on the current thread, which delivers a message to 
+	 * it. This is the case if inline delivery is enabled, the thread runs a deliberation cycle whose nesting 
+	 * and inline budget allow another agent, and the schedule is not traced. A positive answer claims a unit 
+	 * of the budget.
+	 */
+	public final boolean mayRunInline(){
+		int maxDepth = this.platform.getInlineDepth();
+		if(maxDepth == 0 || this.platform.getScheduleTrace() != null) return false;
+		Nesting nesting = NESTING.get();
+		if(nesting.depth == 0 || nesting.depth > maxDepth || nesting.inlined >= this.platform.getInlineBudget()) return false;
+		nesting.inlined++;
+		return true;
+	}
+	
+	/** Let the agent stay awake if the wake policy says so. Returns true iff input arrived in the meantime. An agent 
+	 * that runs inline goes to sleep right away, as staying awake would hold up the sender on whose thread it runs. */
+	private final boolean awaitInput(){
+		WakePolicy policy = getWakePolicy();
+		if(policy == null || NESTING.get().depth > 1) return false;
+		long window = this.agentInterface.startAwaitingInput(); // Calls beginAwaitingInput if the agent only waits for a message
+		if(window <= 0) return false;
+		return this.replyWindow.await(policy.getSpinNanos(), window);
+	}
+	
+	/** Called by the agent, whilst holding its monitor, when it has nothing to do except waiting for a message. 
+	 * Returns the time that the agent should stay awake. */
+	final long beginAwaitingInput(){
+		WakePolicy policy = getWakePolicy();
+		if(policy == null) return 0;
+		if(this.replyWindow == null) this.replyWindow = new ReplyWindow();
+		this.replyWindow.idleSince = System.nanoTime();
+		long window = policy.getWindowNanos(this.replyWindow.average);
+		if(window > 0) this.replyWindow.waiting = true;
+		return window;
+	}
+	
+	/** Called by the agent, whilst holding its monitor, when input arrives. */
+	final void inputArrived(){
+		ReplyWindow replyWindow = this.replyWindow;
+		if(replyWindow != null) replyWindow.inputArrived();
+	}
+	
+	/** Obtain the wake policy of the platform, or null if agents go to sleep right away, as they do when the schedule is traced. */
+	private final WakePolicy getWakePolicy(){
+		return this.platform.getScheduleTrace() == null ? this.platform.getWakePolicy() : null;
+	}
+	
+	/** Obtain the bound on the inbox of the agent, or null if it is unbounded. */
+	public final MailboxBound getMailboxBound(){ return this.mailboxBound; }
+	
+	/** Obtain the scheduling class of the agent. */
+	public final SchedulingClass getSchedulingClass(){ return this.schedulingClass; }
+	
+	/** Obtain the placement key of the agent; agents with equal keys run on the same shard. */
+	public final Object getPlacementKey(){ return this.placementKey; }
+	
+	/** Obtain the number of messages that the agent takes per cycle, or 0 if it takes all. */
+	public final int getMessageBudget(){ return this.messageBudget; }
+	
+	/** Called by the agent, whilst holding its monitor, when it refused (<code>dropped</code> is false) or dropped an input. */
+	final void inputDiscarded(final boolean dropped){
+		if(dropped) this.droppedInputs++;
+		else this.rejectedInputs++;
+	}
+	
+	/** Obtain the number of inputs that the agent refused because its inbox was full. */
+	public final long getRejectedInputs(){ return this.rejectedInputs; }
+	
+	/** Obtain the number of inputs that the agent dropped to make room in its inbox. */
+	public final long getDroppedInputs(){ return this.droppedInputs; }
+	
 	/** Returns the id of the agent to which this runnable belongs. */
 	public final AgentID getAgentID(){ return this.agentInterface.getAgentID(); }
 	
@@ -73,4 +241,32 @@ public final class DeliberationRunnable implements Runnable {
 	public final void reschedule(){
 		this.platform.scheduleForExecution(this);
 	} 
-}
\ No newline at end of file
+	
+	/** Run the alarm after the given delay on the platform's timer. */
+	public final ScheduledFuture<?> setAlarm(final long delayMillis, final Runnable alarm){
+		return this.platform.setAlarm(delayMillis, alarm);
+	}
+	
+	/** Give the sender of a message that the agent dropped from its full inbox a <code>MessageRejectedTrigger</code>. */
+	final void messageDropped(final AgentID sender, final Trigger message){
+		this.platform.messageDropped(sender, getAgentID(), message);
+	}
+	
+	/** Obtain the platform's trigger journal, or null if it keeps none. */
+	public final TriggerJournal getJournal(){
+		return this.platform.getJournal();
+	}
+	
+	/** Obtain the platform's schedule trace, or null if it has none. */
+	public final ScheduleTrace getScheduleTrace(){
+		return this.platform.getScheduleTrace();
+	}
+	
+	/** The deliberation cycles that run on a thread. */
+	private static final class Nesting {
+		/** The number of nested cycles, and the number of agents that the outermost cycle ran inline. */
+		private int depth = 0, inlined = 0;
+		/** The agent of the innermost cycle, or null. */
+		private AgentID agent = null;
+	}
+}
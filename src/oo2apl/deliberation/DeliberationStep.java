@@ -1,4 +1,6 @@
 package oo2apl.deliberation;
+
+import oo2apl.agent.DeliberationStepToAgentInterface;
 /**
  * A deliberation step furthers the state of an agent. 
  * @author Bas Testerink
@@ -10,4 +12,13 @@ public interface DeliberationStep {
 	 * an agent component factory can decide at runtime which deliberation steps 
 	 * should be part of an agents' deliberation cycle.  */ 
 	public void execute() throws DeliberationStepException;
+	
+	/** Execution of this deliberation step for the agent that is exposed by the given interface. 
+	 * This is the method that the deliberation runnable calls. By default it ignores the argument 
+	 * and calls <code>execute()</code>, which suits steps that are made for a single agent. Steps 
+	 * that override this method do not need to store any agent data, and hence a single instance 
+	 * of such a step can be shared by all agents of a type. */
+	public default void execute(final DeliberationStepToAgentInterface deliberationInterface) throws DeliberationStepException {
+		execute();
+	}
 }
@@ -5,5 +5,13 @@ package oo2apl.deliberation;
  */
 public class DeliberationStepException extends Exception {
 	private static final long serialVersionUID = 1L;
+	
+	public DeliberationStepException(){
+		super();
+	}
+	
+	public DeliberationStepException(final String message, final Throwable cause){
+		super(message, cause);
+	}
 	// TODO: expand the built-in functionalities of exceptions
 }
@@ -0,0 +1,50 @@
+package oo2apl.deliberation;
+
+import java.util.concurrent.locks.LockSupport;
+/**
+ * The state of an agent that stays awake while it waits for a message. The times are accessed 
+ * whilst holding the monitor of the agent. The waiting thread is parked rather than waiting on a 
+ * monitor, so that releasing it wakes it exactly once. 
+ * 
+ * @author Bas Testerink
+ */
+final class ReplyWindow {
+	/** Whether the agent is waiting for input. */
+	volatile boolean waiting = false;
+	/** The thread that waits, if any. */
+	private volatile Thread waiter = null;
+	/** The time at which the agent last ran out of work while it had a message interceptor, 0 if input arrived since. */
+	long idleSince = 0;
+	/** Moving average of the time between running out of work and receiving input, negative if unknown. */
+	long average = -1;
+	
+	/** Record the arrival of input and release the agent if it waits. */
+	final void inputArrived(){
+		if(this.idleSince != 0){
+			long sample = System.nanoTime() - this.idleSince;
+			this.average = this.average < 0 ? sample : this.average + (sample - this.average) / 4;
+			this.idleSince = 0;
+		}
+		if(this.waiting){
+			this.waiting = false;
+			Thread waiter = this.waiter;
+			if(waiter != null) LockSupport.unpark(waiter);
+		}
+	}
+	
+	/** Wait until input arrives or the window closes. Returns true iff input arrived. */
+	final boolean await(final long spinNanos, final long windowNanos){
+		long start = System.nanoTime();
+		long spinEnd = start + Math.min(spinNanos, windowNanos), end = start + windowNanos;
+		while(this.waiting && System.nanoTime() - spinEnd < 0) Thread.yield();
+		this.waiter = Thread.currentThread();
+		long remaining;
+		while(this.waiting && (remaining = end - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted())
+			LockSupport.parkNanos(this, remaining);
+		this.waiter = null;
+		// Input that arrives after this point is seen by the agent's sleep check, which reschedules it
+		boolean arrived = !this.waiting;
+		this.waiting = false;
+		return arrived;
+	}
+}
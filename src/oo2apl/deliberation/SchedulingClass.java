@@ -0,0 +1,31 @@
+package oo2apl.deliberation;
+/**
+ * A class of agents that share a scheduling weight, e.g. coordinators and bulk workers. When the 
+ * platform runs on a <code>WeightedFairScheduler</code>, the deliberation cycles of agents of a class 
+ * with weight 4 get four times as many turns on the threads as those of a class with weight 1, as long as 
+ * both classes have agents that are ready to run. Agents without a class are in the default class, 
+ * which has weight 1. Classes are compared by identity, hence create each class once and assign it 
+ * with <code>AgentBuilder.setSchedulingClass</code> or <code>AgentComponentFactory.produceSchedulingClass</code>.
+ * 
+ * @author Bas Testerink
+ */
+public final class SchedulingClass {
+	/** The class of agents for which no class is given. */
+	public static final SchedulingClass DEFAULT = new SchedulingClass("default", 1);
+	
+	/** The name for diagnostics. */
+	private final String name;
+	/** The relative share of the threads. */
+	private final int weight;
+	
+	public SchedulingClass(final String name, final int weight){
+		if(weight < 1) throw new IllegalArgumentException("Weight must be positive.");
+		this.name = name;
+		this.weight = weight;
+	}
+	
+	public final String getName(){ return this.name; }
+	public final int getWeight(){ return this.weight; }
+	
+	public final String toString(){ return this.name+"("+this.weight+")"; }
+}
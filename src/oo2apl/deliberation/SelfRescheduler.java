@@ -1,4 +1,12 @@
 package oo2apl.deliberation;
+
+import java.util.concurrent.ScheduledFuture;
+
+import oo2apl.agent.AgentID;
+import oo2apl.agent.MailboxBound;
+import oo2apl.agent.Trigger;
+import oo2apl.journal.TriggerJournal;
+import oo2apl.trace.ScheduleTrace;
 /**
  * Exposes to the agent the ability to reschedule its deliberation runnable. This 
  * is used to get out of sleep mode.
@@ -17,4 +25,80 @@ public final class SelfRescheduler {
 	public final void wakeUp(){
 		this.deliberationRunnable.reschedule();
 	}
+	
+	/** Check whether the agent may run inline on the current thread. If so, then the caller must wake the agent with 
+	 * <code>runInline()</code> instead of <code>wakeUp()</code>, as the inline budget of the thread is claimed. */
+	public final boolean mayRunInline(){
+		return this.deliberationRunnable.mayRunInline();
+	}
+	
+	/** Run one deliberation cycle of the agent on the current thread. Exceptions of the cycle do not reach the caller. */
+	public final void runInline(){
+		this.deliberationRunnable.runInline();
+	}
+	
+	/** Called by the agent, whilst holding its monitor, when it has nothing to do except waiting for a message. 
+	 * Returns the time in nanoseconds that the agent should stay awake, 0 if it should go to sleep. */
+	public final long beginAwaitingInput(){
+		return this.deliberationRunnable.beginAwaitingInput();
+	}
+	
+	/** Called by the agent, whilst holding its monitor, upon each input. Releases the agent if it stays awake. */
+	public final void inputArrived(){
+		this.deliberationRunnable.inputArrived();
+	}
+	
+	/** Obtain the bound on the inbox of the agent, or null if it is unbounded. */
+	public final MailboxBound getMailboxBound(){
+		return this.deliberationRunnable.getMailboxBound();
+	}
+	
+	/** Obtain the key that determines where the agent runs when the platform is sharded. */
+	public final Object getPlacementKey(){
+		return this.deliberationRunnable.getPlacementKey();
+	}
+	
+	/** Obtain the number of messages that the agent takes per deliberation cycle, or 0 if it takes all. */
+	public final int getMessageBudget(){
+		return this.deliberationRunnable.getMessageBudget();
+	}
+	
+	/** Called by the agent, whilst holding its monitor, when it refused an input (<code>dropped</code> is false) 
+	 * or dropped its oldest input because its inbox was full. */
+	public final void inputDiscarded(final boolean dropped){
+		this.deliberationRunnable.inputDiscarded(dropped);
+	}
+	
+	/** Called by the agent, outside its monitor, when it dropped a message of the given sender from its full inbox. */
+	public final void messageDropped(final AgentID sender, final Trigger message){
+		this.deliberationRunnable.messageDropped(sender, message);
+	}
+	
+	/** Obtain the number of inputs that the agent refused because its inbox was full. */
+	public final long getRejectedInputs(){
+		return this.deliberationRunnable.getRejectedInputs();
+	}
+	
+	/** Obtain the number of inputs that the agent dropped to make room in its inbox. */
+	public final long getDroppedInputs(){
+		return this.deliberationRunnable.getDroppedInputs();
+	}
+	
+	/** Run the given alarm after the delay. The agent uses this to wake itself up when for instance an 
+	 * interceptor with a time-to-live expires. The alarm should not reschedule the runnable directly, as 
+	 * the agent might be awake at that time; it should rather go through the agent's wake up check. Returns the 
+	 * future with which the alarm can be cancelled, or null if the platform is halted. */
+	public final ScheduledFuture<?> setAlarm(final long delayMillis, final Runnable alarm){
+		return this.deliberationRunnable.setAlarm(delayMillis, alarm);
+	}
+	
+	/** Obtain the journal in which the agent records its incoming triggers, or null if the platform keeps no journal. */
+	public final TriggerJournal getJournal(){
+		return this.deliberationRunnable.getJournal();
+	}
+	
+	/** Obtain the trace that observes the order of message deliveries, or null if there is none. */
+	public final ScheduleTrace getScheduleTrace(){
+		return this.deliberationRunnable.getScheduleTrace();
+	}
 }
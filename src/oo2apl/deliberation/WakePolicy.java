@@ -0,0 +1,63 @@
+package oo2apl.deliberation;
+/**
+ * Determines how long an agent that waits for a message stays awake after it ran out of work. An 
+ * agent that has a message interceptor, e.g. from <code>waitForMessage</code>, and nothing else to do 
+ * first yields its thread for a while and then parks the thread with <code>LockSupport</code>, instead 
+ * of going to sleep; the arrival of input unparks it. If input arrives within the window, then the 
+ * agent runs its next cycle right away, without being rescheduled through the thread pool. Otherwise 
+ * it goes to sleep as usual. 
+ * 
+ * The window adapts per agent: it is a multiple of the agent's average time between running out of 
+ * work and receiving input. If that average is longer than the maximal window, then the agent does 
+ * not wait at all, so that slow conversations do not occupy threads. The average keeps being measured 
+ * while the agent sleeps. The thread of a waiting agent is not available to other agents, hence keep 
+ * the maximal window short. On a single processor agents never stay awake: the replying agent needs 
+ * the processor, and a woken agent that is rescheduled often continues on the same thread anyway.
+ * 
+ * Platforms have no wake policy unless one is set. Whether it pays off depends on the number of 
+ * processors, the load and the reply times of the agents, and it has not been measured on a 
+ * multi-processor machine; compare the latency and throughput with and without the policy on the 
+ * target machine before enabling it.
+ * 
+ * @author Bas Testerink
+ */
+public final class WakePolicy {
+	/** Whether there is more than one processor. */
+	private static final boolean MULTIPROCESSOR = Runtime.getRuntime().availableProcessors() > 1;
+	/** The time in nanoseconds that an agent yields before it waits. */
+	private final long spinNanos;
+	/** The longest window in nanoseconds. */
+	private final long maxWindowNanos;
+	/** The window relative to the average time until input arrives. */
+	private final double multiplier;
+	
+	/**
+	 * @param spinNanos The part of the window in which the agent yields its thread instead of parking it.
+	 * @param maxWindowNanos The longest time that an agent stays awake.
+	 * @param multiplier The window as multiple of the average time until input arrives, e.g. 2.
+	 */
+	public WakePolicy(final long spinNanos, final long maxWindowNanos, final double multiplier){
+		if(spinNanos < 0 || maxWindowNanos <= 0 || multiplier <= 0) throw new IllegalArgumentException("Invalid wake policy parameters.");
+		this.spinNanos = spinNanos;
+		this.maxWindowNanos = maxWindowNanos;
+		this.multiplier = multiplier;
+	}
+	
+	/** A policy that yields for 20 microseconds, stays awake for at most 200 microseconds and waits twice the average time. 
+	 * These values are a starting point, not the outcome of a measurement. */
+	public WakePolicy(){
+		this(20000, 200000, 2);
+	}
+	
+	public final long getSpinNanos(){ return this.spinNanos; }
+	public final long getMaxWindowNanos(){ return this.maxWindowNanos; }
+	
+	/** Obtain the window for an agent, given its average time until input arrives (negative if unknown). 
+	 * Returns 0 if the agent should go to sleep right away. */
+	public final long getWindowNanos(final long averageNanos){
+		if(!MULTIPROCESSOR) return 0;
+		if(averageNanos < 0) return this.maxWindowNanos; // Try once to learn whether the agent gets quick replies
+		double window = averageNanos * this.multiplier;
+		return window > this.maxWindowNanos ? 0 : (long) window;
+	}
+}
@@ -0,0 +1,78 @@
+package oo2apl.journal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import oo2apl.agent.Trigger;
+/**
+ * Reads a trigger journal. The entries are given to a handler in the order in which they were 
+ * written, without any delay, so that a replay runs as fast as the agents can process the triggers.
+ * 
+ * @author Bas Testerink
+ */
+public final class JournalReader {
+	/** Receives the entries of a journal. */
+	@FunctionalInterface
+	public interface Handler {
+		/** Handle an entry of the journal. */
+		public void entry(final long agentSerial, final TriggerJournal.Kind kind, final Trigger trigger);
+	}
+	
+	private JournalReader(){}
+	
+	/**
+	 * Read all complete records of a journal. 
+	 * @param file The journal file.
+	 * @param codec The codec with which the journal was written.
+	 * @param handler The handler that receives the entries.
+	 * @return The number of entries that were read.
+	 * @throws IOException If the file cannot be read or is not a journal, or if a trigger cannot be decoded.
+	 */
+	public static final long read(final Path file, final TriggerCodec codec, final Handler handler) throws IOException {
+		long size = Files.size(file);
+		long[] count = new long[1];
+		try(DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))){
+			scan(input, size, (long serial, TriggerJournal.Kind kind, byte[] payload) -> {
+				handler.entry(serial, kind, codec.decode(payload));
+				count[0]++;
+			});
+		}
+		return count[0];
+	}
+	
+	/** Receives the raw records of a journal. */
+	interface RecordHandler {
+		public void record(final long agentSerial, final TriggerJournal.Kind kind, final byte[] payload) throws IOException;
+	}
+	
+	/**
+	 * Walk over the records of a journal. Stops at the end of the file or at the first record that is 
+	 * incomplete, e.g. because the platform was stopped during a write.
+	 * @param input Stream that is positioned at the start of the file.
+	 * @param size The size of the file.
+	 * @param handler If not null, then each record is given to this handler.
+	 * @return The position after the last complete record.
+	 */
+	static final long scan(final DataInputStream input, final long size, final RecordHandler handler) throws IOException {
+		if(size < TriggerJournal.HEADER_SIZE || input.readInt() != TriggerJournal.MAGIC || input.readInt() != TriggerJournal.VERSION) 
+			throw new IOException("Not a trigger journal of version "+TriggerJournal.VERSION+".");
+		TriggerJournal.Kind[] kinds = TriggerJournal.Kind.values();
+		long position = TriggerJournal.HEADER_SIZE;
+		while(position + TriggerJournal.RECORD_HEADER_SIZE <= size){
+			long serial = input.readLong();
+			int kind = input.readByte();
+			int length = input.readInt();
+			if(kind < 0 || kind >= kinds.length || length < 0 || position + TriggerJournal.RECORD_HEADER_SIZE + length > size) break; 
+			if(handler != null){
+				byte[] bytes = new byte[length];
+				input.readFully(bytes);
+				handler.record(serial, kinds[kind], bytes);
+			} else input.skipBytes(length);
+			position += TriggerJournal.RECORD_HEADER_SIZE + length;
+		}
+		return position;
+	}
+}
@@ -0,0 +1,20 @@
+package oo2apl.journal;
+
+import java.io.IOException;
+
+import oo2apl.agent.Trigger;
+/**
+ * A trigger codec converts triggers to bytes and back for the trigger journal and for messengers 
+ * that send messages to other JVMs. Implementations must be thread safe, as triggers are encoded by 
+ * the threads that insert them in agents or send them. A codec that is specific for the triggers of 
+ * an application is typically much faster than the default codec that uses Java serialization.
+ * 
+ * @author Bas Testerink
+ */
+public interface TriggerCodec {
+	/** Encode the trigger. */
+	public byte[] encode(final Trigger trigger) throws IOException;
+	
+	/** Decode a trigger that was encoded by this codec. */
+	public Trigger decode(final byte[] bytes) throws IOException;
+}
@@ -0,0 +1,254 @@
+package oo2apl.journal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import oo2apl.agent.AgentID;
+import oo2apl.agent.Trigger;
+/**
+ * An append-only journal of the triggers that enter agents: external triggers, messages and internal 
+ * triggers, in the order in which they were put in the agent's inboxes. The journal can be replayed 
+ * with <code>JournalReader</code> or the platform's replay function.
+ * 
+ * Triggers are encoded by the inserting thread, outside the agent's monitor, and only queued while 
+ * holding the monitor so that the journal order of an agent equals its inbox order. A single writer 
+ * thread commits the queued entries in groups: every commit interval it writes all entries that 
+ * were queued in the meantime with as few channel writes as possible, and if requested forces them 
+ * to the storage device once per group. The queue is not bounded; if the device cannot keep up, then 
+ * the backlog grows in memory.
+ * 
+ * The file starts with a header (magic number and format version) after which each record consists 
+ * of the agent's serial number, the kind of trigger, the length of the payload and the payload (the 
+ * encoded trigger).
+ * 
+ * Triggers that the codec cannot encode, e.g. the built-in triggers, which are not serializable, 
+ * when the codec uses Java serialization, are still processed by the agent but are missing from the 
+ * journal. They are counted, see <code>getUnencodableEntries()</code>, so that a replay of an 
+ * incomplete journal can be recognized.
+ * 
+ * @author Bas Testerink
+ */
+public final class TriggerJournal implements AutoCloseable {
+	/** The ways in which a trigger can enter an agent. */
+	public enum Kind { EXTERNAL_TRIGGER, MESSAGE, INTERNAL_TRIGGER }
+	
+	/** Magic number that identifies journal files, and the version of the format. */
+	static final int MAGIC = 0x4A524E4C, VERSION = 1;
+	/** The size of the header and of the fixed part of each record. */
+	static final int HEADER_SIZE = 8, RECORD_HEADER_SIZE = 13;
+	/** The size of the writer's buffer. */
+	private static final int BUFFER_SIZE = 1 << 20;
+	/** The default time between two group commits. */
+	public static final long DEFAULT_COMMIT_INTERVAL_MICROS = 1000;
+	
+	/** The channel of the file. */
+	private final FileChannel channel;
+	/** The codec that encodes the triggers. */
+	private final TriggerCodec codec;
+	/** Entries that are not written yet. */
+	private final ConcurrentLinkedQueue<Entry> queue;
+	/** The time between two group commits. */
+	private final long commitIntervalNanos;
+	/** Whether each group commit is forced to the storage device. */
+	private final boolean forceOnCommit;
+	/** The thread that writes the entries. */
+	private final Thread writer;
+	/** Whether the journal is closed. */
+	private volatile boolean closed = false;
+	/** The number of entries that were written. Only changed by the writer. */
+	private volatile long nrOfEntries = 0;
+	/** The number of entries that were appended after the journal was closed, and hence not written. */
+	private final AtomicLong droppedEntries = new AtomicLong();
+	/** The number of triggers that could not be encoded, and hence not written. */
+	private final AtomicLong unencodableEntries = new AtomicLong();
+	/** The first error of the writer, if any. After an error no more entries are written. */
+	private volatile IOException error = null;
+	
+	/** Open a journal that commits every millisecond without forcing. See {@link #TriggerJournal(Path, TriggerCodec, long, boolean)}. */
+	public TriggerJournal(final Path file, final TriggerCodec codec) throws IOException {
+		this(file, codec, DEFAULT_COMMIT_INTERVAL_MICROS, false);
+	}
+	
+	/**
+	 * Open a journal. If the file exists then new entries are appended after its last complete record.
+	 * @param file The journal file.
+	 * @param codec The codec that encodes the triggers.
+	 * @param commitIntervalMicros The time between two group commits. Longer intervals give larger groups.
+	 * @param forceOnCommit Whether each group is forced to the storage device, so that it survives a crash of the machine.
+	 */
+	public TriggerJournal(final Path file, final TriggerCodec codec, final long commitIntervalMicros, final boolean forceOnCommit) throws IOException {
+		this.codec = codec;
+		this.commitIntervalNanos = TimeUnit.MICROSECONDS.toNanos(commitIntervalMicros);
+		this.forceOnCommit = forceOnCommit;
+		this.queue = new ConcurrentLinkedQueue<>();
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size = this.channel.size();
+		if(size == 0){
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+			header.flip();
+			while(header.hasRemaining()) this.channel.write(header);
+		} else { // Cut off an incomplete record of an interrupted run
+			try(DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))){
+				this.channel.truncate(JournalReader.scan(input, size, null));
+			}
+			this.channel.position(this.channel.size());
+		}
+		this.writer = new Thread(this::writeEntries, "oo2apl-journal");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+	
+	/**
+	 * Encode a trigger for the journal. Encoding is kept apart from appending so that it can be done 
+	 * before the agent's monitor is acquired. 
+	 * @return The entry, or null if the trigger could not be encoded, which is counted. 
+	 */
+	public final Entry encode(final AgentID agentID, final Kind kind, final Trigger trigger){
+		try {
+			return new Entry(agentID.getSerial(), kind, this.codec.encode(trigger), null);
+		} catch(IOException e){ // The trigger is still processed by the agent, it is only missing from the journal
+			this.unencodableEntries.incrementAndGet();
+			return null;
+		}
+	}
+	
+	/** Queue an entry for the next group commit. An entry that is appended after the journal was closed is 
+	 * counted as dropped, as appends happen while delivering triggers to agents, which should not fail. */
+	public final void append(final Entry entry){
+		if(this.closed) this.droppedEntries.incrementAndGet();
+		else this.queue.offer(entry);
+	}
+	
+	/** Encode and queue a trigger. */
+	public final void record(final AgentID agentID, final Kind kind, final Trigger trigger){
+		Entry entry = encode(agentID, kind, trigger);
+		if(entry != null) append(entry);
+	}
+	
+	/**
+	 * Wait until all entries that were appended before this call are written, and forced if the 
+	 * journal forces its commits.
+	 * @throws IOException If the writer failed.
+	 */
+	public final void flush() throws IOException, InterruptedException {
+		if(this.closed) throw new IllegalStateException("The journal is closed.");
+		CountDownLatch written = new CountDownLatch(1);
+		this.queue.offer(new Entry(0, null, null, written));
+		LockSupport.unpark(this.writer);
+		written.await();
+		if(this.error != null) throw this.error;
+	}
+	
+	/** Obtain the number of entries that were written to the file since the journal was opened. */
+	public final long getNrOfEntries(){ return this.nrOfEntries; }
+	
+	/** Obtain the number of entries that were dropped because they were appended after the journal was closed. */
+	public final long getDroppedEntries(){ return this.droppedEntries.get(); }
+	
+	/** Obtain the number of triggers that were not journaled because the codec could not encode them. */
+	public final long getUnencodableEntries(){ return this.unencodableEntries.get(); }
+	
+	/** Write the remaining entries and close the file. Entries that are appended afterwards are dropped and counted. */
+	public final void close() throws IOException {
+		this.closed = true;
+		LockSupport.unpark(this.writer);
+		try {
+			this.writer.join();
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		this.channel.close();
+		if(this.error != null) throw this.error;
+	}
+	
+	/** The loop of the writer thread: commit a group of entries, then wait for the next interval. */
+	private final void writeEntries(){
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		List<CountDownLatch> flushes = new ArrayList<>();
+		boolean stop = false;
+		while(!stop){
+			stop = this.closed; // Read before draining, so that the last group contains everything appended before closing
+			try {
+				commitGroup(buffer, flushes);
+			} catch(IOException e){
+				if(this.error == null) this.error = e;
+				stop = true;
+			}
+			for(CountDownLatch flush : flushes) flush.countDown();
+			flushes.clear();
+			if(!stop) LockSupport.parkNanos(this.commitIntervalNanos);
+		}
+		// Release threads that flush after a failure 
+		Entry entry;
+		while((entry = this.queue.poll()) != null) 
+			if(entry.flushed != null) entry.flushed.countDown();
+	}
+	
+	/** Write all queued entries and force them if required. Flush requests are collected in the given list. */
+	private final void commitGroup(final ByteBuffer buffer, final List<CountDownLatch> flushes) throws IOException {
+		long written = 0;
+		Entry entry;
+		while((entry = this.queue.poll()) != null){
+			if(entry.kind == null){
+				flushes.add(entry.flushed);
+				continue;
+			}
+			int size = RECORD_HEADER_SIZE + entry.payload.length;
+			if(size > buffer.remaining()) writeBuffer(buffer);
+			if(size > buffer.remaining()){ // Larger than the buffer
+				ByteBuffer record = ByteBuffer.allocate(size);
+				putRecord(record, entry);
+				writeBuffer(record);
+			} else putRecord(buffer, entry);
+			written++;
+		}
+		if(written == 0) return;
+		writeBuffer(buffer);
+		if(this.forceOnCommit) this.channel.force(false);
+		this.nrOfEntries += written;
+	}
+	
+	/** Put a record in the buffer. */
+	private static final void putRecord(final ByteBuffer buffer, final Entry entry){
+		buffer.putLong(entry.agentSerial).put((byte) entry.kind.ordinal()).putInt(entry.payload.length).put(entry.payload);
+	}
+	
+	/** Write the content of the buffer to the channel and clear the buffer. */
+	private final void writeBuffer(final ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) this.channel.write(buffer);
+		buffer.clear();
+	}
+	
+	/** An encoded trigger that is waiting to be written. */
+	public static final class Entry {
+		/** The serial number of the agent that received the trigger. */
+		private final long agentSerial;
+		/** How the trigger entered the agent. Null for flush requests. */
+		private final Kind kind;
+		/** The encoded trigger. */
+		private final byte[] payload;
+		/** Released when the entries before a flush request are written. Null for normal entries. */
+		private final CountDownLatch flushed;
+		
+		private Entry(final long agentSerial, final Kind kind, final byte[] payload, final CountDownLatch flushed){
+			this.agentSerial = agentSerial;
+			this.kind = kind;
+			this.payload = payload;
+			this.flushed = flushed;
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package oo2apl.passivation;
+
+import java.io.IOException;
+
+import oo2apl.agent.AgentID;
+/**
+ * A passivation store keeps the serialized state of passivated agents outside of the heap. 
+ * Implementations must be thread safe, as agents are passivated by the platform and reactivated 
+ * by their own deliberation threads.
+ * 
+ * @author Bas Testerink
+ */
+public interface PassivationStore {
+	/** Store the state of the agent. Overwrites any state that was stored earlier for the agent. */
+	public void store(final AgentID agentID, final byte[] state) throws IOException;
+	
+	/** Obtain and remove the stored state of the agent. Returns null if nothing is stored for the agent. */
+	public byte[] remove(final AgentID agentID) throws IOException;
+	
+	/** Obtain a copy of the stored state of the agent without removing it, e.g. to write a checkpoint of a 
+	 * passivated agent. Returns null if nothing is stored for the agent. By default the state is removed and 
+	 * stored again; implementations should override this if they can read the state in place. */
+	public default byte[] read(final AgentID agentID) throws IOException {
+		byte[] state = remove(agentID);
+		if(state != null) store(agentID, state);
+		return state;
+	}
+}
@@ -1,11 +1,13 @@
 package oo2apl.plan;
   
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List; 
 /**
  * The plan scheme base of an agent stores its plan schemes. Currently it is assumed that 
  * the plan scheme base does not change over time. This might be a future expansion to allow 
- * this.
+ * this. A plan scheme base is immutable, hence agents of the same type can share a single 
+ * instance.
  * @author Bas Testerink
  *
  */
@@ -29,10 +31,15 @@ public final class PlanSchemeBase {
 						  final List<PlanScheme> internalTriggerPlanSchemes,
 						  final List<PlanScheme> externalTriggerPlanSchemes,
 						  final List<PlanScheme> messagePlanSchemes){
-		this.goalPlanSchemes = goalPlanSchemes.isEmpty()? Collections.emptyList() : Collections.unmodifiableList(goalPlanSchemes);
-		this.internalTriggerPlanSchemes = internalTriggerPlanSchemes.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(internalTriggerPlanSchemes);
-		this.externalTriggerPlanSchemes = externalTriggerPlanSchemes.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(externalTriggerPlanSchemes);
-		this.messagePlanSchemes = messagePlanSchemes.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(messagePlanSchemes);
+		this.goalPlanSchemes = immutableCopy(goalPlanSchemes);
+		this.internalTriggerPlanSchemes = immutableCopy(internalTriggerPlanSchemes);
+		this.externalTriggerPlanSchemes = immutableCopy(externalTriggerPlanSchemes);
+		this.messagePlanSchemes = immutableCopy(messagePlanSchemes);
+	}
+	
+	/** Copy the list so that the plan scheme base is immutable and can be shared among agents. */
+	private static final List<PlanScheme> immutableCopy(final List<PlanScheme> planSchemes){
+		return planSchemes.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(planSchemes));
 	}
 
 	// Return new lists so that deliberation cannot accidentally change the plan scheme lists
@@ -19,6 +19,12 @@ package oo2apl.plan;
  * Just like plan schemes, interceptors are categorized for goals, messages, external events and 
  * internal events. 
  * 
+ * An interceptor can optionally expire. The time-to-live is measured in deliberation cycles and/or 
+ * milliseconds and starts counting when the interceptor is adopted by an agent. An expired interceptor 
+ * is removed from the agent at the start of the next deliberation cycle, and if a timeout plan is set 
+ * then that plan is adopted instead. This prevents interceptors that wait for a trigger that never 
+ * arrives from accumulating in the agent.
+ * 
  * The PlanToAgentInterface class contains several methods that under the hood make use of interceptors. 
  * These methods include while loops that span multiple deliberation cycles, wait-for-trigger constructs, 
  * and wait-on-process constructs. 
@@ -27,9 +33,24 @@ package oo2apl.plan;
  * @author Bas Testerink
  */
 public abstract class TriggerInterceptor implements PlanScheme {
+	/** Value for the time-to-live fields that indicates that the interceptor does not expire. */
+	public static final long NO_EXPIRY = -1;
+	
 	/** If set to true, then the trigger that triggers this interceptor should be consumed during the deliberation cycle. */
 	private final boolean consumesTrigger;
 	
+	/** Number of deliberation cycles and number of milliseconds that this interceptor lives after adoption. */
+	private long cyclesToLive = NO_EXPIRY, timeToLive = NO_EXPIRY;
+	
+	/** The cycle and the wall clock time at which this interceptor expires. Set when the interceptor is armed. */
+	private long expiryCycle = Long.MAX_VALUE, expiryTime = Long.MAX_VALUE;
+	
+	/** Whether the expiry of this interceptor is already counting. */
+	private boolean armed = false;
+	
+	/** Optional plan that is adopted when this interceptor expires. */
+	private Plan timeoutPlan = null;
+	
 	/**
 	 * Constructor.
 	 * @param consumesTrigger If set to true, then the trigger that triggers this interceptor should be consumed during the deliberation cycle.
@@ -44,4 +65,53 @@ public abstract class TriggerInterceptor implements PlanScheme {
 	public final boolean isTriggerConsuming(){
 		return this.consumesTrigger;
 	}
+	
+	/** Set the number of deliberation cycles that this interceptor lives after it is adopted. Use NO_EXPIRY to disable. */
+	public final TriggerInterceptor setCyclesToLive(final long cycles){
+		this.cyclesToLive = cycles;
+		return this;
+	}
+	
+	/** Set the number of milliseconds that this interceptor lives after it is adopted. Use NO_EXPIRY to disable. */
+	public final TriggerInterceptor setTimeToLive(final long millis){
+		this.timeToLive = millis;
+		return this;
+	}
+	
+	/** Set the plan that is adopted if this interceptor expires before it fires. */
+	public final TriggerInterceptor setTimeoutPlan(final Plan plan){
+		this.timeoutPlan = plan;
+		return this;
+	}
+	
+	/** Obtain the plan that should be adopted upon expiry. Can be null. */
+	public final Plan getTimeoutPlan(){ return this.timeoutPlan; }
+	
+	/** Obtain the time-to-live in milliseconds, or NO_EXPIRY. */
+	public final long getTimeToLive(){ return this.timeToLive; }
+	
+	/** @return True iff this interceptor has a time-to-live in cycles or milliseconds. */
+	public final boolean hasExpiry(){
+		return this.cyclesToLive != NO_EXPIRY || this.timeToLive != NO_EXPIRY;
+	}
+	
+	/**
+	 * Start counting the time-to-live of this interceptor. Only the first call has effect, so that 
+	 * an interceptor that is adopted for multiple trigger categories expires at once for all of them.
+	 * @param currentCycle The current deliberation cycle number of the agent.
+	 * @param currentTime The current wall clock time in milliseconds.
+	 * @return True iff this call armed the interceptor.
+	 */
+	public final boolean arm(final long currentCycle, final long currentTime){
+		if(this.armed) return false;
+		this.armed = true;
+		if(this.cyclesToLive != NO_EXPIRY) this.expiryCycle = currentCycle + this.cyclesToLive;
+		if(this.timeToLive != NO_EXPIRY) this.expiryTime = currentTime + this.timeToLive;
+		return true;
+	}
+	
+	/** @return True iff this interceptor is armed and its time-to-live has passed. */
+	public final boolean isExpired(final long currentCycle, final long currentTime){
+		return this.armed && (currentCycle >= this.expiryCycle || currentTime >= this.expiryTime);
+	}
 }
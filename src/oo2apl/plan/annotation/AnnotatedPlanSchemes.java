@@ -0,0 +1,315 @@
+package oo2apl.plan.annotation;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import oo2apl.agent.AgentContextInterface;
+import oo2apl.agent.PlanToAgentInterface;
+import oo2apl.agent.Trigger;
+import oo2apl.plan.Plan;
+import oo2apl.plan.PlanExecutionError;
+import oo2apl.plan.PlanScheme;
+import oo2apl.plan.builtin.FunctionalPlanSchemeInterface;
+import oo2apl.plan.builtin.RunOncePlan;
+import oo2apl.plan.builtin.SubPlanInterface;
+/**
+ * Compiles the annotated methods of an object into plan schemes. A method is annotated with
+ * <code>OnMessage</code>, <code>OnExternalTrigger</code>, <code>OnInternalTrigger</code> or
+ * <code>OnGoal</code> and has one of the following signatures, where T is the handled type:
+ *
+ * <code>void handle(T trigger, PlanToAgentInterface planInterface) [throws PlanExecutionError]</code>
+ * always fires for a T and executes the method once as a plan.
+ *
+ * <code>SubPlanInterface handle(T trigger, AgentContextInterface contextInterface)</code> is a
+ * guard like <code>FunctionalPlanSchemeInterface</code>, it returns
+ * <code>SubPlanInterface.UNINSTANTIATED</code> if it does not fire.
+ *
+ * If the object is a class, then only its static methods are compiled. The methods of each category
+ * form one plan scheme that looks up the handlers of a trigger by its class; the table is computed
+ * once per trigger class. Handlers of a more specific type are tried first, otherwise handlers are
+ * tried in the order of their method names, until one fires. In front of the table the handlers of
+ * the eight trigger classes that were last looked up in it are cached by class identity, so that the
+ * cache follows a change of the triggers that an agent receives. The methods are turned into
+ * lambdas with <code>LambdaMetafactory</code>, so no reflection happens upon dispatch and a handler
+ * costs about as much as a hand written plan scheme; a guard costs as much as a
+ * <code>FunctionalPlanScheme</code>. Methods that are not accessible to the lookup are called through
+ * a method handle instead, which is slower; <code>getFallbackHandlers()</code> lists them. Supply the
+ * lookup of the handler class (<code>MethodHandles.lookup()</code>) to compile private handlers or
+ * handlers of non-public classes.
+ *
+ * @author Bas Testerink
+ */
+public final class AnnotatedPlanSchemes {
+	/** The interface to which methods with a plan interface parameter are compiled. Public as generated classes implement it. */
+	public interface TriggerHandler {
+		public void handle(final Trigger trigger, final PlanToAgentInterface planInterface) throws PlanExecutionError;
+	}
+
+	private static final MethodType HANDLER_TYPE = MethodType.methodType(void.class, Trigger.class, PlanToAgentInterface.class);
+	private static final MethodType GUARD_TYPE = MethodType.methodType(SubPlanInterface.class, Trigger.class, AgentContextInterface.class);
+
+	/** The compiled schemes per category, null if the category has no handlers. */
+	private final PlanScheme goalPlanScheme, externalTriggerPlanScheme, internalTriggerPlanScheme, messagePlanScheme;
+	/** The handler methods that could not be turned into lambdas and are called through a method handle. */
+	private final List<Method> fallbackHandlers;
+
+	/** Compile the handlers of an object with the lookup of this class; handlers must be public and in a public class. */
+	public AnnotatedPlanSchemes(final Object handlers){
+		this(handlers, MethodHandles.lookup());
+	}
+
+	/** Compile the handlers of an object with the given lookup. */
+	public AnnotatedPlanSchemes(final Object handlers, final MethodHandles.Lookup lookup){
+		boolean staticOnly = handlers instanceof Class;
+		Class<?> klass = staticOnly ? (Class<?>) handlers : handlers.getClass();
+		Object receiver = staticOnly ? null : handlers;
+		List<Method> methods = new ArrayList<>();
+		for(Class<?> type = klass; type != null && type != Object.class; type = type.getSuperclass())
+			for(Method method : type.getDeclaredMethods())
+				if(!method.isBridge() && (!staticOnly || Modifier.isStatic(method.getModifiers()))) methods.add(method);
+		methods.sort(Comparator.comparing(Method::getName));
+		List<Method> fallbackHandlers = new ArrayList<>();
+		this.goalPlanScheme = compile(methods, OnGoal.class, receiver, lookup, fallbackHandlers);
+		this.externalTriggerPlanScheme = compile(methods, OnExternalTrigger.class, receiver, lookup, fallbackHandlers);
+		this.internalTriggerPlanScheme = compile(methods, OnInternalTrigger.class, receiver, lookup, fallbackHandlers);
+		this.messagePlanScheme = compile(methods, OnMessage.class, receiver, lookup, fallbackHandlers);
+		this.fallbackHandlers = Collections.unmodifiableList(fallbackHandlers);
+	}
+
+	public final PlanScheme getGoalPlanScheme(){ return this.goalPlanScheme; }
+	public final PlanScheme getExternalTriggerPlanScheme(){ return this.externalTriggerPlanScheme; }
+	public final PlanScheme getInternalTriggerPlanScheme(){ return this.internalTriggerPlanScheme; }
+	public final PlanScheme getMessagePlanScheme(){ return this.messagePlanScheme; }
+	/** The handler methods that are called through a method handle because the lookup could not compile them into lambdas. */
+	public final List<Method> getFallbackHandlers(){ return this.fallbackHandlers; }
+
+	/** Compile the methods with the given annotation into a dispatching plan scheme. */
+	private static final PlanScheme compile(final List<Method> methods, final Class<? extends Annotation> annotationType,
+			final Object receiver, final MethodHandles.Lookup lookup, final List<Method> fallbackHandlers){
+		List<Class<?>> types = new ArrayList<>();
+		List<Handler> handlers = new ArrayList<>();
+		for(Method method : methods){
+			Annotation annotation = method.getAnnotation(annotationType);
+			if(annotation == null) continue;
+			Class<?>[] parameters = method.getParameterTypes();
+			if(parameters.length != 2 || !Trigger.class.isAssignableFrom(parameters[0]))
+				throw new IllegalArgumentException("Handler "+method+" must have a trigger and an interface as parameters.");
+			if(receiver == null && !Modifier.isStatic(method.getModifiers()))
+				throw new IllegalArgumentException("Handler "+method+" is not static, but no object was given.");
+			Handler handler = toHandler(method, receiver, lookup, fallbackHandlers);
+			Class<?>[] handled = handledTypes(annotation);
+			if(handled.length == 0) handled = new Class<?>[]{ parameters[0] };
+			for(Class<?> type : handled){
+				if(!parameters[0].isAssignableFrom(type))
+					throw new IllegalArgumentException("Handler "+method+" cannot accept "+type.getName()+".");
+				types.add(type);
+				handlers.add(handler);
+			}
+		}
+		return handlers.isEmpty() ? null : new DispatchPlanScheme(types, handlers);
+	}
+
+	private static final Class<?>[] handledTypes(final Annotation annotation){
+		if(annotation instanceof OnGoal) return ((OnGoal) annotation).value();
+		if(annotation instanceof OnExternalTrigger) return ((OnExternalTrigger) annotation).value();
+		if(annotation instanceof OnInternalTrigger) return ((OnInternalTrigger) annotation).value();
+		return ((OnMessage) annotation).value();
+	}
+
+	/** Compile a handler method. Methods that need the fallback are added to the given list. */
+	private static final Handler toHandler(final Method method, final Object receiver, final MethodHandles.Lookup lookup,
+			final List<Method> fallbackHandlers){
+		Class<?> second = method.getParameterTypes()[1];
+		if(method.getReturnType() == void.class && second == PlanToAgentInterface.class){
+			TriggerHandler handler = generate(method, receiver, lookup, TriggerHandler.class, "handle", HANDLER_TYPE);
+			if(handler == null){
+				fallbackHandlers.add(method);
+				MethodHandle handle = fallback(method, receiver, HANDLER_TYPE);
+				handler = (trigger, planInterface) -> {
+					try { handle.invokeExact(trigger, planInterface); }
+					catch(PlanExecutionError | RuntimeException | Error e){ throw e; }
+					catch(Throwable e){ throw new UndeclaredThrowableException(e); }
+				};
+			}
+			return new Handler(handler, null);
+		} else if(method.getReturnType() == SubPlanInterface.class && second == AgentContextInterface.class){
+			FunctionalPlanSchemeInterface guard = generate(method, receiver, lookup, FunctionalPlanSchemeInterface.class, "getPlan", GUARD_TYPE);
+			if(guard == null){
+				fallbackHandlers.add(method);
+				MethodHandle handle = fallback(method, receiver, GUARD_TYPE);
+				guard = (trigger, contextInterface) -> {
+					try { return (SubPlanInterface) handle.invokeExact(trigger, contextInterface); }
+					catch(RuntimeException | Error e){ throw e; }
+					catch(Throwable e){ throw new UndeclaredThrowableException(e); }
+				};
+			}
+			return new Handler(null, guard);
+		} else throw new IllegalArgumentException("Handler "+method+" has an unsupported signature.");
+	}
+
+	/** Generate a lambda that calls the method. Returns null if the lookup cannot access the method or no lambda can be made for it. */
+	private static final <I> I generate(final Method method, final Object receiver, final MethodHandles.Lookup lookup,
+			final Class<I> functionalInterface, final String name, final MethodType erasedType){
+		boolean isStatic = Modifier.isStatic(method.getModifiers());
+		try {
+			MethodHandle implementation = lookup.unreflect(method);
+			MethodType factoryType = isStatic ? MethodType.methodType(functionalInterface) : MethodType.methodType(functionalInterface, method.getDeclaringClass());
+			MethodType instantiatedType = erasedType.changeParameterType(0, method.getParameterTypes()[0]);
+			CallSite site = LambdaMetafactory.metafactory(lookup, name, factoryType, erasedType, implementation, instantiatedType);
+			return functionalInterface.cast(isStatic ? site.getTarget().invoke() : site.getTarget().invoke(receiver));
+		} catch(ReflectiveOperationException | LambdaConversionException e){
+			return null;
+		} catch(RuntimeException | Error e){
+			throw e;
+		} catch(Throwable e){ // The factory of a metafactory call site only throws what the lambda constructor throws
+			throw new UndeclaredThrowableException(e);
+		}
+	}
+
+	/** Obtain a method handle of the type that is used on dispatch, bypassing access checks. */
+	private static final MethodHandle fallback(final Method method, final Object receiver, final MethodType erasedType){
+		try {
+			method.setAccessible(true);
+			MethodHandle handle = MethodHandles.lookup().unreflect(method);
+			if(!Modifier.isStatic(method.getModifiers())) handle = handle.bindTo(receiver);
+			return handle.asType(erasedType);
+		} catch(IllegalAccessException | RuntimeException e){
+			throw new IllegalArgumentException("Handler "+method+" is not accessible.", e);
+		}
+	}
+
+	/** A compiled handler method; either the handler or the guard is null. */
+	private static final class Handler {
+		private final TriggerHandler handler;
+		private final FunctionalPlanSchemeInterface guard;
+		
+		private Handler(final TriggerHandler handler, final FunctionalPlanSchemeInterface guard){
+			this.handler = handler;
+			this.guard = guard;
+		}
+		
+		private final Plan instantiate(final Trigger trigger, final AgentContextInterface contextInterface){
+			if(this.handler != null) return new HandlerPlan(this.handler, trigger);
+			SubPlanInterface plan = this.guard.getPlan(trigger, contextInterface);
+			return plan == SubPlanInterface.UNINSTANTIATED ? Plan.UNINSTANTIATED : new SubPlan(plan);
+		}
+	}
+
+	/** Plan that calls a handler once for its trigger. */
+	private static final class HandlerPlan extends RunOncePlan {
+		private final TriggerHandler handler;
+		private final Trigger trigger;
+		
+		private HandlerPlan(final TriggerHandler handler, final Trigger trigger){
+			this.handler = handler;
+			this.trigger = trigger;
+		}
+		
+		public final void executeOnce(final PlanToAgentInterface planInterface) throws PlanExecutionError {
+			this.handler.handle(this.trigger, planInterface);
+		}
+	}
+
+	/** Plan that executes the sub plan of a guard once. */
+	private static final class SubPlan extends RunOncePlan {
+		private final SubPlanInterface plan;
+		
+		private SubPlan(final SubPlanInterface plan){
+			this.plan = plan;
+		}
+		
+		public final void executeOnce(final PlanToAgentInterface planInterface) throws PlanExecutionError {
+			this.plan.execute(planInterface);
+		}
+	}
+
+	/** Plan scheme that tries the handlers of the trigger's class. */
+	private static final class DispatchPlanScheme implements PlanScheme {
+		/** The number of trigger classes that are kept in the cache in front of the table. */
+		private static final int CACHE_SIZE = 8;
+		private final Class<?>[] types;
+		private final Handler[] handlers;
+		/** For each trigger class the handlers that accept it, most specific first. */
+		private final ClassValue<Dispatch> table = new ClassValue<Dispatch>(){
+			@Override
+			protected final Dispatch computeValue(final Class<?> triggerClass){
+				List<Integer> accepting = new ArrayList<>();
+				for(int i = 0; i < types.length; i++){
+					if(!types[i].isAssignableFrom(triggerClass)) continue;
+					int position = accepting.size(); // Before the first handler of a strict supertype, else at the end
+					for(int j = 0; j < accepting.size(); j++){
+						Class<?> other = types[accepting.get(j)];
+						if(other != types[i] && other.isAssignableFrom(types[i])){ position = j; break; }
+					}
+					accepting.add(position, i);
+				}
+				List<Handler> result = new ArrayList<>();
+				for(Integer i : accepting){
+					result.add(handlers[i]);
+					if(handlers[i].guard == null) break; // Always fires, so the remaining handlers are never tried
+				}
+				return new Dispatch(triggerClass, result.toArray(new Handler[result.size()]));
+			}
+		};
+		/** The dispatches of the trigger classes that were last looked up in the table, the last one first. Compared by 
+		 * identity, which is cheaper than a table lookup. */
+		private volatile Dispatch[] cache = new Dispatch[0];
+
+		private DispatchPlanScheme(final List<Class<?>> types, final List<Handler> handlers){
+			this.types = types.toArray(new Class<?>[types.size()]);
+			this.handlers = handlers.toArray(new Handler[handlers.size()]);
+		}
+
+		public final Plan instantiate(final Trigger trigger, final AgentContextInterface contextInterface){
+			Dispatch dispatch = dispatch(trigger.getClass());
+			if(dispatch.handler != null) return new HandlerPlan(dispatch.handler, trigger);
+			for(Handler handler : dispatch.handlers){
+				Plan plan = handler.instantiate(trigger, contextInterface);
+				if(plan != Plan.UNINSTANTIATED) return plan;
+			}
+			return Plan.UNINSTANTIATED;
+		}
+
+		private final Dispatch dispatch(final Class<?> triggerClass){
+			Dispatch[] cache = this.cache;
+			for(Dispatch dispatch : cache)
+				if(dispatch.triggerClass == triggerClass) return dispatch;
+			Dispatch dispatch = this.table.get(triggerClass);
+			Dispatch[] updated = new Dispatch[Math.min(cache.length + 1, CACHE_SIZE)]; // The class that was looked up least recently falls out
+			updated[0] = dispatch;
+			System.arraycopy(cache, 0, updated, 1, updated.length - 1);
+			this.cache = updated; // A lost race only loses a cache entry
+			return dispatch;
+		}
+
+		@Override
+		public final String toString(){ return "DispatchPlanScheme"+Arrays.toString(this.types); }
+	}
+
+	/** The handlers that accept a trigger class. */
+	private static final class Dispatch {
+		private final Class<?> triggerClass;
+		private final Handler[] handlers;
+		/** The handler of the first handler if it always fires, else null. */
+		private final TriggerHandler handler;
+
+		private Dispatch(final Class<?> triggerClass, final Handler[] handlers){
+			this.triggerClass = triggerClass;
+			this.handlers = handlers;
+			this.handler = handlers.length > 0 ? handlers[0].handler : null;
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package oo2apl.plan.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import oo2apl.agent.Trigger;
+/**
+ * Marks a method as a plan scheme for goals. See <code>AnnotatedPlanSchemes</code> for the 
+ * supported method signatures. 
+ * 
+ * @author Bas Testerink
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OnGoal {
+	/** The types that the method handles. If empty, then the type of the first parameter is used. */
+	public Class<? extends Trigger>[] value() default {};
+}
@@ -0,0 +1,34 @@
+package oo2apl.plan.builtin;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import oo2apl.agent.Trigger;
+import oo2apl.agent.VersionedContext;
+/**
+ * Internal trigger that an agent receives when a context to which it subscribed changed. Changes 
+ * are coalesced: each subscription has a single trigger that is in the agent's inbox at most once, 
+ * so a context that changes many times before the agent deliberates results in one trigger.
+ * 
+ * @author Bas Testerink
+ */
+public final class ContextChangedTrigger implements Trigger {
+	/** The context that changed. */
+	private final VersionedContext context;
+	/** Whether the trigger is currently in the agent's inbox. */
+	private final AtomicBoolean queued;
+	
+	public ContextChangedTrigger(final VersionedContext context){
+		this.context = context;
+		this.queued = new AtomicBoolean(false);
+	}
+	
+	/** Obtain the context that changed. */
+	public final VersionedContext getContext(){ return this.context; }
+	
+	/** Mark the trigger as queued. 
+	 * @return True iff the trigger was not queued yet, i.e. it must be put in the agent's inbox. */
+	public final boolean enqueue(){ return this.queued.compareAndSet(false, true); }
+	
+	/** Mark that the agent took the trigger out of its inbox, so that the next change queues it again. */
+	public final void dequeued(){ this.queued.set(false); }
+}
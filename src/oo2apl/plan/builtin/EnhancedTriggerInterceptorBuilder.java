@@ -3,7 +3,9 @@ package oo2apl.plan.builtin;
 import java.util.function.Predicate; 
 import oo2apl.agent.PlanToAgentInterface;
 import oo2apl.agent.Trigger; 
+import oo2apl.plan.Plan;
 import oo2apl.plan.PlanExecutionError; 
+import oo2apl.plan.TriggerInterceptor;
 /**
  * This is an auxilary class to help create trigger interceptors. 
  * @author Bas Testerink
@@ -15,6 +17,10 @@ public final class EnhancedTriggerInterceptorBuilder {
 	private DecoupledPlan plan;
 	/** Whether trigger is consumed after the interceptor has fired, and whether the plan is finished after executing once. */
 	private boolean consuming, forceRunOnce; 
+	/** The time-to-live of the interceptor in deliberation cycles and in milliseconds. */
+	private long cyclesToLive, timeToLive;
+	/** The plan to adopt when the interceptor expires. */
+	private Plan timeoutPlan;
 
 	public EnhancedTriggerInterceptorBuilder(){
 		init();
@@ -26,6 +32,9 @@ public final class EnhancedTriggerInterceptorBuilder {
 		this.selector = (Trigger t) -> {return true;}; 
 		this.consuming = false;
 		this.forceRunOnce = false;
+		this.cyclesToLive = TriggerInterceptor.NO_EXPIRY;
+		this.timeToLive = TriggerInterceptor.NO_EXPIRY;
+		this.timeoutPlan = null;
 		this.plan = new DecoupledPlan() { 
 			public void execute(Trigger trigger, PlanToAgentInterface planInterface) throws PlanExecutionError {setFinished(true);}
 		};
@@ -55,6 +64,24 @@ public final class EnhancedTriggerInterceptorBuilder {
 		return this;
 	}
 
+	/** Set the number of deliberation cycles that the interceptor lives after it is adopted. */
+	public final EnhancedTriggerInterceptorBuilder setCyclesToLive(final long cycles){
+		this.cyclesToLive = cycles;
+		return this;
+	}
+	
+	/** Set the number of milliseconds that the interceptor lives after it is adopted. */
+	public final EnhancedTriggerInterceptorBuilder setTimeToLive(final long millis){
+		this.timeToLive = millis;
+		return this;
+	}
+	
+	/** Set the plan that is adopted if the interceptor expires before it fires. */
+	public final EnhancedTriggerInterceptorBuilder setTimeoutPlan(final Plan plan){
+		this.timeoutPlan = plan;
+		return this;
+	}
+
 	/** Create and return the trigger interceptor. This will also reset all the values of this builder. */
 	public final EnhancedTriggerInterceptor build(){
 		DecoupledPlan chosenPlan;
@@ -63,6 +90,7 @@ public final class EnhancedTriggerInterceptorBuilder {
 			chosenPlan = new InstantiableRunOnceDecoupledPlan<Trigger>(body);
 		} else chosenPlan = this.plan;
 		EnhancedTriggerInterceptor interceptor = new EnhancedTriggerInterceptor(this.consuming, this.selector, chosenPlan); 
+		interceptor.setCyclesToLive(this.cyclesToLive).setTimeToLive(this.timeToLive).setTimeoutPlan(this.timeoutPlan);
 		return interceptor;
 	} 
 }
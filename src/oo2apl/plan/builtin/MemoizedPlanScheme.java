@@ -0,0 +1,182 @@
+package oo2apl.plan.builtin;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import oo2apl.agent.AgentContextInterface;
+import oo2apl.agent.Trigger;
+import oo2apl.agent.VersionedContext;
+import oo2apl.plan.Plan;
+import oo2apl.plan.PlanScheme;
+/**
+ * Wraps a plan scheme whose guard is expensive and remembers when the guard failed. The outcome of
+ * the guard must only depend on the equivalence class of the trigger (by default its class) and on
+ * the given versioned contexts of the agent. If the scheme did not fire for a trigger of the same
+ * class while the contexts had the same versions, then it is not evaluated again. Schemes that fire
+ * are always evaluated, since their plan is made for the trigger at hand.
+ *
+ * The cache is bounded. It is split in stripes with their own lock, so that agents that share the
+ * scheme but not their contexts do not wait for each other; the least recently used entry of a
+ * stripe is evicted when the stripe is full. A scheme can
+ * be shared by agents, as the identities of the contexts are part of the key. The cache refers to
+ * the contexts weakly, so it does not keep the contexts of dead agents alive. The hit and miss counters
+ * show whether the memoization pays off.
+ *
+ * @author Bas Testerink
+ */
+public final class MemoizedPlanScheme implements PlanScheme {
+	/** The maximal number of stripes per available processor. */
+	private static final int MAX_STRIPES_PER_PROCESSOR = 4;
+	/** The scheme of which the guard is memoized. */
+	private final PlanScheme planScheme;
+	/** Obtains the equivalence class of a trigger. */
+	private final Function<? super Trigger, ?> equivalenceClass;
+	/** The contexts that the guard depends on. A copy, so the caller's array is not retained. */
+	private final List<Class<? extends VersionedContext>> contexts;
+	/** For each trigger equivalence class and contexts, the version at which the guard failed. A key is kept in the
+	 * stripe that its hash selects; the number of stripes is a power of two. */
+	private final Stripe[] stripes;
+	/** Statistics. */
+	private final LongAdder hits, misses, evictions;
+
+	/** Memoize per trigger class, with a cache of at most <code>capacity</code> entries. */
+	@SafeVarargs
+	public MemoizedPlanScheme(final PlanScheme planScheme, final int capacity, final Class<? extends VersionedContext>... contexts){
+		this(planScheme, Trigger::getClass, capacity, contexts);
+	}
+
+	/** Memoize per trigger equivalence class, with a cache of at most <code>capacity</code> entries. */
+	@SafeVarargs
+	public MemoizedPlanScheme(final PlanScheme planScheme, final Function<? super Trigger, ?> equivalenceClass, final int capacity, final Class<? extends VersionedContext>... contexts){
+		if(capacity < 1) throw new IllegalArgumentException("Capacity must be positive.");
+		this.planScheme = planScheme;
+		this.equivalenceClass = equivalenceClass;
+		List<Class<? extends VersionedContext>> copy = new ArrayList<>(contexts.length);
+		for(Class<? extends VersionedContext> context : contexts) copy.add(context); // Not Arrays.asList, which lets the array escape
+		this.contexts = Collections.unmodifiableList(copy);
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.evictions = new LongAdder();
+		int nrOfStripes = 1;
+		while(nrOfStripes < MAX_STRIPES_PER_PROCESSOR * Runtime.getRuntime().availableProcessors() && 2 * nrOfStripes <= capacity) nrOfStripes *= 2;
+		this.stripes = new Stripe[nrOfStripes];
+		for(int i = 0; i < nrOfStripes; i++) this.stripes[i] = new Stripe(capacity / nrOfStripes);
+	}
+
+	public final Plan instantiate(final Trigger trigger, final AgentContextInterface contextInterface){
+		VersionedContext[] contexts = new VersionedContext[this.contexts.size()];
+		long version = 0;
+		for(int i = 0; i < contexts.length; i++){
+			contexts[i] = contextInterface.getContext(this.contexts.get(i)); // Throws if the agent has no such context
+			version += contexts[i].getVersion(); // Versions only increase, so the sum changes with each change
+		}
+		Key probe = new Key(this.equivalenceClass.apply(trigger), contexts);
+		Stripe stripe = this.stripes[(probe.hash ^ (probe.hash >>> 16)) & (this.stripes.length - 1)];
+		synchronized(stripe){
+			Long failedAt = stripe.get(probe);
+			if(failedAt != null && failedAt.longValue() == version){
+				this.hits.increment();
+				return Plan.UNINSTANTIATED;
+			}
+		}
+		this.misses.increment();
+		Plan plan = this.planScheme.instantiate(trigger, contextInterface);
+		synchronized(stripe){
+			if(plan == Plan.UNINSTANTIATED) stripe.put(probe.toWeakKey(), version);
+			else stripe.remove(probe);
+		}
+		return plan;
+	}
+
+	/** Obtain the number of evaluations that were skipped. */
+	public final long getHits(){ return this.hits.sum(); }
+
+	/** Obtain the number of evaluations of the wrapped scheme. */
+	public final long getMisses(){ return this.misses.sum(); }
+
+	/** Obtain the number of cache entries that were evicted. */
+	public final long getEvictions(){ return this.evictions.sum(); }
+
+	/** Forget all memoized failures. */
+	public final void clear(){
+		for(Stripe stripe : this.stripes)
+			synchronized(stripe){ stripe.clear(); }
+	}
+
+	/** Part of the cache, guarded by its own monitor. Evicts its least recently used entry when it is full. */
+	private final class Stripe extends LinkedHashMap<Key, Long> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		private Stripe(final int capacity){
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected final boolean removeEldestEntry(final Map.Entry<Key, Long> eldest){
+			if(size() <= this.capacity) return false;
+			MemoizedPlanScheme.this.evictions.increment();
+			return true;
+		}
+	}
+
+	/** Cache key; the contexts are compared by identity. The keys in the cache refer to the contexts through weak
+	 * references, so that the cache does not keep the contexts of dead agents alive. Such a key no longer equals any
+	 * other key once a context is collected, and is evicted in due time. The keys for lookups refer to the contexts
+	 * directly, so that a lookup does not create weak references. */
+	private static final class Key {
+		private final Object equivalenceClass;
+		/** Either the contexts or weak references to them. */
+		private final Object[] contexts;
+		private final boolean weak;
+		private final int hash;
+
+		private Key(final Object equivalenceClass, final VersionedContext[] contexts){
+			this.equivalenceClass = equivalenceClass;
+			this.contexts = contexts;
+			this.weak = false;
+			int hash = equivalenceClass == null ? 0 : equivalenceClass.hashCode();
+			for(VersionedContext context : contexts) hash = 31 * hash + System.identityHashCode(context);
+			this.hash = hash;
+		}
+
+		private Key(final Key key){
+			this.equivalenceClass = key.equivalenceClass;
+			this.contexts = new Object[key.contexts.length];
+			for(int i = 0; i < this.contexts.length; i++) this.contexts[i] = new WeakReference<Object>(key.context(i));
+			this.weak = true;
+			this.hash = key.hash;
+		}
+
+		/** Obtain a key for the cache that is equal to this one but does not keep the contexts alive. */
+		private final Key toWeakKey(){ return this.weak ? this : new Key(this); }
+
+		/** Obtain the context at the index, or null if it was collected. */
+		private final Object context(final int index){
+			return this.weak ? ((WeakReference<?>) this.contexts[index]).get() : this.contexts[index];
+		}
+
+		@Override
+		public final int hashCode(){ return this.hash; }
+
+		@Override
+		public final boolean equals(final Object object){
+			if(object == this) return true;
+			if(!(object instanceof Key)) return false;
+			Key other = (Key) object;
+			if(this.hash != other.hash || this.contexts.length != other.contexts.length) return false;
+			for(int i = 0; i < this.contexts.length; i++){
+				Object context = context(i);
+				if(context == null || context != other.context(i)) return false;
+			}
+			return this.equivalenceClass == null ? other.equivalenceClass == null : this.equivalenceClass.equals(other.equivalenceClass);
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package oo2apl.plan.builtin;
+
+import oo2apl.agent.AgentID;
+import oo2apl.agent.Trigger;
+/**
+ * Internal trigger that an agent receives when a message that it sent was refused because the 
+ * inbox of the receiver is full. The agent can for instance retry later or slow down. 
+ * 
+ * @author Bas Testerink
+ */
+public final class MessageRejectedTrigger implements Trigger {
+	/** The agent that refused the message. */
+	private final AgentID receiver;
+	/** The refused message. */
+	private final Trigger message;
+	
+	public MessageRejectedTrigger(final AgentID receiver, final Trigger message){
+		this.receiver = receiver;
+		this.message = message;
+	}
+	
+	/** Obtain the agent that refused the message. */
+	public final AgentID getReceiver(){ return this.receiver; }
+	
+	/** Obtain the refused message. */
+	public final Trigger getMessage(){ return this.message; }
+}
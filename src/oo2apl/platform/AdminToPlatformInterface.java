@@ -1,5 +1,11 @@
 package oo2apl.platform;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import oo2apl.agent.AgentComponentFactory;
 import oo2apl.agent.AgentCreationFailedException;
 import oo2apl.agent.ExternalProcessToAgentInterface;
@@ -7,7 +13,13 @@ import oo2apl.agent.AgentBuilder;
 import oo2apl.agent.AgentID;
 import oo2apl.agent.AgentType;
 import oo2apl.agent.ContextArguments; 
+import oo2apl.checkpoint.Checkpoint;
+import oo2apl.deliberation.WakePolicy;
+import oo2apl.journal.TriggerCodec;
+import oo2apl.journal.TriggerJournal;
+import oo2apl.passivation.PassivationStore;
 import oo2apl.plan.PlanSchemeBaseArguments;
+import oo2apl.trace.ScheduleRecorder;
  
 /**
  * This interface exposes methods of a platform to allow a user to register new, or remove existing,
@@ -96,4 +108,171 @@ public final class AdminToPlatformInterface {
 	public final void addFactory(final AgentComponentFactory factory){
 		this.platform.addFactory(factory);
 	} 
+	
+	/**
+	 * Sample the current interceptor count of each agent and return the diagnostics that hold 
+	 * the sampled history. Call this periodically to detect agents that leak interceptors.
+	 * @return The interceptor diagnostics of the platform.
+	 */
+	public final InterceptorDiagnostics sampleInterceptorCounts(){
+		return this.platform.sampleInterceptorCounts();
+	}
+	
+	/**
+	 * Obtain for each agent the number of messages and external triggers that wait in its inbox. Agents 
+	 * with deep inboxes receive more input than they can handle; consider bounding their inboxes.
+	 * @return The approximate inbox depth of each agent.
+	 */
+	public final Map<AgentID, Integer> getMailboxDepths(){
+		return this.platform.getMailboxDepths();
+	}
+	
+	/**
+	 * Passivate all agents that have been sleeping for at least the given time. The passivatable 
+	 * contexts of those agents are moved to the store, and are restored when the agent is woken up.
+	 * @param store Store that holds the state of passivated agents.
+	 * @param idleMillis Minimal time that an agent must have been sleeping.
+	 * @return The number of agents that were passivated.
+	 */
+	public final int passivateIdleAgents(final PassivationStore store, final long idleMillis){
+		return this.platform.passivateIdleAgents(store, idleMillis);
+	}
+	
+	/**
+	 * Periodically passivate the agents that have been sleeping for at least the given time. The 
+	 * sweeps run on the platform's timer thread until the platform is halted.
+	 * @param store Store that holds the state of passivated agents.
+	 * @param idleMillis Minimal time that an agent must have been sleeping.
+	 * @param periodMillis Time between two sweeps.
+	 */
+	public final void enablePassivation(final PassivationStore store, final long idleMillis, final long periodMillis){
+		this.platform.enablePassivation(store, idleMillis, periodMillis);
+	}
+	
+	/**
+	 * Periodically move agents between the shards of a sharded platform to even out their load. The 
+	 * scheduler measures the time that the agents of each placement key run and the messages that they 
+	 * receive. Agents move at the end of a deliberation cycle, and the messages of each sender keep their 
+	 * order. See <code>ShardedScheduler.enableRebalancing</code>.
+	 * @param periodMillis Time between two rebalancings.
+	 * @param tolerance Fraction of the average load by which shards may differ, e.g. 0.25.
+	 */
+	public final void enableRebalancing(final long periodMillis, final double tolerance){
+		this.platform.enableRebalancing(periodMillis, tolerance);
+	}
+	
+	/**
+	 * Obtain the loads of the placement keys of a sharded platform that were measured during the last 
+	 * rebalancing period, busiest first.
+	 * @return The loads, empty if rebalancing is not enabled.
+	 */
+	public final List<ShardedScheduler.Load> getShardLoads(){
+		return this.platform.getShardLoads();
+	}
+	
+	/**
+	 * Start a checkpoint of all agents on the platform. The platform keeps running: each agent writes 
+	 * its snapshot at the boundary of its current deliberation cycle, or immediately if it sleeps. 
+	 * @param file The snapshot file. If it exists, then the snapshots are appended to it.
+	 * @return The checkpoint, on which can be waited for the snapshots to be written.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public final Checkpoint checkpoint(final Path file) throws IOException {
+		return this.platform.checkpoint(file);
+	}
+	
+	/**
+	 * Restore agents from a snapshot file and schedule them for execution. The agents keep their 
+	 * original IDs and are produced by the factory of the given type, after which their snapshots 
+	 * are loaded.
+	 * @param file The snapshot file.
+	 * @param agentType The type of the agents in the file.
+	 * @param contextArgs The arguments for building the contexts of the agents.
+	 * @param planSchemeBaseArgs The arguments for building the plan scheme bases of the agents.
+	 * @return The interfaces of the restored agents.
+	 * @throws IOException If the file cannot be read.
+	 * @throws AgentCreationFailedException If there is no factory for the type, or if an agent in the file already runs on the platform.
+	 */
+	public final List<ExternalProcessToAgentInterface> restoreAgents(final Path file, final AgentType agentType, final ContextArguments contextArgs, 
+			final PlanSchemeBaseArguments planSchemeBaseArgs) throws IOException, AgentCreationFailedException {
+		return this.platform.restoreAgents(file, agentType, contextArgs, planSchemeBaseArgs);
+	}
+	
+	/**
+	 * Restore agents from a snapshot file, using an AgentBuilder to produce the agents. 
+	 * @param file The snapshot file.
+	 * @param builder The builder that is used to make the agents.
+	 * @return The interfaces of the restored agents.
+	 * @throws IOException If the file cannot be read.
+	 * @throws AgentCreationFailedException If an agent in the file already runs on the platform.
+	 */
+	public final List<ExternalProcessToAgentInterface> restoreAgents(final Path file, final AgentBuilder builder) throws IOException, AgentCreationFailedException {
+		return this.platform.restoreAgents(file, builder);
+	}
+	
+	/**
+	 * Start recording all external triggers, messages and internal triggers that enter the agents of 
+	 * the platform in the given journal. Replaces the current journal, if any, without closing it.
+	 * @param journal The journal to record the triggers in.
+	 */
+	public final void enableJournal(final TriggerJournal journal){
+		this.platform.enableJournal(journal);
+	}
+	
+	/**
+	 * Stop recording the triggers that enter the agents. The journal is not closed.
+	 * @return The journal that was used, or null if there was none.
+	 */
+	public final TriggerJournal disableJournal(){
+		return this.platform.disableJournal();
+	}
+	
+	/**
+	 * Feed the entries of a journal to the agents of the platform, as fast as the file can be read. 
+	 * The entries are inserted in the agents in their original order and are not journaled again. 
+	 * @param file The journal file.
+	 * @param codec The codec with which the journal was written.
+	 * @param kinds The kinds of triggers to replay.
+	 * @param agents Maps the agent serial numbers in the journal to agents of the platform. If null, 
+	 * then entries go to the agent with the same serial number.
+	 * @return The number of replayed entries.
+	 * @throws IOException If the journal cannot be read.
+	 */
+	public final long replayJournal(final Path file, final TriggerCodec codec, final Set<TriggerJournal.Kind> kinds, final Map<Long, AgentID> agents) throws IOException {
+		return this.platform.replayJournal(file, codec, kinds, agents);
+	}
+	
+	/**
+	 * Start recording the order in which the deliberation runnables start and in which messages are 
+	 * delivered. To be able to replay the trace, start recording before the first agent is created.
+	 * @param recorder The recorder that writes the trace.
+	 */
+	public final void startScheduleRecording(final ScheduleRecorder recorder){
+		this.platform.startScheduleRecording(recorder);
+	}
+	
+	/**
+	 * Stop recording the schedule. The recorder is not closed.
+	 * @return The recorder that was used, or null if there was none.
+	 */
+	public final ScheduleRecorder stopScheduleRecording(){
+		return this.platform.stopScheduleRecording();
+	}
+	
+	/**
+	 * Let agents that wait for a message stay awake for a short, adaptive window after they run out of work.
+	 * @param wakePolicy The policy, or null to let agents go to sleep right away.
+	 */
+	public final void setWakePolicy(final WakePolicy wakePolicy){
+		this.platform.setWakePolicy(wakePolicy);
+	}
+	
+	/**
+	 * Let sleeping agents handle a message on the thread of the sending agent. 
+	 * @param maxDepth The maximal nesting of inline cycles; 0 disables inline delivery.
+	 * @param maxPerCycle The maximal number of agents that a deliberation cycle runs inline.
+	 */
+	public final void setInlineDelivery(final int maxDepth, final int maxPerCycle){
+		this.platform.setInlineDelivery(maxDepth, maxPerCycle);
+	}
 }
@@ -0,0 +1,208 @@
+package oo2apl.platform;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+/**
+ * A thread pool in which each worker takes a batch of ready runnables from the queue at once and 
+ * runs them back-to-back. When the deliberation cycles of the agents are short, the cost of taking 
+ * each cycle separately from the queue of a regular thread pool, which involves a lock and often 
+ * the wake up of a thread, is in the same order as the cycle itself. A batch costs one acquisition 
+ * of the queue's lock, and threads are only signalled when some of them are idle. Use it with 
+ * <code>Platform.newPlatform(ExecutorService, Messenger)</code>. 
+ * 
+ * A worker takes at most its fair part of the queue, so that a small queue is still divided over 
+ * the threads. Runnables that are scheduled while a batch runs wait until a worker takes the next 
+ * batch; hence large batches of long cycles increase the scheduling delay.
+ * 
+ * @author Bas Testerink
+ */
+public final class BatchingScheduler extends AbstractExecutorService {
+	/** Guards all state below. */
+	private final ReentrantLock lock;
+	/** Signalled when a runnable is queued or the scheduler shuts down. */
+	private final Condition available;
+	/** The ready runnables in order of scheduling. */
+	private final ArrayDeque<Runnable> queue;
+	/** The worker threads. */
+	private final List<Thread> workers;
+	/** The number in the name of the next worker thread. */
+	private int nextWorkerNumber = 0;
+	/** The maximal number of runnables that a worker takes at once. */
+	private final int batchSize;
+	/** The number of workers that wait for runnables. */
+	private int idleWorkers = 0;
+	/** The number of workers that have not exited. */
+	private int liveWorkers;
+	private boolean shutdown = false;
+	
+	/**
+	 * @param nrOfThreads The number of threads that run the agents.
+	 * @param batchSize The maximal number of runnables that a thread takes at once, e.g. 64.
+	 */
+	public BatchingScheduler(final int nrOfThreads, final int batchSize){
+		if(nrOfThreads < 1 || batchSize < 1) throw new IllegalArgumentException("Invalid scheduler parameters.");
+		this.lock = new ReentrantLock();
+		this.available = this.lock.newCondition();
+		this.queue = new ArrayDeque<>();
+		this.batchSize = batchSize;
+		this.workers = new ArrayList<>(nrOfThreads);
+		this.liveWorkers = nrOfThreads;
+		this.lock.lock();
+		try {
+			for(int i = 0; i < nrOfThreads; i++) if(!startWorker()) this.liveWorkers--;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Queue a runnable. Wakes up a worker only if one is idle. */
+	public final void execute(final Runnable runnable){
+		this.lock.lock();
+		try {
+			if(this.shutdown) throw new RejectedExecutionException("The scheduler is shut down.");
+			if(this.liveWorkers == 0) throw new RejectedExecutionException("The scheduler has no worker threads left.");
+			this.queue.add(runnable);
+			if(this.idleWorkers > 0) this.available.signal();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** The loop of a worker thread. Exceptions of runnables are printed, the worker continues with its batch. An 
+	 * error ends the worker after the rest of its batch is queued again and a successor is started, so that the 
+	 * scheduler keeps its number of threads. */
+	private final void work(){
+		Runnable[] batch = new Runnable[this.batchSize];
+		int size = 0, i = 0;
+		boolean ended = false;
+		try {
+			while(true){
+				size = take(batch);
+				if(size == 0){
+					ended = true;
+					return;
+				}
+				for(i = 0; i < size; i++){
+					try {
+						batch[i].run();
+					} catch(RuntimeException e){
+						e.printStackTrace();
+					}
+					batch[i] = null;
+				}
+			}
+		} finally {
+			retire(ended, batch, i + 1, size);
+		}
+	}
+	
+	/** Remove the calling worker and put the runnables of its batch from index start up to size back at the front 
+	 * of the queue, in their original order. If an error ended the worker and there is still work, then a successor 
+	 * takes its place. Otherwise the worker is no longer counted as live, so that awaitTermination is not kept 
+	 * waiting for it. */
+	private final void retire(final boolean ended, final Runnable[] batch, final int start, final int size){
+		this.lock.lock();
+		try {
+			for(int j = size - 1; j >= start; j--){
+				this.queue.addFirst(batch[j]);
+				batch[j] = null;
+			}
+			this.workers.remove(Thread.currentThread());
+			if(!ended && !(this.shutdown && this.queue.isEmpty()) && startWorker()) return;
+			if(--this.liveWorkers == 0) this.available.signalAll(); // Releases awaitTermination
+			else if(!this.queue.isEmpty()) this.available.signal(); // Let another worker take the requeued rest
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Start a worker thread while holding the lock. Returns false if no thread could be created. */
+	private final boolean startWorker(){
+		Thread worker = new Thread(this::work, "oo2apl-worker-"+this.nextWorkerNumber++);
+		this.workers.add(worker);
+		try {
+			worker.start();
+			return true;
+		} catch(OutOfMemoryError e){ // The platform could not create another thread
+			this.workers.remove(worker);
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/** Wait for ready runnables and move a batch of them into the array. Returns 0 if the scheduler is shut down 
+	 * and has nothing left to run. */
+	private final int take(final Runnable[] batch){
+		this.lock.lock();
+		try {
+			while(this.queue.isEmpty()){
+				if(this.shutdown) return 0;
+				this.idleWorkers++;
+				this.available.awaitUninterruptibly();
+				this.idleWorkers--;
+			}
+			int size = Math.min(this.batchSize, Math.max(1, this.queue.size() / this.liveWorkers)); // A fair part of the queue
+			for(int i = 0; i < size; i++) batch[i] = this.queue.pollFirst();
+			if(!this.queue.isEmpty() && this.idleWorkers > 0) this.available.signal(); // Let an idle worker take the rest
+			return size;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	public final void shutdown(){
+		this.lock.lock();
+		try {
+			this.shutdown = true;
+			this.available.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Shut down and return the runnables that were not taken by a worker yet. Running runnables are interrupted. */
+	public final List<Runnable> shutdownNow(){
+		List<Runnable> pending;
+		this.lock.lock();
+		try {
+			this.shutdown = true;
+			pending = new ArrayList<>(this.queue);
+			this.queue.clear();
+			this.available.signalAll();
+			for(Thread worker : this.workers) worker.interrupt();
+		} finally {
+			this.lock.unlock();
+		}
+		return pending;
+	}
+	
+	public final boolean isShutdown(){
+		this.lock.lock();
+		try { return this.shutdown; } finally { this.lock.unlock(); }
+	}
+	
+	public final boolean isTerminated(){
+		this.lock.lock();
+		try { return this.shutdown && this.liveWorkers == 0; } finally { this.lock.unlock(); }
+	}
+	
+	public final boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		long remaining = unit.toNanos(timeout);
+		this.lock.lock();
+		try {
+			while(!(this.shutdown && this.liveWorkers == 0)){
+				if(remaining <= 0) return false;
+				remaining = this.available.awaitNanos(remaining);
+			}
+			return true;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+}
@@ -1,7 +1,13 @@
 package oo2apl.platform;
 
+import java.util.concurrent.ScheduledFuture;
+
 import oo2apl.agent.AgentID;
+import oo2apl.agent.Trigger;
 import oo2apl.deliberation.DeliberationRunnable;
+import oo2apl.deliberation.WakePolicy;
+import oo2apl.journal.TriggerJournal;
+import oo2apl.trace.ScheduleTrace;
 /**
  * Exposes the platform functionalities that a deliberation runnable requires. 
  * These include the ability to reschedule a runnable or to kill an agent.
@@ -33,4 +39,39 @@ public final class DeliberationRunnableToPlatformInterface {
 	public final void scheduleForExecution(final DeliberationRunnable runnable){
 		this.platform.scheduleForExecution(runnable);
 	} 
+	
+	/** Run the alarm after the given delay on the platform's timer thread. Returns null if the platform is halted. */
+	public final ScheduledFuture<?> setAlarm(final long delayMillis, final Runnable alarm){
+		return this.platform.setAlarm(delayMillis, alarm);
+	}
+	
+	/** Give the sender of a message that was dropped from a full inbox a <code>MessageRejectedTrigger</code>. */
+	public final void messageDropped(final AgentID sender, final AgentID receiver, final Trigger message){
+		this.platform.messageDropped(sender, receiver, message);
+	}
+	
+	/** Obtain the platform's trigger journal, or null if it keeps none. */
+	public final TriggerJournal getJournal(){
+		return this.platform.getJournal();
+	}
+	
+	/** Obtain the maximal nesting of inline cycles; 0 if inline delivery is disabled. */
+	public final int getInlineDepth(){
+		return this.platform.getInlineDepth();
+	}
+	
+	/** Obtain the maximal number of agents that a deliberation cycle runs inline. */
+	public final int getInlineBudget(){
+		return this.platform.getInlineBudget();
+	}
+	
+	/** Obtain the wake policy for agents that wait for messages, or null if they go to sleep right away. */
+	public final WakePolicy getWakePolicy(){
+		return this.platform.getWakePolicy();
+	}
+	
+	/** Obtain the platform's schedule trace, or null if it has none. */
+	public final ScheduleTrace getScheduleTrace(){
+		return this.platform.getScheduleTrace();
+	}
 }
@@ -0,0 +1,91 @@
+package oo2apl.platform;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import oo2apl.agent.AgentID;
+import oo2apl.agent.PlatformToAgentInterface;
+/**
+ * Keeps track of the number of trigger interceptors of each agent over time. Each call to 
+ * <code>sample</code> records the current interceptor counts. An agent is suspected of leaking 
+ * interceptors if its interceptor population has only grown over all the samples, i.e. it never 
+ * decreased between two samples and is larger at the last sample than at the first. Such agents 
+ * usually wait for triggers that never arrive; give their interceptors a time-to-live.
+ * 
+ * @author Bas Testerink
+ */
+public final class InterceptorDiagnostics {
+	/** The sampled history per agent. */
+	private final Map<AgentID, AgentSample> samples;
+	
+	public InterceptorDiagnostics(){
+		this.samples = new HashMap<>();
+	}
+	
+	/** Record the current interceptor count of each of the given agents. Agents that are no 
+	 * longer provided are forgotten. */
+	public final synchronized void sample(final Collection<PlatformToAgentInterface> agents){
+		Set<AgentID> alive = new HashSet<>();
+		for(PlatformToAgentInterface agent : agents){
+			AgentID agentID = agent.getAgentID();
+			alive.add(agentID);
+			int count = agent.getInterceptorCount();
+			AgentSample sample = this.samples.get(agentID);
+			if(sample == null) this.samples.put(agentID, new AgentSample(count));
+			else sample.update(count);
+		}
+		this.samples.keySet().retainAll(alive);
+	}
+	
+	/** Get the interceptor count of each agent at the last sample. */
+	public final synchronized Map<AgentID, Integer> getInterceptorCounts(){
+		Map<AgentID, Integer> counts = new HashMap<>();
+		for(Map.Entry<AgentID, AgentSample> entry : this.samples.entrySet())
+			counts.put(entry.getKey(), entry.getValue().last);
+		return counts;
+	}
+	
+	/**
+	 * Get the agents whose interceptor population only grew since they were first sampled. 
+	 * @param minimalNrOfSamples The minimal number of samples of an agent before it can be flagged. 
+	 * @return The ids of the agents that are suspected to leak interceptors.
+	 */
+	public final synchronized List<AgentID> getSuspectedLeaks(final int minimalNrOfSamples){
+		List<AgentID> suspects = new ArrayList<>();
+		for(Map.Entry<AgentID, AgentSample> entry : this.samples.entrySet()){
+			AgentSample sample = entry.getValue();
+			if(sample.nrOfSamples >= minimalNrOfSamples && sample.onlyGrown && sample.last > sample.first)
+				suspects.add(entry.getKey());
+		}
+		return suspects;
+	}
+	
+	/** The sampled history of a single agent. */
+	private static final class AgentSample {
+		/** The first and the last sampled interceptor count. */
+		private final int first;
+		private int last;
+		/** Number of samples taken. */
+		private int nrOfSamples;
+		/** Whether the count never decreased between two samples. */
+		private boolean onlyGrown;
+		
+		private AgentSample(final int count){
+			this.first = count;
+			this.last = count;
+			this.nrOfSamples = 1;
+			this.onlyGrown = true;
+		}
+		
+		private final void update(final int count){
+			if(count < this.last) this.onlyGrown = false;
+			this.last = count;
+			this.nrOfSamples++;
+		}
+	}
+}
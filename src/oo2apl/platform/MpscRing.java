@@ -0,0 +1,89 @@
+package oo2apl.platform;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+/**
+ * A queue for many producers and a single consumer, backed by a ring of slots in which producers 
+ * claim a position with a single compare-and-set. Each slot has a sequence number that tells whether 
+ * it is free for the producer of a position, or filled for the consumer. When the ring is full, the 
+ * elements go to an overflow queue under a lock, so that offers never fail. Once an element is in 
+ * the overflow, all later elements go there as well until the consumer emptied it, and the consumer 
+ * only takes from the overflow when all claimed positions of the ring are consumed. Therefore the 
+ * elements of each producer are taken in the order in which they were offered.
+ * 
+ * @author Bas Testerink
+ */
+final class MpscRing<E> {
+	private final AtomicReferenceArray<E> elements;
+	/** Per slot: equal to the position if the slot is free for it, one more if the element of the position is in it. */
+	private final AtomicLongArray sequences;
+	private final int mask;
+	/** The next position that a producer claims. */
+	private final AtomicLong tail;
+	/** The next position that the consumer takes. Only used by the consumer. */
+	private long head = 0;
+	/** Elements that did not fit in the ring; guarded by its own monitor. */
+	private final ArrayDeque<E> overflow;
+	/** Whether the overflow has elements. */
+	private volatile boolean overflowing = false;
+	
+	/** Create a ring with the given capacity, which is rounded up to a power of two. */
+	MpscRing(final int capacity){
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.elements = new AtomicReferenceArray<>(size);
+		this.sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++) this.sequences.set(i, i);
+		this.mask = size - 1;
+		this.tail = new AtomicLong(0);
+		this.overflow = new ArrayDeque<>();
+	}
+	
+	/** Add an element; never fails. Can be called by any thread. */
+	final void offer(final E element){
+		if(!this.overflowing){
+			long position = this.tail.get();
+			while(true){
+				int index = (int) position & this.mask;
+				long difference = this.sequences.get(index) - position;
+				if(difference == 0){
+					if(this.tail.compareAndSet(position, position + 1)){
+						this.elements.lazySet(index, element);
+						this.sequences.set(index, position + 1); // Publishes the element
+						return;
+					}
+					position = this.tail.get();
+				} else if(difference < 0) break; // Full
+				else position = this.tail.get();
+			}
+		}
+		synchronized(this.overflow){
+			this.overflow.add(element);
+			this.overflowing = true;
+		}
+	}
+	
+	/** Take the next element, or null if there is none or a producer is still writing it. Only for the consumer. */
+	final E poll(){
+		int index = (int) this.head & this.mask;
+		if(this.sequences.get(index) == this.head + 1){
+			E element = this.elements.get(index);
+			this.elements.lazySet(index, null);
+			this.sequences.set(index, this.head + this.mask + 1); // Frees the slot for the position one round later
+			this.head++;
+			return element;
+		}
+		if(this.head != this.tail.get() || !this.overflowing) return null; // A claimed position is not written yet, or nothing overflowed
+		synchronized(this.overflow){
+			E element = this.overflow.poll();
+			if(this.overflow.isEmpty()) this.overflowing = false;
+			return element;
+		}
+	}
+	
+	/** Check whether all offered elements are taken. Only for the consumer. */
+	final boolean isEmpty(){
+		return this.head == this.tail.get() && !this.overflowing;
+	}
+}
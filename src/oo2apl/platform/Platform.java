@@ -1,11 +1,19 @@
 package oo2apl.platform;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Set;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors; 
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import oo2apl.agent.AgentKillSwitch;
 import oo2apl.agent.AgentRuntimeData;
@@ -14,20 +22,34 @@ import oo2apl.agent.AgentBuilder;
 import oo2apl.agent.AgentComponentFactory;
 import oo2apl.agent.AgentCreationFailedException;
 import oo2apl.agent.ExternalProcessToAgentInterface;
+import oo2apl.agent.MailboxBound;
 import oo2apl.agent.AgentID; 
 import oo2apl.agent.AgentType; 
 import oo2apl.agent.ContextArguments;
 import oo2apl.agent.ContextContainer;
 import oo2apl.agent.DeliberationRunnableToAgentInterface;
 import oo2apl.agent.DeliberationStepToAgentInterface;
+import oo2apl.agent.PlatformToAgentInterface;
+import oo2apl.agent.Trigger;
+import oo2apl.checkpoint.AgentSnapshot;
+import oo2apl.checkpoint.Checkpoint;
+import oo2apl.checkpoint.SnapshotFile;
 import oo2apl.defaults.messenger.DefaultMessenger;
+import oo2apl.defaults.messenger.ShardedMessenger;
 import oo2apl.deliberation.DeliberationRunnable;
-import oo2apl.deliberation.DeliberationStep;
+import oo2apl.deliberation.WakePolicy;
+import oo2apl.journal.JournalReader;
+import oo2apl.journal.TriggerCodec;
+import oo2apl.journal.TriggerJournal;
 import oo2apl.messaging.Messenger;
 import oo2apl.messaging.AgentToMessengerInterface;
+import oo2apl.passivation.PassivationStore;
 import oo2apl.plan.Plan;
 import oo2apl.plan.PlanSchemeBase;
 import oo2apl.plan.PlanSchemeBaseArguments;
+import oo2apl.trace.ScheduleRecorder;
+import oo2apl.trace.ScheduleReplayer;
+import oo2apl.trace.ScheduleTrace;
 /**
  * A Platform is a container that maintains the available thread pool, agent factories, 
  * agent kill switches (to stop an agent from outside itself) and a messenger service. 
@@ -42,8 +64,28 @@ public final class Platform {
 	private final Map<AgentType, AgentComponentFactory> factories;
 	/** Kill switches that can force an agent to stop executing the next time it wants to deliberate. */
 	private final Map<AgentID, AgentKillSwitch> agentKillSwitches; 
+	/** Interfaces to the agents for monitoring purposes. */
+	private final Map<AgentID, PlatformToAgentInterface> agentInterfaces;
 	/** The messenger that is used for direct communication between agents. */
 	private final Messenger messenger; 
+	/** Timer for alarms that agents set, e.g. to wake up when an interceptor expires. Created upon first use. */
+	private ScheduledExecutorService timer = null;
+	/** Sampled interceptor counts of the agents. */
+	private final InterceptorDiagnostics interceptorDiagnostics;
+	/** The journal in which the triggers that enter the agents are recorded, or null if there is none. */
+	private volatile TriggerJournal journal = null;
+	/** The trace that records or enforces the order of runnables and message deliveries, or null if there is none. */
+	private volatile ScheduleTrace scheduleTrace = null;
+	/** The maximal number of nested agents that run inline on the thread of a sender; 0 if messages are never handled inline. */
+	private volatile int inlineDepth = 0;
+	/** The maximal number of agents that one deliberation cycle may run inline. */
+	private volatile int inlineBudget = 0;
+	/** How long agents that wait for a message stay awake, or null if they go to sleep right away. */
+	private volatile WakePolicy wakePolicy = null;
+	/** The checkpoint that was taken last, or null if none was taken. */
+	private Checkpoint lastCheckpoint = null;
+	/** The interface for deliberation runnables. Shared by all runnables, as it holds no agent data. */
+	private final DeliberationRunnableToPlatformInterface runnableInterface;
 
 	/**
 	 * Sets the threadpool to a new FixedThreadPool with the given amount of execution threads. 
@@ -51,10 +93,18 @@ public final class Platform {
 	 * @param messenger Messenger that agents will use to communicate.
 	 */
 	private Platform(final int nrOfExecutionThreads, final Messenger messenger){
-		this.threadPool = Executors.newFixedThreadPool(nrOfExecutionThreads); 
+		this(Executors.newFixedThreadPool(nrOfExecutionThreads), messenger);
+	}
+	
+	/** Create a platform that executes its agents with the given thread pool. */
+	private Platform(final ExecutorService threadPool, final Messenger messenger){
+		this.threadPool = threadPool; 
 		this.messenger = messenger;
 		this.factories = new HashMap<>();
 		this.agentKillSwitches = new HashMap<>(); 
+		this.agentInterfaces = new HashMap<>();
+		this.interceptorDiagnostics = new InterceptorDiagnostics();
+		this.runnableInterface = new DeliberationRunnableToPlatformInterface(this);
 		this.factories.put(AgentBuilderFactory.AGENTTYPE, new AgentBuilderFactory()); 
 	}
 
@@ -75,6 +125,49 @@ public final class Platform {
 		} 
 		return new AdminToPlatformInterface(platform);
 	}
+	
+	/**
+	 * Create a new <code>Platform</code> that executes its agents with the given thread pool, e.g. a 
+	 * <code>WeightedFairScheduler</code> that divides the threads over scheduling classes. The platform 
+	 * shuts the pool down when it is halted.
+	 * @param threadPool The pool that runs the deliberation cycles of the agents.
+	 * @param messenger Messenger for agent to agent communication. Will be the default messenger in case the argument is null.
+	 * @return An interface to control the platform.
+	 */
+	public final static AdminToPlatformInterface newPlatform(final ExecutorService threadPool, final Messenger messenger){
+		if(threadPool == null) throw new IllegalArgumentException("Thread pool argument is null.");
+		return new AdminToPlatformInterface(new Platform(threadPool, messenger == null ? new DefaultMessenger() : messenger));
+	}
+	
+	/**
+	 * Create a new <code>Platform</code> that partitions its agents over shards, each of which is run by 
+	 * one dedicated thread. Agents are placed by their placement key (see <code>AgentBuilder.setPlacementKey</code>). 
+	 * Messages between agents of the same shard are delivered directly by the shard's thread, messages to 
+	 * other shards are handed to the receiving shard. See <code>ShardedScheduler</code>. A shard must never 
+	 * block its thread, hence inline delivery, wake policies and inboxes that block their senders are refused.
+	 * @param nrOfShards The number of shards, e.g. the number of processors.
+	 * @return An interface to control the platform.
+	 */
+	public final static AdminToPlatformInterface newShardedPlatform(final int nrOfShards){
+		ShardedScheduler scheduler = new ShardedScheduler(nrOfShards);
+		return new AdminToPlatformInterface(new Platform(scheduler, new ShardedMessenger(scheduler)));
+	}
+	
+	/**
+	 * Create a new <code>Platform</code> that replays the recorded order of a schedule trace. The 
+	 * platform uses a thread per runnable, as each runnable waits for its recorded turn, after which 
+	 * the agents run concurrently as they did in the recorded run. The program must create the same 
+	 * agents in the same order as in the recorded run, so that they get the same IDs.
+	 * @param replayer The replayer with the recorded trace.
+	 * @param messenger Messenger for agent to agent communication. Will be the default messenger in case the argument is null.
+	 * @return An interface to control the platform.
+	 */
+	public final static AdminToPlatformInterface newReplayPlatform(final ScheduleReplayer replayer, final Messenger messenger){
+		if(replayer == null) throw new IllegalArgumentException("Replayer argument is null.");
+		Platform platform = new Platform(Executors.newCachedThreadPool(), messenger == null ? new DefaultMessenger() : messenger);
+		platform.scheduleTrace = replayer;
+		return new AdminToPlatformInterface(platform);
+	}
 
 
 	////////////////////////////////////
@@ -130,23 +223,37 @@ public final class Platform {
 			}
 			if(factory == null) throw new AgentCreationFailedException("AgentType "+agentType+" has no component factory.");
 			else {
-				AgentRuntimeData agent = produceAgent(factory, contextArgs, planSchemeBaseArgs); 
-				AgentID agentID = agent.getAgentID(); 
-				if(agentID == null) throw new AgentCreationFailedException("Agent "+agent+" has no agent ID.");
-				else {
-					DeliberationRunnable deliberationRunnable = new DeliberationRunnable(new DeliberationRunnableToAgentInterface(agent), new DeliberationRunnableToPlatformInterface(this));
-					ExternalProcessToAgentInterface externalInterface = agent.produceAgentExternalInterface();
-					AgentKillSwitch killSwitch = new AgentKillSwitch(agent);
-					synchronized(this.agentKillSwitches){
-						this.agentKillSwitches.put(agentID, killSwitch);
-					} 
-					scheduleForExecution(deliberationRunnable);
-					return externalInterface;
-				} 
+				checkRuntimeSettings(factory);
+				AgentRuntimeData agent = produceAgent(AgentID.newInstance(), factory, contextArgs, planSchemeBaseArgs);
+				for(Plan plan : factory.produceInitialPlans()) agent.adoptPlan(plan);
+				return startAgent(agent, factory);
 			}
 		}
 	}
 	
+	/** Check that the platform supports the runtime settings of the factory's agents. The shards of a sharded platform 
+	 * have one thread each, which must never block; a sender that waits for room in a bounded inbox would block it. */
+	private final void checkRuntimeSettings(final AgentComponentFactory factory){
+		MailboxBound bound = factory.produceMailboxBound();
+		if(this.threadPool instanceof ShardedScheduler && bound != null && bound.getPolicy() == MailboxBound.Policy.BLOCK)
+			throw new IllegalStateException("A sharded platform cannot let senders block; bound the inbox with another policy.");
+	}
+	
+	/** Register the agent at the platform and schedule it for execution. The factory provides its runtime settings, such as its inbox bound. */
+	private final ExternalProcessToAgentInterface startAgent(final AgentRuntimeData agent, final AgentComponentFactory factory) throws AgentCreationFailedException {
+		AgentID agentID = agent.getAgentID(); 
+		if(agentID == null) throw new AgentCreationFailedException("Agent "+agent+" has no agent ID.");
+		DeliberationRunnable deliberationRunnable = new DeliberationRunnable(new DeliberationRunnableToAgentInterface(agent), this.runnableInterface, factory);
+		ExternalProcessToAgentInterface externalInterface = agent.produceAgentExternalInterface();
+		AgentKillSwitch killSwitch = new AgentKillSwitch(agent);
+		synchronized(this.agentKillSwitches){
+			this.agentKillSwitches.put(agentID, killSwitch);
+			this.agentInterfaces.put(agentID, new PlatformToAgentInterface(agent));
+		} 
+		scheduleForExecution(deliberationRunnable);
+		return externalInterface;
+	}
+	
 	/** 
 	 * Create a new agent and schedule it for execution, using an AgentBuilder.
 	 * @param builder The builder that is used to make the agent. 
@@ -172,23 +279,22 @@ public final class Platform {
 	
 
 	/**
-	 * Produce the data container that specifies the agent runtime configuration.  
+	 * Produce the data container that specifies the agent runtime configuration. The initial plans 
+	 * of the factory are not adopted by this method.
+	 * @param agentID The ID of the new agent.
 	 * @param componentFactory The factory for production.
 	 * @param contextArgs The arguments for building the context of the agent.
 	 * @param planSchemeBaseArgs The arguments for building the plan scheme base of the agent.
 	 * @return The data container that is used for the agent's execution.
 	 */ 
-	private final AgentRuntimeData produceAgent(final AgentComponentFactory componentFactory, final ContextArguments contextArgs, final PlanSchemeBaseArguments planSchemeBaseArgs){
+	private final AgentRuntimeData produceAgent(final AgentID agentID, final AgentComponentFactory componentFactory, final ContextArguments contextArgs, final PlanSchemeBaseArguments planSchemeBaseArgs){
 		// TODO: check if all products are nonnull
-		AgentID agentID = AgentID.newInstance();
 		ContextContainer contextContainer = componentFactory.produceContextContainer(contextArgs);
 		PlanSchemeBase planSchemeBase = componentFactory.producePlanSchemeBase(planSchemeBaseArgs);
-		List<DeliberationStep> deliberationCycle = new ArrayList<>();
-		AgentRuntimeData agent = new AgentRuntimeData(agentID, new AgentToMessengerInterface(this.messenger, agentID), contextContainer, planSchemeBase, deliberationCycle);
-		List<Plan> initialPlans = componentFactory.produceInitialPlans();
-		for(Plan plan : initialPlans) agent.adoptPlan(plan);
+		AgentRuntimeData agent = new AgentRuntimeData(agentID, new AgentToMessengerInterface(this.messenger, agentID), contextContainer, planSchemeBase);
 		DeliberationStepToAgentInterface deliberationInterface = agent.produceDeliberationInterface();
-		deliberationCycle.addAll(componentFactory.produceDeliberationCycle(deliberationInterface)); 
+		// The cycle is not copied, as factories may share a single cycle among all their agents
+		agent.setDeliberationCycle(componentFactory.produceDeliberationCycle(deliberationInterface)); 
 		return agent; 
 	}
 
@@ -199,19 +305,15 @@ public final class Platform {
 	/**
 	 * Will schedule the deliberation runnable (that executes an agent's deliberation cycle)
 	 * for execution in the thread pool. If the pool is already shut down, then the agent will
-	 * be killed.
+	 * be killed. The pool itself refuses runnables after its shutdown, hence no monitor is 
+	 * taken here; the pool must throw a <code>RejectedExecutionException</code> in that case.
 	 * @param deliberationRunnable Deliberation cycle to be executed sometime in the future.
 	 */
 	public final void scheduleForExecution(final DeliberationRunnable deliberationRunnable){
-		boolean scheduled = false;
-		synchronized(this.threadPool){
-			if(!this.threadPool.isShutdown()){
-				scheduled = true;
-				this.threadPool.execute(deliberationRunnable);
-			}
-		}
-		// If the thread pool was already shut down, then kill the agent
-		if(!scheduled){
+		try {
+			this.threadPool.execute(deliberationRunnable);
+		} catch(RejectedExecutionException e){
+			// If the thread pool was already shut down, then kill the agent
 			killAgent(deliberationRunnable.getAgentID());
 		}
 	}
@@ -225,6 +327,8 @@ public final class Platform {
 		AgentKillSwitch killSwitch;
 		synchronized(this.agentKillSwitches){
 			killSwitch = this.agentKillSwitches.remove(agentID);
+			PlatformToAgentInterface agent = this.agentInterfaces.remove(agentID);
+			if(agent != null && this.threadPool instanceof ShardedScheduler) forgetIfLast((ShardedScheduler) this.threadPool, agent.getPlacementKey());
 		}
 		if(killSwitch != null){// It's okay if the switch is null. In that case the agent was already killed in the past.
 			killSwitch.killAgent(); 
@@ -232,14 +336,381 @@ public final class Platform {
 	}
 	 
 
+	/**
+	 * Give the sender of a message that was dropped from a full inbox a <code>MessageRejectedTrigger</code>. 
+	 * Nothing happens if the sender is not an agent of this platform, e.g. because it died.
+	 * @param sender The agent that sent the message.
+	 * @param receiver The agent whose inbox dropped the message.
+	 * @param message The dropped message.
+	 */
+	public final void messageDropped(final AgentID sender, final AgentID receiver, final Trigger message){
+		PlatformToAgentInterface agent;
+		synchronized(this.agentKillSwitches){
+			agent = this.agentInterfaces.get(sender);
+		}
+		if(agent != null) agent.messageDropped(receiver, message);
+	}
+
+	/** Remove the route of a moved placement key if no agent with the key remains, whilst holding the lock of the 
+	 * agents. Only keys that were moved are checked, which is a small number. */
+	private final void forgetIfLast(final ShardedScheduler scheduler, final Object placementKey){
+		if(!scheduler.isMoved(placementKey)) return;
+		for(PlatformToAgentInterface other : this.agentInterfaces.values())
+			if(placementKey.equals(other.getPlacementKey())) return;
+		scheduler.forgetPlacementKey(placementKey);
+	}
+
 	/**
 	 * Will cause all scheduled deliberation cycles to execute, but no more new cycles
 	 * are allowed. Those cycles which want to execute after this call will have their
 	 * agent be killed.
 	 */
 	public final void haltPlatform(){
-		synchronized(this.threadPool){ // Synchronized, otherwise an agent could be scheduled after a shutdown
+		synchronized(this.threadPool){ // Synchronized with the scheduling of alarms
 			this.threadPool.shutdown();
+			if(this.timer != null) this.timer.shutdownNow();
 		}
 	} 
+	
+	/**
+	 * Run the alarm after the given delay on the platform's timer thread. Alarms should be short, 
+	 * typically they only wake up an agent. If the platform is halted, then the alarm is ignored.
+	 * @param delayMillis Delay in milliseconds.
+	 * @param alarm Code to run after the delay.
+	 * @return The future with which the alarm can be cancelled, or null if it was ignored.
+	 */
+	public final ScheduledFuture<?> setAlarm(final long delayMillis, final Runnable alarm){
+		synchronized(this.threadPool){
+			if(this.threadPool.isShutdown()) return null;
+			return getTimer().schedule(alarm, delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/** Obtain the timer, create it if it does not exist yet. Must be called while holding the thread pool's monitor. 
+	 * Cancelled alarms are removed from the timer right away, so that they do not pile up until their delay passed. */
+	private final ScheduledExecutorService getTimer(){
+		if(this.timer == null){
+			ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, (Runnable runnable) -> {
+				Thread thread = new Thread(runnable, "oo2apl-timer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			timer.setRemoveOnCancelPolicy(true);
+			this.timer = timer;
+		}
+		return this.timer;
+	}
+	
+	//////////////////////////////////
+	//// PASSIVATION FUNCTIONALITY ///
+	//////////////////////////////////
+	
+	/**
+	 * Passivate all agents that have been sleeping for at least the given time. The passivatable 
+	 * contexts of those agents are moved to the store, and are restored when the agent is woken up.
+	 * @param store Store that holds the state of passivated agents.
+	 * @param idleMillis Minimal time that an agent must have been sleeping.
+	 * @return The number of agents that were passivated.
+	 */
+	public final int passivateIdleAgents(final PassivationStore store, final long idleMillis){
+		List<PlatformToAgentInterface> agents;
+		synchronized(this.agentKillSwitches){
+			agents = new ArrayList<>(this.agentInterfaces.values());
+		}
+		int passivated = 0;
+		for(PlatformToAgentInterface agent : agents)
+			if(agent.passivateIfIdle(store, idleMillis)) passivated++;
+		return passivated;
+	}
+	
+	/**
+	 * Periodically passivate the agents that have been sleeping for at least the given time. The 
+	 * sweeps run on the platform's timer thread until the platform is halted.
+	 * @param store Store that holds the state of passivated agents.
+	 * @param idleMillis Minimal time that an agent must have been sleeping.
+	 * @param periodMillis Time between two sweeps.
+	 */
+	public final void enablePassivation(final PassivationStore store, final long idleMillis, final long periodMillis){
+		synchronized(this.threadPool){
+			if(this.threadPool.isShutdown()) return;
+			getTimer().scheduleWithFixedDelay(() -> passivateIdleAgents(store, idleMillis), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Periodically move agents between the shards of a sharded platform to even out their load. The 
+	 * scheduler measures the time that the agents of each placement key run and the messages that they 
+	 * receive. Agents move at the end of a deliberation cycle, and the messages of each sender keep their 
+	 * order. See <code>ShardedScheduler.enableRebalancing</code>.
+	 * @param periodMillis Time between two rebalancings.
+	 * @param tolerance Fraction of the average load by which shards may differ, e.g. 0.25.
+	 */
+	public final void enableRebalancing(final long periodMillis, final double tolerance){
+		if(!(this.threadPool instanceof ShardedScheduler)) throw new IllegalStateException("Only a sharded platform can be rebalanced.");
+		((ShardedScheduler) this.threadPool).enableRebalancing(periodMillis, tolerance);
+	}
+	
+	/**
+	 * Obtain the loads of the placement keys of a sharded platform that were measured during the last 
+	 * rebalancing period, busiest first.
+	 * @return The loads, empty if rebalancing is not enabled.
+	 */
+	public final List<ShardedScheduler.Load> getShardLoads(){
+		if(!(this.threadPool instanceof ShardedScheduler)) throw new IllegalStateException("Only a sharded platform measures loads.");
+		return ((ShardedScheduler) this.threadPool).getLoads();
+	}
+	
+	/////////////////////////////////
+	//// CHECKPOINT FUNCTIONALITY ///
+	/////////////////////////////////
+	
+	/**
+	 * Start a checkpoint of all agents on the platform. The platform keeps running: each agent writes 
+	 * its snapshot at the boundary of its current deliberation cycle, or immediately if it sleeps. The 
+	 * snapshots are written in parallel to the memory-mapped snapshot file. Note that the snapshots 
+	 * are not a globally consistent cut; a message that is sent between the snapshots of its sender and 
+	 * its receiver may be restored twice or not at all.
+	 * @param file The snapshot file. If it exists, then the snapshots are appended to it.
+	 * @return The checkpoint, on which can be waited for the snapshots to be written.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public final synchronized Checkpoint checkpoint(final Path file) throws IOException {
+		if(this.lastCheckpoint != null && !this.lastCheckpoint.isComplete())
+			throw new IllegalStateException("The previous checkpoint is still in progress.");
+		List<PlatformToAgentInterface> agents;
+		synchronized(this.agentKillSwitches){
+			agents = new ArrayList<>(this.agentInterfaces.values());
+		}
+		Checkpoint checkpoint = new Checkpoint(new SnapshotFile(file), agents.size());
+		this.lastCheckpoint = checkpoint;
+		agents.parallelStream().forEach((PlatformToAgentInterface agent) -> agent.requestCheckpoint(checkpoint));
+		checkpoint.allAgentsRequested();
+		return checkpoint;
+	}
+	
+	/**
+	 * Restore agents from a snapshot file and schedule them for execution. Each agent is produced by the 
+	 * factory of the given type, after which its snapshot is loaded, i.e. its passivatable contexts, its 
+	 * goals and its pending triggers. The agents keep their original IDs. The initial plans of the factory 
+	 * are not adopted, as the agents resume rather than start. 
+	 * @param file The snapshot file.
+	 * @param agentType The type of the agents in the file.
+	 * @param contextArgs The arguments for building the contexts of the agents.
+	 * @param planSchemeBaseArgs The arguments for building the plan scheme bases of the agents.
+	 * @return The interfaces of the restored agents.
+	 * @throws IOException If the file cannot be read.
+	 * @throws AgentCreationFailedException If there is no factory for the type, or if an agent in the file already runs on this platform.
+	 */
+	public final List<ExternalProcessToAgentInterface> restoreAgents(final Path file, final AgentType agentType, final ContextArguments contextArgs, 
+			final PlanSchemeBaseArguments planSchemeBaseArgs) throws IOException, AgentCreationFailedException {
+		if(agentType == null) throw new IllegalArgumentException("Agent type argument is null.");
+		AgentComponentFactory factory;
+		synchronized(this.factories){
+			factory = this.factories.get(agentType);
+		}
+		if(factory == null) throw new AgentCreationFailedException("AgentType "+agentType+" has no component factory.");
+		return restoreAgents(file, factory, contextArgs, planSchemeBaseArgs);
+	}
+	
+	/**
+	 * Restore agents from a snapshot file, using an AgentBuilder to produce the agents. Each agent gets its 
+	 * own context container. See also {@link #restoreAgents(Path, AgentType, ContextArguments, PlanSchemeBaseArguments)}.
+	 * @param file The snapshot file.
+	 * @param builder The builder that is used to make the agents.
+	 * @return The interfaces of the restored agents.
+	 * @throws IOException If the file cannot be read.
+	 * @throws AgentCreationFailedException If an agent in the file already runs on this platform.
+	 */
+	public final List<ExternalProcessToAgentInterface> restoreAgents(final Path file, final AgentBuilder builder) throws IOException, AgentCreationFailedException {
+		return restoreAgents(file, new AgentBuilderFactory(builder), null, null);
+	}
+	
+	/** Produce the agents for the snapshots of a file and start them. */
+	private final List<ExternalProcessToAgentInterface> restoreAgents(final Path file, final AgentComponentFactory factory, final ContextArguments contextArgs, 
+			final PlanSchemeBaseArguments planSchemeBaseArgs) throws IOException, AgentCreationFailedException {
+		List<AgentSnapshot> snapshots = SnapshotFile.read(file);
+		synchronized(this.agentKillSwitches){ // Checked upfront as registering a restored agent at the messenger would take over the running agent's address
+			for(AgentSnapshot snapshot : snapshots)
+				if(this.agentKillSwitches.containsKey(snapshot.getAgentID()))
+					throw new AgentCreationFailedException("Agent "+snapshot.getAgentID()+" cannot be restored as it is still running.");
+		}
+		checkRuntimeSettings(factory);
+		List<ExternalProcessToAgentInterface> agents = new ArrayList<>(snapshots.size());
+		for(AgentSnapshot snapshot : snapshots){
+			AgentRuntimeData agent = produceAgent(snapshot.getAgentID(), factory, contextArgs, planSchemeBaseArgs);
+			agent.restoreSnapshot(snapshot);
+			agents.add(startAgent(agent, factory));
+		}
+		return agents;
+	}
+	
+	//////////////////////////////
+	//// JOURNAL FUNCTIONALITY ///
+	//////////////////////////////
+	
+	/**
+	 * Start recording all external triggers, messages and internal triggers that enter the agents of 
+	 * this platform in the given journal. Replaces the current journal, if any, without closing it.
+	 * @param journal The journal to record the triggers in.
+	 */
+	public final void enableJournal(final TriggerJournal journal){
+		if(journal == null) throw new IllegalArgumentException("Journal argument is null.");
+		this.journal = journal;
+	}
+	
+	/**
+	 * Stop recording the triggers that enter the agents. The journal is not closed, as agents may 
+	 * still be appending to it; flush and close it once they are done. Entries that are appended 
+	 * after closing are counted by the journal's <code>getDroppedEntries</code>.
+	 * @return The journal that was used, or null if there was none.
+	 */
+	public final TriggerJournal disableJournal(){
+		TriggerJournal journal = this.journal;
+		this.journal = null;
+		return journal;
+	}
+	
+	/** Obtain the journal, or null if the triggers are not recorded. */
+	public final TriggerJournal getJournal(){ return this.journal; }
+	
+	/**
+	 * Feed the entries of a journal to the agents of this platform, as fast as the file can be read. 
+	 * The entries are inserted in the agents in their original order and are not journaled again. 
+	 * Typically the agents are first restored from a checkpoint, after which the journal that was 
+	 * started upon that checkpoint is replayed. As the agents run during the replay they produce their 
+	 * own internal triggers and messages anew, hence usually only external triggers are replayed, 
+	 * unless the agents that produced the other triggers are not part of the replay.
+	 * @param file The journal file.
+	 * @param codec The codec with which the journal was written.
+	 * @param kinds The kinds of triggers to replay.
+	 * @param agents Maps the agent serial numbers in the journal to agents of this platform. If null, 
+	 * then entries go to the agent with the same serial number, e.g. agents that are restored from a checkpoint.
+	 * @return The number of replayed entries. Entries for unknown agents are skipped.
+	 * @throws IOException If the journal cannot be read.
+	 */
+	public final long replayJournal(final Path file, final TriggerCodec codec, final Set<TriggerJournal.Kind> kinds, final Map<Long, AgentID> agents) throws IOException {
+		Map<Long, PlatformToAgentInterface> targets = new HashMap<>();
+		synchronized(this.agentKillSwitches){
+			if(agents == null){
+				for(PlatformToAgentInterface agent : this.agentInterfaces.values()) 
+					targets.put(agent.getAgentID().getSerial(), agent);
+			} else {
+				for(Map.Entry<Long, AgentID> agent : agents.entrySet()){
+					PlatformToAgentInterface target = this.agentInterfaces.get(agent.getValue());
+					if(target != null) targets.put(agent.getKey(), target);
+				}
+			}
+		}
+		long[] replayed = new long[1];
+		JournalReader.read(file, codec, (long agentSerial, TriggerJournal.Kind kind, Trigger trigger) -> {
+			if(!kinds.contains(kind)) return;
+			PlatformToAgentInterface target = targets.get(agentSerial);
+			if(target != null){
+				target.replayTrigger(kind, trigger);
+				replayed[0]++;
+			}
+		});
+		return replayed[0];
+	}
+	
+	/**
+	 * Start recording the order in which the deliberation runnables start and in which messages are 
+	 * delivered. To be able to replay the trace, start recording before the first agent is created.
+	 * @param recorder The recorder that writes the trace.
+	 */
+	public final void startScheduleRecording(final ScheduleRecorder recorder){
+		if(recorder == null) throw new IllegalArgumentException("Recorder argument is null.");
+		if(this.scheduleTrace instanceof ScheduleReplayer) throw new IllegalStateException("A replaying platform cannot record its schedule.");
+		this.scheduleTrace = recorder;
+	}
+	
+	/**
+	 * Stop recording the schedule. The recorder is not closed, as running agents may still report to it.
+	 * @return The recorder that was used, or null if there was none.
+	 */
+	public final ScheduleRecorder stopScheduleRecording(){
+		ScheduleTrace trace = this.scheduleTrace;
+		if(!(trace instanceof ScheduleRecorder)) return null;
+		this.scheduleTrace = null;
+		return (ScheduleRecorder) trace;
+	}
+	
+	/** Obtain the trace that records or enforces the schedule, or null if there is none. */
+	public final ScheduleTrace getScheduleTrace(){ return this.scheduleTrace; }
+	
+	/////////////////////////////////////
+	//// INLINE DELIVERY FUNCTIONALITY ////
+	/////////////////////////////////////
+	
+	/**
+	 * Let agents that receive a message while they sleep run their next deliberation cycle immediately 
+	 * on the thread of the sending agent, instead of waiting at the back of the thread pool's queue. This 
+	 * cuts the latency of request/response conversations. The sender continues after the receiver's cycle. 
+	 * Only messages that are sent from within a deliberation cycle are handled inline, and not while the 
+	 * schedule is traced. A sharded platform refuses inline delivery. 
+	 * @param maxDepth The maximal nesting of inline cycles, e.g. 1 if an agent that runs inline cannot run 
+	 * another agent inline. 0 disables inline delivery.
+	 * @param maxPerCycle The maximal number of agents that a deliberation cycle, including its nested 
+	 * inline cycles, runs inline, so that a sender that messages many agents does not run them all itself.
+	 */
+	public final void setInlineDelivery(final int maxDepth, final int maxPerCycle){
+		if(maxDepth < 0 || maxPerCycle < 0) throw new IllegalArgumentException("Limits cannot be negative.");
+		if(this.threadPool instanceof ShardedScheduler && maxDepth > 0 && maxPerCycle > 0) 
+			throw new IllegalStateException("A sharded platform cannot run receivers on the shard of their sender.");
+		this.inlineBudget = maxPerCycle;
+		this.inlineDepth = maxPerCycle == 0 ? 0 : maxDepth;
+	}
+	
+	/** Obtain the maximal nesting of inline cycles; 0 if inline delivery is disabled. */
+	public final int getInlineDepth(){ return this.inlineDepth; }
+	
+	/** Obtain the maximal number of agents that a deliberation cycle runs inline. */
+	public final int getInlineBudget(){ return this.inlineBudget; }
+	
+	/**
+	 * Let agents that wait for a message stay awake for a short, adaptive window after they run out of work, 
+	 * so that a quick reply does not require a reschedule through the thread pool. A sharded platform refuses 
+	 * wake policies. There is no wake policy by default; see <code>WakePolicy</code> on measuring its effect. 
+	 * @param wakePolicy The policy, or null to let agents go to sleep right away.
+	 */
+	public final void setWakePolicy(final WakePolicy wakePolicy){
+		if(this.threadPool instanceof ShardedScheduler && wakePolicy != null) 
+			throw new IllegalStateException("A sharded platform cannot let agents stay awake, as that would block their shard.");
+		this.wakePolicy = wakePolicy;
+	}
+	
+	/** Obtain the wake policy, or null if agents go to sleep right away. */
+	public final WakePolicy getWakePolicy(){ return this.wakePolicy; }
+	
+	//////////////////////////////////
+	//// DIAGNOSTICS FUNCTIONALITY ///
+	//////////////////////////////////
+	
+	/**
+	 * Sample the current interceptor count of each agent and return the diagnostics that hold 
+	 * the sampled history. Call this periodically to detect agents that leak interceptors.
+	 * @return The interceptor diagnostics of this platform.
+	 */
+	public final InterceptorDiagnostics sampleInterceptorCounts(){
+		List<PlatformToAgentInterface> agents;
+		synchronized(this.agentKillSwitches){
+			agents = new ArrayList<>(this.agentInterfaces.values());
+		}
+		this.interceptorDiagnostics.sample(agents);
+		return this.interceptorDiagnostics;
+	}
+	
+	/** Obtain for each agent the number of messages and external triggers that wait in its inbox. Each depth is 
+	 * read under the monitor of its agent, but the agents are sampled one after another, so the depths are not 
+	 * taken at a single moment. */
+	public final Map<AgentID, Integer> getMailboxDepths(){
+		List<PlatformToAgentInterface> agents;
+		synchronized(this.agentKillSwitches){
+			agents = new ArrayList<>(this.agentInterfaces.values());
+		}
+		Map<AgentID, Integer> depths = new HashMap<>();
+		for(PlatformToAgentInterface agent : agents)
+			depths.put(agent.getAgentID(), agent.getMailboxDepth());
+		return depths;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,542 @@
+package oo2apl.platform;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import oo2apl.deliberation.DeliberationRunnable;
+/**
+ * A thread pool that partitions the agents over shards, each of which is run by a single dedicated 
+ * thread. An agent always runs on the shard of its placement key (by default its id), hence the 
+ * monitors of agents are only contended by threads outside their shard. Runnables that a shard 
+ * schedules for itself, e.g. when an agent wakes up another agent of the same shard, go to a queue 
+ * that only the shard's thread uses, without any synchronization. Runnables from other threads go 
+ * through a ring buffer for many producers and a single consumer. 
+ * 
+ * Use it with <code>Platform.newShardedPlatform</code>, whose messenger delivers messages between 
+ * agents of the same shard directly and hands messages for other shards to the receiving shard, so 
+ * that they are delivered by the receiver's thread. Give chatty agents the same placement key so 
+ * that they share a shard. Runnables that are not deliberation runnables are spread round-robin. 
+ * A shard runs its runnables one at a time, hence a blocking plan blocks the whole shard.
+ * 
+ * As hot agents may end up on the same shard, the scheduler can rebalance itself. It then measures 
+ * for each placement key the time that its agents run and the messages that they receive, and 
+ * periodically moves the busiest placement keys that fit from the most to the least loaded shard. 
+ * An agent moves at the end of its current deliberation cycle. While a placement key moves, the new 
+ * shard holds back the messages for it until the old shard has delivered all messages that were 
+ * handed to it before the move, so that the messages of each sender still arrive in order. The 
+ * route of a moved key is removed when the key moves back to its home shard, and when the platform 
+ * reports that the last agent with the key died. 
+ * 
+ * @author Bas Testerink
+ */
+public final class ShardedScheduler extends AbstractExecutorService {
+	/** The capacity of the ring of each shard. */
+	private static final int RING_CAPACITY = 1024;
+	/** The shards. */
+	private final Shard[] shards;
+	/** For spreading the runnables that have no placement key. */
+	private final AtomicInteger roundRobin;
+	/** The shards of the placement keys that were moved by the rebalancer and did not return to their home shard. */
+	private final ConcurrentHashMap<Object, Route> routes;
+	/** The number of threads outside the shards that are handing over a delivery, per phase of the barrier. */
+	private final AtomicInteger[] foreignSenders;
+	/** The phase in which threads outside the shards register their hand-overs. Flipped by each barrier. */
+	private volatile int senderPhase = 0;
+	/** The rebalancer while it waits in a barrier for the hand-overs of the previous phase, otherwise null. */
+	private volatile Thread barrierWaiter = null;
+	/** The number of placement keys that were moved. */
+	private final AtomicLong migrations;
+	/** The loads that were measured in the last rebalancing period. */
+	private volatile List<Load> loads = Collections.emptyList();
+	/** When the usage was last collected, in nanoseconds. */
+	private long lastCollection;
+	/** The thread that rebalances the shards, if enabled. */
+	private Thread rebalancer = null;
+	private volatile boolean shutdown = false, stopNow = false, measuring = false;
+	
+	/** Create a scheduler with the given number of shards, e.g. the number of processors. */
+	public ShardedScheduler(final int nrOfShards){
+		if(nrOfShards < 1) throw new IllegalArgumentException("Number of shards must be positive.");
+		this.shards = new Shard[nrOfShards];
+		this.roundRobin = new AtomicInteger();
+		this.routes = new ConcurrentHashMap<>();
+		this.foreignSenders = new AtomicInteger[]{ new AtomicInteger(), new AtomicInteger() };
+		this.migrations = new AtomicLong();
+		for(int i = 0; i < nrOfShards; i++) this.shards[i] = new Shard(i);
+		for(Shard shard : this.shards) shard.startThread();
+	}
+	
+	/** Obtain the number of shards. */
+	public final int getNrOfShards(){ return this.shards.length; }
+	
+	/** Obtain the shard on which agents with the given placement key run. */
+	public final int getShard(final Object placementKey){
+		Route route = this.routes.get(placementKey);
+		return route == null ? getHomeShard(placementKey) : route.shard;
+	}
+	
+	/** Obtain the shard of a placement key that was never moved. */
+	private final int getHomeShard(final Object placementKey){
+		int hash = placementKey.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), this.shards.length);
+	}
+	
+	/** Obtain the shard of the current thread, or -1 if the thread is not a shard of this scheduler. */
+	public final int getCurrentShard(){
+		Thread thread = Thread.currentThread();
+		return thread instanceof ShardThread && ((ShardThread) thread).shard.getScheduler() == this ? ((ShardThread) thread).shard.index : -1;
+	}
+	
+	/** Run a deliberation runnable on the shard of its agent; other runnables on the next shard in turn. */
+	public final void execute(final Runnable runnable){
+		int shard = runnable instanceof DeliberationRunnable ? getShard(((DeliberationRunnable) runnable).getPlacementKey()) : 
+			Math.floorMod(this.roundRobin.getAndIncrement(), this.shards.length);
+		execute(shard, runnable);
+	}
+	
+	/** Run a runnable on the given shard. */
+	public final void execute(final int shard, final Runnable runnable){
+		if(this.shutdown) throw new RejectedExecutionException("The scheduler is shut down.");
+		Shard target = this.shards[shard];
+		if(Thread.currentThread() == target.thread) target.local.addLast(runnable);
+		else {
+			target.remote.offer(runnable);
+			if(target.parked) LockSupport.unpark(target.thread);
+		}
+	}
+	
+	/**
+	 * Run a delivery to an agent with the given placement key on the shard of that key: directly if the 
+	 * current thread is that shard, otherwise by handing it to the shard. Deliveries to a placement key 
+	 * that is being moved wait until the old shard has run the deliveries that were handed to it before. 
+	 * Hence, the deliveries of each thread are run in the order in which they were made.
+	 */
+	public final void deliver(final Object placementKey, final Runnable delivery){
+		int current = getCurrentShard();
+		int phase = current < 0 ? registerForeignSender() : 0; // So that a move can wait until this hand-over is done
+		try {
+			Route route = this.routes.get(placementKey);
+			int shard = route == null ? getHomeShard(placementKey) : route.shard;
+			if(shard != current) execute(shard, new Delivery(placementKey, delivery));
+			else {
+				if(route != null && route.moving) route.held.add(delivery);
+				else delivery.run();
+				if(this.measuring) this.shards[current].getUsage(placementKey).messages++;
+			}
+		} finally {
+			if(current < 0) deregisterForeignSender(phase);
+		}
+	}
+	
+	/** Count a hand-over by a thread outside the shards in the current phase. The phase is checked again after 
+	 * counting, so that a barrier that flipped the phase in between does not miss the hand-over. */
+	private final int registerForeignSender(){
+		while(true){
+			int phase = this.senderPhase;
+			this.foreignSenders[phase].incrementAndGet();
+			if(this.senderPhase == phase) return phase;
+			deregisterForeignSender(phase);
+		}
+	}
+	
+	/** End a hand-over and wake the rebalancer if it waits for the last hand-over of the phase. */
+	private final void deregisterForeignSender(final int phase){
+		if(this.foreignSenders[phase].decrementAndGet() == 0){
+			Thread waiter = this.barrierWaiter;
+			if(waiter != null) LockSupport.unpark(waiter);
+		}
+	}
+	
+	/**
+	 * Measure the load of the placement keys and periodically move placement keys from the most loaded 
+	 * shard to the least loaded shard. Keys are only moved if the difference between those shards exceeds 
+	 * the given fraction of the average load. The rebalancing runs on its own thread until the scheduler 
+	 * is shut down.
+	 * @param periodMillis Time between two rebalancings; the load is measured over this period.
+	 * @param tolerance Fraction of the average load by which shards may differ, e.g. 0.25.
+	 */
+	public final synchronized void enableRebalancing(final long periodMillis, final double tolerance){
+		if(periodMillis < 1 || tolerance < 0) throw new IllegalArgumentException("Period must be positive and tolerance cannot be negative.");
+		if(this.rebalancer != null) throw new IllegalStateException("Rebalancing is already enabled.");
+		if(this.shutdown) return;
+		this.measuring = true;
+		this.lastCollection = System.nanoTime();
+		this.rebalancer = new Thread(() -> {
+			try {
+				while(!this.shutdown){
+					Thread.sleep(periodMillis);
+					rebalance(tolerance);
+				}
+			} catch(InterruptedException | RejectedExecutionException e){
+				// Shut down
+			}
+		}, "oo2apl-rebalancer");
+		this.rebalancer.setDaemon(true);
+		this.rebalancer.start();
+	}
+	
+	/** Obtain the loads of the placement keys that ran during the last rebalancing period, busiest first. Empty if 
+	 * rebalancing is not enabled. */
+	public final List<Load> getLoads(){ return this.loads; }
+	
+	/** Obtain the number of times that a placement key was moved to another shard. */
+	public final long getMigrations(){ return this.migrations.get(); }
+	
+	/** Collect the loads of the last period and move placement keys from the busiest to the idlest shard. */
+	private final void rebalance(final double tolerance) throws InterruptedException {
+		// Collect the usage that the shards measured
+		Map<Object, Load> perKey = new HashMap<>();
+		List<Map<Object, Usage>> collected = barrier(true);
+		long now = System.nanoTime(), periodNanos = now - this.lastCollection;
+		this.lastCollection = now;
+		for(Map<Object, Usage> usages : collected){
+			for(Map.Entry<Object, Usage> entry : usages.entrySet()){
+				Load load = perKey.get(entry.getKey());
+				if(load == null){
+					load = new Load(entry.getKey(), periodNanos);
+					perKey.put(entry.getKey(), load);
+				}
+				load.add(entry.getValue());
+			}
+		}
+		List<Load> loads = new ArrayList<>(perKey.values());
+		loads.sort((a, b) -> Long.compare(b.busyNanos, a.busyNanos));
+		long[] shardLoads = new long[this.shards.length];
+		long total = 0;
+		for(Load load : loads){
+			load.shard = getShard(load.placementKey);
+			shardLoads[load.shard] += load.busyNanos;
+			total += load.busyNanos;
+		}
+		this.loads = Collections.unmodifiableList(loads);
+		
+		// Greedily move keys from the busiest to the idlest shard, at most as many keys as there are shards
+		double allowed = tolerance * total / this.shards.length;
+		for(int moves = 0; moves < this.shards.length; moves++){
+			int busiest = 0, idlest = 0;
+			for(int i = 1; i < shardLoads.length; i++){
+				if(shardLoads[i] > shardLoads[busiest]) busiest = i;
+				if(shardLoads[i] < shardLoads[idlest]) idlest = i;
+			}
+			long difference = shardLoads[busiest] - shardLoads[idlest];
+			if(difference == 0 || difference <= allowed) return;
+			// The key whose load is closest to half the difference; moving a key with at least the difference makes it worse
+			Load best = null;
+			for(Load load : loads)
+				if(load.shard == busiest && load.busyNanos > 0 && load.busyNanos < difference && 
+						(best == null || Math.abs(difference - 2 * load.busyNanos) < Math.abs(difference - 2 * best.busyNanos))) 
+					best = load;
+			if(best == null) return;
+			migrate(best.placementKey, busiest, idlest);
+			best.shard = idlest;
+			shardLoads[busiest] -= best.busyNanos;
+			shardLoads[idlest] += best.busyNanos;
+		}
+	}
+	
+	/** Move a placement key to another shard. New deliveries go to the new shard, which holds them until the old 
+	 * shard has run all deliveries that were handed to it before. A key that returns to its home shard needs no 
+	 * route once the held deliveries are released. */
+	private final void migrate(final Object placementKey, final int from, final int to) throws InterruptedException {
+		Route route = new Route(to);
+		this.routes.put(placementKey, route);
+		barrier(false); // Afterwards, each delivery that was routed to the old shard is in the queue of the old shard
+		CountDownLatch released = new CountDownLatch(1);
+		boolean home = to == getHomeShard(placementKey);
+		execute(from, () -> execute(to, () -> { // Runs after the old shard ran the deliveries in its queue
+			try {
+				route.release(this.shards[to].local);
+			} finally {
+				if(home) this.routes.remove(placementKey, route);
+				released.countDown();
+			}
+		}));
+		released.await();
+		this.migrations.incrementAndGet();
+	}
+	
+	/** Remove the route of a placement key, as no agent with the key remains. Deliveries that the old shard still 
+	 * holds are released as usual. Has no effect on keys that were never moved. */
+	public final void forgetPlacementKey(final Object placementKey){
+		this.routes.remove(placementKey);
+	}
+	
+	/** Check whether a placement key was moved away from its home shard. */
+	public final boolean isMoved(final Object placementKey){
+		return this.routes.containsKey(placementKey);
+	}
+	
+	/** Let each shard finish its current runnable and wait until the threads outside the shards that started a 
+	 * hand-over before the barrier are done. Threads that start a hand-over later already see the current routes. 
+	 * The waiting thread parks until the last of those hand-overs ends. If requested, the shards hand over and 
+	 * reset their measured usage. Only called by the rebalancer. */
+	private final List<Map<Object, Usage>> barrier(final boolean collect) throws InterruptedException {
+		List<Map<Object, Usage>> usages = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch passed = new CountDownLatch(this.shards.length);
+		for(Shard shard : this.shards){
+			execute(shard.index, () -> {
+				if(collect){
+					usages.add(shard.usages);
+					shard.usages = new HashMap<>();
+				}
+				passed.countDown();
+			});
+		}
+		passed.await();
+		AtomicInteger previous = this.foreignSenders[this.senderPhase];
+		this.senderPhase ^= 1; // Only the rebalancer writes the phase
+		this.barrierWaiter = Thread.currentThread(); // Published before the count is read, so that the last sender either unparks or is seen
+		try {
+			while(previous.get() != 0){
+				LockSupport.park(this);
+				if(Thread.interrupted()) throw new InterruptedException();
+			}
+		} finally {
+			this.barrierWaiter = null;
+		}
+		return usages;
+	}
+	
+	public final void shutdown(){
+		this.shutdown = true;
+		synchronized(this){
+			if(this.rebalancer != null) this.rebalancer.interrupt();
+		}
+		for(Shard shard : this.shards) LockSupport.unpark(shard.thread);
+	}
+	
+	/** Shut down and let the shards drop the runnables that they did not run yet. Returns an empty list, as the 
+	 * queues of the shards can only be accessed by their own threads. */
+	public final List<Runnable> shutdownNow(){
+		this.stopNow = true;
+		shutdown();
+		for(Shard shard : this.shards) shard.thread.interrupt();
+		return Collections.emptyList();
+	}
+	
+	public final boolean isShutdown(){ return this.shutdown; }
+	
+	public final boolean isTerminated(){
+		if(!this.shutdown) return false;
+		for(Shard shard : this.shards) if(shard.thread.isAlive()) return false;
+		return true;
+	}
+	
+	public final boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for(Shard shard : this.shards){
+			Thread thread;
+			do { // A thread that ended by an error is succeeded before it ends
+				thread = shard.thread;
+				long remaining = deadline - System.nanoTime();
+				if(remaining > 0) TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+			} while(thread != shard.thread && deadline - System.nanoTime() > 0);
+			if(shard.thread.isAlive()) return false;
+		}
+		return true;
+	}
+	
+	/** A shard and its queues. Its runnables are run by one thread at a time; if an error ends that thread, then 
+	 * a successor thread continues with the queues, so that the agents of the shard keep running. */
+	private final class Shard implements Runnable {
+		private final int index;
+		/** The thread that runs the shard. */
+		private volatile ShardThread thread;
+		/** Runnables that the shard scheduled itself. Only used by the shard's thread. */
+		private final ArrayDeque<Runnable> local;
+		/** Runnables from other threads. */
+		private final MpscRing<Runnable> remote;
+		/** Whether the thread is about to park or parked. */
+		private volatile boolean parked = false;
+		/** The usage per placement key since the last rebalancing. Only used by the shard's thread. */
+		private HashMap<Object, Usage> usages = new HashMap<>();
+		
+		private Shard(final int index){
+			this.index = index;
+			this.local = new ArrayDeque<>();
+			this.remote = new MpscRing<>(RING_CAPACITY);
+		}
+		
+		private final ShardedScheduler getScheduler(){ return ShardedScheduler.this; }
+		
+		/** Start a thread for the shard. The thread is published before it runs, so producers unpark the right thread. */
+		private final void startThread(){
+			ShardThread thread = new ShardThread(this);
+			this.thread = thread;
+			thread.start();
+		}
+		
+		/** Run the runnables in order of arrival; the remote ones are moved to the local queue before each run. An 
+		 * error ends the thread after a successor is started. */
+		public final void run(){
+			boolean ended = false;
+			try {
+				while(!ShardedScheduler.this.stopNow){
+					Runnable runnable;
+					while((runnable = this.remote.poll()) != null) this.local.addLast(runnable);
+					runnable = this.local.pollFirst();
+					if(runnable == null){
+						if(ShardedScheduler.this.shutdown && this.remote.isEmpty()) break;
+						this.parked = true; // Written before the ring is checked, so that a producer either sees it or the check sees its runnable
+						if(this.remote.isEmpty() && !ShardedScheduler.this.shutdown) LockSupport.park(this);
+						this.parked = false;
+						continue;
+					}
+					try {
+						if(ShardedScheduler.this.measuring) runMeasured(runnable);
+						else runnable.run();
+					} catch(RuntimeException e){
+						e.printStackTrace();
+					}
+				}
+				ended = true;
+			} finally {
+				if(!ended && !ShardedScheduler.this.stopNow){
+					this.parked = false;
+					startThread();
+				}
+			}
+		}
+		
+		/** Run the runnable and add its duration to the usage of its placement key. */
+		private final void runMeasured(final Runnable runnable){
+			Object placementKey;
+			if(runnable instanceof DeliberationRunnable) placementKey = ((DeliberationRunnable) runnable).getPlacementKey();
+			else if(runnable instanceof Delivery) placementKey = ((Delivery) runnable).placementKey;
+			else {
+				runnable.run();
+				return;
+			}
+			long start = System.nanoTime();
+			try {
+				runnable.run();
+			} finally {
+				Usage usage = getUsage(placementKey);
+				usage.busyNanos += System.nanoTime() - start;
+				if(runnable instanceof Delivery) usage.messages++;
+				else usage.cycles++;
+			}
+		}
+		
+		private final Usage getUsage(final Object placementKey){
+			Usage usage = this.usages.get(placementKey);
+			if(usage == null){
+				usage = new Usage();
+				this.usages.put(placementKey, usage);
+			}
+			return usage;
+		}
+	}
+	
+	/** The thread of a shard. */
+	private static final class ShardThread extends Thread {
+		private final Shard shard;
+		
+		private ShardThread(final Shard shard){
+			super(shard, "oo2apl-shard-"+shard.index);
+			this.shard = shard;
+		}
+	}
+	
+	/** A delivery that was handed to the shard of its receiver. */
+	private final class Delivery implements Runnable {
+		private final Object placementKey;
+		private final Runnable delivery;
+		
+		private Delivery(final Object placementKey, final Runnable delivery){
+			this.placementKey = placementKey;
+			this.delivery = delivery;
+		}
+		
+		/** Deliver, unless the receiver is moving to this shard; then the delivery waits for the older ones on the old shard. */
+		public final void run(){
+			Route route = ShardedScheduler.this.routes.get(this.placementKey);
+			if(route != null && route.moving && route.shard == getCurrentShard()) route.held.add(this.delivery);
+			else this.delivery.run();
+		}
+	}
+	
+	/** The shard of a placement key that was moved. */
+	private static final class Route {
+		private final int shard;
+		/** Whether the old shard may still have deliveries for the key. */
+		private volatile boolean moving = true;
+		/** The deliveries that wait for the old shard. Only used by the thread of the new shard. */
+		private final List<Runnable> held = new ArrayList<>();
+		
+		private Route(final int shard){
+			this.shard = shard;
+		}
+		
+		/** Run the held deliveries in order. Is run by the new shard, which gets the deliveries that were not run 
+		 * yet at the front of its queue if a delivery ends with an error. */
+		private final void release(final ArrayDeque<Runnable> queue){
+			this.moving = false;
+			int i = 0;
+			try {
+				for(; i < this.held.size(); i++){
+					try {
+						this.held.get(i).run();
+					} catch(RuntimeException e){
+						e.printStackTrace();
+					}
+				}
+			} finally {
+				for(int j = this.held.size() - 1; j > i; j--) queue.addFirst(this.held.get(j));
+				this.held.clear();
+			}
+		}
+	}
+	
+	/** The usage of a placement key on a shard. Only used by the thread of the shard. */
+	private static final class Usage {
+		private long busyNanos, cycles, messages;
+	}
+	
+	/** The measured load of a placement key during a rebalancing period. */
+	public static final class Load {
+		private final Object placementKey;
+		private final long periodNanos;
+		private long busyNanos, cycles, messages;
+		private int shard;
+		
+		private Load(final Object placementKey, final long periodNanos){
+			this.placementKey = placementKey;
+			this.periodNanos = periodNanos;
+		}
+		
+		private final void add(final Usage usage){
+			this.busyNanos += usage.busyNanos;
+			this.cycles += usage.cycles;
+			this.messages += usage.messages;
+		}
+		
+		public final Object getPlacementKey(){ return this.placementKey; }
+		/** The shard of the key after the rebalancing. */
+		public final int getShard(){ return this.shard; }
+		/** The time that the shards spent on deliberation cycles and deliveries of the key's agents. */
+		public final long getBusyNanos(){ return this.busyNanos; }
+		/** The fraction of a shard's time that the key's agents used. Can exceed 1 if a cycle started in an earlier period. */
+		public final double getUtilization(){ return this.busyNanos / (double) this.periodNanos; }
+		/** The number of deliberation cycles of the key's agents. */
+		public final long getCycles(){ return this.cycles; }
+		/** The number of messages per second that the key's agents received. */
+		public final double getMessageRate(){ return this.messages * 1e9 / this.periodNanos; }
+		
+		public final String toString(){
+			return this.placementKey+"@"+this.shard+": utilization="+Math.round(getUtilization() * 100)+"% cycles="+this.cycles+" messages/s="+Math.round(getMessageRate());
+		}
+	}
+}
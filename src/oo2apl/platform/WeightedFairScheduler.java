@@ -0,0 +1,301 @@
+package oo2apl.platform;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import oo2apl.deliberation.DeliberationRunnable;
+import oo2apl.deliberation.SchedulingClass;
+/**
+ * A thread pool that divides its threads over scheduling classes in proportion to their weights, 
+ * instead of running the deliberation cycles in the order in which they were scheduled. Use it with 
+ * <code>Platform.newPlatform(ExecutorService, Messenger)</code>. Each class has a FIFO queue. The 
+ * next runnable is taken from the class that has received the least service relative to its weight 
+ * (stride scheduling): each run advances the pass of its class by a stride that is inversely 
+ * proportional to the weight, and the class with the lowest pass runs next. A class that becomes 
+ * ready starts at the current pass of the scheduler, so that it cannot save up turns while idle.
+ * 
+ * Weights alone can delay a light class for a long time when heavy classes are crowded. Therefore 
+ * a runnable that waited longer than the maximal delay runs next, regardless of the weights. The 
+ * scheduler measures per class the delay between scheduling a runnable and its start, which shows 
+ * whether the weights give the intended responsiveness. Runnables that are not deliberation 
+ * runnables are in the default class.
+ * 
+ * @author Bas Testerink
+ */
+public final class WeightedFairScheduler extends AbstractExecutorService {
+	/** The pass increase of a class with weight 1. */
+	private static final long STRIDE = 1 << 20;
+	/** Guards all state below. */
+	private final ReentrantLock lock;
+	/** Signalled when a runnable is queued or the scheduler shuts down. */
+	private final Condition available;
+	/** The queue of each class that was scheduled at least once. */
+	private final Map<SchedulingClass, ClassQueue> queues;
+	/** The queues in order of creation, for scanning. */
+	private final List<ClassQueue> queueList;
+	/** The worker threads. */
+	private final List<Thread> workers;
+	/** The number in the name of the next worker thread. */
+	private int nextWorkerNumber = 0;
+	/** The time a runnable may wait before it runs regardless of the weights. */
+	private final long maxDelayNanos;
+	/** The pass of the class that ran last. */
+	private long virtualTime = 0;
+	/** The number of queued runnables. */
+	private int queued = 0;
+	/** The number of workers that have not exited. */
+	private int liveWorkers;
+	private boolean shutdown = false;
+	
+	/**
+	 * @param nrOfThreads The number of threads that run the agents.
+	 * @param maxDelayMillis The time after which a waiting runnable runs regardless of the weights.
+	 */
+	public WeightedFairScheduler(final int nrOfThreads, final long maxDelayMillis){
+		if(nrOfThreads < 1 || maxDelayMillis < 0) throw new IllegalArgumentException("Invalid scheduler parameters.");
+		this.lock = new ReentrantLock();
+		this.available = this.lock.newCondition();
+		this.queues = new IdentityHashMap<>();
+		this.queueList = new ArrayList<>();
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		this.workers = new ArrayList<>(nrOfThreads);
+		this.liveWorkers = nrOfThreads;
+		this.lock.lock();
+		try {
+			for(int i = 0; i < nrOfThreads; i++) if(!startWorker()) this.liveWorkers--;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Queue a runnable in the queue of its class. */
+	public final void execute(final Runnable runnable){
+		SchedulingClass schedulingClass = runnable instanceof DeliberationRunnable ? 
+				((DeliberationRunnable) runnable).getSchedulingClass() : SchedulingClass.DEFAULT;
+		long now = System.nanoTime();
+		this.lock.lock();
+		try {
+			if(this.shutdown) throw new RejectedExecutionException("The scheduler is shut down.");
+			if(this.liveWorkers == 0) throw new RejectedExecutionException("The scheduler has no worker threads left.");
+			ClassQueue queue = this.queues.get(schedulingClass);
+			if(queue == null){
+				queue = new ClassQueue(schedulingClass);
+				this.queues.put(schedulingClass, queue);
+				this.queueList.add(queue);
+			}
+			if(queue.runnables.isEmpty()) queue.pass = Math.max(queue.pass, this.virtualTime); // No credit for idle time
+			queue.runnables.add(runnable);
+			queue.scheduledAt.add(now);
+			this.queued++;
+			this.available.signal();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** The loop of a worker thread. Exceptions of runnables are printed, the worker continues. An error ends the 
+	 * worker after it started a successor, so that the scheduler keeps its number of threads. */
+	private final void work(){
+		boolean ended = false;
+		try {
+			while(true){
+				Runnable runnable = take();
+				if(runnable == null){
+					ended = true;
+					return;
+				}
+				try {
+					runnable.run();
+				} catch(RuntimeException e){
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			retire(ended);
+		}
+	}
+	
+	/** Remove the calling worker. If an error ended it and there is still work, then a successor takes its place. 
+	 * Otherwise the worker is no longer counted as live, so that awaitTermination is not kept waiting for it. */
+	private final void retire(final boolean ended){
+		this.lock.lock();
+		try {
+			this.workers.remove(Thread.currentThread());
+			if(!ended && !(this.shutdown && this.queued == 0) && startWorker()) return;
+			if(--this.liveWorkers == 0) this.available.signalAll(); // Releases awaitTermination
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Start a worker thread while holding the lock. Returns false if no thread could be created. */
+	private final boolean startWorker(){
+		Thread worker = new Thread(this::work, "oo2apl-worker-"+this.nextWorkerNumber++);
+		this.workers.add(worker);
+		try {
+			worker.start();
+			return true;
+		} catch(OutOfMemoryError e){ // The platform could not create another thread
+			this.workers.remove(worker);
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/** Wait for the next runnable. Returns null if the scheduler is shut down and has nothing left to run. */
+	private final Runnable take(){
+		this.lock.lock();
+		try {
+			while(this.queued == 0){
+				if(this.shutdown) return null;
+				this.available.awaitUninterruptibly();
+			}
+			long now = System.nanoTime();
+			ClassQueue next = null, starved = null;
+			long longestWait = this.maxDelayNanos;
+			for(ClassQueue queue : this.queueList){
+				if(queue.runnables.isEmpty()) continue;
+				long waited = now - queue.scheduledAt.peekFirst();
+				if(waited > longestWait){
+					starved = queue;
+					longestWait = waited;
+				}
+				if(next == null || queue.pass < next.pass) next = queue;
+			}
+			if(starved != null){
+				next = starved;
+				next.starvations++;
+			} else this.virtualTime = next.pass;
+			next.pass += STRIDE / next.schedulingClass.getWeight();
+			long delay = now - next.scheduledAt.pollFirst();
+			next.runs++;
+			next.totalDelay += delay;
+			if(delay > next.maxDelay) next.maxDelay = delay;
+			this.queued--;
+			return next.runnables.pollFirst();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	public final void shutdown(){
+		this.lock.lock();
+		try {
+			this.shutdown = true;
+			this.available.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Shut down and return the runnables that did not run yet. Running runnables are interrupted. */
+	public final List<Runnable> shutdownNow(){
+		List<Runnable> pending = new ArrayList<>();
+		this.lock.lock();
+		try {
+			this.shutdown = true;
+			for(ClassQueue queue : this.queueList){
+				pending.addAll(queue.runnables);
+				queue.runnables.clear();
+				queue.scheduledAt.clear();
+			}
+			this.queued = 0;
+			this.available.signalAll();
+			for(Thread worker : this.workers) worker.interrupt();
+		} finally {
+			this.lock.unlock();
+		}
+		return pending;
+	}
+	
+	public final boolean isShutdown(){
+		this.lock.lock();
+		try { return this.shutdown; } finally { this.lock.unlock(); }
+	}
+	
+	public final boolean isTerminated(){
+		this.lock.lock();
+		try { return this.shutdown && this.liveWorkers == 0; } finally { this.lock.unlock(); }
+	}
+	
+	public final boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		long remaining = unit.toNanos(timeout);
+		this.lock.lock();
+		try {
+			while(!(this.shutdown && this.liveWorkers == 0)){
+				if(remaining <= 0) return false;
+				remaining = this.available.awaitNanos(remaining);
+			}
+			return true;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Obtain the scheduling statistics of each class that was scheduled at least once. */
+	public final List<Statistics> getStatistics(){
+		List<Statistics> statistics = new ArrayList<>();
+		this.lock.lock();
+		try {
+			for(ClassQueue queue : this.queueList)
+				statistics.add(new Statistics(queue.schedulingClass, queue.runs, queue.totalDelay, queue.maxDelay, queue.starvations, queue.runnables.size()));
+		} finally {
+			this.lock.unlock();
+		}
+		return Collections.unmodifiableList(statistics);
+	}
+	
+	/** The delays that the runnables of a class experienced between being scheduled and being run. */
+	public static final class Statistics {
+		private final SchedulingClass schedulingClass;
+		private final long runs, totalDelayNanos, maxDelayNanos, starvations;
+		private final int queued;
+		
+		private Statistics(final SchedulingClass schedulingClass, final long runs, final long totalDelayNanos, final long maxDelayNanos, final long starvations, final int queued){
+			this.schedulingClass = schedulingClass;
+			this.runs = runs;
+			this.totalDelayNanos = totalDelayNanos;
+			this.maxDelayNanos = maxDelayNanos;
+			this.starvations = starvations;
+			this.queued = queued;
+		}
+		
+		public final SchedulingClass getSchedulingClass(){ return this.schedulingClass; }
+		/** The number of runnables of the class that started. */
+		public final long getRuns(){ return this.runs; }
+		/** The average delay in nanoseconds, 0 if no runnable started. */
+		public final long getAverageDelayNanos(){ return this.runs == 0 ? 0 : this.totalDelayNanos / this.runs; }
+		/** The longest delay in nanoseconds. */
+		public final long getMaxDelayNanos(){ return this.maxDelayNanos; }
+		/** The number of runnables that ran ahead of the weights because they waited longer than the maximal delay. */
+		public final long getStarvations(){ return this.starvations; }
+		/** The number of runnables that wait at the time of sampling. */
+		public final int getQueued(){ return this.queued; }
+		
+		public final String toString(){ 
+			return this.schedulingClass+": runs="+this.runs+" avgDelay="+getAverageDelayNanos()/1000+"us maxDelay="+this.maxDelayNanos/1000+"us starvations="+this.starvations+" queued="+this.queued; 
+		}
+	}
+	
+	/** The runnables of a class and their scheduling times, plus the class's statistics. */
+	private static final class ClassQueue {
+		private final SchedulingClass schedulingClass;
+		private final ArrayDeque<Runnable> runnables = new ArrayDeque<>();
+		private final ArrayDeque<Long> scheduledAt = new ArrayDeque<>();
+		private long pass = 0;
+		private long runs = 0, totalDelay = 0, maxDelay = 0, starvations = 0;
+		
+		private ClassQueue(final SchedulingClass schedulingClass){
+			this.schedulingClass = schedulingClass;
+		}
+	}
+}
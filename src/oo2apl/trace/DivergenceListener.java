@@ -0,0 +1,20 @@
+package oo2apl.trace;
+/**
+ * Is notified when a replay diverges from its recorded trace, i.e. when an expected event did not occur 
+ * within the divergence timeout. Afterwards the replayer does not enforce the order anymore and the 
+ * platform continues as usual.
+ * 
+ * @author Bas Testerink
+ */
+@FunctionalInterface
+public interface DivergenceListener {
+	/**
+	 * Called once, by the thread that detected the divergence whilst it holds the lock of the replayer. 
+	 * Hence the listener should be short and must not wait for agents, e.g. it logs the divergence or 
+	 * signals a test.
+	 * @param position The index in the trace of the event that did not occur.
+	 * @param nrOfEvents The number of events in the trace.
+	 * @param expectedEvent A readable description of the event that did not occur.
+	 */
+	public void replayDiverged(final int position, final int nrOfEvents, final String expectedEvent);
+}
@@ -0,0 +1,126 @@
+package oo2apl.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import oo2apl.agent.AgentID;
+/**
+ * Records the order in which deliberation runnables start, messages and triggers are delivered and inboxes are taken 
+ * in a compact binary trace. Each event is a variable length number: the agent's serial number shifted 
+ * left by two, with the type of the event in the lowest two bits. Hence an event of an agent whose serial 
+ * number is below 32 takes one byte. A delivery is followed by the serial number of the sending agent, 
+ * or zero if the trigger was not sent from an agent's deliberation runnable, because deliveries to the 
+ * same agent by different senders must be distinguished. The file starts with a magic number and format 
+ * version.
+ * 
+ * All events are appended under the monitor of the recorder, which imposes a global order on them. 
+ * This adds a point of contention to the platform, so recording is meant for debugging runs only.
+ * 
+ * @author Bas Testerink
+ */
+public final class ScheduleRecorder implements ScheduleTrace, AutoCloseable {
+	/** Magic number that identifies trace files, and the version of the format. */
+	static final int MAGIC = 0x53434854, VERSION = 2;
+	/** Type bits of the events. */
+	static final long RUN = 0, DELIVERY = 1, TAKE = 2;
+	/** The number of type bits. */
+	static final int TYPE_BITS = 2;
+	/** Marks events that are not followed by a sender. */
+	private static final long NO_SENDER = -1;
+	
+	/** The channel of the file. */
+	private final FileChannel channel;
+	/** Buffer for the events that are not written yet. */
+	private final ByteBuffer buffer;
+	/** The number of recorded events. */
+	private long nrOfEvents = 0;
+	/** Whether the recorder is closed. */
+	private boolean closed = false;
+	/** The agent whose runnable the current thread runs, if any. */
+	private final ThreadLocal<AgentID> runningAgent = new ThreadLocal<>();
+	
+	/** Create a recorder that writes to the given file. An existing file is overwritten. */
+	public ScheduleRecorder(final Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.buffer = ByteBuffer.allocateDirect(1 << 16);
+		this.buffer.putInt(MAGIC).putInt(VERSION);
+	}
+	
+	/** Record that the agent's runnable starts. */
+	public final void beforeRun(final AgentID agentID){
+		this.runningAgent.set(agentID);
+		record((agentID.getSerial() << TYPE_BITS) | RUN, NO_SENDER);
+	}
+	
+	/** Forget the agent of the runnable, so that later deliveries by the thread are not attributed to it. */
+	public final void afterRun(final AgentID agentID){
+		this.runningAgent.remove();
+	}
+	
+	/** Nothing is recorded before a delivery. */
+	public final void beforeDelivery(final AgentID receiver){}
+	
+	/** Record the delivery of a message. Called under the receiver's monitor, so the order of the 
+	 * delivery events is the order of the receiver's inbox. */
+	public final void afterDelivery(final AgentID receiver){
+		record((receiver.getSerial() << TYPE_BITS) | DELIVERY, senderOf(this.runningAgent));
+	}
+	
+	/** Nothing is recorded before a take. */
+	public final void beforeTake(final AgentID agentID){}
+	
+	/** Record that the agent took the triggers of one of its inboxes. */
+	public final void afterTake(final AgentID agentID){
+		record((agentID.getSerial() << TYPE_BITS) | TAKE, NO_SENDER);
+	}
+	
+	/** The serial number of the agent that runs on the current thread, or zero if there is none. */
+	static final long senderOf(final ThreadLocal<AgentID> runningAgent){
+		AgentID sender = runningAgent.get();
+		return sender == null ? 0 : sender.getSerial();
+	}
+	
+	/** Append an event, and its sender if it has one, as variable length numbers. */
+	private final synchronized void record(final long event, final long sender){
+		if(this.closed) return; // Agents may still run after the recording stopped
+		try {
+			if(this.buffer.remaining() < 20) writeBuffer();
+			putVarLong(event);
+			if(sender != NO_SENDER) putVarLong(sender);
+			this.nrOfEvents++;
+		} catch(IOException e){
+			e.printStackTrace();
+			this.closed = true;
+		}
+	}
+	
+	/** Put a non-negative number in the buffer using seven bits per byte. */
+	private final void putVarLong(long value){
+		while((value & ~0x7FL) != 0){
+			this.buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		this.buffer.put((byte) value);
+	}
+	
+	/** Write the buffered events to the file. */
+	private final void writeBuffer() throws IOException {
+		this.buffer.flip();
+		while(this.buffer.hasRemaining()) this.channel.write(this.buffer);
+		this.buffer.clear();
+	}
+	
+	/** Obtain the number of recorded events. */
+	public final synchronized long getNrOfEvents(){ return this.nrOfEvents; }
+	
+	/** Write the remaining events and close the file. Events that occur afterwards are ignored. */
+	public final synchronized void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+		writeBuffer();
+		this.channel.close();
+	}
+}
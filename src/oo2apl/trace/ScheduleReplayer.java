@@ -0,0 +1,198 @@
+package oo2apl.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import oo2apl.agent.AgentID;
+/**
+ * Enforces the order of a recorded trace. A thread that starts an agent's runnable, delivers a trigger 
+ * or takes the triggers out of an inbox waits until its event is the next event of the trace. Runnables continue concurrently 
+ * once they are started, as in the recorded run, so the replay must be given enough threads that 
+ * every waiting runnable has its own thread (see <code>Platform.newReplayPlatform</code>).
+ * 
+ * The agents must get the same IDs as in the recorded run, i.e. they must be created in the same 
+ * order in a fresh JVM, and their plans must behave the same given the same order. If the run 
+ * diverges from the trace, e.g. because an expected event did not occur within the divergence 
+ * timeout, then the replayer stops enforcing and the platform continues as usual. The divergence 
+ * is reported to the divergence listener, if one is set, and its position can be obtained for analysis. 
+ * 
+ * @author Bas Testerink
+ */
+public final class ScheduleReplayer implements ScheduleTrace {
+	/** The default time after which a stalled replay is considered to have diverged. */
+	public static final long DEFAULT_DIVERGENCE_TIMEOUT_MILLIS = 5000;
+	
+	/** The recorded events. */
+	private final long[] events;
+	/** The senders of the recorded events; zero for events that are not deliveries or that were not sent by an agent. */
+	private final long[] senders;
+	/** The agent whose runnable the current thread runs, if any. */
+	private final ThreadLocal<AgentID> runningAgent = new ThreadLocal<>();
+	/** The time after which a stalled replay is considered to have diverged. */
+	private final long divergenceTimeoutMillis;
+	/** The index of the next event. */
+	private int position = 0;
+	/** The position at which the replay diverged, or -1 if it did not. */
+	private int divergence = -1;
+	/** The thread that performs the delivery or take of the current event, or null if there is none. */
+	private Thread claimant = null;
+	/** Is notified of the divergence, or null if nobody is. */
+	private volatile DivergenceListener divergenceListener = null;
+	
+	/** Load a trace that was written by a <code>ScheduleRecorder</code>. */
+	public ScheduleReplayer(final Path file) throws IOException {
+		this(file, DEFAULT_DIVERGENCE_TIMEOUT_MILLIS);
+	}
+	
+	/** Load a trace that was written by a <code>ScheduleRecorder</code>, with a custom divergence timeout. */
+	public ScheduleReplayer(final Path file, final long divergenceTimeoutMillis) throws IOException {
+		this.divergenceTimeoutMillis = divergenceTimeoutMillis;
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+		if(bytes.remaining() < 8 || bytes.getInt() != ScheduleRecorder.MAGIC || bytes.getInt() != ScheduleRecorder.VERSION)
+			throw new IOException("Not a schedule trace of version "+ScheduleRecorder.VERSION+".");
+		long[] events = new long[Math.max(16, bytes.remaining() / 2)], senders = new long[events.length];
+		int size = 0;
+		while(bytes.hasRemaining()){
+			long event = getVarLong(bytes);
+			if(size == events.length){
+				events = Arrays.copyOf(events, size * 2);
+				senders = Arrays.copyOf(senders, size * 2);
+			}
+			events[size] = event;
+			if(type(event) == ScheduleRecorder.DELIVERY) senders[size] = getVarLong(bytes);
+			size++;
+		}
+		this.events = Arrays.copyOf(events, size);
+		this.senders = Arrays.copyOf(senders, size);
+	}
+	
+	/** Read a number that was written with seven bits per byte. */
+	private static final long getVarLong(final ByteBuffer bytes) throws IOException {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			if(!bytes.hasRemaining()) throw new IOException("Truncated schedule trace.");
+			b = bytes.get();
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		} while((b & 0x80) != 0);
+		return value;
+	}
+	
+	/** Obtain the type of an event. */
+	private static final long type(final long event){
+		return event & ((1 << ScheduleRecorder.TYPE_BITS) - 1);
+	}
+	
+	/** Wait until the start of the agent's runnable is the next event, then allow it to run. */
+	public final synchronized void beforeRun(final AgentID agentID){
+		this.runningAgent.set(agentID);
+		if(awaitTurn((agentID.getSerial() << ScheduleRecorder.TYPE_BITS) | ScheduleRecorder.RUN, 0)) advance();
+	}
+	
+	/** Forget the agent of the runnable, so that later deliveries by the thread are not attributed to it. */
+	public final void afterRun(final AgentID agentID){
+		this.runningAgent.remove();
+	}
+	
+	/** Wait until the delivery to the agent is the next event. The event is consumed after the delivery. */
+	public final synchronized void beforeDelivery(final AgentID receiver){
+		claim((receiver.getSerial() << ScheduleRecorder.TYPE_BITS) | ScheduleRecorder.DELIVERY, ScheduleRecorder.senderOf(this.runningAgent));
+	}
+	
+	/** Consume the delivery event, so that the next event can occur. */
+	public final synchronized void afterDelivery(final AgentID receiver){
+		release();
+	}
+	
+	/** Wait until the take of the agent is the next event. The event is consumed after the take. */
+	public final synchronized void beforeTake(final AgentID agentID){
+		claim((agentID.getSerial() << ScheduleRecorder.TYPE_BITS) | ScheduleRecorder.TAKE, 0);
+	}
+	
+	/** Consume the take event, so that the next event can occur. */
+	public final synchronized void afterTake(final AgentID agentID){
+		release();
+	}
+	
+	/** Wait for the turn of the event, and claim it for the current thread until it is released. Events 
+	 * are claimed when they have to occur under the agent's monitor, which cannot be held while waiting. */
+	private final void claim(final long event, final long sender){
+		if(awaitTurn(event, sender)) this.claimant = Thread.currentThread();
+	}
+	
+	/** Consume the event that the current thread claimed. */
+	private final void release(){
+		if(this.claimant == Thread.currentThread()){
+			this.claimant = null;
+			advance();
+		}
+	}
+	
+	/** Whether the order is still enforced, i.e. the trace is not finished and the run did not diverge. */
+	private final boolean isEnforcing(){
+		return this.divergence < 0 && this.position < this.events.length;
+	}
+	
+	/**
+	 * Wait until the given event of the given sender is the next event and no other event is claimed. 
+	 * Must be called while holding the monitor.
+	 * @return True iff the event is the next event, false if the order is not enforced anymore.
+	 */
+	private final boolean awaitTurn(final long event, final long sender){
+		int waitingAt = this.position;
+		long deadline = System.currentTimeMillis() + this.divergenceTimeoutMillis;
+		while(isEnforcing() && (this.events[this.position] != event || this.senders[this.position] != sender || this.claimant != null)){
+			if(this.position != waitingAt){ // Progress was made, restart the timeout
+				waitingAt = this.position;
+				deadline = System.currentTimeMillis() + this.divergenceTimeoutMillis;
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0){
+				this.divergence = this.position;
+				notifyAll();
+				DivergenceListener listener = this.divergenceListener;
+				if(listener != null) listener.replayDiverged(this.divergence, this.events.length, describe(this.events[this.divergence]));
+			} else {
+				try {
+					wait(remaining);
+				} catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return isEnforcing();
+	}
+	
+	/** A readable description of an event. */
+	private static final String describe(final long event){
+		long type = type(event);
+		String description = type == ScheduleRecorder.RUN ? "a run of agent #" : type == ScheduleRecorder.DELIVERY ? "a delivery to agent #" : "a take of agent #";
+		return description + (event >>> ScheduleRecorder.TYPE_BITS);
+	}
+	
+	/** Move to the next event and wake up the waiting threads. */
+	private final void advance(){
+		this.position++;
+		notifyAll();
+	}
+	
+	/** Set the listener that is notified if the replay diverges, or null to notify nobody. Set it before the replay starts. */
+	public final void setDivergenceListener(final DivergenceListener listener){
+		this.divergenceListener = listener;
+	}
+	
+	/** Obtain the number of events in the trace. */
+	public final int getNrOfEvents(){ return this.events.length; }
+	
+	/** Obtain the number of events that occurred in the replay so far. */
+	public final synchronized int getPosition(){ return this.position; }
+	
+	/** Obtain the position at which the replay diverged from the trace, or -1 if it did not (yet). */
+	public final synchronized int getDivergence(){ return this.divergence; }
+}
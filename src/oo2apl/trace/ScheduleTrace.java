@@ -0,0 +1,34 @@
+package oo2apl.trace;
+
+import oo2apl.agent.AgentID;
+/**
+ * A schedule trace observes the order in which the deliberation runnables of agents start, in which 
+ * messages, external triggers and internal triggers are delivered to agents, and in which agents take 
+ * these out of their inboxes. Internal triggers are included because other threads add them as well, 
+ * e.g. upon the change of a shared context or a dropped message. The latter is needed because whether a delivery is handled by the current or by the next 
+ * deliberation cycle of the receiver depends on timing as well. A trace is used to record this order, 
+ * or to enforce a recorded order upon a replay. The methods are called by the threads that run the 
+ * agents and that send the messages, never while holding the monitor of an agent, except for the 
+ * methods that are called after a delivery or take.
+ * 
+ * @author Bas Testerink
+ */
+public interface ScheduleTrace {
+	/** Called when a deliberation runnable of the agent starts to run, before anything else is done. */
+	public void beforeRun(final AgentID agentID);
+	
+	/** Called when a deliberation runnable of the agent ends, also if it ends with an exception. */
+	public void afterRun(final AgentID agentID);
+	
+	/** Called when a message or trigger is about to be delivered to the agent. */
+	public void beforeDelivery(final AgentID receiver);
+	
+	/** Called when a message or trigger was put in the agent's inbox, while the agent's monitor is held. */
+	public void afterDelivery(final AgentID receiver);
+	
+	/** Called when the agent is about to take the messages or triggers out of its inbox. */
+	public void beforeTake(final AgentID agentID);
+	
+	/** Called when the agent took the messages or triggers out of its inbox, while the agent's monitor is held. */
+	public void afterTake(final AgentID agentID);
+}
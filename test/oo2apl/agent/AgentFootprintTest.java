@@ -0,0 +1,121 @@
+package oo2apl.agent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import oo2apl.defaults.messenger.DefaultMessenger;
+import oo2apl.messaging.AgentToMessengerInterface;
+import oo2apl.plan.PlanScheme;
+import oo2apl.plan.PlanSchemeBase;
+import oo2apl.platform.AdminToPlatformInterface;
+import oo2apl.platform.Platform;
+/**
+ * Regression test for the footprint of an idle agent, i.e. one that has no triggers, goals, plans or
+ * interceptors and uses a shared plan scheme base and deliberation cycle. It checks the two targets that
+ * the class comment of <code>AgentRuntimeData</code> documents: the size of that object, and the heap
+ * that an agent takes in total on a platform, which includes its deliberation runnable, self-rescheduler,
+ * interfaces and the entries in the maps of the platform and messenger. The latter is measured as the
+ * difference in used heap after a garbage collection when creating many agents. It also checks that a new
+ * agent has not allocated any of its lazily created storage. The sizes hold for a HotSpot JVM with
+ * compressed oops (the default for heaps below 32 GB). Run it with
+ * <code>java -cp &lt;classes&gt; oo2apl.agent.AgentFootprintTest</code>; it throws an
+ * <code>AssertionError</code> upon failure.
+ *
+ * @author Bas Testerink
+ */
+public final class AgentFootprintTest {
+	/** The maximal size in bytes of an <code>AgentRuntimeData</code> object. Do not raise it to make the test pass. */
+	private static final long MAX_AGENT_RUNTIME_DATA_BYTES = 120;
+	/** The maximal heap in bytes that an idle agent takes on a platform. Do not raise it to make the test pass. */
+	private static final long MAX_AGENT_BYTES = 500;
+	/** The number of agents over which the heap per agent is measured. */
+	private static final int NR_OF_AGENTS = 100000;
+
+	public static void main(final String[] args) throws Exception {
+		HotSpotDiagnosticMXBean vm = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+		if(!Boolean.parseBoolean(vm.getVMOption("UseCompressedOops").getValue())){
+			System.out.println("Skipped: the bounds hold for compressed oops only.");
+			return;
+		}
+		long size = shallowSize(AgentRuntimeData.class);
+		if(size > MAX_AGENT_RUNTIME_DATA_BYTES)
+			throw new AssertionError("AgentRuntimeData takes "+size+" bytes, the bound is "+MAX_AGENT_RUNTIME_DATA_BYTES+".");
+		List<String> allocated = allocatedStorage(newIdleAgent());
+		if(!allocated.isEmpty())
+			throw new AssertionError("An idle agent allocated "+allocated+".");
+		long perAgent = heapPerAgent();
+		if(perAgent > MAX_AGENT_BYTES)
+			throw new AssertionError("An idle agent takes "+perAgent+" bytes of heap on a platform, the bound is "+MAX_AGENT_BYTES+".");
+		System.out.println("AgentRuntimeData takes "+size+" bytes, the bound is "+MAX_AGENT_RUNTIME_DATA_BYTES+".");
+		System.out.println("An idle agent takes "+perAgent+" bytes of heap on a platform, the bound is "+MAX_AGENT_BYTES+".");
+	}
+
+	/** Create an agent that has no triggers, goals, plans or interceptors and uses a shared plan scheme base. */
+	private static final AgentRuntimeData newIdleAgent(){
+		List<PlanScheme> none = Collections.emptyList();
+		AgentID agentID = AgentID.newInstance();
+		return new AgentRuntimeData(agentID, new AgentToMessengerInterface(new DefaultMessenger(), agentID),
+				new ContextContainer(), new PlanSchemeBase(none, none, none, none));
+	}
+
+	/** Measure the heap per idle agent on a platform with the default messenger. Only the ids of the agents are
+	 * kept by the test, which the platform keeps anyway; the array that holds them is not counted. */
+	private static final long heapPerAgent() throws InterruptedException {
+		AdminToPlatformInterface platform = Platform.newPlatform(1, null);
+		AgentBuilder builder = new AgentBuilder();
+		platform.newAgent(builder); // Loads the classes and creates the shared parts before measuring
+		AgentID[] agents = new AgentID[NR_OF_AGENTS];
+		long before = usedHeap();
+		for(int i = 0; i < NR_OF_AGENTS; i++) agents[i] = platform.newAgent(builder).getAgentID();
+		Thread.sleep(500); // Lets each agent run its first cycle and go to sleep
+		long after = usedHeap();
+		platform.haltPlatform();
+		return (after - before) / agents.length;
+	}
+
+	/** Obtain the used heap after garbage collections. */
+	private static final long usedHeap() throws InterruptedException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for(int i = 0; i < 3; i++){
+			System.gc();
+			Thread.sleep(100);
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	/** Obtain the size of an instance of the class, rounded up to the object alignment of 8 bytes. */
+	private static final long shallowSize(final Class<?> klass) throws Exception {
+		Field theUnsafe = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+		theUnsafe.setAccessible(true);
+		sun.misc.Unsafe unsafe = (sun.misc.Unsafe) theUnsafe.get(null);
+		long end = 0;
+		for(Field field : klass.getDeclaredFields()){
+			if(Modifier.isStatic(field.getModifiers())) continue;
+			Class<?> type = field.getType();
+			long width = type == long.class || type == double.class ? 8 : type == int.class || type == float.class || !type.isPrimitive() ? 4 :
+				type == short.class || type == char.class ? 2 : 1;
+			end = Math.max(end, unsafe.objectFieldOffset(field) + width);
+		}
+		return (end + 7) / 8 * 8;
+	}
+
+	/** Obtain the names of the non-final reference fields of the agent that are not null, except the shared empty deliberation cycle. */
+	private static final List<String> allocatedStorage(final AgentRuntimeData agent) throws Exception {
+		List<String> allocated = new ArrayList<>();
+		for(Field field : AgentRuntimeData.class.getDeclaredFields()){
+			int modifiers = field.getModifiers();
+			if(Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || field.getType().isPrimitive()) continue;
+			field.setAccessible(true);
+			Object value = field.get(agent);
+			if(value != null && value != Collections.emptyList()) allocated.add(field.getName());
+		}
+		return allocated;
+	}
+}
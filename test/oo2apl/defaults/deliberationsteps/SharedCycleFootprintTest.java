@@ -0,0 +1,91 @@
+package oo2apl.defaults.deliberationsteps;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import oo2apl.agent.AgentBuilder;
+import oo2apl.agent.AgentID;
+import oo2apl.deliberation.DeliberationStep;
+import oo2apl.plan.PlanScheme;
+import oo2apl.plan.builtin.FunctionalPlanScheme;
+import oo2apl.plan.builtin.SubPlanInterface;
+import oo2apl.platform.AdminToPlatformInterface;
+import oo2apl.platform.Platform;
+/**
+ * Measures what sharing the deliberation cycle and plan scheme base saves per idle agent. Idle agents
+ * with 8 plan schemes are created on a platform in two ways: from one builder with the default cycle,
+ * so that all agents share one cycle and one plan scheme base, and from a builder per agent with a cycle
+ * of new steps per agent, so that each agent has its own cycle and plan scheme base as before steps could
+ * be shared. The heap per agent is measured as the difference in used heap after a garbage collection.
+ * Run it with <code>java -cp &lt;classes&gt; oo2apl.defaults.deliberationsteps.SharedCycleFootprintTest</code>;
+ * it prints both sizes and throws an <code>AssertionError</code> if sharing does not save heap.
+ *
+ * @author Bas Testerink
+ */
+public final class SharedCycleFootprintTest {
+	/** The number of agents over which the heap per agent is measured. */
+	private static final int NR_OF_AGENTS = 100000;
+	/** The number of plan schemes of each category; there are four categories. */
+	private static final int NR_OF_PLAN_SCHEMES_PER_CATEGORY = 2;
+	/** A plan scheme that never fires. */
+	private static final PlanScheme NEVER = new FunctionalPlanScheme((trigger, contextInterface) -> SubPlanInterface.UNINSTANTIATED);
+
+	public static void main(final String[] args) throws Exception {
+		long shared = heapPerAgent(true);
+		long unshared = heapPerAgent(false);
+		System.out.println("An idle agent with a shared cycle and plan scheme base takes "+shared+" bytes of heap.");
+		System.out.println("An idle agent with its own cycle and plan scheme base takes "+unshared+" bytes of heap.");
+		if(shared >= unshared)
+			throw new AssertionError("Sharing the cycle and plan scheme base does not save heap: "+shared+" >= "+unshared+" bytes.");
+	}
+
+	/** Measure the heap per idle agent on a platform with the default messenger. Only the ids of the agents are kept
+	 * by the test, which the platform keeps anyway; the array that holds them is not counted. */
+	private static final long heapPerAgent(final boolean share) throws InterruptedException {
+		AdminToPlatformInterface platform = Platform.newPlatform(1, null);
+		AgentBuilder shared = newBuilder(false);
+		platform.newAgent(shared); // Loads the classes and creates the shared parts before measuring
+		platform.newAgent(newBuilder(true));
+		AgentID[] agents = new AgentID[NR_OF_AGENTS];
+		long before = usedHeap();
+		for(int i = 0; i < NR_OF_AGENTS; i++) agents[i] = platform.newAgent(share ? shared : newBuilder(true)).getAgentID();
+		Thread.sleep(500); // Lets each agent run its first cycle and go to sleep
+		long after = usedHeap();
+		platform.haltPlatform();
+		return (after - before) / agents.length;
+	}
+
+	/** Create a builder with the plan schemes, and if asked a deliberation cycle of its own. The plan schemes are the
+	 * same objects for each builder, so that only the plan scheme base differs. */
+	private static final AgentBuilder newBuilder(final boolean ownCycle){
+		AgentBuilder builder = new AgentBuilder();
+		for(int i = 0; i < NR_OF_PLAN_SCHEMES_PER_CATEGORY; i++){
+			builder.addGoalPlanScheme(NEVER);
+			builder.addExternalTriggerPlanScheme(NEVER);
+			builder.addInternalTriggerPlanScheme(NEVER);
+			builder.addMessagePlanScheme(NEVER);
+		}
+		if(ownCycle){
+			List<DeliberationStep> cycle = new ArrayList<>();
+			cycle.add(new ApplyGoalPlanSchemes());
+			cycle.add(new ApplyExternalTriggerPlanSchemes());
+			cycle.add(new ApplyInternalTriggerPlanSchemes());
+			cycle.add(new ApplyMessagePlanSchemes());
+			cycle.add(new ExecutePlans());
+			builder.setDeliberationCycle(cycle);
+		}
+		return builder;
+	}
+
+	/** Obtain the used heap after garbage collections. */
+	private static final long usedHeap() throws InterruptedException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for(int i = 0; i < 3; i++){
+			System.gc();
+			Thread.sleep(100);
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}